@@ -7,6 +7,11 @@ import uk.co.compendiumdev.challenge.challengers.Challengers;
 import uk.co.compendiumdev.thingifier.Thingifier;
 import uk.co.compendiumdev.thingifier.application.MainImplementation;
 import uk.co.compendiumdev.thingifier.application.ThingifierRestServer;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.instances.LogStructuredStorageEngine;
+
+import java.io.File;
+import java.io.IOException;
 
 public class ChallengeMain {
 
@@ -43,6 +48,11 @@ public class ChallengeMain {
                 config.setToCloudPersistenceMode();
             }
 
+            if (arg.toLowerCase().startsWith("-walstorage")) {
+                logger.info("Setting persistence mechanism to local snapshot and change log");
+                config.setToWriteAheadLogPersistenceMode();
+            }
+
             if(arg.toLowerCase().startsWith("-guikeepalive")){
                 logger.info("Setting GUI to keep session alive through XHR");
                 config.setGuiToKeepSessionAlive();
@@ -63,7 +73,38 @@ public class ChallengeMain {
             if(arg.toLowerCase().startsWith("-unlimitedtodos")){
                 // remove the limit on number of todos
                 logger.info("Enabling Unlimited TODO Instances");
-                thingifier.getDefinitionNamed("todo").setMaxInstanceLimit();
+                final EntityDefinition todo = thingifier.getDefinitionNamed("todo");
+                todo.setMaxInstanceLimit();
+                // large numbers of todos are filtered and sorted using columns
+                todo.storeFieldsAsColumns();
+            }
+
+            if(arg.toLowerCase().startsWith("-databasememorymb")){
+                // idle session databases are written to disk when the loaded databases use more than this
+                final String[] details = arg.split("=");
+                if(details.length > 1){
+                    try{
+                        final long megabytes = Long.parseLong(details[1].trim());
+                        final File spillFolder = new File(System.getProperty("java.io.tmpdir"), "thingifier-spilled");
+                        thingifier.getERmodel().limitDatabaseMemoryTo(megabytes * 1024 * 1024, spillFolder);
+                        logger.info("Limiting session databases to {}MB, spilling to {}",
+                                megabytes, spillFolder.getAbsolutePath());
+                    }catch(NumberFormatException e){
+                        logger.error("Could not read database memory limit from {}", arg);
+                    }
+                }
+            }
+
+            if(arg.toLowerCase().startsWith("-diskbackeddata")){
+                // session data is kept in a file, with the most recently used values cached in memory
+                final File rowsFolder = new File(System.getProperty("java.io.tmpdir"), "thingifier-rows");
+                try {
+                    thingifier.getERmodel().setStorageEngine(
+                            new LogStructuredStorageEngine(rowsFolder, 10000));
+                    logger.info("Storing session data on disk in {}", rowsFolder.getAbsolutePath());
+                } catch (IOException e) {
+                    logger.error("Could not store session data on disk, keeping it in memory", e);
+                }
             }
         }
 
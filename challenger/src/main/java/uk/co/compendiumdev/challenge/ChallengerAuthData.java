@@ -3,6 +3,7 @@ package uk.co.compendiumdev.challenge;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
 import uk.co.compendiumdev.challenge.challengers.Challengers;
+import uk.co.compendiumdev.thingifier.core.domain.randomdata.GuidGenerators;
 
 import java.util.Collection;
 import java.util.HashMap;
@@ -22,8 +23,10 @@ public class ChallengerAuthData {
     private ChallengerState state;
 
     public ChallengerAuthData(Collection<CHALLENGE> definedChallenges){
-        this.xChallenger = UUID.randomUUID().toString();
-        this.xAuthToken = UUID.randomUUID().toString();
+        // the challenger guid and auth token grant access to the challenger's data
+        // so they have to be unguessable
+        this.xChallenger = GuidGenerators.SECURE_RANDOM.nextGuid();
+        this.xAuthToken = GuidGenerators.SECURE_RANDOM.nextGuid();
         this.expiresin = 600000; // 10 * 60 * 1000; // 10 minutes
         this.extratime = 30000; // 30 * 1000 - extra time on each request
         touch();
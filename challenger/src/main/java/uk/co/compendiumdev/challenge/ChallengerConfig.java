@@ -17,6 +17,10 @@ public class ChallengerConfig {
         persistenceLayer = new PersistenceLayer(PersistenceLayer.StorageType.CLOUD);
     }
 
+    public void setToWriteAheadLogPersistenceMode() {
+        persistenceLayer = new PersistenceLayer(PersistenceLayer.StorageType.LOCAL_WAL);
+    }
+
     public void setGuiToKeepSessionAlive() {
         guiStayAlive=true;
     }
@@ -123,6 +123,9 @@ public class Challengers {
 
         for(String deleteKey : deleteMe){
             delete(deleteKey);
+            if(persistenceLayer!=null){
+                persistenceLayer.stopPersistingDatabase(deleteKey);
+            }
             if(erModel!=null){
                 if(erModel.getDatabaseNames().contains(deleteKey)){
                     logger.warn("DELETING DATABASE: {}", deleteKey);
@@ -133,6 +136,11 @@ public class Challengers {
         logger.info("CURRENT Challenger count: {}",authData.values().size());
         if(erModel!=null){
             logger.info("CURRENT database count: {}",erModel.getDatabaseNames().size());
+            // the databases grow as they are used, keep them within any memory budget
+            final int spilled = erModel.spillIdleDatabases();
+            if(spilled>0){
+                logger.info("SPILLED {} idle databases to disk", spilled);
+            }
         }
     }
 
@@ -171,6 +179,9 @@ public class Challengers {
 
     public void setPersistenceLayer(final PersistenceLayer persistenceLayer) {
         this.persistenceLayer = persistenceLayer;
+        if(persistenceLayer!=null && erModel!=null){
+            persistenceLayer.followSpilledDatabasesOf(erModel);
+        }
     }
 
     public void setApiConfig(ThingifierApiConfig apiConfig) {
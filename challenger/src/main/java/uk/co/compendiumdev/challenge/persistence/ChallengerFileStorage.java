@@ -7,6 +7,7 @@ import uk.co.compendiumdev.challenge.ChallengerAuthData;
 import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 
 public class ChallengerFileStorage implements ChallengerPersistenceMechanism, DatabaseContentPersistenceMechanism {
@@ -82,12 +83,11 @@ public class ChallengerFileStorage implements ChallengerPersistenceMechanism, Da
             logger.warn("Creating new challenger database file: {}", file.getAbsolutePath());
         }
 
-        try(FileOutputStream out = new FileOutputStream(file)) {
-            String dataString = "";
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
             if(todos!=null){
-                dataString=todos.asJson();
+                // written as it is read, the database is not copied to a string first
+                todos.writeJsonTo(out);
             }
-            out.write(dataString.getBytes());
             return new PersistenceResponse().
                     withSuccess(true);
         } catch (IOException e) {
@@ -119,7 +119,7 @@ public class ChallengerFileStorage implements ChallengerPersistenceMechanism, Da
 
         try {
             final byte[] data = Files.readAllBytes(file.toPath());
-            final String dataString = new String(data);
+            final String dataString = new String(data, StandardCharsets.UTF_8);
 
             return new PersistenceResponse().
                     withSuccess(true).
@@ -0,0 +1,479 @@
+package uk.co.compendiumdev.challenge.persistence;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.ERSchema;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.instances.BinarySnapshot;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+import uk.co.compendiumdev.thingifier.core.domain.instances.Mutation;
+import uk.co.compendiumdev.thingifier.core.domain.instances.MutationSubscription;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Persists a database as a snapshot plus a log of the changes made since the snapshot.
+
+    The changes are taken from the database's MutationLog and appended to the current
+    log segment, <guid>.<first sequence>.wal.txt, one json record per line, by the
+    WriteAheadLogWriter shared by all the logs. All the changes waiting when the writer
+    gets to the log are written together and synced to disk once.
+
+    A change is acknowledged to the request which made it once it is made in memory, it
+    is synced to disk afterwards, when the writer has got through the logs queued ahead.
+    Changes acknowledged in that window, usually a few milliseconds, are lost if the
+    process stops before the sync.
+
+    When a segment reaches the size threshold a new segment is started and a snapshot,
+    <guid>.snapshot.bin, is written in the background. The snapshot is the sequence of the
+    last change it contains followed by a BinarySnapshot of the database, instances and
+    relationships, so the segments which only contain changes in the snapshot are then deleted.
+
+    To recover, the snapshot is loaded and the changes after it are applied. Instances
+    are found by primary key when the changes are applied.
+ */
+public class DatabaseWriteAheadLog {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatabaseWriteAheadLog.class);
+
+    private static final String SNAPSHOT_SUFFIX = ".snapshot.bin";
+    private static final String SEGMENT_SUFFIX = ".wal.txt";
+    private static final int BUFFERED_MUTATIONS = 1000;
+
+    private final File folder;
+    private final String guid;
+    private final long segmentSizeThreshold;
+    private final WriteAheadLogWriter writer;
+
+    private ERInstanceData database;
+    private MutationSubscription subscription;
+    // sequence in this log = sequence in the database's mutation log + offset
+    private long sequenceOffset;
+    private long lastSequence;
+
+    // guards the segment, the log is written by the shared writer and by stop
+    private final Object writing = new Object();
+    private FileChannel segment;
+    private boolean failed;
+    // only queued with the writer once, however many changes are waiting
+    private final AtomicBoolean queued = new AtomicBoolean(false);
+
+    private final AtomicBoolean snapshotting = new AtomicBoolean(false);
+    private Future<?> snapshot;
+
+    public DatabaseWriteAheadLog(final File folder, final String guid, final long segmentSizeThreshold,
+                                 final WriteAheadLogWriter writer) {
+        this.folder = folder;
+        this.guid = guid;
+        this.segmentSizeThreshold = segmentSizeThreshold;
+        this.writer = writer;
+    }
+
+    public String getGuid() {
+        return guid;
+    }
+
+    public boolean hasPersistedData() {
+        return getSnapshotFile().exists() || !getSegmentFiles().isEmpty();
+    }
+
+    public boolean isPersisting(final ERInstanceData aDatabase) {
+        synchronized (writing) {
+            return segment != null && database == aDatabase;
+        }
+    }
+
+    /**
+     * Load the snapshot into the database then apply the changes logged after it.
+     *
+     * @return false if there was nothing to recover
+     */
+    public boolean recover(final ERSchema schema, final ERInstanceData intoDatabase) throws IOException {
+
+        boolean recovered = false;
+        lastSequence = 0;
+
+        final File snapshotFile = getSnapshotFile();
+        if(snapshotFile.exists()){
+            try(FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)){
+                final ByteBuffer snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                lastSequence = snapshot.getLong();
+                BinarySnapshot.load(schema, intoDatabase, snapshot.slice());
+            }
+            recovered = true;
+        }
+
+        for(File segmentFile : getSegmentFiles().values()){
+            try(BufferedReader reader = Files.newBufferedReader(segmentFile.toPath(), StandardCharsets.UTF_8)){
+                String line;
+                while((line = reader.readLine())!=null){
+                    final JsonObject record;
+                    try{
+                        record = JsonParser.parseString(line).getAsJsonObject();
+                    }catch(JsonParseException | IllegalStateException e){
+                        // the last record of a segment may have been partly written
+                        logger.warn("Ignoring incomplete change in {}", segmentFile.getAbsolutePath());
+                        break;
+                    }
+                    final long sequence = record.get("seq").getAsLong();
+                    if(sequence > lastSequence){
+                        apply(schema, intoDatabase, record);
+                        lastSequence = sequence;
+                        recovered = true;
+                    }
+                }
+            }
+        }
+
+        return recovered;
+    }
+
+    /**
+     * Log the changes made to the database from now on, in a new segment.
+     * If there is no snapshot then one is written first, of the data as it is now.
+     */
+    public void start(final ERInstanceData aDatabase) throws IOException {
+        // a database reloaded e.g. after being spilled to disk may have been changed before
+        // it was given to the log, those changes were not logged so a new snapshot is written
+        final boolean replacesDatabase = database!=null && database!=aDatabase;
+        this.database = aDatabase;
+        folder.mkdirs();
+
+        try {
+            aDatabase.inWriteTransaction(() -> {
+                subscription = aDatabase.getMutationLog().subscribe(BUFFERED_MUTATIONS, this::changesWaiting);
+                sequenceOffset = lastSequence - aDatabase.getMutationLog().getLastSequence();
+                if (replacesDatabase || !getSnapshotFile().exists()) {
+                    writeSnapshot(BinarySnapshot.toBytes(aDatabase), lastSequence);
+                }
+                return null;
+            });
+        }catch (UncheckedIOException e){
+            subscription.close();
+            throw e.getCause();
+        }
+
+        synchronized (writing) {
+            failed = false;
+            openSegmentStartingAt(lastSequence + 1);
+        }
+        // changes made before the segment was open were left for now
+        changesWaiting();
+    }
+
+    /**
+     * Stop logging the changes, the changes already taken from the database are written first.
+     */
+    public void stop() {
+        final Future<?> lastSnapshot;
+        synchronized (writing) {
+            if (segment == null) {
+                return;
+            }
+            subscription.close();
+            try {
+                writeWaitingChanges();
+            } catch (RuntimeException e) {
+                logger.error("Error writing change log for {}, changes are no longer persisted", guid, e);
+                failed = true;
+            }
+            closeSegment();
+            lastSnapshot = snapshot;
+        }
+
+        if(lastSnapshot!=null){
+            try {
+                lastSnapshot.get(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                logger.warn("Snapshot for {} did not complete", guid, e);
+            }
+        }
+    }
+
+    private void changesWaiting() {
+        if(queued.compareAndSet(false, true)){
+            writer.changesWaitingIn(this);
+        }
+    }
+
+    /*
+        called by the shared writer, the changes are taken after the log is no
+        longer queued so a change made while they are written queues it again
+     */
+    void writeWaitingChanges() {
+        queued.set(false);
+        synchronized (writing) {
+            if (segment == null) {
+                return;
+            }
+            final List<Mutation> batch = new ArrayList<>();
+            subscription.drainTo(batch);
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                append(batch);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /*
+        called by the shared writer when writing the changes failed, the log stops taking
+        changes rather than have the database wait for a writer which will not take them
+     */
+    void failed() {
+        synchronized (writing) {
+            failed = true;
+            if(subscription!=null){
+                subscription.close();
+            }
+            closeSegment();
+        }
+    }
+
+    public boolean hasFailed() {
+        synchronized (writing) {
+            return failed;
+        }
+    }
+
+    private void append(final List<Mutation> batch) throws IOException {
+        final StringBuilder records = new StringBuilder();
+        for(Mutation mutation : batch){
+            lastSequence = mutation.getSequence() + sequenceOffset;
+            records.append(recordFor(mutation, lastSequence)).append("\n");
+        }
+
+        final ByteBuffer bytes = ByteBuffer.wrap(records.toString().getBytes(StandardCharsets.UTF_8));
+        while(bytes.hasRemaining()){
+            segment.write(bytes);
+        }
+        // one sync for all the changes in the batch
+        segment.force(false);
+
+        if(segment.size() >= segmentSizeThreshold){
+            closeSegment();
+            openSegmentStartingAt(lastSequence + 1);
+            requestSnapshot();
+        }
+    }
+
+    private void requestSnapshot() {
+        if(!snapshotting.compareAndSet(false, true)){
+            return;
+        }
+        final ERInstanceData snapshotDatabase = database;
+        final long offset = sequenceOffset;
+        snapshot = writer.snapshot(() -> {
+            try {
+                final byte[][] bytes = new byte[1][];
+                final long snapshotSequence = snapshotDatabase.inReadTransaction(() -> {
+                    if(snapshotDatabase.isClosed()){
+                        // e.g. spilled, its values may have been released, the database
+                        // which replaces it is snapshotted when it is logged
+                        return -1L;
+                    }
+                    bytes[0] = BinarySnapshot.toBytes(snapshotDatabase);
+                    return snapshotDatabase.getMutationLog().getLastSequence() + offset;
+                });
+                if(snapshotSequence<0){
+                    return;
+                }
+                writeSnapshot(bytes[0], snapshotSequence);
+                deleteSegmentsBefore(snapshotSequence);
+            } catch (UncheckedIOException e) {
+                logger.error("Error writing snapshot for {}", guid, e);
+            } finally {
+                snapshotting.set(false);
+            }
+        });
+    }
+
+    /*
+        a segment can go once the next segment starts at or before the change
+        after the snapshot, all of its changes are in the snapshot
+     */
+    private void deleteSegmentsBefore(final long snapshotSequence) {
+        final TreeMap<Long, File> segments = getSegmentFiles();
+        for(Map.Entry<Long, File> segmentFile : segments.entrySet()){
+            final Long nextStart = segments.higherKey(segmentFile.getKey());
+            if(nextStart!=null && nextStart <= snapshotSequence + 1){
+                if(!segmentFile.getValue().delete()){
+                    logger.warn("Could not delete change log {}", segmentFile.getValue().getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    private void writeSnapshot(final byte[] snapshot, final long sequence) {
+        try {
+            BinarySnapshot.write(
+                    (ByteBuffer) ByteBuffer.allocate(Long.BYTES).putLong(sequence).flip(),
+                    snapshot, getSnapshotFile());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void openSegmentStartingAt(final long sequence) throws IOException {
+        final File segmentFile = new File(folder, guid + "." + sequence + SEGMENT_SUFFIX);
+        segment = FileChannel.open(segmentFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void closeSegment() {
+        if(segment==null){
+            return;
+        }
+        try {
+            segment.close();
+        } catch (IOException e) {
+            logger.warn("Error closing change log for {}", guid, e);
+        }
+        segment = null;
+    }
+
+    private File getSnapshotFile() {
+        return new File(folder, guid + SNAPSHOT_SUFFIX);
+    }
+
+    /*
+        first sequence -> segment, in sequence order
+     */
+    private TreeMap<Long, File> getSegmentFiles() {
+        final TreeMap<Long, File> segments = new TreeMap<>();
+        final String prefix = guid + ".";
+        final File[] files = folder.listFiles((dir, name) ->
+                                name.startsWith(prefix) && name.endsWith(SEGMENT_SUFFIX));
+        if(files==null){
+            return segments;
+        }
+        for(File file : files){
+            final String start = file.getName().substring(prefix.length(),
+                                        file.getName().length() - SEGMENT_SUFFIX.length());
+            try {
+                segments.put(Long.parseLong(start), file);
+            }catch (NumberFormatException e){
+                // not a segment of this database e.g. the guid is a prefix of another guid
+            }
+        }
+        return segments;
+    }
+
+    /*
+        Records are compact json, null values are not written
+     */
+    private String recordFor(final Mutation mutation, final long sequence) {
+        final JsonObject record = new JsonObject();
+        record.addProperty("seq", sequence);
+        record.addProperty("type", mutation.getType().name());
+        record.addProperty("entity", mutation.getEntityName());
+        record.addProperty("key", mutation.getPrimaryKey());
+        if(!mutation.getValues().isEmpty()){
+            record.add("values", new Gson().toJsonTree(mutation.getValues()));
+        }
+        record.addProperty("relationship", mutation.getRelationshipName());
+        record.addProperty("relatedEntity", mutation.getRelatedEntityName());
+        record.addProperty("relatedKey", mutation.getRelatedPrimaryKey());
+        return record.toString();
+    }
+
+    private void apply(final ERSchema schema, final ERInstanceData toDatabase, final JsonObject record) {
+
+        final String type = record.get("type").getAsString();
+        final EntityDefinition entity = schema.getEntityDefinitionNamed(record.get("entity").getAsString());
+        if(entity==null){
+            return;
+        }
+        final EntityInstanceCollection instances = toDatabase.getInstanceCollectionForEntityNamed(entity.getName());
+
+        switch (type){
+            case "INSTANCE_CREATED":
+                final EntityInstance created = new EntityInstance(entity);
+                setValues(created, record);
+                instances.addInstance(created);
+                break;
+            case "FIELDS_SET":
+                final EntityInstance amended = find(instances, record, "key");
+                if(amended!=null){
+                    setValues(amended, record);
+                }
+                break;
+            case "INSTANCE_DELETED":
+                final EntityInstance deleted = find(instances, record, "key");
+                // may already have been deleted along with a mandatorily related instance
+                if(deleted!=null){
+                    toDatabase.deleteEntityInstance(deleted);
+                }
+                break;
+            case "COLLECTION_TRUNCATED":
+                toDatabase.clearInstanceDataFor(entity.getName());
+                break;
+            case "RELATIONSHIP_CONNECTED":
+            case "RELATIONSHIP_REMOVED":
+                final EntityInstance from = find(instances, record, "key");
+                final EntityInstanceCollection relatedInstances = toDatabase.getInstanceCollectionForEntityNamed(
+                                                                    record.get("relatedEntity").getAsString());
+                final EntityInstance to = relatedInstances==null ? null : find(relatedInstances, record, "relatedKey");
+                if(from==null || to==null){
+                    break;
+                }
+                final String relationshipName = record.get("relationship").getAsString();
+                if(type.equals("RELATIONSHIP_CONNECTED")){
+                    from.getRelationships().connect(relationshipName, to);
+                }else{
+                    from.getRelationships().removeRelationshipsInvolving(to, relationshipName);
+                }
+                break;
+            default:
+                logger.warn("Ignoring unknown change {}", type);
+        }
+    }
+
+    private EntityInstance find(final EntityInstanceCollection instances, final JsonObject record, final String keyName) {
+        if(instances==null || !record.has(keyName)){
+            return null;
+        }
+        return instances.findInstanceByPrimaryKey(record.get(keyName).getAsString());
+    }
+
+    private void setValues(final EntityInstance instance, final JsonObject record) {
+        if(!record.has("values")){
+            return;
+        }
+        final JsonObject values = record.getAsJsonObject("values");
+        for(String fieldName : values.keySet()){
+            if(!values.get(fieldName).isJsonNull()){
+                // the values were validated when the change was made
+                instance.overrideValue(fieldName, values.get(fieldName).getAsString());
+            }
+        }
+    }
+}
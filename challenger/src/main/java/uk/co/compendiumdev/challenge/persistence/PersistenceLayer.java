@@ -4,6 +4,7 @@ import uk.co.compendiumdev.challenge.ChallengerAuthData;
 import uk.co.compendiumdev.challenge.ChallengerState;
 import uk.co.compendiumdev.challenge.challengers.Challengers;
 import uk.co.compendiumdev.thingifier.api.ermodelconversion.JsonPopulator;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
 import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
 
 public class PersistenceLayer {
@@ -17,6 +18,7 @@ public class PersistenceLayer {
 
     ChallengerPersistenceMechanism file = new ChallengerFileStorage();
     DatabaseContentPersistenceMechanism dbfile = (DatabaseContentPersistenceMechanism)file;
+    WriteAheadLogStorage dblog;
 
     static ChallengerPersistenceMechanism aws;
     boolean allowSaveToS3 = false;
@@ -39,8 +41,15 @@ public class PersistenceLayer {
             String databaseName = challenger.getXChallenger();
             challengers.getErModel().createInstanceDatabaseIfNotExisting(databaseName);
 
-            // did we also load the data? if so, populate the database from it
-            if(!response.getDatabaseContents().isEmpty()){
+            boolean recovered = storeOn==StorageType.LOCAL_WAL &&
+                    dblog.loadDatabaseContent(databaseName,
+                        challengers.getErModel().getSchema(),
+                        challengers.getErModel().getInstanceData(databaseName)).isSuccess();
+
+            if(recovered){
+                // database was recovered from its snapshot and change log
+            }else if(!response.getDatabaseContents().isEmpty()){
+                // did we also load the data? if so, populate the database from it
                 new JsonPopulator(response.getDatabaseContents()).populate(
                         challengers.getErModel().getSchema(),
                         challengers.getErModel().getInstanceData(databaseName)
@@ -49,16 +58,26 @@ public class PersistenceLayer {
                 // set the database to default values
                 challengers.getErModel().populateDatabase(databaseName);
             }
+
+            if(storeOn==StorageType.LOCAL_WAL){
+                // log the changes from now on
+                dblog.saveDatabaseContent(databaseName, challengers.getErModel().getInstanceData(databaseName));
+            }
         }
 
         return response;
     }
 
-    public enum StorageType{LOCAL, CLOUD, NONE};
+    // LOCAL_WAL stores the database content as a snapshot and a log of changes rather than rewriting it
+    public enum StorageType{LOCAL, LOCAL_WAL, CLOUD, NONE};
 
     public PersistenceLayer(StorageType storeWhere){
         this.storeOn = storeWhere;
 
+        if(this.storeOn==StorageType.LOCAL_WAL){
+            dblog = new WriteAheadLogStorage();
+        }
+
         if(this.storeOn==StorageType.CLOUD){
 
             String allow_save = System.getenv("AWS_ALLOW_SAVE");
@@ -88,6 +107,15 @@ public class PersistenceLayer {
                     withChallengerAuthData(fileStoreChallenger.getAuthData());
         }
 
+        if(storeOn== StorageType.LOCAL_WAL){
+            PersistenceResponse fileStoreChallenger = file.saveChallengerStatus(data);
+            PersistenceResponse logStoreDatabase = dblog.saveDatabaseContent(data.getXChallenger(), instanceData);
+            return new PersistenceResponse().
+                    withSuccess(fileStoreChallenger.isSuccess() && logStoreDatabase.isSuccess()).
+                    withErrorMessage(fileStoreChallenger.getErrorMessage() + logStoreDatabase.getErrorMessage()).
+                    withChallengerAuthData(fileStoreChallenger.getAuthData());
+        }
+
         if(storeOn==StorageType.CLOUD && aws!=null){
             return aws.saveChallengerStatus(data);
         }
@@ -109,6 +137,18 @@ public class PersistenceLayer {
                     withChallengerAuthData(fileStoreChallenger.getAuthData());
         }
 
+        if(storeOn== StorageType.LOCAL_WAL){
+            // the database is recovered from its change log when the challenger is loaded,
+            // content saved before the change log was used is loaded if there is no change log
+            PersistenceResponse fileStoreChallenger = file.loadChallengerStatus(guid);
+            PersistenceResponse fileStoreDatabase = dbfile.loadDatabaseContent(guid);
+            return new PersistenceResponse().
+                    withSuccess(fileStoreChallenger.isSuccess()).
+                    withErrorMessage(fileStoreChallenger.getErrorMessage()).
+                    withDatabaseContents(fileStoreDatabase.getDatabaseContents()).
+                    withChallengerAuthData(fileStoreChallenger.getAuthData());
+        }
+
         if(storeOn==StorageType.CLOUD && aws!=null){
             return aws.loadChallengerStatus(guid);
         }
@@ -118,9 +158,27 @@ public class PersistenceLayer {
         //}
     }
 
+    /**
+     * Move the change log of a database on to the database loaded after it was spilled to
+     * disk, rather than leave it following the closed database until it is next saved.
+     */
+    public void followSpilledDatabasesOf(final EntityRelModel erModel){
+        if(storeOn!=StorageType.LOCAL_WAL){
+            return;
+        }
+
+        erModel.getDatabasePool().addListener(dblog);
+    }
+
+    public void stopPersistingDatabase(String guid){
+        if(storeOn== StorageType.LOCAL_WAL){
+            dblog.stopPersisting(guid);
+        }
+    }
+
     public boolean willAutoSaveChallengerStatusToPersistenceLayer() {
 
-        if (storeOn == StorageType.LOCAL) {
+        if (storeOn == StorageType.LOCAL || storeOn == StorageType.LOCAL_WAL) {
             return true;
         }
 
@@ -133,7 +191,7 @@ public class PersistenceLayer {
 
     public boolean willAutoLoadChallengerStatusFromPersistenceLayer() {
 
-        if (storeOn == StorageType.LOCAL) {
+        if (storeOn == StorageType.LOCAL || storeOn == StorageType.LOCAL_WAL) {
             return true;
         }
 
@@ -0,0 +1,137 @@
+package uk.co.compendiumdev.challenge.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.compendiumdev.thingifier.core.DatabasePoolListener;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.ERSchema;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    Database content stored as a snapshot plus a log of changes for each challenger,
+    saving only writes the changes rather than the whole database.
+
+    When a database is spilled to disk its log is suspended, after the remaining changes are written, and when it is loaded
+    again the log carries on with the reloaded database, from a new snapshot.
+ */
+public class WriteAheadLogStorage implements DatabasePoolListener {
+
+    private static final long SEGMENT_SIZE_THRESHOLD = 1024 * 1024;
+
+    Logger logger = LoggerFactory.getLogger(WriteAheadLogStorage.class);
+
+    private final File folder;
+    private final long segmentSizeThreshold;
+    private final Map<String, DatabaseWriteAheadLog> logs = new ConcurrentHashMap<>();
+    // one writer for all the logs, however many sessions are persisted
+    private final WriteAheadLogWriter writer = new WriteAheadLogWriter();
+
+    public WriteAheadLogStorage(){
+        this(new File(System.getProperty("User.dir"), "challengersessions"), SEGMENT_SIZE_THRESHOLD);
+    }
+
+    public WriteAheadLogStorage(final File folder, final long segmentSizeThreshold){
+        this.folder = folder;
+        this.segmentSizeThreshold = segmentSizeThreshold;
+    }
+
+    /**
+     * Make sure the changes to the database are being logged, the first time
+     * a database is saved a snapshot is written of it as it is now.
+     */
+    public PersistenceResponse saveDatabaseContent(final String guid, final ERInstanceData database) {
+
+        final DatabaseWriteAheadLog log = logFor(guid);
+        synchronized (log){
+            if(log.isPersisting(database)){
+                return new PersistenceResponse().withSuccess(true);
+            }
+
+            try {
+                log.stop();
+                log.start(database);
+                return new PersistenceResponse().withSuccess(true);
+            } catch (IOException e) {
+                logger.error("Error starting change log for {}", guid, e);
+                return new PersistenceResponse().
+                        withSuccess(false).
+                        withErrorMessage(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Recover the database from its snapshot and change log, if it has them.
+     */
+    public PersistenceResponse loadDatabaseContent(final String guid, final ERSchema schema, final ERInstanceData database) {
+
+        final DatabaseWriteAheadLog log = logFor(guid);
+        synchronized (log){
+            if(!log.hasPersistedData()){
+                return new PersistenceResponse().
+                        withSuccess(false).
+                        withErrorMessage("Could not find database change log for " + guid);
+            }
+
+            try {
+                return new PersistenceResponse().withSuccess(log.recover(schema, database));
+            } catch (IOException | RuntimeException e) {
+                logger.error("Error recovering database from change log for {}", guid, e);
+                return new PersistenceResponse().
+                        withSuccess(false).
+                        withErrorMessage(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Stop logging the changes to the database for now, the log is kept so that it
+     * carries on from the same sequence when the database is persisted again.
+     */
+    public void suspendPersisting(final String guid) {
+        final DatabaseWriteAheadLog log = logs.get(guid);
+        if(log!=null){
+            synchronized (log){
+                log.stop();
+            }
+        }
+    }
+
+    /**
+     * Log the changes to the database, if it was persisted before it was suspended,
+     * a snapshot is written first since it is a different ERInstanceData.
+     */
+    public void resumePersisting(final String guid, final ERInstanceData database) {
+        if(logs.containsKey(guid)){
+            saveDatabaseContent(guid, database);
+        }
+    }
+
+    @Override
+    public void spilled(final String key, final ERInstanceData database) {
+        suspendPersisting(key);
+    }
+
+    @Override
+    public void reloaded(final String key, final ERInstanceData database) {
+        resumePersisting(key, database);
+    }
+
+    public void stopPersisting(final String guid) {
+        final DatabaseWriteAheadLog log = logs.remove(guid);
+        if(log!=null){
+            synchronized (log){
+                log.stop();
+            }
+        }
+    }
+
+    private DatabaseWriteAheadLog logFor(final String guid) {
+        return logs.computeIfAbsent(guid,
+                name -> new DatabaseWriteAheadLog(folder, name, segmentSizeThreshold, writer));
+    }
+}
@@ -0,0 +1,73 @@
+package uk.co.compendiumdev.challenge.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+    Writes the changes of all the DatabaseWriteAheadLogs on one thread, and their
+    snapshots on one other thread, rather than every log having threads of its own.
+
+    A log is queued when its database has changes waiting, it is only queued once
+    however many changes are waiting, so the writer does not poll the logs which
+    have nothing to write.
+ */
+public class WriteAheadLogWriter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLogWriter.class);
+
+    private final BlockingQueue<DatabaseWriteAheadLog> waiting = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final ExecutorService snapshots;
+
+    public WriteAheadLogWriter(){
+        snapshots = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "wal-snapshots");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer = new Thread(this::writeChanges, "wal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    void changesWaitingIn(final DatabaseWriteAheadLog log) {
+        waiting.offer(log);
+    }
+
+    Future<?> snapshot(final Runnable snapshot) {
+        return snapshots.submit(snapshot);
+    }
+
+    private void writeChanges() {
+        try {
+            while (true) {
+                final DatabaseWriteAheadLog log = waiting.take();
+                try {
+                    log.writeWaitingChanges();
+                } catch (RuntimeException e) {
+                    // only that log stops, the writer carries on with the others
+                    logger.error("Error writing change log for {}, changes are no longer persisted",
+                            log.getGuid(), e);
+                    log.failed();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Stop the threads, the logs should be stopped first so that their changes are written.
+     */
+    @Override
+    public void close() {
+        writer.interrupt();
+        snapshots.shutdown();
+    }
+}
@@ -0,0 +1,206 @@
+package uk.co.compendiumdev.challenge.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.Cardinality;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DatabaseWriteAheadLogTest {
+
+    @TempDir
+    File folder;
+
+    EntityRelModel erModel;
+    WriteAheadLogWriter writer;
+
+    @BeforeEach
+    public void createModel(){
+        writer = new WriteAheadLogWriter();
+        erModel = new EntityRelModel();
+        erModel.createEntityDefinition("todo", "todos")
+                .addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        erModel.getSchema().getEntityDefinitionNamed("todo").addFields(
+                Field.is("title", FieldType.STRING));
+        erModel.createEntityDefinition("project", "projects")
+                .addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        erModel.createRelationshipDefinition(
+                erModel.getSchema().getEntityDefinitionNamed("project"),
+                erModel.getSchema().getEntityDefinitionNamed("todo"),
+                "tasks", Cardinality.ONE_TO_MANY());
+    }
+
+    @AfterEach
+    public void closeWriter(){
+        writer.close();
+    }
+
+    private ERInstanceData database(String name){
+        erModel.createInstanceDatabaseIfNotExisting(name);
+        return erModel.getInstanceData(name);
+    }
+
+    private String titleOf(ERInstanceData database, String id){
+        return database.getInstanceCollectionForEntityNamed("todo").
+                findInstanceByPrimaryKey(id).getFieldValue("title").asString();
+    }
+
+    @Test
+    public void changesAfterTheSnapshotAreRecovered() throws IOException {
+
+        final ERInstanceData original = database("original");
+        final EntityInstanceCollection todos = original.getInstanceCollectionForEntityNamed("todo");
+        todos.createManagedInstance().setValue("title", "before logging");
+
+        final DatabaseWriteAheadLog log = new DatabaseWriteAheadLog(folder, "guid", 1024*1024, writer);
+        Assertions.assertFalse(log.hasPersistedData());
+        log.start(original);
+        Assertions.assertTrue(log.isPersisting(original));
+
+        final EntityInstance second = todos.createManagedInstance().setValue("title", "second");
+        todos.createManagedInstance().setValue("title", "third");
+        second.setValue("title", "second amended");
+        original.deleteEntityInstance(todos.findInstanceByPrimaryKey("1"));
+        log.stop();
+
+        final ERInstanceData recovered = database("recovered");
+        Assertions.assertTrue(new DatabaseWriteAheadLog(folder, "guid", 1024*1024, writer).
+                recover(erModel.getSchema(), recovered));
+
+        final EntityInstanceCollection recoveredTodos = recovered.getInstanceCollectionForEntityNamed("todo");
+        Assertions.assertEquals(2, recoveredTodos.countInstances());
+        Assertions.assertNull(recoveredTodos.findInstanceByPrimaryKey("1"));
+        Assertions.assertEquals("second amended", titleOf(recovered, "2"));
+        Assertions.assertEquals("third", titleOf(recovered, "3"));
+    }
+
+    @Test
+    public void loggingCarriesOnFromARecoveredDatabase() throws IOException {
+
+        final ERInstanceData original = database("original");
+        DatabaseWriteAheadLog log = new DatabaseWriteAheadLog(folder, "guid", 1024*1024, writer);
+        log.start(original);
+        original.getInstanceCollectionForEntityNamed("todo").
+                createManagedInstance().setValue("title", "first session");
+        log.stop();
+
+        final ERInstanceData restarted = database("restarted");
+        log = new DatabaseWriteAheadLog(folder, "guid", 1024*1024, writer);
+        log.recover(erModel.getSchema(), restarted);
+        log.start(restarted);
+        Assertions.assertEquals("first session", titleOf(restarted, "1"));
+        restarted.getInstanceCollectionForEntityNamed("todo").
+                findInstanceByPrimaryKey("1").setValue("title", "second session");
+        log.stop();
+
+        final ERInstanceData recovered = database("recovered");
+        new DatabaseWriteAheadLog(folder, "guid", 1024*1024, writer).recover(erModel.getSchema(), recovered);
+        Assertions.assertEquals("second session", titleOf(recovered, "1"));
+    }
+
+    @Test
+    public void fullSegmentsAreRolledAndSnapshotted() throws IOException {
+
+        final ERInstanceData original = database("original");
+        final EntityInstanceCollection todos = original.getInstanceCollectionForEntityNamed("todo");
+
+        // small segments so they roll often
+        final DatabaseWriteAheadLog log = new DatabaseWriteAheadLog(folder, "guid", 512, writer);
+        log.start(original);
+        for(int todo=1; todo<=200; todo++){
+            todos.createManagedInstance().setValue("title", "todo " + todo);
+        }
+        log.stop();
+
+        final File[] segments = folder.listFiles((dir, name) -> name.endsWith(".wal.txt"));
+        Assertions.assertTrue(segments.length < 200,
+                "expected old segments to be removed after a snapshot, but found " + segments.length);
+
+        final ERInstanceData recovered = database("recovered");
+        new DatabaseWriteAheadLog(folder, "guid", 512, writer).recover(erModel.getSchema(), recovered);
+        Assertions.assertEquals(200, recovered.getInstanceCollectionForEntityNamed("todo").countInstances());
+        Assertions.assertEquals("todo 200", titleOf(recovered, "200"));
+    }
+
+    @Test
+    public void relationshipsInTheSnapshotAreRecovered() throws IOException {
+
+        final ERInstanceData original = database("original");
+        final EntityInstance todo = original.getInstanceCollectionForEntityNamed("todo").
+                createManagedInstance().setValue("title", "in a project");
+        original.getInstanceCollectionForEntityNamed("project").
+                createManagedInstance().getRelationships().connect("tasks", todo);
+
+        // the relationship is only in the snapshot written when logging starts
+        final DatabaseWriteAheadLog log = new DatabaseWriteAheadLog(folder, "guid", 1024*1024, writer);
+        log.start(original);
+        log.stop();
+
+        final ERInstanceData recovered = database("recovered");
+        new DatabaseWriteAheadLog(folder, "guid", 1024*1024, writer).recover(erModel.getSchema(), recovered);
+        Assertions.assertEquals(1, recovered.getInstanceCollectionForEntityNamed("project").
+                findInstanceByPrimaryKey("1").getRelationships().getConnectedItems("tasks").size());
+    }
+
+    @Test
+    public void relationshipsInDeletedSegmentsAreRecovered() throws IOException {
+
+        final ERInstanceData original = database("original");
+        final EntityInstance project = original.getInstanceCollectionForEntityNamed("project").
+                createManagedInstance();
+
+        // small segments so the segments with the connections are replaced by a snapshot
+        final DatabaseWriteAheadLog log = new DatabaseWriteAheadLog(folder, "guid", 512, writer);
+        log.start(original);
+        for(int todo=1; todo<=100; todo++){
+            project.getRelationships().connect("tasks",
+                    original.getInstanceCollectionForEntityNamed("todo").
+                            createManagedInstance().setValue("title", "todo " + todo));
+        }
+        log.stop();
+
+        final File firstSegment = new File(folder, "guid.1.wal.txt");
+        Assertions.assertFalse(firstSegment.exists());
+
+        final ERInstanceData recovered = database("recovered");
+        new DatabaseWriteAheadLog(folder, "guid", 512, writer).recover(erModel.getSchema(), recovered);
+        Assertions.assertEquals(100, recovered.getInstanceCollectionForEntityNamed("project").
+                findInstanceByPrimaryKey("1").getRelationships().getConnectedItems("tasks").size());
+    }
+
+    @Test
+    public void oneWriterServicesManyLogs() throws IOException {
+
+        final List<DatabaseWriteAheadLog> logs = new ArrayList<>();
+        for(int session=0; session<20; session++){
+            final DatabaseWriteAheadLog log = new DatabaseWriteAheadLog(folder, "guid" + session + "x", 1024*1024, writer);
+            final ERInstanceData sessionDatabase = database("session" + session);
+            log.start(sessionDatabase);
+            sessionDatabase.getInstanceCollectionForEntityNamed("todo").
+                    createManagedInstance().setValue("title", "session " + session);
+            logs.add(log);
+        }
+        for(DatabaseWriteAheadLog log : logs){
+            log.stop();
+        }
+
+        for(int session=0; session<20; session++){
+            final ERInstanceData recovered = database("recovered" + session);
+            new DatabaseWriteAheadLog(folder, "guid" + session + "x", 1024*1024, writer).
+                    recover(erModel.getSchema(), recovered);
+            Assertions.assertEquals("session " + session, titleOf(recovered, "1"));
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package uk.co.compendiumdev.challenge.persistence;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.io.File;
+
+public class WriteAheadLogStorageTest {
+
+    @TempDir
+    File folder;
+
+    EntityRelModel erModel;
+    WriteAheadLogStorage storage;
+
+    @BeforeEach
+    public void createModel(){
+        erModel = new EntityRelModel();
+        erModel.createEntityDefinition("todo", "todos")
+                .addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        erModel.getSchema().getEntityDefinitionNamed("todo").addFields(
+                Field.is("title", FieldType.STRING));
+
+        storage = new WriteAheadLogStorage(new File(folder, "logs"), 1024*1024);
+        erModel.getDatabasePool().addListener(storage);
+        erModel.getDatabasePool().setMinimumIdleMillis(0);
+    }
+
+    @Test
+    public void changesToADatabaseReloadedAfterASpillAreLogged(){
+
+        erModel.createInstanceDatabaseIfNotExisting("session");
+        final ERInstanceData original = erModel.getInstanceData("session");
+        original.getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "before spill");
+        Assertions.assertTrue(storage.saveDatabaseContent("session", original).isSuccess());
+
+        erModel.limitDatabaseMemoryTo(1, new File(folder, "spilled"));
+        Assertions.assertEquals(1, erModel.spillIdleDatabases());
+        erModel.limitDatabaseMemoryTo(0, new File(folder, "spilled"));
+
+        // the reloaded database is logged straight away, without being saved again
+        final ERInstanceData reloaded = erModel.getInstanceData("session");
+        Assertions.assertNotSame(original, reloaded);
+        reloaded.inWriteTransaction(() -> reloaded.getInstanceCollectionForEntityNamed("todo").
+                createManagedInstance().setValue("title", "after reload"));
+        storage.stopPersisting("session");
+
+        erModel.createInstanceDatabaseIfNotExisting("recovered");
+        final ERInstanceData recovered = erModel.getInstanceData("recovered");
+        Assertions.assertTrue(new WriteAheadLogStorage(new File(folder, "logs"), 1024*1024).
+                loadDatabaseContent("session", erModel.getSchema(), recovered).isSuccess());
+
+        final EntityInstanceCollection todos = recovered.getInstanceCollectionForEntityNamed("todo");
+        Assertions.assertEquals(2, todos.countInstances());
+        Assertions.assertEquals("after reload", todos.findInstanceByPrimaryKey("2").getFieldValue("title").asString());
+    }
+}
@@ -0,0 +1,64 @@
+package uk.co.compendiumdev.challenge.persistence;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class WriteAheadLogWriterTest {
+
+    @TempDir
+    File folder;
+
+    final WriteAheadLogWriter writer = new WriteAheadLogWriter();
+
+    @AfterEach
+    public void closeWriter(){
+        writer.close();
+    }
+
+    @Test
+    public void aFailingLogDoesNotStopTheOtherLogsBeingWritten() throws IOException, InterruptedException {
+
+        final EntityRelModel erModel = new EntityRelModel();
+        erModel.createEntityDefinition("todo", "todos")
+                .addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        erModel.getSchema().getEntityDefinitionNamed("todo").addFields(Field.is("title", FieldType.STRING));
+        erModel.createInstanceDatabaseIfNotExisting("working");
+        final ERInstanceData database = erModel.getInstanceData("working");
+
+        final DatabaseWriteAheadLog failing = new DatabaseWriteAheadLog(folder, "failing", 1024*1024, writer){
+            @Override
+            void writeWaitingChanges() {
+                throw new IllegalStateException("could not write");
+            }
+        };
+        writer.changesWaitingIn(failing);
+
+        final DatabaseWriteAheadLog working = new DatabaseWriteAheadLog(folder, "working", 1024*1024, writer);
+        working.start(database);
+        database.getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "written");
+
+        // written by the writer thread, not by stop
+        final File segment = new File(folder, "working.1.wal.txt");
+        final long giveUpAt = System.currentTimeMillis() + 5000;
+        while(!(segment.exists() && Files.readString(segment.toPath(), StandardCharsets.UTF_8).contains("written"))
+                && System.currentTimeMillis() < giveUpAt){
+            Thread.sleep(10);
+        }
+
+        Assertions.assertTrue(failing.hasFailed());
+        Assertions.assertFalse(working.hasFailed());
+        Assertions.assertTrue(Files.readString(segment.toPath(), StandardCharsets.UTF_8).contains("written"));
+        working.stop();
+    }
+}
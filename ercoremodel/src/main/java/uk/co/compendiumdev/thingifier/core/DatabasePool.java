@@ -0,0 +1,298 @@
+package uk.co.compendiumdev.thingifier.core;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.ERSchema;
+import uk.co.compendiumdev.thingifier.core.domain.instances.BinarySnapshot;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/*
+    The databases of an EntityRelModel by key, with an optional memory budget.
+
+    When the approximate size of the loaded databases is over the budget, the least
+    recently used databases which have been idle for a while are written to disk as a
+    BinarySnapshot and dropped from the heap. A spilled database is loaded again, as
+    a new ERInstanceData, the next time it is asked for.
+
+    Only idle databases are spilled since a request may still hold the database it was
+    given. Looking a database up and marking it as used is one step under the pool's read
+    lock, and spilling takes the write lock, so a database which has just been handed out
+    is never the one spilled. A database which is spilled is closed, and a write transaction
+    started on a closed database is rejected rather than its changes being lost. The default
+    database is never spilled.
+
+    Requests look databases up from within a transaction on a database, so the pool never
+    waits for a database's lock while holding its own: a database in a transaction is
+    skipped by the spill rather than waited for.
+
+    DatabasePoolListeners are told after a database is spilled and after it is reloaded,
+    e.g. so that a change log follows the reloaded database.
+
+    Without a budget the pool is a map of the databases, as it always was.
+ */
+public class DatabasePool {
+
+    private static final long DEFAULT_MINIMUM_IDLE_MILLIS = 60 * 1000;
+
+    private final ERSchema schema;
+    // creates the empty database that a spilled database is loaded into
+    private final Supplier<ERInstanceData> emptyDatabases;
+
+    private final Map<String, ERInstanceData> loaded = new ConcurrentHashMap<>();
+    private final Map<String, File> spilled = new ConcurrentHashMap<>();
+    private final Map<String, Long> lastUsed = new ConcurrentHashMap<>();
+    private final List<DatabasePoolListener> listeners = new CopyOnWriteArrayList<>();
+    // lookups share the read lock, anything which loads, spills or removes a database takes the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private long memoryBudget = 0;
+    private File spillFolder;
+    private long minimumIdleMillis = DEFAULT_MINIMUM_IDLE_MILLIS;
+
+    public DatabasePool(final ERSchema schema, final Supplier<ERInstanceData> emptyDatabases) {
+        this.schema = schema;
+        this.emptyDatabases = emptyDatabases;
+    }
+
+    /**
+     * Keep the approximate size of the loaded databases under the budget by spilling
+     * idle databases to files in the folder, a budget of 0 or less is no limit.
+     */
+    public void limitMemoryTo(final long budgetInBytes, final File folder) {
+        inWriteLock(() -> {
+            this.memoryBudget = budgetInBytes;
+            this.spillFolder = folder;
+            if(budgetInBytes>0){
+                folder.mkdirs();
+            }
+            return null;
+        });
+    }
+
+    public void setMinimumIdleMillis(final long millis) {
+        inWriteLock(() -> {
+            this.minimumIdleMillis = millis;
+            return null;
+        });
+    }
+
+    public void addListener(final DatabasePoolListener listener) {
+        listeners.add(listener);
+    }
+
+    public ERInstanceData get(final String key) {
+        lock.readLock().lock();
+        try{
+            final ERInstanceData database = loaded.get(key);
+            if(database!=null){
+                // marked as used before a spill can see it as idle
+                lastUsed.put(key, System.currentTimeMillis());
+                return database;
+            }
+
+            if(!spilled.containsKey(key)){
+                return null;
+            }
+        }finally {
+            lock.readLock().unlock();
+        }
+
+        return inWriteLock(() -> {
+            final ERInstanceData reloaded = reload(key);
+            // the database being handed out is not spilled again to make room
+            spillIdleDatabasesExcept(key);
+            return reloaded;
+        });
+    }
+
+    public boolean contains(final String key) {
+        return loaded.containsKey(key) || spilled.containsKey(key);
+    }
+
+    public void put(final String key, final ERInstanceData database) {
+        inWriteLock(() -> {
+            final File replaced = spilled.remove(key);
+            if(replaced!=null){
+                replaced.delete();
+            }
+            loaded.put(key, database);
+            lastUsed.put(key, System.currentTimeMillis());
+            return null;
+        });
+    }
+
+    /**
+     * @return the database removed, if it was spilled then it is not loaded only to be removed
+     */
+    public ERInstanceData remove(final String key) {
+        return inWriteLock(() -> {
+            lastUsed.remove(key);
+            final File spilledFile = spilled.remove(key);
+            if(spilledFile!=null){
+                spilledFile.delete();
+            }
+            return loaded.remove(key);
+        });
+    }
+
+    public Set<String> getKeys() {
+        final Set<String> keys = new HashSet<>(loaded.keySet());
+        keys.addAll(spilled.keySet());
+        return keys;
+    }
+
+    /**
+     * All the databases, loading any that were spilled e.g. so that a change
+     * to the schema can be made to all of them.
+     */
+    public Collection<ERInstanceData> getAllLoaded() {
+        return inWriteLock(() -> {
+            for(String key : new ArrayList<>(spilled.keySet())){
+                reload(key);
+            }
+            return new ArrayList<>(loaded.values());
+        });
+    }
+
+    public int countSpilled() {
+        return spilled.size();
+    }
+
+    public long estimatedSizeInBytes() {
+        long size = 0;
+        for(ERInstanceData database : loaded.values()){
+            size = size + database.estimatedSizeInBytes();
+        }
+        return size;
+    }
+
+    /**
+     * Spill the least recently used idle databases until the loaded databases
+     * are within the memory budget, or there are no more idle databases.
+     *
+     * @return the number of databases spilled
+     */
+    public int spillIdleDatabases() {
+        return inWriteLock(() -> spillIdleDatabasesExcept(null));
+    }
+
+    private int spillIdleDatabasesExcept(final String inUse) {
+        if(memoryBudget<=0){
+            return 0;
+        }
+
+        long size = estimatedSizeInBytes();
+        if(size<=memoryBudget){
+            return 0;
+        }
+
+        final long idleSince = System.currentTimeMillis() - minimumIdleMillis;
+        final List<String> leastRecentlyUsed = new ArrayList<>(loaded.keySet());
+        leastRecentlyUsed.remove(EntityRelModel.DEFAULT_DATABASE_NAME);
+        leastRecentlyUsed.remove(inUse);
+        leastRecentlyUsed.sort(Comparator.comparing(key -> lastUsed.getOrDefault(key, 0L)));
+
+        int spilledCount = 0;
+        for(String key : leastRecentlyUsed){
+            if(size<=memoryBudget || lastUsed.getOrDefault(key, 0L) > idleSince){
+                break;
+            }
+
+            final ERInstanceData database = loaded.get(key);
+            final long databaseSize = database.estimatedSizeInBytes();
+            if(databaseSize==0){
+                // nothing to gain, e.g. it is still sharing the populated template
+                continue;
+            }
+
+            if(spill(key, database)){
+                size = size - databaseSize;
+                spilledCount++;
+            }
+        }
+        return spilledCount;
+    }
+
+    /*
+        @return false if the database was in a transaction, it is left loaded
+     */
+    private boolean spill(final String key, final ERInstanceData database) {
+        final File file = new File(spillFolder,
+                URLEncoder.encode(key, StandardCharsets.UTF_8) + ".spilled.bin");
+
+        // no changes are made while the snapshot is written, and it is closed before any
+        // other transaction can start, so no changes are lost when it is dropped
+        final boolean written = database.inWriteTransactionIfFree(() -> {
+            try {
+                BinarySnapshot.write(database, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(
+                        String.format("ERROR: Could not spill database %s to disk", key), e);
+            }
+            spilled.put(key, file);
+            loaded.remove(key);
+            database.close();
+        });
+
+        if(written){
+            for(DatabasePoolListener listener : listeners){
+                listener.spilled(key, database);
+            }
+        }
+        return written;
+    }
+
+    private ERInstanceData reload(final String key) {
+        final ERInstanceData alreadyLoaded = loaded.get(key);
+        if(alreadyLoaded!=null){
+            return alreadyLoaded;
+        }
+
+        final File file = spilled.get(key);
+        if(file==null){
+            return null;
+        }
+
+        final ERInstanceData database = emptyDatabases.get();
+        try {
+            BinarySnapshot.load(schema, database, file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    String.format("ERROR: Could not load spilled database %s from disk", key), e);
+        }
+
+        loaded.put(key, database);
+        spilled.remove(key);
+        file.delete();
+        lastUsed.put(key, System.currentTimeMillis());
+
+        for(DatabasePoolListener listener : listeners){
+            listener.reloaded(key, database);
+        }
+        return database;
+    }
+
+    private <T> T inWriteLock(final Supplier<T> changes) {
+        lock.writeLock().lock();
+        try{
+            return changes.get();
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
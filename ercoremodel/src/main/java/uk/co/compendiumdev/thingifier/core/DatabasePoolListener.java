@@ -0,0 +1,23 @@
+package uk.co.compendiumdev.thingifier.core;
+
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+
+/*
+    Told when a database of a DatabasePool is spilled to disk or loaded again, e.g. so that
+    something following the changes to a database can move on to the reloaded database.
+
+    Called with the pool's lock held, the pool can not be used from the listener.
+ */
+public interface DatabasePoolListener {
+
+    /**
+     * The database has been written to disk and dropped. It is closed, so all the
+     * changes which will ever be made to it have been made, it can still be read.
+     */
+    void spilled(String key, ERInstanceData database);
+
+    /**
+     * The spilled database has been loaded again, as a new ERInstanceData.
+     */
+    void reloaded(String key, ERInstanceData database);
+}
@@ -8,7 +8,10 @@ import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.Relat
 import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+import uk.co.compendiumdev.thingifier.core.domain.instances.StorageEngine;
+import uk.co.compendiumdev.thingifier.core.query.QueryPlanner;
 
+import java.io.File;
 import java.util.*;
 
 /*
@@ -20,23 +23,31 @@ public class EntityRelModel {
 
     public static final String DEFAULT_DATABASE_NAME = "__default";
 
-    // a Map so that key, database can be used
+    // by key so that key, database can be used
     // e.g. key from a 'session', or 'custom' or 'default'
-    private final Map<String, ERInstanceData> databases;
+    private final DatabasePool databases;
     private final ERSchema schema; // all the definitions
     private DataPopulator dataPopulator;
+    // the populated data shared by new databases until they are used, created on first use
+    private ERInstanceData populatedTemplate;
+    // plans are cached across databases since they only depend on the schema
+    private final QueryPlanner queryPlanner;
+    // where the field values of new databases are kept, the default database is always on the heap
+    private StorageEngine storageEngine = StorageEngine.HEAP;
 
     public EntityRelModel(){
         schema = new ERSchema();
-        databases = new HashMap<String,ERInstanceData>();
+        databases = new DatabasePool(schema, this::createEmptyDatabase);
         databases.put(DEFAULT_DATABASE_NAME, new ERInstanceData());
         dataPopulator = null;
+        queryPlanner = new QueryPlanner(schema);
     }
 
     public EntityRelModel(final ERSchema schema, final ERInstanceData erInstanceData) {
         this.schema = schema;
-        this.databases = new HashMap<String, ERInstanceData>();
+        this.databases = new DatabasePool(schema, this::createEmptyDatabase);
         this.databases.put(DEFAULT_DATABASE_NAME,erInstanceData);
+        this.queryPlanner = new QueryPlanner(schema);
     }
 
     public EntityDefinition createEntityDefinition(final String entityName, final String pluralName) {
@@ -45,9 +56,11 @@ public class EntityRelModel {
 
     public EntityDefinition createEntityDefinition(final String entityName, final String pluralName, int maximumNumberOfInstances) {
         EntityDefinition defn = schema.defineEntity(entityName, pluralName, maximumNumberOfInstances);
-        for(ERInstanceData database : databases.values()){
+        for(ERInstanceData database : databases.getAllLoaded()){
             database.createInstanceCollectionFor(defn);
         }
+        queryPlanner.clearCache();
+        clearPopulatedTemplate();
         return defn;
     }
 
@@ -55,6 +68,10 @@ public class EntityRelModel {
         return schema;
     }
 
+    public QueryPlanner getQueryPlanner(){
+        return queryPlanner;
+    }
+
     // TODO: use of this is basically deprecated since is refers to the default database
     @Deprecated() // we should use the parameterised version
     public ERInstanceData getInstanceData(){
@@ -70,7 +87,7 @@ public class EntityRelModel {
     }
 
     public Set<String> getDatabaseNames(){
-        return databases.keySet();
+        return databases.getKeys();
     }
 
     // ERM Object Level
@@ -98,6 +115,10 @@ public class EntityRelModel {
 
     public RelationshipDefinition createRelationshipDefinition(
             EntityDefinition from, EntityDefinition to, final String named, final Cardinality of) {
+        // spilled databases can only be loaded with the schema they were spilled with
+        databases.getAllLoaded();
+        queryPlanner.clearCache();
+        clearPopulatedTemplate();
         return schema.defineRelationship(from, to, named, of);
     }
 
@@ -119,9 +140,9 @@ public class EntityRelModel {
 
 
     // Multiple Databases
-    public void createInstanceDatabase(String databaseKey) {
+    public synchronized void createInstanceDatabase(String databaseKey) {
 
-        if(databases.containsKey(databaseKey)){
+        if(databases.contains(databaseKey)){
             throw new IllegalStateException("ERM Database Already Exists with name " + databaseKey);
         }
 
@@ -133,22 +154,106 @@ public class EntityRelModel {
         if(databaseKey.equals(DEFAULT_DATABASE_NAME)){
             throw new IllegalStateException("Cannot delete default database");
         }
-        databases.remove(databaseKey);
+        final ERInstanceData removed = databases.remove(databaseKey);
+        if(removed!=null){
+            removed.close();
+        }
+    }
+
+    /**
+     * Keep the approximate size of the loaded databases under the budget, the least recently
+     * used idle databases are written to the folder and loaded again when next used.
+     */
+    public void limitDatabaseMemoryTo(final long budgetInBytes, final File spillFolder) {
+        databases.limitMemoryTo(budgetInBytes, spillFolder);
+    }
+
+    public DatabasePool getDatabasePool() {
+        return databases;
+    }
+
+    /**
+     * Spill idle databases if the loaded databases are over the memory budget,
+     * called periodically since databases grow as they are used.
+     *
+     * @return the number of databases spilled
+     */
+    public int spillIdleDatabases() {
+        return databases.spillIdleDatabases();
+    }
+
+    /**
+     * The storage engine used for the databases created from now on.
+     */
+    public void setStorageEngine(final StorageEngine engine) {
+        this.storageEngine = engine;
     }
 
-    public boolean createInstanceDatabaseIfNotExisting(String databaseKey) {
-        if(databases.containsKey(databaseKey)){
+    public synchronized boolean createInstanceDatabaseIfNotExisting(String databaseKey) {
+        if(databases.contains(databaseKey)){
             return false;
         }
 
-        ERInstanceData aDatabase = new ERInstanceData();
+        databases.put(databaseKey, createEmptyDatabase());
+        databases.spillIdleDatabases();
+        return true;
+    }
+
+    private ERInstanceData createEmptyDatabase() {
+        final ERInstanceData aDatabase = new ERInstanceData(storageEngine);
         aDatabase.createInstanceCollectionFrom(this.schema);
-        databases.put(databaseKey, aDatabase);
+        return aDatabase;
+    }
+
+    /**
+     * Create a database with the data from the data populator, the populated data is created
+     * once as a template and shared by the new databases until they are used, so creating
+     * a database does not populate it again.
+     *
+     * @return true if the database was created
+     */
+    public synchronized boolean createPopulatedInstanceDatabaseIfNotExisting(String databaseKey) {
+        if(databases.contains(databaseKey)){
+            return false;
+        }
+
+        if(dataPopulator==null){
+            return createInstanceDatabaseIfNotExisting(databaseKey);
+        }
+
+        if(populatedTemplate==null){
+            populatedTemplate = new ERInstanceData();
+            populatedTemplate.createInstanceCollectionFrom(this.schema);
+            dataPopulator.populate(getSchema(), populatedTemplate);
+        }
+
+        databases.put(databaseKey, ERInstanceData.copyOnWriteOf(populatedTemplate, storageEngine));
+        databases.spillIdleDatabases();
         return true;
     }
 
+    /**
+     * Create a database with a copy of the data in an existing database.
+     *
+     * @return true if the database was created, false if it exists or there is nothing to fork from
+     */
+    public synchronized boolean forkInstanceDatabase(String fromDatabaseKey, String databaseKey) {
+        if(databases.contains(databaseKey) || !databases.contains(fromDatabaseKey)){
+            return false;
+        }
+
+        databases.put(databaseKey, databases.get(fromDatabaseKey).fork(storageEngine));
+        databases.spillIdleDatabases();
+        return true;
+    }
+
+    private synchronized void clearPopulatedTemplate(){
+        // the template does not match the schema so new databases need a new template
+        populatedTemplate = null;
+    }
+
     public boolean populateDatabase(String databaseKey){
-        if(!databases.containsKey(databaseKey)){
+        if(!databases.contains(databaseKey)){
             return false;
         }
 
@@ -166,5 +271,6 @@ public class EntityRelModel {
 
     public void setDataGenerator(DataPopulator dataPopulator) {
         this.dataPopulator = dataPopulator;
+        clearPopulatedTemplate();
     }
 }
@@ -9,11 +9,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+/*
+    Each field is given an ordinal when it is added, the ordinal never changes
+    so InstanceFields can store values in an array slot for the field rather
+    than in a map keyed on the field name.
+ */
 public class DefinedFields {
 
     private Map<String, Field> fields = new ConcurrentHashMap<>();
-    // to control field order
+    private Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+    // to control field order, the position in the list is the field ordinal
     private List<String> orderedFieldNames = new ArrayList<>();
+    private List<Field> orderedFields = new ArrayList<>();
 
     @Override
     public String toString() {
@@ -29,8 +36,44 @@ public class DefinedFields {
     }
 
     public void addField(final Field aField) {
-        fields.put(aField.getName().toLowerCase(), aField);
-        orderedFieldNames.add(aField.getName());
+        final String key = aField.getName().toLowerCase();
+        final Integer existingOrdinal = ordinals.get(key);
+
+        if(existingOrdinal==null){
+            orderedFieldNames.add(aField.getName());
+            orderedFields.add(aField);
+            ordinals.put(key, orderedFields.size()-1);
+        }else{
+            // redefining a field keeps the slot of the original
+            orderedFieldNames.set(existingOrdinal, aField.getName());
+            orderedFields.set(existingOrdinal, aField);
+        }
+
+        fields.put(key, aField);
+
+        if(aField.isIndexed() || aField.isRangeIndexed()){
+            // the field may have been indexed before it was added
+            Field.indexesChanged();
+        }
+    }
+
+    /**
+     * @return the ordinal of the field, or -1 if the field is not defined
+     */
+    public int getOrdinalOf(final String fieldName) {
+        final Integer ordinal = ordinals.get(fieldName.toLowerCase());
+        if(ordinal==null){
+            return -1;
+        }
+        return ordinal;
+    }
+
+    public Field getFieldAt(final int ordinal) {
+        return orderedFields.get(ordinal);
+    }
+
+    public int countFields() {
+        return orderedFields.size();
     }
 
     public List<String> getFieldNames() {
@@ -51,10 +94,7 @@ public class DefinedFields {
     }
 
     public Field getField(final String fieldName) {
-        if (hasFieldNameDefined(fieldName)) {
-            return fields.get(fieldName.toLowerCase());
-        }
-        return null;
+        return fields.get(fieldName.toLowerCase());
     }
 
     public List<Field> getFieldsOfType(final FieldType... types) {
@@ -70,6 +110,17 @@ public class DefinedFields {
         return returnFields;
     }
 
+    public List<Field> getIndexedFields() {
+        List<Field> returnFields = new ArrayList<>();
+
+        for(Field aField : orderedFields){
+            if(aField.isIndexed() || aField.isRangeIndexed())
+                returnFields.add(aField);
+        }
+
+        return returnFields;
+    }
+
     public List<String> getFieldNamesOfType(final FieldType... types) {
 
         List<String> fieldNames = new ArrayList<>();
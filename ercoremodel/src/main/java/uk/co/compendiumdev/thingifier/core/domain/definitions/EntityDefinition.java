@@ -12,6 +12,7 @@ import java.util.*;
 
 public class EntityDefinition {
     private int maxInstanceCount; // use -ve for no limit
+    private boolean storedAsColumns; // collections also hold the field values as columns
     private final String name;
     private final String plural;
 
@@ -83,6 +84,10 @@ public class EntityDefinition {
         return fields.getField(fieldName);
     }
 
+    public int getOrdinalOf(String fieldName) {
+        return fields.getOrdinalOf(fieldName);
+    }
+
     public List<Field> getFieldsOfType(final FieldType... types) {
         return  fields.getFieldsOfType(types);
     }
@@ -91,6 +96,10 @@ public class EntityDefinition {
         return  fields.getFieldNamesOfType(types);
     }
 
+    public List<Field> getIndexedFields() {
+        return fields.getIndexedFields();
+    }
+
     public DefinedRelationships related(){
         return definedRelationships;
     }
@@ -129,6 +138,20 @@ public class EntityDefinition {
         maxInstanceCount = EntityDefinition.NO_INSTANCE_LIMIT;
     }
 
+    /*
+        Collections of instances will also hold the field values in columns
+        so that queries on large collections can filter and sort the columns
+        rather than every instance, this uses more memory so is opt in
+     */
+    public EntityDefinition storeFieldsAsColumns() {
+        storedAsColumns = true;
+        return this;
+    }
+
+    public boolean isStoredAsColumns() {
+        return storedAsColumns;
+    }
+
     public boolean hasPrimaryKeyField() {
         return primaryKeyField!=null;
     }
@@ -2,12 +2,15 @@ package uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition;
 
 import uk.co.compendiumdev.thingifier.core.reporting.ValidationReport;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.DefinedFields;
+import uk.co.compendiumdev.thingifier.core.domain.randomdata.GuidGenerator;
+import uk.co.compendiumdev.thingifier.core.domain.randomdata.GuidGenerators;
 import uk.co.compendiumdev.thingifier.core.domain.randomdata.RandomString;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.validation.ValidationRule;
 
 import java.util.*;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 // todo: beginning to think that we should have an XField for each field type
 // e.g. IdField, StringField, etc. - possibly with an interface or abstract
@@ -23,6 +26,9 @@ public final class Field {
 
     // default value for the field
     private String defaultValue;
+    // the default is returned for every unset field so only create it once
+    private FieldValue defaultFieldValue;
+    private FieldValue typeDefaultFieldValue;
     private List<ValidationRule> validationRules;
     private boolean truncateStringIfTooLong;
 
@@ -36,6 +42,19 @@ public final class Field {
 
     private int truncatedStringLength;
 
+    // indexed fields have a hash index maintained by the instance collection
+    private boolean indexed;
+    private boolean uniquelyIndexed;
+    // range indexed fields have an ordered index for range filters and sorting
+    private boolean rangeIndexed;
+
+    // changes whenever a field gains an index, so cached query plans can tell
+    // they were made without it, only has to be unique in the running process
+    private static final AtomicLong indexVersion = new AtomicLong(0);
+
+    // generates the value of an AUTO_GUID field
+    private GuidGenerator guidGenerator;
+
     // todo: rather than all these fields, consider moving to more validation rules
     // to help keep the class to a more manageable size or create a FieldValidator class
 
@@ -57,6 +76,13 @@ public final class Field {
         maximumFloatValue = Float.MAX_VALUE;
         minimumFloatValue = Float.MIN_VALUE;
         allowedNullable=false;
+
+        // ids and guids are used to find instances, so index them by default
+        indexed = (type == FieldType.AUTO_INCREMENT || type == FieldType.AUTO_GUID);
+        uniquelyIndexed = false;
+        rangeIndexed = false;
+
+        guidGenerator = GuidGenerators.THREAD_LOCAL_RANDOM;
     }
 
     public static Field is(String name, FieldType type) {
@@ -70,11 +96,19 @@ public final class Field {
 
     public Field withDefaultValue(String aDefaultValue) {
         this.defaultValue = aDefaultValue;
+        this.defaultFieldValue = null;
         fieldExamples.add(aDefaultValue);
         return this;
     }
 
     public FieldValue getDefaultValue() {
+        if(defaultFieldValue==null){
+            defaultFieldValue = createDefaultValue();
+        }
+        return defaultFieldValue;
+    }
+
+    private FieldValue createDefaultValue() {
         // todo: allow configuration of allowedNullable
         // todo: handle defaults of object and array
         if(defaultValue==null && !allowedNullable){
@@ -84,6 +118,19 @@ public final class Field {
         return FieldValue.is(this, defaultValue);
     }
 
+    /*
+        the default for the type of the field, used when the field has no default value
+     */
+    public FieldValue getTypeDefaultValue() {
+        if(type.getDefault()==null){
+            return null;
+        }
+        if(typeDefaultFieldValue==null){
+            typeDefaultFieldValue = FieldValue.is(this, type.getDefault());
+        }
+        return typeDefaultFieldValue;
+    }
+
     public boolean hasDefaultValue() {
         return defaultValue != null;
     }
@@ -278,6 +325,76 @@ public final class Field {
         return this;
     }
 
+    /*
+        an indexed field can be used to find instances by value
+        without scanning the whole instance collection
+     */
+    public Field makeIndexed() {
+        indexed = true;
+        indexesChanged();
+        return this;
+    }
+
+    /*
+        a uniquely indexed field can not have the same value
+        on more than one instance in a collection
+     */
+    public Field makeUniquelyIndexed() {
+        indexed = true;
+        uniquelyIndexed = true;
+        indexesChanged();
+        return this;
+    }
+
+    /*
+        a range indexed field keeps instances in value order so that
+        range filters e.g. ?id>=5&id<10 and sorting on the field
+        do not have to compare every instance
+     */
+    public Field makeRangeIndexed() {
+        if(type != FieldType.INTEGER && type != FieldType.FLOAT && type != FieldType.AUTO_INCREMENT){
+            throw new IllegalArgumentException(String.format(
+                    "%s : range index only supported for INTEGER, FLOAT and AUTO_INCREMENT fields, not %s",
+                    name, type));
+        }
+        rangeIndexed = true;
+        indexesChanged();
+        return this;
+    }
+
+    public static void indexesChanged() {
+        indexVersion.incrementAndGet();
+    }
+
+    public static long getIndexVersion() {
+        return indexVersion.get();
+    }
+
+    /*
+        AUTO_GUID values default to random version 4 UUIDs, use
+        GuidGenerators.TIME_ORDERED for guids which sort in creation order
+     */
+    public Field withGuidGenerator(final GuidGenerator aGuidGenerator) {
+        guidGenerator = aGuidGenerator;
+        return this;
+    }
+
+    public GuidGenerator getGuidGenerator() {
+        return guidGenerator;
+    }
+
+    public boolean isRangeIndexed() {
+        return rangeIndexed;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    public boolean isUniquelyIndexed() {
+        return uniquelyIndexed;
+    }
+
     public boolean shouldTruncate() {
         return truncateStringIfTooLong;
     }
@@ -324,7 +441,7 @@ public final class Field {
         }
 
         if(type==FieldType.AUTO_GUID){
-            buildExamples.add(UUID.randomUUID().toString());
+            buildExamples.add(guidGenerator.nextGuid());
         }
 
         if(type==FieldType.FLOAT){
@@ -443,6 +560,26 @@ public final class Field {
         }
     }
 
+    /*
+        the value to store after validation, numbers and booleans are stored
+        as primitives so they do not need to be parsed again when used
+     */
+    public FieldValue getActualFieldValueToAdd(final FieldValue value) {
+
+        switch (type){
+            case BOOLEAN:
+                return FieldValue.is(this, Boolean.valueOf(value.asString()).booleanValue());
+            case FLOAT:
+                return FieldValue.is(this, value.asFloat());
+            case INTEGER:
+            case AUTO_INCREMENT:
+                Double dVal = Double.parseDouble(value.asString());
+                return FieldValue.is(this, dVal.intValue());
+            default:
+                return FieldValue.is(this, getActualValueToAdd(value));
+        }
+    }
+
     public FieldValue valueFor(String value) {
         return FieldValue.is(this, value);
     }
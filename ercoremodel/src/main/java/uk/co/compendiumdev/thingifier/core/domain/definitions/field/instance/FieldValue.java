@@ -1,15 +1,28 @@
 package uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance;
 
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
 import uk.co.compendiumdev.thingifier.core.domain.instances.InstanceFields;
+import uk.co.compendiumdev.thingifier.core.domain.instances.JsonEscaper;
+
+import java.io.IOException;
+import java.io.Writer;
 
 public final class FieldValue {
 
     //TODO: Field Value should have the definition and getValue would return default if not set
     // this would allow field values to compare against each other and simplify other code
     private final String fieldName; // should this be name or should it be a Field reference?
-    private final String valueOfField;
+    // built from the primitive value when first needed if the value was created from a primitive
+    private String valueOfField;
     private final Field forField; // the related field
+
+    // INTEGER, AUTO_INCREMENT, FLOAT and BOOLEAN values are parsed once
+    // so that comparisons and rendering do not need to parse the string each time
+    private final boolean hasPrimitive;
+    private final int intValue;
+    private final float floatValue;
+    private final boolean booleanValue;
     private InstanceFields objectValue;
     // todo: list of strings for an array
     // todo: list of InstanceFields for an array of objects
@@ -20,6 +33,10 @@ public final class FieldValue {
         this.fieldName = fieldName;
         this.valueOfField = fieldValue;
         this.objectValue = null;
+        this.hasPrimitive = false;
+        this.intValue = 0;
+        this.floatValue = 0;
+        this.booleanValue = false;
     }
 
     public FieldValue(Field forField, String fieldValue) {
@@ -27,13 +44,92 @@ public final class FieldValue {
         this.fieldName = forField.getName();
         this.valueOfField = fieldValue;
         this.objectValue = null;
+
+        // parse without exceptions where possible, invalid values
+        // are reported when the as methods parse the string
+        int parsedInt = 0;
+        float parsedFloat = 0;
+        boolean parsedBoolean = false;
+        boolean parsed = false;
+
+        if(fieldValue!=null){
+            switch (forField.getType()){
+                case INTEGER:
+                case AUTO_INCREMENT:
+                    if(looksLikeAnInteger(fieldValue)){
+                        try{
+                            parsedInt = Integer.parseInt(fieldValue);
+                            parsed = true;
+                        }catch(NumberFormatException e){
+                            // too large for an int
+                        }
+                    }
+                    break;
+                case FLOAT:
+                    if(!fieldValue.isEmpty()){
+                        try{
+                            parsedFloat = Float.parseFloat(fieldValue);
+                            parsed = true;
+                        }catch(NumberFormatException e){
+                            // not a float
+                        }
+                    }
+                    break;
+                case BOOLEAN:
+                    if(fieldValue.equalsIgnoreCase("true") || fieldValue.equalsIgnoreCase("false")){
+                        parsedBoolean = fieldValue.equalsIgnoreCase("true");
+                        parsed = true;
+                    }
+                    break;
+            }
+        }
+
+        this.hasPrimitive = parsed;
+        this.intValue = parsedInt;
+        this.floatValue = parsedFloat;
+        this.booleanValue = parsedBoolean;
+    }
+
+    private FieldValue(Field forField, int intValue, float floatValue, boolean booleanValue) {
+        this.forField = forField;
+        this.fieldName = forField.getName();
+        this.valueOfField = null;
+        this.objectValue = null;
+        this.hasPrimitive = true;
+        this.intValue = intValue;
+        this.floatValue = floatValue;
+        this.booleanValue = booleanValue;
+    }
+
+    private FieldValue(FieldValue toCopy) {
+        this.forField = toCopy.forField;
+        this.fieldName = toCopy.fieldName;
+        this.valueOfField = toCopy.valueOfField;
+        this.objectValue = null;
+        this.hasPrimitive = toCopy.hasPrimitive;
+        this.intValue = toCopy.intValue;
+        this.floatValue = toCopy.floatValue;
+        this.booleanValue = toCopy.booleanValue;
+    }
+
+    private static boolean looksLikeAnInteger(String value){
+        if(value.isEmpty() || value.length()>11){
+            return false;
+        }
+        for(int charIndex=0; charIndex<value.length(); charIndex++){
+            final char aChar = value.charAt(charIndex);
+            if(!Character.isDigit(aChar) && !(charIndex==0 && (aChar=='-' || aChar=='+') && value.length()>1)){
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
     public String toString() {
         String string =  "FieldValue{" +
                 "fieldName='" + fieldName + "'" +
-                ", fieldValue='" + valueOfField + "'";
+                ", fieldValue='" + asString() + "'";
         if(objectValue!=null){
             string = string + ",{ " + objectValue.toString() + " }";
         }
@@ -47,6 +143,18 @@ public final class FieldValue {
         return new FieldValue(forField, fieldValue);
     }
 
+    public static FieldValue is(Field forField, int value) {
+        return new FieldValue(forField, value, value, false);
+    }
+
+    public static FieldValue is(Field forField, float value) {
+        return new FieldValue(forField, 0, value, false);
+    }
+
+    public static FieldValue is(Field forField, boolean value) {
+        return new FieldValue(forField, 0, 0, value);
+    }
+
     public static FieldValue is(Field forField, InstanceFields objectValue) {
         final FieldValue value = new FieldValue(forField, "");
         value.setValue(objectValue);
@@ -67,57 +175,96 @@ public final class FieldValue {
         if(objectValue!=null){
             return FieldValue.is(forField, objectValue.cloned());
         }else{
-            return FieldValue.is(forField, valueOfField);
+            return new FieldValue(this);
         }
     }
 
 
 
     public String asString() {
+        if(valueOfField==null && hasPrimitive){
+            valueOfField = canonicalString();
+        }
         return valueOfField;
     }
 
+    private String canonicalString(){
+        switch (forField.getType()){
+            case FLOAT:
+                return Float.toString(floatValue);
+            case BOOLEAN:
+                return Boolean.toString(booleanValue);
+            default:
+                return Integer.toString(intValue);
+        }
+    }
+
+    private boolean hasPrimitive(FieldType type){
+        return hasPrimitive && forField.getType()==type;
+    }
+
     public InstanceFields asObject() {
         return objectValue;
     }
 
     public float asFloat() {
-        return Float.valueOf(valueOfField);
+        if(hasPrimitive(FieldType.FLOAT)){
+            return floatValue;
+        }
+        return Float.valueOf(asString());
     }
 
     public boolean asBoolean() {
-        if (valueOfField.toLowerCase().contentEquals("true")){
+        if(hasPrimitive(FieldType.BOOLEAN)){
+            return booleanValue;
+        }
+
+        final String value = asString().toLowerCase();
+        if (value.contentEquals("true")){
             return true;
         }
-        if(valueOfField.toLowerCase().contentEquals("false")) {
+        if(value.contentEquals("false")) {
             return false;
         }
 
-        throw new IllegalArgumentException(valueOfField + " is not boolean");
+        throw new IllegalArgumentException(asString() + " is not boolean");
     }
 
     public int asInteger() {
-        return Integer.valueOf(valueOfField);
+        if(hasPrimitive(FieldType.INTEGER) || hasPrimitive(FieldType.AUTO_INCREMENT)){
+            return intValue;
+        }
+        return Integer.valueOf(asString());
     }
 
     public String asJsonValue() {
+        if(isJsonLiteral()){
+            return asString();
+        }
+        return JsonEscaper.quoted(asString());
+    }
+
+    /**
+     * Write the value as json without creating the json string first.
+     */
+    public void writeJsonValueTo(final Writer out) throws IOException {
+        if(isJsonLiteral()){
+            out.write(asString());
+        }else{
+            JsonEscaper.writeQuoted(out, asString());
+        }
+    }
+
+    private boolean isJsonLiteral(){
         switch(forField.getType()) {
             case BOOLEAN:
             case FLOAT:
             case AUTO_INCREMENT:
             case INTEGER:
-                return valueOfField;
-            case AUTO_GUID:
-            case DATE:
-            case ENUM:
-            case STRING:
-                return quoted(valueOfField);
+                return true;
             default:
-                return quoted(valueOfField);
+                // AUTO_GUID, DATE, ENUM, STRING etc. are quoted
+                return false;
         }
     }
-
-    private String quoted(String aString){
-        return "\"" + aString.replaceAll("\"", "\\\\\"") + "\"";
-    }
 }
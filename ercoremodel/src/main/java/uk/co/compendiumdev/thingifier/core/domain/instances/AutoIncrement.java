@@ -1,13 +1,19 @@
 package uk.co.compendiumdev.thingifier.core.domain.instances;
 
-public class AutoIncrement {
-    private int incrementBy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    The default IdGenerator, ids are allocated from an atomic counter
+    so requests allocating ids do not lock each other out.
+ */
+public class AutoIncrement implements IdGenerator {
+    private volatile int incrementBy;
     private final String name;
-    int nextInt;
+    private final AtomicInteger nextInt;
 
     public AutoIncrement(String aName, int firstValue){
         name = aName;
-        nextInt = firstValue;
+        nextInt = new AtomicInteger(firstValue);
         incrementBy = 1;
     }
 
@@ -21,19 +27,35 @@ public class AutoIncrement {
     }
 
     public int getCurrentValue(){
-        return nextInt;
+        return nextInt.get();
+    }
+
+    public int nextValue(){
+        return nextInt.getAndAdd(incrementBy);
+    }
+
+    public int reserve(final int count){
+        return nextInt.getAndAdd(incrementBy * count);
+    }
+
+    public int getIncrement(){
+        return incrementBy;
     }
 
     public void update(){
-        nextInt = nextInt + incrementBy;
+        nextInt.addAndGet(incrementBy);
+    }
+
+    public AutoIncrement copied(){
+        return new AutoIncrement(name, nextInt.get()).by(incrementBy);
     }
 
     public void setNextValue(int integer) {
 
     }
 
-    public void incrementToNextAbove(Integer integer) {
-        nextInt = integer;
-        update();
+    public void incrementToNextAbove(int integer) {
+        // compare and set, so an id allocated at the same time is not lost
+        nextInt.accumulateAndGet(integer + incrementBy, Math::max);
     }
 }
@@ -0,0 +1,313 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.ERSchema;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.RelationshipVectorDefinition;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    A compact binary copy of all the data in an ERInstanceData, loaded without
+    parsing text or re-validating the instances.
+
+        magic, version
+        schema fingerprint - the snapshot is only loaded into a database with the same schema
+        string dictionary - each name and value is held once, referred to by its position
+        per entity: name, AUTO_INCREMENT counters, instances as (field path, value) pairs
+        relationship edges: name, from instance position, to instance position
+
+    Nested OBJECT fields are held as paths e.g. address.street, as used by setValue.
+ */
+public final class BinarySnapshot {
+
+    private static final byte[] MAGIC = "THNGSNAP".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int FINGERPRINT_LENGTH = 32;
+
+    private BinarySnapshot(){
+    }
+
+    /**
+     * Write the snapshot to the file, the file is replaced in one step
+     * so a reader never sees a partly written snapshot.
+     */
+    public static void write(final ERInstanceData database, final File file) throws IOException {
+        write(toBytes(database), file);
+    }
+
+    public static void write(final byte[] snapshot, final File file) throws IOException {
+        write(ByteBuffer.allocate(0), snapshot, file);
+    }
+
+    /**
+     * Write the snapshot after a header of the caller's own e.g. the sequence of the last
+     * change in the snapshot, to load it skip the header and load the rest of the file.
+     */
+    public static void write(final ByteBuffer header, final byte[] snapshot, final File file) throws IOException {
+        final Path written = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp").toPath();
+        try(FileChannel channel = FileChannel.open(written,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+            final ByteBuffer[] bytes = {header, ByteBuffer.wrap(snapshot)};
+            while(bytes[1].hasRemaining()){
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(written, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replace the data in the database with the snapshot in the file, the file is memory mapped
+     * rather than read into the heap first.
+     */
+    public static void load(final ERSchema schema, final ERInstanceData database, final File file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)){
+            final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            load(schema, database, mapped);
+        }
+    }
+
+    /**
+     * The snapshot taken in a read transaction, the caller can also read e.g. the
+     * mutation log sequence in the same transaction so the two match.
+     */
+    public static byte[] toBytes(final ERInstanceData database) {
+        return database.inReadTransaction(() -> {
+            try {
+                return encode(database);
+            } catch (IOException e) {
+                // writing to memory
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static byte[] encode(final ERInstanceData database) throws IOException {
+
+        final Dictionary dictionary = new Dictionary();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(body);
+
+        // instances are numbered across all the entities, in the order written, so the edges can refer to them
+        final Map<EntityInstance, Integer> positions = new IdentityHashMap<>();
+        final List<EntityInstance> instancesInOrder = new ArrayList<>();
+
+        final List<EntityInstanceCollection> collections = database.getAllInstanceCollections();
+        final List<EntityDefinition> definitions = new ArrayList<>();
+        out.writeInt(collections.size());
+        for(EntityInstanceCollection collection : collections){
+            definitions.add(collection.definition());
+            out.writeInt(dictionary.refFor(collection.definition().getName()));
+
+            final Map<String, IdGenerator> counters = collection.getCounters();
+            out.writeInt(counters.size());
+            for(Map.Entry<String, IdGenerator> counter : counters.entrySet()){
+                out.writeInt(dictionary.refFor(counter.getKey()));
+                out.writeInt(counter.getValue().getCurrentValue());
+            }
+
+            final List<EntityInstance> instances = new ArrayList<>(collection.getInstances());
+            out.writeInt(instances.size());
+            final List<String> pathsAndValues = new ArrayList<>();
+            for(EntityInstance instance : instances){
+                positions.put(instance, positions.size());
+                instancesInOrder.add(instance);
+
+                pathsAndValues.clear();
+                instance.getFields().addPathsAndValuesTo(pathsAndValues);
+                out.writeInt(pathsAndValues.size()/2);
+                for(String pathOrValue : pathsAndValues){
+                    out.writeInt(dictionary.refFor(pathOrValue));
+                }
+            }
+        }
+
+        final ByteArrayOutputStream edges = new ByteArrayOutputStream();
+        final DataOutputStream edgesOut = new DataOutputStream(edges);
+        int edgeCount = 0;
+        for(EntityInstance from : instancesInOrder){
+            for(RelationshipVectorInstance relationship : from.getRelationships().getRelationshipsFromThis()){
+                final Integer toPosition = positions.get(relationship.getTo());
+                if(toPosition==null){
+                    continue;
+                }
+                edgesOut.writeInt(dictionary.refFor(relationship.getDefinition().getName()));
+                edgesOut.writeInt(positions.get(from));
+                edgesOut.writeInt(toPosition);
+                edgeCount++;
+            }
+        }
+        out.writeInt(edgeCount);
+        edges.writeTo(out);
+        out.flush();
+
+        final ByteArrayOutputStream snapshot = new ByteArrayOutputStream(body.size() + dictionary.size() * 16);
+        final DataOutputStream header = new DataOutputStream(snapshot);
+        header.write(MAGIC);
+        header.writeInt(VERSION);
+        header.write(fingerprintOf(definitions));
+        dictionary.writeTo(header);
+        header.flush();
+        body.writeTo(snapshot);
+        return snapshot.toByteArray();
+    }
+
+    public static void load(final ERSchema schema, final ERInstanceData database, final ByteBuffer snapshot) {
+
+        final byte[] magic = new byte[MAGIC.length];
+        snapshot.get(magic);
+        if(!Arrays.equals(MAGIC, magic)){
+            throw new IllegalStateException("ERROR: Not a snapshot of instance data");
+        }
+        final int version = snapshot.getInt();
+        if(version!=VERSION){
+            throw new IllegalStateException(String.format("ERROR: Unknown snapshot version %d", version));
+        }
+        final byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+        snapshot.get(fingerprint);
+        if(!Arrays.equals(fingerprintOf(schema.getEntityDefinitions()), fingerprint)){
+            throw new IllegalStateException("ERROR: Snapshot was taken from data with a different schema");
+        }
+
+        final String[] strings = new String[snapshot.getInt()];
+        for(int string=0; string<strings.length; string++){
+            final ByteBuffer bytes = snapshot.slice();
+            final int length = snapshot.getInt();
+            bytes.position(4).limit(4 + length);
+            strings[string] = StandardCharsets.UTF_8.decode(bytes).toString();
+            snapshot.position(snapshot.position() + length);
+        }
+
+        database.inWriteTransaction(() -> {
+            database.clearAllData();
+
+            final int entityCount = snapshot.getInt();
+            final List<EntityInstance> allInstances = new ArrayList<>();
+            for(int entity=0; entity<entityCount; entity++){
+                final EntityDefinition definition = schema.getEntityDefinitionNamed(strings[snapshot.getInt()]);
+                EntityInstanceCollection collection = database.getInstanceCollectionForEntityNamed(definition.getName());
+                if(collection==null){
+                    collection = database.createInstanceCollectionFor(definition);
+                }
+
+                final int counterCount = snapshot.getInt();
+                for(int counter=0; counter<counterCount; counter++){
+                    final String counterName = strings[snapshot.getInt()];
+                    final int nextValue = snapshot.getInt();
+                    final IdGenerator generator = collection.getCounters().get(counterName);
+                    if(generator!=null){
+                        generator.incrementToNextAbove(nextValue - generator.getIncrement());
+                    }
+                }
+
+                final List<EntityInstance> instances = new ArrayList<>();
+                final int instanceCount = snapshot.getInt();
+                for(int instanceIndex=0; instanceIndex<instanceCount; instanceIndex++){
+                    final EntityInstance instance = new EntityInstance(definition);
+                    final int valueCount = snapshot.getInt();
+                    for(int value=0; value<valueCount; value++){
+                        final String path = strings[snapshot.getInt()];
+                        instance.overrideValue(path, strings[snapshot.getInt()]);
+                    }
+                    instances.add(instance);
+                }
+                collection.addInstances(instances);
+                allInstances.addAll(instances);
+            }
+
+            final int edgeCount = snapshot.getInt();
+            for(int edge=0; edge<edgeCount; edge++){
+                final String relationshipName = strings[snapshot.getInt()];
+                final EntityInstance from = allInstances.get(snapshot.getInt());
+                final EntityInstance to = allInstances.get(snapshot.getInt());
+                final RelationshipVectorDefinition vector =
+                        from.getEntity().getNamedRelationshipTo(relationshipName, to.getEntity());
+                from.getRelationships().connect(vector, to);
+            }
+            return null;
+        });
+    }
+
+    /*
+        the entities, fields and relationships, in name order so the
+        fingerprint does not depend on the order they were defined in
+     */
+    static byte[] fingerprintOf(final Collection<EntityDefinition> definitions) {
+        final StringBuilder description = new StringBuilder();
+        final List<EntityDefinition> entities = new ArrayList<>(definitions);
+        entities.sort(Comparator.comparing(EntityDefinition::getName));
+        for(EntityDefinition entity : entities){
+            description.append(entity.getName()).append("(");
+            final List<String> fieldNames = new ArrayList<>(entity.getFieldNames());
+            fieldNames.sort(Comparator.naturalOrder());
+            for(String fieldName : fieldNames){
+                description.append(fieldName).append(":").
+                        append(entity.getField(fieldName).getType()).append(",");
+            }
+            final List<String> relationships = new ArrayList<>();
+            for(RelationshipVectorDefinition relationship : entity.related().getRelationships()){
+                relationships.add(relationship.getName() + ">" + relationship.getTo().getName());
+            }
+            relationships.sort(Comparator.naturalOrder());
+            description.append(")").append(relationships).append(";");
+        }
+
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(
+                    description.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            // every JVM has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class Dictionary {
+        private final Map<String, Integer> refs = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        int refFor(final String string){
+            Integer ref = refs.get(string);
+            if(ref==null){
+                ref = strings.size();
+                refs.put(string, ref);
+                strings.add(string);
+            }
+            return ref;
+        }
+
+        int size(){
+            return strings.size();
+        }
+
+        void writeTo(final DataOutputStream out) throws IOException {
+            out.writeInt(strings.size());
+            for(String string : strings){
+                final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+}
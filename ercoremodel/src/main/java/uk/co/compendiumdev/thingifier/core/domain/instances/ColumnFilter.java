@@ -0,0 +1,32 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+/*
+    A filter condition to apply to the columns of a collection stored as columns
+    operation is one of = != ! < > <= >= or ~= for a regex match
+ */
+public final class ColumnFilter {
+
+    public static final String REGEX = "~=";
+
+    private final String fieldName;
+    private final String operation;
+    private final String value;
+
+    public ColumnFilter(final String fieldName, final String operation, final String value) {
+        this.fieldName = fieldName;
+        this.operation = operation;
+        this.value = value;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
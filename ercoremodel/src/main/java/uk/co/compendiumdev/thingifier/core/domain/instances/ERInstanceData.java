@@ -4,71 +4,313 @@ import uk.co.compendiumdev.thingifier.core.domain.definitions.ERSchema;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
-
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
 
 public class ERInstanceData {
     private final ConcurrentHashMap<String, EntityInstanceCollection> instanceCollections;
+    private final GuidDirectory guidDirectory;
+    private final MutationLog mutationLog;
+    // where the field values of the instances are kept
+    private final StorageEngine engine;
+
+    // when not null, the data is a copy of the template which has not been made yet
+    private volatile ERInstanceData template;
+    // a closed database e.g. one spilled to disk, is not changed since the changes would be lost
+    private volatile boolean closed;
+
+    // requests which change the data are made one at a time, requests which read can run together
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
     public ERInstanceData() {
+        this(StorageEngine.HEAP);
+    }
+
+    public ERInstanceData(final StorageEngine engine) {
         instanceCollections = new ConcurrentHashMap<>();
+        guidDirectory = new GuidDirectory();
+        mutationLog = new MutationLog();
+        this.engine = engine;
+    }
+
+    /**
+     * A database with the same data as the template, the template is shared
+     * until the data is first used outside a read transaction and only then are
+     * the instances copied, reads in a read transaction use the template.
+     * The template must not be changed after this, it is used as a snapshot.
+     */
+    public static ERInstanceData copyOnWriteOf(final ERInstanceData template) {
+        return copyOnWriteOf(template, StorageEngine.HEAP);
+    }
+
+    public static ERInstanceData copyOnWriteOf(final ERInstanceData template, final StorageEngine engine) {
+        final ERInstanceData copy = new ERInstanceData(engine);
+        // the template may itself not have been copied yet
+        copy.template = template.template==null ? template : template.template;
+        return copy;
+    }
+
+    /**
+     * A database with a copy of this database's data, if this database has not
+     * been used since it was created from a template then the copy shares the
+     * template, otherwise the instances and relationships are copied now.
+     */
+    public ERInstanceData fork() {
+        return fork(engine);
+    }
+
+    public ERInstanceData fork(final StorageEngine copyEngine) {
+        final ERInstanceData unusedTemplate = template;
+        if(unusedTemplate!=null){
+            return copyOnWriteOf(unusedTemplate, copyEngine);
+        }
+
+        final ERInstanceData copy = new ERInstanceData(copyEngine);
+        inReadTransaction(() -> {
+            copyInto(copy);
+            return copy;
+        });
+        return copy;
+    }
+
+    /**
+     * An empty database with the same collections and AUTO_INCREMENT counters as this one,
+     * held on the heap, e.g. to build and validate a replacement for all of the data
+     * which is only swapped in once it is known to be valid.
+     */
+    public ERInstanceData emptyCopy() {
+        final ERInstanceData copy = new ERInstanceData();
+        inReadTransaction(() -> {
+            // the template's counters are the counters while it is shared, no need to copy its instances
+            final ERInstanceData source = template==null ? this : template;
+            for(EntityInstanceCollection collection : source.instanceCollections.values()){
+                copy.addCollectionFor(collection.definition()).copyCountersOf(collection);
+            }
+            return copy;
+        });
+        return copy;
+    }
+
+    /**
+     * Run the changes as a single unit, no other reads or changes of the data
+     * will happen until they are complete.
+     */
+    public <T> T inWriteTransaction(final Supplier<T> changes) {
+        lock.writeLock().lock();
+        try{
+            if(closed){
+                throw new IllegalStateException(
+                        "ERROR: Cannot change a closed database, it may have been spilled to disk");
+            }
+            return changes.get();
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Run the changes as a single unit only if no other transaction is in progress,
+     * without waiting for one to finish.
+     *
+     * @return false if the data was in use and the changes were not run
+     */
+    public boolean inWriteTransactionIfFree(final Runnable changes) {
+        if(!lock.writeLock().tryLock()){
+            return false;
+        }
+        try{
+            if(closed){
+                return false;
+            }
+            changes.run();
+            return true;
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Read the data without it being changed during the read, a write
+     * transaction can not be started from within a read.
+     */
+    public <T> T inReadTransaction(final Supplier<T> reads) {
+        lock.readLock().lock();
+        try{
+            return reads.get();
+        }finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The changes made to the data from now on, a copy of a template is made
+     * first so the template's instances are not logged as created.
+     */
+    public MutationLog getMutationLog(){
+        materialize();
+        return mutationLog;
+    }
+
+    public boolean isSharingTemplate(){
+        return template!=null;
+    }
+
+    /*
+        The data to read from. While the template is shared and the caller is in a read
+        transaction, which can not change the data, the template is read directly, so a
+        database which is only read never copies it. Otherwise the template is copied
+        first, since the caller may change what it is given.
+     */
+    private ERInstanceData readable(){
+        final ERInstanceData sharedTemplate = template;
+        if(sharedTemplate!=null && isOnlyReading()){
+            return sharedTemplate;
+        }
+        materialize();
+        return this;
+    }
+
+    private boolean isOnlyReading(){
+        return lock.getReadHoldCount()>0 && !lock.isWriteLockedByCurrentThread();
+    }
+
+    private void materialize(){
+        if(template==null){
+            return;
+        }
+
+        synchronized (this){
+            if(template!=null){
+                template.copyInto(this);
+                template = null;
+            }
+        }
+    }
+
+    private void copyInto(final ERInstanceData copy){
+
+        // copy the instances first, then the relationships once all the instances exist
+        final Map<EntityInstance, EntityInstance> copies = new HashMap<>();
+        for(EntityInstanceCollection collection : getAllInstanceCollections()){
+            copies.putAll(copy.addCollectionFor(collection.definition()).addCopiesOf(collection));
+        }
+
+        for(Map.Entry<EntityInstance, EntityInstance> copied : copies.entrySet()){
+            for(RelationshipVectorInstance relationship :
+                    copied.getKey().getRelationships().getRelationshipsFromThis()){
+                final EntityInstance to = copies.get(relationship.getTo());
+                if(to!=null){
+                    copied.getValue().getRelationships().connect(relationship.getDefinition(), to);
+                }
+            }
+        }
     }
 
     public String quoted(String aString){
-        return "\"" + aString.replaceAll("\"", "\\\"") + "\"";
+        return JsonEscaper.quoted(aString);
     }
 
     public String asJson(){
+        final StringWriter json = new StringWriter();
+        try {
+            writeJsonTo(json);
+        } catch (IOException e) {
+            // writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return json.toString();
+    }
 
-        StringBuilder dataArray = new StringBuilder();
-        dataArray.append("{");
+    /**
+     * Write the data as json, UTF-8 encoded, to the stream. The stream is flushed, not closed.
+     */
+    public void writeJsonTo(final OutputStream out) throws IOException {
+        final Writer json = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeJsonTo(json);
+        json.flush();
+    }
 
+    /**
+     * Write the data as json, an array of instances for each entity, as the instances
+     * are read rather than building the json in memory first.
+     */
+    public void writeJsonTo(final Writer json) throws IOException {
+
+        // the instances are only read here, so a shared template is written without being copied
+        final ERInstanceData sharedTemplate = template;
+        final ERInstanceData data = sharedTemplate==null ? this : sharedTemplate;
+
+        json.write("{");
 
         // for each entity
         String separator = "";
-        for( EntityInstanceCollection entry : instanceCollections.values()){
+        for( EntityInstanceCollection entry : data.instanceCollections.values()){
             EntityDefinition defn = entry.definition();
 
-            dataArray.append( separator +  quoted(defn.getPlural()) + " : [");
+            json.write(separator);
+            JsonEscaper.writeQuoted(json, defn.getPlural());
+            json.write(" : [");
 
             String instanceSeparator = "";
             for(EntityInstance instance : entry.getInstances()){
-                dataArray.append( instanceSeparator + "{");
+                json.write(instanceSeparator);
+                json.write("{");
 
                 String fieldSeparator = "";
                 for(String fieldName : defn.getFieldNames()){
                     Field aField = defn.getField(fieldName);
                     if(instance.hasInstantiatedFieldNamed(fieldName)){
-                        dataArray.append(fieldSeparator);
-                        dataArray.append(quoted(aField.getName()) + ": " + instance.getFieldValue(fieldName).asJsonValue());
+                        writeJsonField(json, fieldSeparator, aField, instance.getFieldValue(fieldName));
                     }else {
                         if (aField.isMandatory()) {
-                            dataArray.append(fieldSeparator);
-                            dataArray.append(quoted(aField.getName()) + ": " + aField.getDefaultValue().asJsonValue());
+                            writeJsonField(json, fieldSeparator, aField, aField.getDefaultValue());
                         }
                     }
 
                     fieldSeparator = ", ";
                 }
 
-                dataArray.append("}");
+                json.write("}");
                 instanceSeparator = ", ";
             }
 
-
-            dataArray.append("]");
+            json.write("]");
             separator=", ";
         }
 
-        dataArray.append("}");
-        return dataArray.toString();
+        json.write("}");
+    }
+
+    private void writeJsonField(final Writer json, final String separator, final Field aField,
+                                final FieldValue value) throws IOException {
+        json.write(separator);
+        JsonEscaper.writeQuoted(json, aField.getName());
+        json.write(": ");
+        value.writeJsonValueTo(json);
     }
 
     public ERInstanceData(final List<EntityInstance> instances) {
-        instanceCollections = new ConcurrentHashMap<>();
+        this();
         final EntityInstanceCollection managedInstances =
                 createInstanceCollectionFor(instances.get(0).getEntity());
         managedInstances.addInstances(instances);
@@ -76,40 +318,98 @@ public class ERInstanceData {
 
     public EntityInstanceCollection createInstanceCollectionFor(
                                         final EntityDefinition definition) {
-        EntityInstanceCollection aCollection = new EntityInstanceCollection(definition);
-        instanceCollections.put(definition.getName(), aCollection);
+        return inWriteTransaction(() -> {
+            materialize();
+            return addCollectionFor(definition);
+        });
+    }
+
+    private EntityInstanceCollection addCollectionFor(final EntityDefinition definition) {
+        EntityInstanceCollection aCollection = new EntityInstanceCollection(definition, guidDirectory,
+                                                        mutationLog, engine);
+        final EntityInstanceCollection replaced = instanceCollections.put(definition.getName(), aCollection);
+        if(replaced!=null){
+            // the replaced instances should no longer be found by guid
+            replaced.unregisterGuids();
+            replaced.releaseRows();
+        }
         return aCollection;
     }
 
+    /**
+     * The database is no longer used, the storage engine no longer keeps the values
+     * of its instances. The engine is not closed, it may be used by other databases.
+     * Write transactions are rejected from now on.
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try{
+            if(closed){
+                return;
+            }
+            for(EntityInstanceCollection collection : instanceCollections.values()){
+                collection.releaseRows();
+            }
+            closed = true;
+        }finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
     public void createInstanceCollectionFrom(ERSchema schema) {
         for(EntityDefinition defn : schema.getEntityDefinitions()){
             createInstanceCollectionFor(defn);
         }
     }
 
+    // rough heap cost of an instance with its map entries and index entries, and of each field value
+    private static final long ESTIMATED_INSTANCE_BYTES = 256;
+    private static final long ESTIMATED_FIELD_VALUE_BYTES = 96;
+
+    /**
+     * An approximate size of the data on the heap, from the number of instances and
+     * fields rather than by walking the values. A database still sharing its template
+     * has no data of its own.
+     */
+    public long estimatedSizeInBytes() {
+        if(template!=null){
+            return 0;
+        }
+
+        long size = 0;
+        for(EntityInstanceCollection collection : instanceCollections.values()){
+            size = size + collection.countInstances() * (ESTIMATED_INSTANCE_BYTES +
+                    collection.definition().getFieldNames().size() * ESTIMATED_FIELD_VALUE_BYTES);
+        }
+        return size;
+    }
+
     public List<EntityInstanceCollection> getAllInstanceCollections() {
-        return new ArrayList<EntityInstanceCollection>(instanceCollections.values());
+        return new ArrayList<EntityInstanceCollection>(readable().instanceCollections.values());
     }
 
     public EntityInstance findEntityInstanceByGUID(final String thingGUID) {
-        for (EntityInstanceCollection anInstanceCollection : instanceCollections.values()) {
-            final List<String> guidFields = anInstanceCollection.definition().getFieldNamesOfType(FieldType.AUTO_GUID);
-            for(String fieldName : guidFields){
-                EntityInstance instance = anInstanceCollection.
-                        findInstanceByFieldNameAndValue(fieldName, thingGUID);
-                if (instance != null) {
-                    return instance;
-                }
-            }
-        }
-        return null;
+        return readable().guidDirectory.find(thingGUID);
     }
 
     public EntityInstanceCollection getInstanceCollectionForEntityNamed(final String aName) {
-        return instanceCollections.get(aName);
+        return readable().instanceCollections.get(aName);
     }
 
     public void deleteEntityInstance(final EntityInstance anEntityInstance) {
+        inWriteTransaction(() -> {
+            deleteEntityInstanceAndRelated(anEntityInstance);
+            return null;
+        });
+    }
+
+    private void deleteEntityInstanceAndRelated(final EntityInstance anEntityInstance) {
+        materialize();
+
         // delete a thing and all related things with mandatory relationships
         final EntityInstanceCollection anInstanceCollection =
                     instanceCollections.get(anEntityInstance.getEntity().getName());
@@ -120,36 +420,102 @@ public class ERInstanceData {
             return;
         }
 
-        // we may also have to delete things which are mandatorily related i.e. can't exist on their own
-        final List<EntityInstance> otherInstancesToDelete =
-                anInstanceCollection.deleteInstance(anEntityInstance.getInternalId());
+        final Set<EntityInstance> deleting = instancesToDeleteWith(List.of(anEntityInstance));
+
+        anInstanceCollection.removeInstance(anEntityInstance);
+        deleteAll(deleting);
+    }
 
-        // TODO: Warning recursion with no 'cut off' if any cyclical relationships then this might fail
-        for(EntityInstance deleteMe : otherInstancesToDelete){
-            deleteEntityInstance(deleteMe);
+    /*
+        we may also have to delete things which are mandatorily related i.e. can't exist on their own,
+        and the things mandatorily related to those. Worked through as a queue, with the things already
+        found skipped, so deep or cyclic mandatory relationships do not recurse without a 'cut off'.
+     */
+    private Set<EntityInstance> instancesToDeleteWith(final Collection<EntityInstance> instances) {
+
+        final Set<EntityInstance> deleting = new LinkedHashSet<>(instances);
+        final Deque<EntityInstance> toVisit = new ArrayDeque<>(deleting);
+
+        while(!toVisit.isEmpty()){
+            final EntityInstance visiting = toVisit.poll();
+            for(EntityInstance related : visiting.getRelationships().instancesSubjectToMandatoryRelationships()){
+                if(deleting.add(related)){
+                    toVisit.add(related);
+                }
+            }
         }
+
+        return deleting;
     }
 
-    //TODO: couldn't this be simpler, if we just clear all the collections then
-    // all instances and relationships would be cleared? Why recurse individually
-    // through them all?
-    public void clearAllData() {
-        // clear all instance data
-        for (String instanceName : instanceCollections.keySet()) {
-            clearInstanceDataFor(instanceName);
+    private void deleteAll(final Set<EntityInstance> deleting) {
+        for(EntityInstance deleteMe : deleting){
+            final EntityInstanceCollection collection =
+                    instanceCollections.get(deleteMe.getEntity().getName());
+            if(collection!=null && collection.manages(deleteMe)){
+                collection.removeInstance(deleteMe);
+            }
+        }
+
+        // relationships between the deleted things are dropped with them,
+        // only the things which remain need their relationships updated
+        for(EntityInstance deleteMe : deleting){
+            deleteMe.getRelationships().removeAllRelationshipsExceptWith(deleting);
         }
     }
 
-    public void clearInstanceDataFor(String instanceName) {
-        EntityInstanceCollection instanceCollection = instanceCollections.get(instanceName);
+    /*
+        Every collection is emptied by swapping in empty structures, the instances
+        are not deleted one at a time, so clearing takes the same time however much
+        data there is. The AUTO_INCREMENT counters carry on from where they were.
+     */
+    public void clearAllData() {
+        inWriteTransaction(() -> {
+            if(clearedTemplate()){
+                return null;
+            }
+            guidDirectory.clear();
+            for (EntityInstanceCollection instanceCollection : instanceCollections.values()) {
+                instanceCollection.truncate();
+            }
+            return null;
+        });
+    }
 
-        if(instanceCollection==null){
-            return;
+    /*
+        there is no need to copy the template's instances only to drop them, create
+        the empty collections with the template's counters
+     */
+    private synchronized boolean clearedTemplate(){
+        final ERInstanceData unusedTemplate = template;
+        if(unusedTemplate==null){
+            return false;
         }
 
-        for(EntityInstance instance : instanceCollection.getInstances()) {
-            deleteEntityInstance(instance);
+        for(EntityInstanceCollection collection : unusedTemplate.instanceCollections.values()){
+            addCollectionFor(collection.definition()).copyCountersOf(collection);
         }
+        template = null;
+        return true;
+    }
+
+    public void clearInstanceDataFor(String instanceName) {
+        inWriteTransaction(() -> {
+            materialize();
+            EntityInstanceCollection instanceCollection = instanceCollections.get(instanceName);
+
+            if(instanceCollection==null){
+                return null;
+            }
+
+            // the collection is emptied in one step, only the mandatorily
+            // related things in other collections are removed one at a time
+            final Set<EntityInstance> deleting = instancesToDeleteWith(instanceCollection.getInstances());
+            instanceCollection.unregisterGuids();
+            instanceCollection.truncate();
+            deleteAll(deleting);
+            return null;
+        });
     }
 
 
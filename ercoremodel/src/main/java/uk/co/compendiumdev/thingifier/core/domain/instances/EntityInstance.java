@@ -7,6 +7,7 @@ import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.Fie
 import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class EntityInstance {
 
@@ -17,33 +18,37 @@ public class EntityInstance {
     private final InstanceFields instanceFields;
 
     // used internally to reference the instance, is not exposed to the world
-    private final UUID internalId;
+    // so a counter is enough, it only has to be unique in the running process
+    private static final AtomicLong nextInternalId = new AtomicLong(1);
+    private final long internalId;
+
+    // the collection which manages this instance and indexes its values, null if not added to one
+    private EntityInstanceCollection managedBy;
 
     public EntityInstance(EntityDefinition eDefn) {
         this.entityDefinition = eDefn;
         this.instanceFields = eDefn.instantiateFields();
         this.relationships = new EntityInstanceRelationships(this);
-        internalId = UUID.randomUUID();
+        internalId = nextInternalId.getAndIncrement();
     }
 
     public EntityInstance addAutoGUIDstoInstance(){
         // allow GUIDs to be defined as being 'auto' in which case we will auto generate them
         List<Field> autoGuids = entityDefinition.getFieldsOfType(FieldType.AUTO_GUID);
         for(Field autoGuid : autoGuids){
-            instanceFields.addValue(entityDefinition.getField(autoGuid.getName()).valueFor( UUID.randomUUID().toString()));
+            instanceFields.addValue(autoGuid.valueFor(autoGuid.getGuidGenerator().nextGuid()));
         }
 
         return this;
     }
 
 
-    public void addAutoIncrementIdsToInstance(Map<String,AutoIncrement> autos) {
+    public void addAutoIncrementIdsToInstance(Map<String,? extends IdGenerator> autos) {
 
         for(Field autoIncrementedField : entityDefinition.getFieldsOfType(FieldType.AUTO_INCREMENT)){
-            AutoIncrement auto = autos.get(autoIncrementedField.getName());
+            IdGenerator auto = autos.get(autoIncrementedField.getName());
             if(!instanceFields.hasAssignedValue(autoIncrementedField.getName())){
-                instanceFields.putValue(autoIncrementedField.getName(), String.valueOf(auto.getCurrentValue()));
-                auto.update();
+                instanceFields.putValue(autoIncrementedField.getName(), String.valueOf(auto.nextValue()));
             }
         }
     }
@@ -71,7 +76,11 @@ public class EntityInstance {
     }
 
     public String getInternalId() {
-        return internalId.toString();
+        return String.valueOf(internalId);
+    }
+
+    long internalIdValue() {
+        return internalId;
     }
 
 
@@ -89,21 +98,72 @@ public class EntityInstance {
     }
 
     public EntityInstance setValue(String fieldName, String value) {
+        final Map<String, FieldValue> priorValues = assignedValuesOf(fieldName);
         instanceFields.setValue(fieldName, value);
+        notifyFieldsChanged(priorValues);
         return this;
     }
 
 
     public EntityInstance overrideValue(final String key, final String value) {
         // bypass all validation - except, field must exist
+        final Map<String, FieldValue> priorValues = assignedValuesOf(key);
         this.instanceFields.putValue(key, value);
+        notifyFieldsChanged(priorValues);
         return this;
     }
 
+    /*
+        Index maintenance - when managed by a collection, the collection
+        is told which top level fields changed, and what they were before
+        the change, so that it can re-index, or revert if the change is
+        not allowed e.g. a duplicate primary key
+     */
+
+    void setManagedBy(final EntityInstanceCollection collection) {
+        this.managedBy = collection;
+    }
+
+    EntityInstanceCollection getManagedBy() {
+        return managedBy;
+    }
+
+    private Map<String, FieldValue> assignedValuesOf(final String... fieldNames) {
+        final Map<String, FieldValue> assigned = new HashMap<>();
+        if(managedBy==null){
+            return assigned;
+        }
+        for(String fieldName : fieldNames){
+            // field names can be paths e.g. object.fieldOnObject, only the top level is indexable
+            final Field field = entityDefinition.getField(fieldName.split("\\.")[0]);
+            if(field!=null){
+                assigned.put(field.getName(), instanceFields.getAssignedValue(field.getName()));
+            }
+        }
+        return assigned;
+    }
+
+    private void notifyFieldsChanged(final Map<String, FieldValue> priorValues) {
+        if(managedBy!=null){
+            managedBy.instanceFieldsChanged(this, priorValues);
+        }
+    }
+
+    void restoreAssignedValues(final Map<String, FieldValue> priorValues) {
+        for(Map.Entry<String, FieldValue> prior : priorValues.entrySet()){
+            instanceFields.restoreAssignedValue(prior.getKey(), prior.getValue());
+        }
+    }
+
     public FieldValue getFieldValue(String fieldName){
         return instanceFields.getFieldValue(fieldName);
     }
 
+    // the ordinal is from the EntityDefinition of this instance
+    public FieldValue getFieldValue(final int fieldOrdinal){
+        return instanceFields.getFieldValue(fieldOrdinal);
+    }
+
 
     public EntityDefinition getEntity() {
         return this.entityDefinition;
@@ -153,7 +213,10 @@ public class EntityInstance {
                                     FieldType.AUTO_INCREMENT,
                                     FieldType.AUTO_GUID));
 
+        final Map<String, FieldValue> priorValues =
+                assignedValuesOf(getFieldNames().toArray(new String[0]));
         instanceFields.deleteAllFieldValuesExcept(ignoreFields);
+        notifyFieldsChanged(priorValues);
     }
 
     public EntityInstance createDuplicateWithoutRelationships() {
@@ -3,6 +3,7 @@ package uk.co.compendiumdev.thingifier.core.domain.instances;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.NamedValue;
 
 import java.util.*;
@@ -12,13 +13,46 @@ import java.util.concurrent.ConcurrentHashMap;
 final public class EntityInstanceCollection {
 
     private final EntityDefinition definition;
-    private Map<String, EntityInstance> instances = new ConcurrentHashMap<>();
+    // internal id -> instance
+    private Map<Long, EntityInstance> instances = new ConcurrentHashMap<>();
+    // field name -> index of field value to instances, maintained on add, field amendment and delete
+    // includes the primary key and any fields defined as indexed
+    private Map<String, FieldValueIndex> indexes = new ConcurrentHashMap<>();
+    // field name -> ordered index of numeric field value to instances, for range indexed fields
+    private Map<String, OrderedFieldIndex> rangeIndexes = new ConcurrentHashMap<>();
+
+    // the field values as columns when the definition is stored as columns, created on first use
+    private InstanceColumns columns;
 
     // id's should be auto incremented at an instance collection level, not on the field definitions
-    private Map<String, AutoIncrement> counters = new ConcurrentHashMap<>();
+    private Map<String, IdGenerator> counters = new ConcurrentHashMap<>();
+
+    // AUTO_GUID -> instance, shared by all the collections in a database
+    private final GuidDirectory guidDirectory;
+
+    // the changes to the instances, shared by all the collections in a database
+    private final MutationLog mutationLog;
+
+    // where the field values are kept, and the store of the current instances' values,
+    // null when the instances keep their own values
+    private final StorageEngine engine;
+    private RowStore rows;
 
     public EntityInstanceCollection(EntityDefinition thingDefinition) {
+        this(thingDefinition, new GuidDirectory(), new MutationLog());
+    }
+
+    EntityInstanceCollection(EntityDefinition thingDefinition, GuidDirectory guidDirectory, MutationLog mutationLog) {
+        this(thingDefinition, guidDirectory, mutationLog, StorageEngine.HEAP);
+    }
+
+    EntityInstanceCollection(EntityDefinition thingDefinition, GuidDirectory guidDirectory,
+                             MutationLog mutationLog, StorageEngine engine) {
         this.definition = thingDefinition;
+        this.guidDirectory = guidDirectory;
+        this.mutationLog = mutationLog;
+        this.engine = engine;
+        this.rows = engine.rowsFor(thingDefinition);
         ensureCountersInitialized();
     }
 
@@ -30,23 +64,17 @@ final public class EntityInstanceCollection {
         }
     }
 
-    private AutoIncrement createCounterFor(Field fieldDefn) {
-        if(!counters.containsKey(fieldDefn.getName())){
-            AutoIncrement auto = new AutoIncrement(fieldDefn.getName(), fieldDefn.getDefaultValue().asInteger());
-            counters.put(fieldDefn.getName(), auto);
-            return auto;
-        }else{
-            return counters.get(fieldDefn.getName());
-        }
+    private IdGenerator createCounterFor(Field fieldDefn) {
+        return counters.computeIfAbsent(fieldDefn.getName(),
+                name -> new AutoIncrement(name, fieldDefn.getDefaultValue().asInteger()));
     }
 
     public EntityInstanceCollection(final EntityDefinition entity, final List<EntityInstance> instances) {
-       this.definition=entity;
-       ensureCountersInitialized();
+       this(entity);
        addInstances(instances);
     }
 
-    public EntityInstanceCollection addInstances(List<EntityInstance> addInstances) {
+    public EntityInstanceCollection addInstances(Collection<EntityInstance> addInstances) {
 
         if( definition.hasMaxInstanceLimit() &&
             ((instances.size() + addInstances.size()) > definition.getMaxInstanceLimit())){
@@ -55,6 +83,8 @@ final public class EntityInstanceCollection {
                     definition.getMaxInstanceLimit()));
         }
 
+        reserveIdsFor(addInstances);
+
         for(EntityInstance instance : addInstances){
             addInstance(instance);
         }
@@ -84,15 +114,14 @@ final public class EntityInstanceCollection {
             if(!instance.hasInstantiatedFieldNamed(fieldDefn.getName())){
                 // set it here using the counter for the field
                 if(fieldDefn.getType()==FieldType.AUTO_GUID){
-                    instance.setValue(fieldDefn.getName(), UUID.randomUUID().toString());
+                    instance.setValue(fieldDefn.getName(), fieldDefn.getGuidGenerator().nextGuid());
                 }
                 if(fieldDefn.getType()==FieldType.AUTO_INCREMENT){
-                    AutoIncrement counter = counters.get(fieldDefn.getName());
+                    IdGenerator counter = counters.get(fieldDefn.getName());
                     if(counter==null){
                         counter = createCounterFor(fieldDefn);
                     }
-                    instance.overrideValue(fieldDefn.getName(),String.valueOf(counter.getCurrentValue()));
-                    counter.update();
+                    instance.overrideValue(fieldDefn.getName(),String.valueOf(counter.nextValue()));
                 }
             }else{
                 if(fieldDefn.getType()==FieldType.AUTO_INCREMENT) {
@@ -109,32 +138,85 @@ final public class EntityInstanceCollection {
                         "ERROR: Cannot add instance, primary key field %s not set",
                         primaryField.getName()));
             }
+        }
 
-            for(EntityInstance existingInstance : instances.values()){
-                if(existingInstance.getPrimaryKeyValue().equals(
-                        instance.getPrimaryKeyValue()
-                )){
-                    throw new RuntimeException(String.format(
-                            "ERROR: Cannot add instance, another instance with primary key value exists: %s",
-                            existingInstance.getPrimaryKeyValue()));
-                }
+        final List<FieldValueIndex> fieldIndexes = getIndexes();
+        for(FieldValueIndex index : fieldIndexes){
+            final EntityInstance existingInstance = findUniqueConflict(index, instance);
+            if(existingInstance!=null){
+                throw new RuntimeException(String.format(
+                        "ERROR: Cannot add instance, %s",
+                        describeUniqueConflict(index, existingInstance)));
             }
         }
 
-        instances.put(instance.getInternalId(), instance);
+        // AUTO_GUIDs are unique across the database, not only in this collection
+        final List<Field> guidFields = definition.getFieldsOfType(FieldType.AUTO_GUID);
+        for(Field guidField : guidFields){
+            final String guid = guidOf(instance, guidField);
+            if(guidDirectory.findConflictWith(guid, instance)!=null){
+                throw new RuntimeException(String.format(
+                        "ERROR: Cannot add instance, another instance with %s value exists: %s",
+                        guidField.getName(), guid));
+            }
+        }
+
+        instances.put(instance.internalIdValue(), instance);
+        if(rows!=null){
+            instance.getFields().storeIn(rows, instance.internalIdValue());
+        }
+        for(FieldValueIndex index : fieldIndexes){
+            index.add(instance);
+        }
+        for(OrderedFieldIndex index : getRangeIndexes()){
+            index.add(instance);
+        }
+        final InstanceColumns instanceColumns = getColumns();
+        if(instanceColumns!=null){
+            instanceColumns.add(instance);
+        }
+        for(Field guidField : guidFields){
+            guidDirectory.register(guidOf(instance, guidField), instance);
+        }
+        instance.setManagedBy(this);
+        mutationLog.instanceCreated(instance);
 
         for(String autoIncrementFieldSet : autoIncrementFieldsSet){
             // auto increment auto increments to above the value
             // should only do this if we actually add the item
-            AutoIncrement counter = counters.get(autoIncrementFieldSet);
-            if(counter.getCurrentValue() < instance.getFieldValue(autoIncrementFieldSet).asInteger()) {
-                counter.incrementToNextAbove(instance.getFieldValue(autoIncrementFieldSet).asInteger());
-            }
+            createCounterFor(definition.getField(autoIncrementFieldSet)).incrementToNextAbove(
+                    instance.getFieldValue(autoIncrementFieldSet).asInteger());
         }
 
         return this;
     }
 
+    /*
+        allocate the AUTO_INCREMENT ids of the instances which do not have them
+        as one block per field, rather than one at a time as they are added
+     */
+    private void reserveIdsFor(final Collection<EntityInstance> addInstances) {
+        for(Field fieldDefn : definition.getFieldsOfType(FieldType.AUTO_INCREMENT)){
+            List<EntityInstance> needIds = new ArrayList<>();
+            for(EntityInstance instance : addInstances){
+                if(!instance.hasInstantiatedFieldNamed(fieldDefn.getName())){
+                    needIds.add(instance);
+                }
+            }
+
+            if(needIds.isEmpty()){
+                continue;
+            }
+
+            final IdGenerator counter = createCounterFor(fieldDefn);
+            int id = counter.reserve(needIds.size());
+            for(EntityInstance instance : needIds){
+                instance.overrideValue(fieldDefn.getName(), String.valueOf(id));
+                id = id + counter.getIncrement();
+            }
+        }
+    }
+
     /* create and add */
     // TODO: this looks like it was added to support testing, consider removing and adding to a test helper
     public EntityInstance createManagedInstance() {
@@ -153,6 +235,11 @@ final public class EntityInstanceCollection {
         if(fieldName==null) return null;
         if(fieldValue==null) return null;
 
+        final FieldValueIndex index = getIndexFor(fieldName);
+        if(index!=null){
+            return index.findFirst(fieldValue);
+        }
+
         for (EntityInstance thing : instances.values()) {
             if(thing.hasFieldNamed(fieldName)) {
                 if (thing.getFieldValue(fieldName).asString().contentEquals(fieldValue)) {
@@ -165,20 +252,49 @@ final public class EntityInstanceCollection {
     }
 
 
+    public Collection<EntityInstance> findInstancesByFieldNameAndValue(String fieldName, String fieldValue) {
+
+        if(fieldName==null) return new ArrayList<>();
+        if(fieldValue==null) return new ArrayList<>();
+
+        final FieldValueIndex index = getIndexFor(fieldName);
+        if(index!=null){
+            return index.find(fieldValue);
+        }
+
+        List<EntityInstance> found = new ArrayList<>();
+        for (EntityInstance thing : instances.values()) {
+            if(thing.hasFieldNamed(fieldName)) {
+                if (thing.getFieldValue(fieldName).asString().contentEquals(fieldValue)) {
+                    found.add(thing);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    public boolean isIndexedByFieldNamed(String fieldName) {
+        return getIndexFor(fieldName)!=null;
+    }
+
     public EntityInstance findInstanceByInternalID(String instanceFieldValue) {
 
-        // first - if it is not a GUID then dump it
-        try{
-            UUID.fromString(instanceFieldValue);
-        }catch (IllegalArgumentException e){
+        // first - if it is not an internal id then dump it
+        final Long internalId = asInternalId(instanceFieldValue);
+        if(internalId==null){
             return null;
         }
 
-        if (instances.containsKey(instanceFieldValue)) {
-            return instances.get(instanceFieldValue);
-        }
+        return instances.get(internalId);
+    }
 
-        return null;
+    private Long asInternalId(String internalId){
+        try{
+            return Long.valueOf(internalId);
+        }catch (NumberFormatException e){
+            return null;
+        }
     }
 
 
@@ -196,31 +312,59 @@ final public class EntityInstanceCollection {
      */
     public List<EntityInstance> deleteInstance(String guid) {
 
-        if (!instances.containsKey(guid)) {
+        EntityInstance item = findInstanceByInternalID(guid);
+
+        if (item==null) {
             throw new IndexOutOfBoundsException(
                     String.format("Could not find a %s with GUID %s",
                             definition.getName(), guid));
         }
 
-        EntityInstance item = instances.get(guid);
-
         return deleteInstance(item);
 
     }
 
     public List<EntityInstance>  deleteInstance(EntityInstance anInstance) {
 
-        if (!instances.containsValue(anInstance)) {
+        removeInstance(anInstance);
+
+        final List<EntityInstance> alsoDelete = anInstance.getRelationships().removeAllRelationships();
+
+        return alsoDelete;
+    }
+
+    boolean manages(EntityInstance anInstance) {
+        return instances.get(anInstance.internalIdValue()) == anInstance;
+    }
+
+    /*
+        remove the instance from the collection and its indexes, leaving its relationships in place
+     */
+    void removeInstance(EntityInstance anInstance) {
+
+        if (!manages(anInstance)) {
             throw new IndexOutOfBoundsException(
                     String.format("Could not find a %s with Internal GUID %s",
                             definition.getName(), anInstance.getInternalId()));
         }
 
-        instances.remove(anInstance.getInternalId());
-
-        final List<EntityInstance> alsoDelete = anInstance.getRelationships().removeAllRelationships();
-
-        return alsoDelete;
+        instances.remove(anInstance.internalIdValue());
+        for(FieldValueIndex index : indexes.values()){
+            index.remove(anInstance);
+        }
+        for(OrderedFieldIndex index : rangeIndexes.values()){
+            index.remove(anInstance);
+        }
+        if(columns!=null){
+            columns.remove(anInstance);
+        }
+        for(Field guidField : definition.getFieldsOfType(FieldType.AUTO_GUID)){
+            guidDirectory.unregister(guidOf(anInstance, guidField), anInstance);
+        }
+        anInstance.setManagedBy(null);
+        // a deleted instance is still returned to the caller, so it keeps its values
+        anInstance.getFields().releaseFromStore();
+        mutationLog.instanceDeleted(anInstance);
     }
 
     /*
@@ -235,16 +379,316 @@ final public class EntityInstanceCollection {
 
 
     public EntityInstance findInstanceByPrimaryKey(String primaryKeyValue) {
-        for(EntityInstance instance : instances.values()){
-            if(instance.getPrimaryKeyValue().equals(primaryKeyValue)){
-                return instance;
+        if(primaryKeyValue==null || !definition.hasPrimaryKeyField()){
+            return null;
+        }
+
+        return getIndexFor(definition.getPrimaryKeyField().getName()).findFirst(primaryKeyValue);
+    }
+
+    /*
+        Indexes are created on first use so that fields added to the
+        definition after the collection was created are indexed.
+     */
+    private FieldValueIndex getIndexFor(String fieldName) {
+
+        final Field field = definition.getField(fieldName);
+        if(field==null){
+            return null;
+        }
+
+        final boolean isPrimaryKey = field==definition.getPrimaryKeyField();
+        if(!isPrimaryKey && !field.isIndexed()){
+            return null;
+        }
+
+        return indexes.computeIfAbsent(field.getName().toLowerCase(), key -> {
+            final FieldValueIndex index = new FieldValueIndex(field,
+                                                isPrimaryKey || field.isUniquelyIndexed());
+            for(EntityInstance instance : instances.values()){
+                index.add(instance);
             }
+            return index;
+        });
+    }
+
+    private List<FieldValueIndex> getIndexes() {
+        List<FieldValueIndex> fieldIndexes = new ArrayList<>();
+
+        if(definition.hasPrimaryKeyField()){
+            fieldIndexes.add(getIndexFor(definition.getPrimaryKeyField().getName()));
         }
 
-        return null;
+        for(Field field : definition.getIndexedFields()){
+            if(field.isIndexed() && field!=definition.getPrimaryKeyField()){
+                fieldIndexes.add(getIndexFor(field.getName()));
+            }
+        }
+
+        return fieldIndexes;
+    }
+
+    private OrderedFieldIndex getRangeIndexFor(String fieldName) {
+
+        final Field field = definition.getField(fieldName);
+        if(field==null || !field.isRangeIndexed()){
+            return null;
+        }
+
+        return rangeIndexes.computeIfAbsent(field.getName().toLowerCase(), key -> {
+            final OrderedFieldIndex index = new OrderedFieldIndex(field);
+            for(EntityInstance instance : instances.values()){
+                index.add(instance);
+            }
+            return index;
+        });
+    }
+
+    private List<OrderedFieldIndex> getRangeIndexes() {
+        List<OrderedFieldIndex> fieldIndexes = new ArrayList<>();
+
+        for(Field field : definition.getIndexedFields()){
+            if(field.isRangeIndexed()){
+                fieldIndexes.add(getRangeIndexFor(field.getName()));
+            }
+        }
+
+        return fieldIndexes;
+    }
+
+    /*
+        A range index can only be used when all the instances have a numeric
+        value for the field, otherwise some instances would be missed.
+     */
+    public boolean canUseRangeIndexFor(String fieldName) {
+        final OrderedFieldIndex index = getRangeIndexFor(fieldName);
+        return index!=null && index.isComplete();
+    }
+
+    /**
+     * Find the instances with a value for the range indexed field between
+     * the lowest and highest values, null values are unbounded.
+     *
+     * @return the instances in ascending value order
+     */
+    public List<EntityInstance> findInstancesInRange(String fieldName,
+                                                     Double lowest, boolean lowestInclusive,
+                                                     Double highest, boolean highestInclusive) {
+        if(!canUseRangeIndexFor(fieldName)){
+            throw new IllegalStateException(String.format(
+                    "ERROR: Can not use a range index for %s on %s", fieldName, definition.getName()));
+        }
+        return getRangeIndexFor(fieldName).findInRange(lowest, lowestInclusive, highest, highestInclusive);
+    }
+
+    public List<EntityInstance> getInstancesOrderedBy(String fieldName, boolean ascending) {
+        if(!canUseRangeIndexFor(fieldName)){
+            throw new IllegalStateException(String.format(
+                    "ERROR: Can not use a range index for %s on %s", fieldName, definition.getName()));
+        }
+        return getRangeIndexFor(fieldName).inOrder(ascending);
+    }
+
+    private synchronized InstanceColumns getColumns() {
+        if(!definition.isStoredAsColumns()){
+            return null;
+        }
+
+        if(columns==null){
+            columns = new InstanceColumns(definition);
+            for(EntityInstance instance : instances.values()){
+                columns.add(instance);
+            }
+        }
+        return columns;
+    }
+
+    public boolean isStoredAsColumns() {
+        return definition.isStoredAsColumns();
+    }
+
+    /**
+     * Find the instances matching the filters using the columns, sorted
+     * by the sort field if it is not null.
+     *
+     * @return the matching instances, or null if the collection is not stored
+     *          as columns or the filters can not be answered from the columns
+     */
+    public List<EntityInstance> findInstancesUsingColumns(List<ColumnFilter> filters,
+                                                          String sortFieldName, boolean ascending) {
+        final InstanceColumns instanceColumns = getColumns();
+        if(instanceColumns==null){
+            return null;
+        }
+        return instanceColumns.find(filters, sortFieldName, ascending);
+    }
+
+    private EntityInstance findUniqueConflict(FieldValueIndex index, EntityInstance instance) {
+        if(!index.isUnique()){
+            return null;
+        }
+        return index.findConflictWith(instance);
+    }
+
+    private String describeUniqueConflict(FieldValueIndex index, EntityInstance existingInstance) {
+        if(index.getField()==definition.getPrimaryKeyField()){
+            return String.format("another instance with primary key value exists: %s",
+                    existingInstance.getPrimaryKeyValue());
+        }
+
+        return String.format("another instance with %s value exists: %s",
+                index.getField().getName(),
+                index.keyFor(existingInstance));
+    }
+
+    void unregisterGuids() {
+        for(Field guidField : definition.getFieldsOfType(FieldType.AUTO_GUID)){
+            for(EntityInstance instance : instances.values()){
+                guidDirectory.unregister(guidOf(instance, guidField), instance);
+            }
+        }
+    }
+
+    private String guidOf(final EntityInstance instance, final Field guidField) {
+        final FieldValue guid = instance.getFieldValue(guidField.getName());
+        return guid==null ? null : guid.asString();
+    }
+
+    /*
+        Called by a managed instance after its field values have been amended.
+        priorValues has the assigned values (null if unassigned) of the amended
+        top level fields prior to the amendment, these are restored if the
+        amendment conflicts with a unique index.
+     */
+    void instanceFieldsChanged(final EntityInstance instance, final Map<String, FieldValue> priorValues) {
+
+        // a truncated instance still thinks it is managed, it has nothing to update here
+        if(!manages(instance)){
+            return;
+        }
+
+        List<FieldValueIndex> changedIndexes = new ArrayList<>();
+        for(String fieldName : priorValues.keySet()){
+            final FieldValueIndex index = getIndexFor(fieldName);
+            if(index!=null){
+                changedIndexes.add(index);
+            }
+        }
+
+        for(FieldValueIndex index : changedIndexes){
+            final EntityInstance existingInstance = findUniqueConflict(index, instance);
+            if(existingInstance!=null){
+                instance.restoreAssignedValues(priorValues);
+                throw new RuntimeException(String.format(
+                        "ERROR: Cannot amend instance, %s",
+                        describeUniqueConflict(index, existingInstance)));
+            }
+        }
+
+        for(String fieldName : priorValues.keySet()){
+            final Field field = definition.getField(fieldName);
+            if(field.getType()==FieldType.AUTO_GUID){
+                final String guid = guidOf(instance, field);
+                if(guidDirectory.findConflictWith(guid, instance)!=null){
+                    instance.restoreAssignedValues(priorValues);
+                    throw new RuntimeException(String.format(
+                            "ERROR: Cannot amend instance, another instance with %s value exists: %s",
+                            field.getName(), guid));
+                }
+            }
+        }
+
+        for(FieldValueIndex index : changedIndexes){
+            index.update(instance);
+        }
+
+        for(String fieldName : priorValues.keySet()){
+            final OrderedFieldIndex index = getRangeIndexFor(fieldName);
+            if(index!=null){
+                index.update(instance);
+            }
+        }
+
+        final InstanceColumns instanceColumns = getColumns();
+        if(instanceColumns!=null){
+            instanceColumns.update(instance, priorValues.keySet());
+        }
+
+        for(Map.Entry<String, FieldValue> prior : priorValues.entrySet()){
+            final Field field = definition.getField(prior.getKey());
+            if(field.getType()==FieldType.AUTO_GUID){
+                if(prior.getValue()!=null){
+                    guidDirectory.unregister(prior.getValue().asString(), instance);
+                }
+                guidDirectory.register(guidOf(instance, field), instance);
+            }
+        }
+
+        mutationLog.fieldsSet(instance, priorValues);
+    }
+
+    MutationLog getMutationLog() {
+        return mutationLog;
+    }
+
+    /*
+        Add copies of the instances in the other collection, without their relationships,
+        and continue the ids from the same values as the other collection.
+
+        @return the copy for each of the other collection's instances
+     */
+    Map<EntityInstance, EntityInstance> addCopiesOf(final EntityInstanceCollection other) {
+        final Map<EntityInstance, EntityInstance> copies = new HashMap<>();
+        for(EntityInstance instance : other.getInstances()){
+            final EntityInstance copy = instance.createDuplicateWithoutRelationships();
+            addInstance(copy);
+            copies.put(instance, copy);
+        }
+
+        copyCountersOf(other);
+
+        return copies;
+    }
+
+    /*
+        continue allocating ids from where the other collection is
+     */
+    void copyCountersOf(final EntityInstanceCollection other) {
+        for(Map.Entry<String, IdGenerator> counter : other.counters.entrySet()){
+            counters.put(counter.getKey(), counter.getValue().copied());
+        }
+    }
+
+    /*
+        Remove all the instances by swapping in empty structures, rather than removing
+        each instance, so the time taken does not depend on the number of instances.
+        The truncated instances are not updated, so the caller must unregister their
+        guids and deal with their relationships. The counters carry on, ids are not reused.
+
+        The truncated instances may still be read e.g. while deleting their related
+        instances or rendering a response, so their row store is not cleared, the
+        collection starts a new store and the engine drops the old one once it is unused.
+     */
+    synchronized void truncate() {
+        instances = new ConcurrentHashMap<>();
+        indexes = new ConcurrentHashMap<>();
+        rangeIndexes = new ConcurrentHashMap<>();
+        columns = null;
+        rows = engine.rowsFor(definition);
+        mutationLog.collectionTruncated(definition.getName());
+    }
+
+    /*
+        the collection is no longer used by its database, e.g. it has been replaced or
+        the database deleted, the rows of its instances are no longer kept by the store
+     */
+    void releaseRows() {
+        if(rows!=null){
+            rows.clear();
+        }
     }
 
-    public Map<String, AutoIncrement> getCounters() {
+    public Map<String, IdGenerator> getCounters() {
         ensureCountersInitialized();
         return counters;
     }
@@ -262,7 +706,7 @@ final public class EntityInstanceCollection {
         for(NamedValue fieldNameValue : fieldValues){
             final Field field = definition.getField(fieldNameValue.getName());
             if(field!=null && field.getType()== FieldType.AUTO_INCREMENT) {
-                AutoIncrement auto = counters.get(field.getName());
+                IdGenerator auto = counters.get(field.getName());
                 if(auto==null){
                     auto = createCounterFor(field);
                 }
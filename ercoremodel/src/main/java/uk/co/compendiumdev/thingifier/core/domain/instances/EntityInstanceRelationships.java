@@ -1,5 +1,6 @@
 package uk.co.compendiumdev.thingifier.core.domain.instances;
 
+import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.RelationshipDefinition;
 import uk.co.compendiumdev.thingifier.core.reporting.ValidationReport;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.RelationshipVectorDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
@@ -8,14 +9,133 @@ import java.util.*;
 
 import static uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.Optionality.MANDATORY_RELATIONSHIP;
 
+/*
+    The relationships are held by relationship definition, then by the other
+    instance in the relationship, so connecting, removing and counting the
+    relationships does not have to look at every relationship of the instance.
+    The count for each relationship vector is kept as relationships are
+    connected and removed, so cardinality is checked without counting.
+ */
 public class EntityInstanceRelationships {
 
-    private final List<RelationshipVectorInstance> relationships;
+    private final Map<RelationshipDefinition, AdjacentInstances> relationships;
     private final EntityInstance forThis;
 
     public EntityInstanceRelationships(final EntityInstance thingInstance){
         this.forThis = thingInstance;
-        this.relationships = new ArrayList<>();
+        this.relationships = new LinkedHashMap<>();
+    }
+
+    /*
+        The relationship instances for a relationship definition, keyed by the
+        other instance, an instance can be related to the same instance more than once
+     */
+    private static final class AdjacentInstances {
+
+        private final EntityInstance forThis;
+        private final Map<EntityInstance, List<RelationshipVectorInstance>> byOtherInstance = new LinkedHashMap<>();
+        private int count;
+        // of the count, the relationships which from this instance are the reversed vector
+        private int reversedCount;
+
+        private AdjacentInstances(final EntityInstance forThis){
+            this.forThis = forThis;
+        }
+
+        private void add(final EntityInstance other, final RelationshipVectorInstance relationship){
+            byOtherInstance.computeIfAbsent(other, key -> new ArrayList<>(1)).add(relationship);
+            count++;
+            if(isReversed(relationship)){
+                reversedCount++;
+            }
+        }
+
+        private List<RelationshipVectorInstance> removeAll(final EntityInstance other){
+            final List<RelationshipVectorInstance> removed = byOtherInstance.remove(other);
+            if(removed==null){
+                return Collections.emptyList();
+            }
+            count = count - removed.size();
+            for(RelationshipVectorInstance relationship : removed){
+                if(isReversed(relationship)){
+                    reversedCount--;
+                }
+            }
+            return removed;
+        }
+
+        private boolean remove(final EntityInstance other, final RelationshipVectorInstance relationship){
+            final List<RelationshipVectorInstance> withOther = byOtherInstance.get(other);
+            if(withOther==null || !withOther.remove(relationship)){
+                return false;
+            }
+            if(withOther.isEmpty()){
+                byOtherInstance.remove(other);
+            }
+            count--;
+            if(isReversed(relationship)){
+                reversedCount--;
+            }
+            return true;
+        }
+
+        private void clear(){
+            byOtherInstance.clear();
+            count = 0;
+            reversedCount = 0;
+        }
+
+        private boolean isReversed(final RelationshipVectorInstance relationship){
+            final RelationshipDefinition definition = relationship.getRelationshipDefinition();
+            return definition.isTwoWay() &&
+                    vectorFrom(forThis, relationship) == definition.getReversedRelationship();
+        }
+
+        private int countOf(final RelationshipVectorDefinition vector){
+            if(vector == vector.getRelationshipDefinition().getReversedRelationship()){
+                return reversedCount;
+            }
+            return count - reversedCount;
+        }
+
+        private List<RelationshipVectorInstance> all(){
+            final List<RelationshipVectorInstance> all = new ArrayList<>(count);
+            for(List<RelationshipVectorInstance> withOther : byOtherInstance.values()){
+                all.addAll(withOther);
+            }
+            return all;
+        }
+    }
+
+    /*
+        the vector of the relationship as seen from the instance i.e. the
+        vector with the instance on the from side
+     */
+    private static RelationshipVectorDefinition vectorFrom(final EntityInstance instance,
+                                                           final RelationshipVectorInstance relationship){
+        if(relationship.getFrom() == instance || !relationship.getRelationshipDefinition().isTwoWay()){
+            return relationship.getDefinition();
+        }
+        return relationship.getRelationshipDefinition().otherVectorOf(relationship.getDefinition());
+    }
+
+    /*
+        the log of the database managing this instance, null if this instance is not managed
+     */
+    private MutationLog mutationLog(){
+        final EntityInstanceCollection managedBy = forThis.getManagedBy();
+        if(managedBy==null || !managedBy.manages(forThis)){
+            return null;
+        }
+        return managedBy.getMutationLog();
+    }
+
+    private List<RelationshipVectorInstance> allRelationships(){
+        final List<RelationshipVectorInstance> all = new ArrayList<>();
+        for(AdjacentInstances adjacent : relationships.values()){
+            all.addAll(adjacent.all());
+        }
+        return all;
     }
 
     public String toString() {
@@ -23,7 +143,7 @@ public class EntityInstanceRelationships {
 
         if (!relationships.isEmpty()) {
             output.append(String.format("\t\t\t\t\t Relationships:%n"));
-            for (RelationshipVectorInstance relatesTo : relationships) {
+            for (RelationshipVectorInstance relatesTo : allRelationships()) {
                 output.append("\t\t\t\t\t" + relatesTo.toString());
             }
         }
@@ -56,6 +176,11 @@ public class EntityInstanceRelationships {
         }
 
 
+        connect(relationship, thing);
+    }
+
+    void connect(final RelationshipVectorDefinition relationship, final EntityInstance thing) {
+
         RelationshipVectorInstance related = new RelationshipVectorInstance(
                                                 relationship,
                                                 forThis, thing);
@@ -66,6 +191,25 @@ public class EntityInstanceRelationships {
             thing.getRelationships().add(related);
         }
 
+        final MutationLog log = mutationLog();
+        if(log!=null){
+            log.relationshipConnected(related);
+        }
+
+    }
+
+    /*
+        the relationships from this instance, i.e. those created when this instance was connected
+     */
+    Collection<RelationshipVectorInstance> getRelationshipsFromThis() {
+        // a relationship to itself is held twice when two way
+        final Set<RelationshipVectorInstance> fromThis = new LinkedHashSet<>();
+        for (RelationshipVectorInstance relationship : allRelationships()) {
+            if (relationship.getFrom() == forThis) {
+                fromThis.add(relationship);
+            }
+        }
+        return fromThis;
     }
 
     private void add(final RelationshipVectorInstance relationship) {
@@ -86,17 +230,46 @@ public class EntityInstanceRelationships {
                             relationship.getDefinition().getName()));
         }
 
-        if(relationship.getDefinition().getCardinality().hasMaximumLimit()){
-            int maximumLimit = relationship.getDefinition().getCardinality().maximumLimit();
-            if(relationships.size()>=maximumLimit){
+        // the types are checked once here, rather than each time the relationships are validated
+        final ValidationReport relationshipReport = relationship.validate();
+        if(!relationshipReport.isValid()){
+            throw new RuntimeException(
+                    String.format("Cannot add relationship to %s of type %s - %s",
+                            instanceIdentification,
+                            relationship.getDefinition().getName(),
+                            relationshipReport.getCombinedErrorMessages()));
+        }
+
+        final RelationshipVectorDefinition fromThis = vectorFrom(forThis, relationship);
+        if(fromThis.getCardinality().hasMaximumLimit()){
+            int maximumLimit = fromThis.getCardinality().maximumLimit();
+            if(countOf(fromThis)>=maximumLimit){
                 throw new RuntimeException(
                     String.format("Cannot add relationship type %s, exceeds maximum %d",
-                            relationship.getRelationshipDefinition().getFromRelationship().getName(),
+                            fromThis.getName(),
                             maximumLimit));
             }
         }
 
-        relationships.add(relationship);
+        relationships.computeIfAbsent(relationship.getRelationshipDefinition(), key -> new AdjacentInstances(forThis)).
+                add(relationship.getOtherThingInstance(forThis), relationship);
+    }
+
+    /**
+     * The number of relationship instances this instance has for the relationship definition
+     */
+    public int countOf(final RelationshipDefinition relationshipDefinition) {
+        final AdjacentInstances adjacent = relationships.get(relationshipDefinition);
+        return adjacent==null ? 0 : adjacent.count;
+    }
+
+    /**
+     * The number of relationship instances this instance has for the vector of a
+     * relationship definition, seen from this instance i.e. this instance on the from side
+     */
+    public int countOf(final RelationshipVectorDefinition vector) {
+        final AdjacentInstances adjacent = relationships.get(vector.getRelationshipDefinition());
+        return adjacent==null ? 0 : adjacent.countOf(vector);
     }
 
     public EntityDefinition getTypeOfConnectableItems(final String relationshipName) {
@@ -117,12 +290,28 @@ public class EntityInstanceRelationships {
         return null;
     }
 
+    /**
+     * The instances connected by the relationship, the returned collection is a
+     * read only view and should not be held while relationships are changed
+     */
     public Collection<EntityInstance> getConnectedItems(final String relationshipName) {
-        Set<EntityInstance> theConnectedItems = new HashSet<>();
-        for (RelationshipVectorInstance relationship : relationships) {
-            if (relationship.getRelationshipDefinition().isKnownAs(relationshipName)) {
-                theConnectedItems.add(
-                        relationship.getOtherThingInstance(forThis));
+
+        Collection<EntityInstance> theConnectedItems = Collections.emptySet();
+        Set<EntityInstance> combined = null;
+
+        for (Map.Entry<RelationshipDefinition, AdjacentInstances> adjacent : relationships.entrySet()) {
+            if (adjacent.getKey().isKnownAs(relationshipName)) {
+                final Set<EntityInstance> connected = adjacent.getValue().byOtherInstance.keySet();
+                if(theConnectedItems.isEmpty()){
+                    theConnectedItems = Collections.unmodifiableSet(connected);
+                }else{
+                    // only when more than one relationship has the same name
+                    if(combined==null){
+                        combined = new LinkedHashSet<>(theConnectedItems);
+                        theConnectedItems = combined;
+                    }
+                    combined.addAll(connected);
+                }
             }
         }
 
@@ -131,10 +320,17 @@ public class EntityInstanceRelationships {
 
     public List<EntityInstance> getConnectedItemsOfType(final String type) {
         List<EntityInstance> theConnectedItems = new ArrayList<>();
-        for (RelationshipVectorInstance relationship : relationships) {
-            if (relationship.getTo().getEntity().getName().
-                    toLowerCase().contentEquals(type.toLowerCase())) {
-                theConnectedItems.add(relationship.getTo());
+
+        for (AdjacentInstances adjacent : relationships.values()) {
+            EntityDefinition lastMatched = null;
+            for (List<RelationshipVectorInstance> withOther : adjacent.byOtherInstance.values()) {
+                for (RelationshipVectorInstance relationship : withOther) {
+                    final EntityDefinition toEntity = relationship.getTo().getEntity();
+                    if (toEntity == lastMatched || toEntity.getName().equalsIgnoreCase(type)) {
+                        lastMatched = toEntity;
+                        theConnectedItems.add(relationship.getTo());
+                    }
+                }
             }
         }
         return theConnectedItems;
@@ -144,20 +340,24 @@ public class EntityInstanceRelationships {
                                                              final String relationshipName) {
 
         List<EntityInstance> thingsToDelete = new ArrayList<>();
-        List<RelationshipVectorInstance> toDelete = new ArrayList<>();
+        final MutationLog log = mutationLog();
 
-        for (RelationshipVectorInstance relationship : relationships) {
-            if (relationship.getRelationshipDefinition().isKnownAs(relationshipName)) {
-                if (relationship.involves(thing)) {
-                    toDelete.add(relationship);
+        for (Map.Entry<RelationshipDefinition, AdjacentInstances> adjacent : relationships.entrySet()) {
+            if (adjacent.getKey().isKnownAs(relationshipName)) {
+                for (RelationshipVectorInstance relationship : removeInvolving(adjacent.getValue(), thing)) {
                     thingsToDelete.addAll(relationship.instancesSubjectToMandatoryRelationship());
                     // delete any relationship to or from
-                    thing.getRelationships().remove(relationship);
+                    if(thing!=forThis){
+                        thing.getRelationships().remove(relationship);
+                    }
+                    if(log!=null){
+                        log.relationshipRemoved(relationship);
+                    }
                 }
             }
         }
 
-        relationships.removeAll(toDelete);
+        removeEmptyRelationships();
 
         return thingsToDelete;
     }
@@ -168,11 +368,12 @@ public class EntityInstanceRelationships {
      */
     public List<EntityInstance> removeAllRelationships() {
         List<EntityInstance> deleteThese = new ArrayList<>();
+        final MutationLog log = mutationLog();
 
         final EntityInstance me = forThis;
         EntityInstance them;
 
-        for (RelationshipVectorInstance relationship : relationships) {
+        for (RelationshipVectorInstance relationship : allRelationships()) {
             if (relationship.getFrom() == forThis) {
                 // me -> them
                 them= relationship.getTo();
@@ -183,6 +384,9 @@ public class EntityInstanceRelationships {
 
             them.getRelationships().removeAllRelationshipsInvolving(me);
             deleteThese.addAll(relationship.instancesSubjectToMandatoryRelationship());
+            if(log!=null){
+                log.relationshipRemoved(relationship);
+            }
         }
 
         relationships.clear();
@@ -190,28 +394,77 @@ public class EntityInstanceRelationships {
         return deleteThese;
     }
 
+    /*
+        the things which could not exist without this instance i.e. the things
+        removeAllRelationships would return, without removing any relationships
+     */
+    List<EntityInstance> instancesSubjectToMandatoryRelationships() {
+        List<EntityInstance> subjectTo = new ArrayList<>();
+        for (AdjacentInstances adjacent : relationships.values()) {
+            for (List<RelationshipVectorInstance> withOther : adjacent.byOtherInstance.values()) {
+                for (RelationshipVectorInstance relationship : withOther) {
+                    subjectTo.addAll(relationship.instancesSubjectToMandatoryRelationship());
+                }
+            }
+        }
+        return subjectTo;
+    }
+
+    /*
+        Remove all relationships when the instances are deleted together, the other
+        instances being deleted clear their own relationships so they are not updated
+     */
+    void removeAllRelationshipsExceptWith(final Set<EntityInstance> alsoBeingRemoved) {
+        for (AdjacentInstances adjacent : relationships.values()) {
+            for (Map.Entry<EntityInstance, List<RelationshipVectorInstance>> withOther : adjacent.byOtherInstance.entrySet()) {
+                final EntityInstance them = withOther.getKey();
+                if (them != forThis && !alsoBeingRemoved.contains(them)) {
+                    for (RelationshipVectorInstance relationship : withOther.getValue()) {
+                        them.getRelationships().remove(relationship);
+                    }
+                }
+            }
+        }
+        relationships.clear();
+    }
+
     private void remove(final RelationshipVectorInstance relationship) {
-        relationships.remove(relationship);
+        final AdjacentInstances adjacent = relationships.get(relationship.getRelationshipDefinition());
+        if(adjacent!=null && adjacent.remove(relationship.getOtherThingInstance(forThis), relationship)
+                && adjacent.count==0){
+            relationships.remove(relationship.getRelationshipDefinition());
+        }
     }
 
     public List<EntityInstance> removeAllRelationshipsInvolving(final EntityInstance thing) {
 
         List<EntityInstance> instancesToDelete = new ArrayList<>();
 
-        List<RelationshipVectorInstance> toDelete = new ArrayList<>();
-
-        for (RelationshipVectorInstance relationship : relationships) {
-            if(relationship.involves(thing)){
-                toDelete.add(relationship);
+        for (AdjacentInstances adjacent : relationships.values()) {
+            for (RelationshipVectorInstance relationship : removeInvolving(adjacent, thing)) {
                 instancesToDelete.addAll(relationship.instancesSubjectToMandatoryRelationship());
             }
         }
 
-        relationships.removeAll(toDelete);
+        removeEmptyRelationships();
 
         return instancesToDelete;
     }
 
+    private List<RelationshipVectorInstance> removeInvolving(final AdjacentInstances adjacent, final EntityInstance thing){
+        if(thing==forThis){
+            // every relationship involves this instance
+            final List<RelationshipVectorInstance> all = adjacent.all();
+            adjacent.clear();
+            return all;
+        }
+        return adjacent.removeAll(thing);
+    }
+
+    private void removeEmptyRelationships(){
+        relationships.values().removeIf(adjacent -> adjacent.count==0);
+    }
+
     public boolean hasAnyRelationshipInstances() {
         return !relationships.isEmpty();
     }
@@ -226,12 +479,7 @@ public class EntityInstanceRelationships {
         final Collection<RelationshipVectorDefinition> theRelationshipVectorDefns = entityDefinition.related().getRelationships();
         for(RelationshipVectorDefinition vector : theRelationshipVectorDefns){
 
-            int foundRelationshipCount = 0;
-            for(RelationshipVectorInstance relationship : relationships){
-                if(relationship.getRelationshipDefinition()==vector.getRelationshipDefinition()){
-                    foundRelationshipCount++;
-                }
-            }
+            int foundRelationshipCount = countOf(vector);
 
             // for each definition vector, does it have relationships Vector Instances that match
             if(vector.getOptionality() == MANDATORY_RELATIONSHIP){
@@ -252,19 +500,7 @@ public class EntityInstanceRelationships {
             }
         }
 
-        // validate each instance in detail
-        for(RelationshipVectorInstance relationship : relationships){
-            ValidationReport vectorInstanceReport = relationship.validate();
-            if(!vectorInstanceReport.isValid()){
-                Collection<String> errorMessages =vectorInstanceReport.getErrorMessages();
-                for(String errorMessage : errorMessages){
-                    report.setValid(false).addErrorMessage(
-                            String.format("Error with EntityInstance relationship %s - %s",
-                            forThis.getInternalId(), errorMessage)
-                    );
-                }
-            }
-        }
+        // each relationship instance was validated in detail when it was added
 
 
         return report;
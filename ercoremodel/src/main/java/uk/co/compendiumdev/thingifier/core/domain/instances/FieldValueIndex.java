@@ -0,0 +1,120 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    A hash index from the string value of a field to the instances with that value.
+
+    The index remembers the value each instance was indexed under so that it can
+    be re-indexed after an amendment without needing to know the prior value.
+
+    A unique index is used to reject instances with an assigned value another instance already has,
+    the index itself does not enforce this, the EntityInstanceCollection checks
+    for a conflict before adding or re-indexing.
+ */
+final class FieldValueIndex {
+
+    private final Field field;
+    private final boolean unique;
+    private final Map<String, Set<EntityInstance>> instancesByValue = new ConcurrentHashMap<>();
+    private final Map<EntityInstance, String> indexedValues = new ConcurrentHashMap<>();
+
+    FieldValueIndex(final Field field, final boolean unique) {
+        this.field = field;
+        this.unique = unique;
+    }
+
+    Field getField() {
+        return field;
+    }
+
+    boolean isUnique() {
+        return unique;
+    }
+
+    String keyFor(final EntityInstance instance) {
+        final FieldValue value = instance.getFieldValue(field.getName());
+        if(value==null){
+            return null;
+        }
+        return value.asString();
+    }
+
+    /*
+        return any other instance which has the same value as the given instance,
+        only assigned values are considered, many instances can share a default value
+     */
+    EntityInstance findConflictWith(final EntityInstance instance) {
+        if(!instance.hasInstantiatedFieldNamed(field.getName())){
+            return null;
+        }
+
+        final String key = keyFor(instance);
+        if(key==null){
+            return null;
+        }
+
+        final Set<EntityInstance> existing = instancesByValue.get(key);
+        if(existing==null){
+            return null;
+        }
+
+        for(EntityInstance other : existing){
+            if(other!=instance && other.hasInstantiatedFieldNamed(field.getName())){
+                return other;
+            }
+        }
+        return null;
+    }
+
+    void add(final EntityInstance instance) {
+        final String key = keyFor(instance);
+        if(key==null){
+            return;
+        }
+        indexedValues.put(instance, key);
+        instancesByValue.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(instance);
+    }
+
+    void remove(final EntityInstance instance) {
+        final String key = indexedValues.remove(instance);
+        if(key==null){
+            return;
+        }
+        instancesByValue.computeIfPresent(key, (k, indexed) -> {
+            indexed.remove(instance);
+            return indexed.isEmpty() ? null : indexed;
+        });
+    }
+
+    void update(final EntityInstance instance) {
+        if(Objects.equals(indexedValues.get(instance), keyFor(instance))){
+            return;
+        }
+        remove(instance);
+        add(instance);
+    }
+
+    EntityInstance findFirst(final String value) {
+        final Set<EntityInstance> found = instancesByValue.get(value);
+        if(found==null){
+            return null;
+        }
+        for(EntityInstance instance : found){
+            return instance;
+        }
+        return null;
+    }
+
+    Collection<EntityInstance> find(final String value) {
+        final Set<EntityInstance> found = instancesByValue.get(value);
+        if(found==null){
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(found);
+    }
+}
@@ -0,0 +1,59 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+    A database wide directory from AUTO_GUID values to the instance with that GUID.
+
+    Each EntityInstanceCollection in an ERInstanceData shares the same directory
+    and registers instances as they are added, amended and deleted so that
+    an instance can be found by GUID without knowing which entity it is.
+ */
+final class GuidDirectory {
+
+    private volatile Map<String, EntityInstance> instancesByGuid = new ConcurrentHashMap<>();
+
+    /**
+     * @return false if the guid is already registered to another instance, which is left in place
+     */
+    boolean register(final String guid, final EntityInstance instance) {
+        if(guid==null){
+            return true;
+        }
+        final EntityInstance registered = instancesByGuid.putIfAbsent(guid, instance);
+        return registered==null || registered==instance;
+    }
+
+    /**
+     * @return the other instance registered with the guid, or null if there is none
+     */
+    EntityInstance findConflictWith(final String guid, final EntityInstance instance) {
+        final EntityInstance registered = find(guid);
+        return registered==instance ? null : registered;
+    }
+
+    void unregister(final String guid, final EntityInstance instance) {
+        if(guid==null){
+            return;
+        }
+        // only remove if it is still registered to this instance
+        instancesByGuid.remove(guid, instance);
+    }
+
+    EntityInstance find(final String guid) {
+        if(guid==null){
+            return null;
+        }
+        return instancesByGuid.get(guid);
+    }
+
+    void clear() {
+        // swap rather than remove each entry, the database is being emptied
+        instancesByGuid = new ConcurrentHashMap<>();
+    }
+
+    int size() {
+        return instancesByGuid.size();
+    }
+}
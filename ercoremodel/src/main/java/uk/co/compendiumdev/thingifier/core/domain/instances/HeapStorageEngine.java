@@ -0,0 +1,14 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+
+/*
+    The instances keep their own field values, there is no row store.
+ */
+final class HeapStorageEngine implements StorageEngine {
+
+    @Override
+    public RowStore rowsFor(final EntityDefinition definition) {
+        return null;
+    }
+}
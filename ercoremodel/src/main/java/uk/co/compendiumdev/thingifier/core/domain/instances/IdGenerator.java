@@ -0,0 +1,43 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+/*
+    Allocates the values of an AUTO_INCREMENT field for the instances in a collection.
+
+    Ids are allocated by concurrent requests, so an implementation must allocate
+    each id once without relying on the caller to lock, e.g. the current value
+    should not be read and then updated in two steps.
+ */
+public interface IdGenerator {
+
+    String getName();
+
+    /**
+     * @return the id which will be allocated next
+     */
+    int getCurrentValue();
+
+    /**
+     * @return the allocated id, which will not be allocated again
+     */
+    int nextValue();
+
+    /**
+     * Allocate a block of ids in one step, e.g. for a bulk insert.
+     *
+     * @return the first id in the block, the others follow it at the increment
+     */
+    int reserve(int count);
+
+    int getIncrement();
+
+    /**
+     * Make sure the ids allocated from now on are above the value, e.g. when
+     * an instance is added with its id already set. Never moves the ids back.
+     */
+    void incrementToNextAbove(int value);
+
+    /**
+     * @return a generator which continues from the current value, independently of this one
+     */
+    IdGenerator copied();
+}
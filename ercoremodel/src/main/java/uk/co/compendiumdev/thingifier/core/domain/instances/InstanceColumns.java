@@ -0,0 +1,521 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+
+/*
+    The field values of the instances in a collection held as columns, used when
+    the definition is stored as columns, so that large collections can be filtered
+    and sorted with loops over arrays rather than reading the FieldValue of each instance.
+
+    Each instance has a row, rows are kept dense by moving the last row into
+    the row of a deleted instance.
+
+    INTEGER, AUTO_INCREMENT, FLOAT and BOOLEAN fields are held as primitives,
+    STRING and ENUM fields are dictionary encoded so that each distinct value
+    is only compared once. Other field types are not held in columns.
+
+    As with the OrderedFieldIndex, rows with a value which can not be converted
+    to the field type are tracked, while there are any the column is not used.
+ */
+final class InstanceColumns {
+
+    private static final int INITIAL_ROWS = 16;
+
+    private final EntityDefinition definition;
+    // by field ordinal, null when the field type is not held as a column
+    private final Column[] columns;
+    private final Map<EntityInstance, Integer> rowOf = new HashMap<>();
+    private EntityInstance[] rows = new EntityInstance[INITIAL_ROWS];
+    private int rowCount = 0;
+
+    InstanceColumns(final EntityDefinition definition) {
+        this.definition = definition;
+
+        final List<String> fieldNames = definition.getFieldNames();
+        columns = new Column[fieldNames.size()];
+        for(String fieldName : fieldNames){
+            final int ordinal = definition.getOrdinalOf(fieldName);
+            columns[ordinal] = createColumnFor(definition.getField(fieldName), ordinal);
+        }
+    }
+
+    private Column createColumnFor(final Field field, final int ordinal) {
+        switch (field.getType()){
+            case AUTO_INCREMENT:
+            case INTEGER:
+                return new IntColumn(field, ordinal, INITIAL_ROWS);
+            case FLOAT:
+                return new FloatColumn(field, ordinal, INITIAL_ROWS);
+            case BOOLEAN:
+                return new BooleanColumn(field, ordinal, INITIAL_ROWS);
+            case STRING:
+            case ENUM:
+                return new DictionaryColumn(field, ordinal, INITIAL_ROWS);
+            default:
+                return null;
+        }
+    }
+
+    synchronized void add(final EntityInstance instance) {
+        if(rowOf.containsKey(instance)){
+            return;
+        }
+
+        if(rowCount==rows.length){
+            final int capacity = rows.length * 2;
+            rows = Arrays.copyOf(rows, capacity);
+            for(Column column : columns){
+                if(column!=null){
+                    column.grow(capacity);
+                }
+            }
+        }
+
+        final int row = rowCount++;
+        rows[row] = instance;
+        rowOf.put(instance, row);
+        for(Column column : columns){
+            if(column!=null){
+                column.set(row, instance.getFieldValue(column.ordinal));
+            }
+        }
+    }
+
+    synchronized void remove(final EntityInstance instance) {
+        final Integer row = rowOf.remove(instance);
+        if(row==null){
+            return;
+        }
+
+        final int lastRow = --rowCount;
+        if(row!=lastRow){
+            rows[row] = rows[lastRow];
+            rowOf.put(rows[row], row);
+        }
+        rows[lastRow] = null;
+
+        for(Column column : columns){
+            if(column!=null){
+                if(row!=lastRow){
+                    column.move(lastRow, row);
+                }
+                column.clear(lastRow);
+                column.compact(rowCount);
+            }
+        }
+    }
+
+    synchronized void update(final EntityInstance instance, final Collection<String> fieldNames) {
+        final Integer row = rowOf.get(instance);
+        if(row==null){
+            return;
+        }
+
+        for(String fieldName : fieldNames){
+            final Column column = columnFor(fieldName);
+            if(column!=null){
+                column.set(row, instance.getFieldValue(column.ordinal));
+            }
+        }
+    }
+
+    private Column columnFor(final String fieldName) {
+        final int ordinal = definition.getOrdinalOf(fieldName);
+        if(ordinal<0 || ordinal>=columns.length){
+            // fields added to the definition after the columns were created are not held
+            return null;
+        }
+        return columns[ordinal];
+    }
+
+    /*
+        The filters are applied in order and a regex ~= filter decides the match
+        without the filters after it, as when matching each instance. Filters on
+        fields the entity does not have are ignored.
+
+        Returns null if any filter or the sort field can not be answered from
+        the columns, the caller should then read the instances instead.
+     */
+    synchronized List<EntityInstance> find(final List<ColumnFilter> filters,
+                                           final String sortFieldName, final boolean ascending) {
+
+        final BitSet matched = new BitSet(rowCount);
+        matched.set(0, rowCount);
+
+        for(ColumnFilter filter : filters){
+            if(!definition.hasFieldNameDefined(filter.getFieldName())){
+                continue;
+            }
+
+            final Column column = columnFor(filter.getFieldName());
+            if(column==null || !column.isComplete()){
+                return null;
+            }
+
+            final BitSet filterMatched = column.matching(filter.getOperation(), filter.getValue(), rowCount);
+            if(filterMatched==null){
+                return null;
+            }
+            matched.and(filterMatched);
+
+            if(filter.getOperation().equals(ColumnFilter.REGEX)){
+                break;
+            }
+        }
+
+        if(sortFieldName==null || !definition.hasFieldNameDefined(sortFieldName)){
+            return rowsOf(matched);
+        }
+
+        final Column sortColumn = columnFor(sortFieldName);
+        if(sortColumn==null || !sortColumn.isComplete()){
+            return null;
+        }
+
+        final Integer[] order = new Integer[matched.cardinality()];
+        int position = 0;
+        for(int row = matched.nextSetBit(0); row >= 0; row = matched.nextSetBit(row+1)){
+            order[position++] = row;
+        }
+
+        final Comparator<Integer> byValue = sortColumn.rowComparator();
+        Arrays.sort(order, ascending ? byValue : byValue.reversed());
+
+        final List<EntityInstance> sorted = new ArrayList<>(order.length);
+        for(Integer row : order){
+            sorted.add(rows[row]);
+        }
+        return sorted;
+    }
+
+    private List<EntityInstance> rowsOf(final BitSet matched) {
+        final List<EntityInstance> found = new ArrayList<>(matched.cardinality());
+        for(int row = matched.nextSetBit(0); row >= 0; row = matched.nextSetBit(row+1)){
+            found.add(rows[row]);
+        }
+        return found;
+    }
+
+    /*
+        which results of comparing a value with the filter value are a match
+        for the operation, null if the operation is not a comparison
+     */
+    private static IntPredicate acceptsComparison(final String operation) {
+        switch (operation){
+            case "=":
+                return compared -> compared==0;
+            case "<":
+                return compared -> compared<0;
+            case ">":
+                return compared -> compared>0;
+            case "<=":
+                return compared -> compared<=0;
+            case ">=":
+                return compared -> compared>=0;
+            case "!=":
+            case "!":
+                return compared -> compared!=0;
+            default:
+                return null;
+        }
+    }
+
+    private abstract static class Column {
+
+        final Field field;
+        final int ordinal;
+        private final BitSet invalidRows = new BitSet();
+
+        Column(final Field field, final int ordinal) {
+            this.field = field;
+            this.ordinal = ordinal;
+        }
+
+        void set(final int row, final FieldValue value) {
+            try{
+                store(row, value);
+                invalidRows.clear(row);
+            }catch(RuntimeException e){
+                // null or not convertible to the field type
+                invalidRows.set(row);
+            }
+        }
+
+        void move(final int fromRow, final int toRow) {
+            copy(fromRow, toRow);
+            invalidRows.set(toRow, invalidRows.get(fromRow));
+        }
+
+        void clear(final int row) {
+            invalidRows.clear(row);
+        }
+
+        boolean isComplete() {
+            return invalidRows.isEmpty();
+        }
+
+        void compact(final int rowCount) {
+            // only dictionaries need compacting
+        }
+
+        abstract void grow(int capacity);
+
+        abstract void store(int row, FieldValue value);
+
+        abstract void copy(int fromRow, int toRow);
+
+        abstract Comparator<Integer> rowComparator();
+
+        // rows matching the filter, or null if the filter value can not be converted to the field type
+        abstract BitSet matching(String operation, String filterValue, int rowCount);
+    }
+
+    private static final class IntColumn extends Column {
+
+        private int[] values;
+
+        IntColumn(final Field field, final int ordinal, final int capacity) {
+            super(field, ordinal);
+            values = new int[capacity];
+        }
+
+        void grow(final int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void store(final int row, final FieldValue value) {
+            values[row] = value.asInteger();
+        }
+
+        void copy(final int fromRow, final int toRow) {
+            values[toRow] = values[fromRow];
+        }
+
+        Comparator<Integer> rowComparator() {
+            return (row1, row2) -> Integer.compare(values[row1], values[row2]);
+        }
+
+        BitSet matching(final String operation, final String filterValue, final int rowCount) {
+            final IntPredicate accepts = acceptsComparison(operation);
+            final int compareWith;
+            try{
+                compareWith = Integer.parseInt(filterValue);
+            }catch(NumberFormatException e){
+                return null;
+            }
+            if(accepts==null){
+                return null;
+            }
+
+            final BitSet matched = new BitSet(rowCount);
+            for(int row = 0; row < rowCount; row++){
+                if(accepts.test(Integer.compare(values[row], compareWith))){
+                    matched.set(row);
+                }
+            }
+            return matched;
+        }
+    }
+
+    private static final class FloatColumn extends Column {
+
+        private float[] values;
+
+        FloatColumn(final Field field, final int ordinal, final int capacity) {
+            super(field, ordinal);
+            values = new float[capacity];
+        }
+
+        void grow(final int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void store(final int row, final FieldValue value) {
+            values[row] = value.asFloat();
+        }
+
+        void copy(final int fromRow, final int toRow) {
+            values[toRow] = values[fromRow];
+        }
+
+        Comparator<Integer> rowComparator() {
+            return (row1, row2) -> Float.compare(values[row1], values[row2]);
+        }
+
+        BitSet matching(final String operation, final String filterValue, final int rowCount) {
+            final IntPredicate accepts = acceptsComparison(operation);
+            final float compareWith;
+            try{
+                compareWith = Float.parseFloat(filterValue);
+            }catch(NumberFormatException e){
+                return null;
+            }
+            if(accepts==null){
+                return null;
+            }
+
+            final BitSet matched = new BitSet(rowCount);
+            for(int row = 0; row < rowCount; row++){
+                if(accepts.test(Float.compare(values[row], compareWith))){
+                    matched.set(row);
+                }
+            }
+            return matched;
+        }
+    }
+
+    private static final class BooleanColumn extends Column {
+
+        private boolean[] values;
+
+        BooleanColumn(final Field field, final int ordinal, final int capacity) {
+            super(field, ordinal);
+            values = new boolean[capacity];
+        }
+
+        void grow(final int capacity) {
+            values = Arrays.copyOf(values, capacity);
+        }
+
+        void store(final int row, final FieldValue value) {
+            values[row] = value.asBoolean();
+        }
+
+        void copy(final int fromRow, final int toRow) {
+            values[toRow] = values[fromRow];
+        }
+
+        Comparator<Integer> rowComparator() {
+            return (row1, row2) -> Boolean.compare(values[row1], values[row2]);
+        }
+
+        BitSet matching(final String operation, final String filterValue, final int rowCount) {
+            final IntPredicate accepts = acceptsComparison(operation);
+            final boolean compareWith;
+            try{
+                compareWith = field.valueFor(filterValue).asBoolean();
+            }catch(IllegalArgumentException e){
+                return null;
+            }
+            if(accepts==null){
+                return null;
+            }
+
+            final BitSet matched = new BitSet(rowCount);
+            for(int row = 0; row < rowCount; row++){
+                if(accepts.test(Boolean.compare(values[row], compareWith))){
+                    matched.set(row);
+                }
+            }
+            return matched;
+        }
+    }
+
+    /*
+        each row holds the code of its value in the dictionary, unused values
+        are left in the dictionary until it is compacted
+     */
+    private static final class DictionaryColumn extends Column {
+
+        private static final int MIN_DICTIONARY_TO_COMPACT = 64;
+
+        private int[] codes;
+        private List<String> dictionary = new ArrayList<>();
+        private Map<String, Integer> codeOf = new HashMap<>();
+
+        DictionaryColumn(final Field field, final int ordinal, final int capacity) {
+            super(field, ordinal);
+            codes = new int[capacity];
+        }
+
+        void grow(final int capacity) {
+            codes = Arrays.copyOf(codes, capacity);
+        }
+
+        void store(final int row, final FieldValue value) {
+            codes[row] = encode(value.asString());
+        }
+
+        private int encode(final String value) {
+            if(value==null){
+                throw new IllegalArgumentException("no value for " + field.getName());
+            }
+            return codeOf.computeIfAbsent(value, key -> {
+                dictionary.add(key);
+                return dictionary.size()-1;
+            });
+        }
+
+        void copy(final int fromRow, final int toRow) {
+            codes[toRow] = codes[fromRow];
+        }
+
+        void compact(final int rowCount) {
+            if(dictionary.size() < MIN_DICTIONARY_TO_COMPACT || dictionary.size() <= rowCount*2){
+                return;
+            }
+
+            final List<String> oldDictionary = dictionary;
+            dictionary = new ArrayList<>();
+            codeOf = new HashMap<>();
+            for(int row = 0; row < rowCount; row++){
+                codes[row] = encode(oldDictionary.get(codes[row]));
+            }
+        }
+
+        Comparator<Integer> rowComparator() {
+            // rank the distinct values once rather than comparing strings for every row
+            final Integer[] byValue = new Integer[dictionary.size()];
+            for(int code = 0; code < byValue.length; code++){
+                byValue[code] = code;
+            }
+            Arrays.sort(byValue, Comparator.comparing(dictionary::get));
+
+            final int[] rank = new int[byValue.length];
+            for(int position = 0; position < byValue.length; position++){
+                rank[byValue[position]] = position;
+            }
+
+            return (row1, row2) -> Integer.compare(rank[codes[row1]], rank[codes[row2]]);
+        }
+
+        BitSet matching(final String operation, final String filterValue, final int rowCount) {
+
+            final boolean[] codeMatches = new boolean[dictionary.size()];
+
+            if(operation.equals(ColumnFilter.REGEX)){
+                final Pattern pattern;
+                try{
+                    pattern = Pattern.compile(filterValue);
+                }catch(RuntimeException e){
+                    return null;
+                }
+                for(int code = 0; code < codeMatches.length; code++){
+                    codeMatches[code] = pattern.matcher(dictionary.get(code)).matches();
+                }
+            }else{
+                final IntPredicate accepts = acceptsComparison(operation);
+                if(accepts==null){
+                    return null;
+                }
+                for(int code = 0; code < codeMatches.length; code++){
+                    codeMatches[code] = accepts.test(dictionary.get(code).compareTo(filterValue));
+                }
+            }
+
+            final BitSet matched = new BitSet(rowCount);
+            for(int row = 0; row < rowCount; row++){
+                if(codeMatches[codes[row]]){
+                    matched.set(row);
+                }
+            }
+            return matched;
+        }
+    }
+}
@@ -14,34 +14,49 @@ import java.util.*;
     for a specific field, in which case the default from the DefinedFields
     will be used instead.
 
+    Values are stored in the slot for the ordinal of the field in the DefinedFields,
+    a null slot has no assigned value.
+
+    The slots are held here, or once the instance is managed by a collection with
+    a RowStore, in the RowStore and changed by writing a changed copy of the row.
  */
 public class InstanceFields {
 
+    private static final FieldValue[] NO_VALUES = new FieldValue[0];
+
     private final DefinedFields objectDefinition;
-    private Map<String, FieldValue> values = new HashMap<String, FieldValue>();
-    private AutoIncrement defaultAuto;
+    private FieldValue[] values = NO_VALUES;
+    // when not null the slots are in the row store, not in values
+    private RowStore rows;
+    private long rowId;
+    // todo: there should be no auto increment here, created when first used by a nested object
+    private IdGenerator defaultAuto;
 
     public InstanceFields(final DefinedFields objectDefinition) {
         this.objectDefinition = objectDefinition;
-        // todo: there should be no auto increment here
-        defaultAuto = new AutoIncrement("default", 1);
+    }
+
+    private IdGenerator defaultAuto(){
+        if(defaultAuto==null){
+            defaultAuto = new AutoIncrement("default", 1);
+        }
+        return defaultAuto;
     }
 
     // TODO: this should be using a set of ID Counters, not the field definition - id counts should not be on field definition
     @Deprecated
     public InstanceFields addAutoIncrementIdsToInstance() {
-        return addAutoIncrementIdsToInstance(defaultAuto);
+        return addAutoIncrementIdsToInstance(defaultAuto());
     }
 
     @Deprecated
-    public InstanceFields addAutoIncrementIdsToInstance(AutoIncrement anAuto) {
+    public InstanceFields addAutoIncrementIdsToInstance(IdGenerator anAuto) {
 
         List<Field>idfields = objectDefinition.getFieldsOfType(FieldType.AUTO_INCREMENT);
         for(Field aField : idfields){
             if(aField.getType()==FieldType.AUTO_INCREMENT){
-                if(!values.containsKey(aField.getName().toLowerCase())) {
-                    addValue(FieldValue.is(aField, String.valueOf(anAuto.getCurrentValue())));
-                    anAuto.update();
+                if(!hasAssignedValue(aField.getName())) {
+                    addValue(FieldValue.is(aField, anAuto.nextValue()));
                 }
             }
         }
@@ -49,74 +64,191 @@ public class InstanceFields {
     }
 
     public void addValue(final FieldValue value) {
-        values.put(value.getName().toLowerCase(), value);
+        setSlot(ordinalOrFail(value.getName()), value);
+    }
+
+    private int ordinalOrFail(final String fieldName) {
+        final int ordinal = objectDefinition.getOrdinalOf(fieldName);
+        if(ordinal<0){
+            reportCannotFindFieldError(fieldName);
+        }
+        return ordinal;
+    }
+
+    private void setSlot(final int ordinal, final FieldValue value) {
+        final RowStore store = rows;
+        if(store!=null){
+            final FieldValue[] row = store.read(rowId);
+            final FieldValue[] changed = Arrays.copyOf(row, Math.max(row.length, objectDefinition.countFields()));
+            changed[ordinal] = value;
+            store.write(rowId, changed);
+            return;
+        }
+
+        if(ordinal>=values.length){
+            if(value==null){
+                return;
+            }
+            // fields can be added to the definition after the instance was created
+            values = Arrays.copyOf(values, objectDefinition.countFields());
+        }
+        values[ordinal] = value;
+    }
+
+    private FieldValue getSlot(final int ordinal) {
+        final FieldValue[] slots = slots();
+        if(ordinal<0 || ordinal>=slots.length){
+            return null;
+        }
+        return slots[ordinal];
+    }
+
+    private FieldValue[] slots() {
+        final RowStore store = rows;
+        if(store!=null){
+            return store.read(rowId);
+        }
+        return values;
+    }
+
+    /*
+        the slots are kept by the row store from now on, if they were kept by
+        another store e.g. the instance was in another collection, they move
+     */
+    void storeIn(final RowStore store, final long id) {
+        releaseFromStore();
+        store.write(id, values);
+        rowId = id;
+        rows = store;
+        values = NO_VALUES;
+    }
+
+    /*
+        the slots are held here again e.g. when the instance is deleted, so it can still be read
+     */
+    void releaseFromStore() {
+        final RowStore store = rows;
+        if(store==null){
+            return;
+        }
+        values = store.read(rowId);
+        rows = null;
+        store.delete(rowId);
+    }
+
+    /*
+        the assigned values as (path, value) pairs, the fields of OBJECT values are
+        given as paths e.g. address.street so that putValue can set them again
+     */
+    void addPathsAndValuesTo(final List<String> pathsAndValues) {
+        addPathsAndValues(objectDefinition, slots(), "", pathsAndValues);
+    }
+
+    FieldValue[] assignedSlots() {
+        return slots();
+    }
+
+    static void addPathsAndValues(final DefinedFields definition, final FieldValue[] slots,
+                                  final String prefix, final List<String> pathsAndValues) {
+        for(int ordinal=0; ordinal<slots.length; ordinal++){
+            final FieldValue value = slots[ordinal];
+            if(value==null){
+                continue;
+            }
+            final Field field = definition.getFieldAt(ordinal);
+            if(field.getType()==FieldType.OBJECT){
+                final InstanceFields object = value.asObject();
+                addPathsAndValues(object.objectDefinition, object.slots(),
+                        prefix + field.getName() + ".", pathsAndValues);
+            }else{
+                pathsAndValues.add(prefix + field.getName());
+                pathsAndValues.add(value.asString());
+            }
+        }
     }
 
     public FieldValue getAssignedValue(String fieldName) {
-        return values.get(fieldName.toLowerCase());
+        return getSlot(objectDefinition.getOrdinalOf(fieldName));
+    }
+
+    public FieldValue getAssignedValue(final int ordinal) {
+        return getSlot(ordinal);
+    }
+
+    // used to revert a change that was rejected e.g. by a unique index
+    void restoreAssignedValue(final String fieldName, final FieldValue value) {
+        setSlot(ordinalOrFail(fieldName), value);
     }
 
     public FieldValue getFieldValue(String fieldName) {
 
         // todo : support complex fieldNames e.g. person.firstname
 
-        if(!objectDefinition.hasFieldNameDefined(fieldName)){
-            reportCannotFindFieldError(fieldName);
+        return getFieldValue(ordinalOrFail(fieldName));
+    }
+
+    /**
+     * Access a field value by the ordinal from the DefinedFields, avoids the
+     * field name lookups when the same field is read from many instances.
+     */
+    public FieldValue getFieldValue(final int ordinal) {
+
+        // pass back any defaults setup
+        final FieldValue assignedValue = getSlot(ordinal);
+        if (assignedValue != null) {
+            return assignedValue;
         }
 
         // bypass default processing for OBJECT, ARRAY - at the moment
         // todo: allow defaults for OBJECT, ARRAY, etc.
-        Field field = objectDefinition.getField(fieldName);
-        if(field.getType()==FieldType.OBJECT){
-            getAssignedValue(fieldName);
-        }
+        final Field field = objectDefinition.getFieldAt(ordinal);
 
-        // pass back any defaults setup
-        FieldValue assignedValue = getAssignedValue(fieldName);
-        if (assignedValue == null) {
-            // does definition have a default value?
-            if (objectDefinition.getField(fieldName).hasDefaultValue()) {
-                return objectDefinition.getField(fieldName).getDefaultValue();
-            } else {
-                // return the field type default value
-                String defaultVal = objectDefinition.getField(fieldName).getType().getDefault();
-                if (defaultVal != null) {
-                    return FieldValue.is(field, defaultVal);
-                }
-            }
+        // does definition have a default value?
+        if (field.hasDefaultValue()) {
+            return field.getDefaultValue();
         }
 
-        return assignedValue;
+        // return the field type default value, which may be null
+        return field.getTypeDefaultValue();
     }
 
     public String toString() {
 
         StringBuilder output = new StringBuilder();
 
-        for (Map.Entry<String, FieldValue> entry : values.entrySet()) {
-            output.append("\n\t\t\t\t" + entry.getKey() + " : " + entry.getValue() + "\n");
+        for (FieldValue value : slots()) {
+            if(value!=null) {
+                output.append("\n\t\t\t\t" + value.getName().toLowerCase() + " : " + value + "\n");
+            }
         }
 
         return output.toString();
     }
 
 
-    public void deleteAllFieldValuesExcept(List fieldNamesToIgnore) {
+    public void deleteAllFieldValuesExcept(List<String> fieldNamesToIgnore) {
 
-        Set<String> ignorekeys = new HashSet<>(fieldNamesToIgnore);
-        Set<String> keys = new HashSet(values.keySet());
+        Set<Integer> ignoreOrdinals = new HashSet<>();
+        for(String fieldName : fieldNamesToIgnore){
+            ignoreOrdinals.add(objectDefinition.getOrdinalOf(fieldName));
+        }
 
-        for (String key : keys) {
-            if (!ignorekeys.contains(key)) {
-                values.remove(key);
+        final FieldValue[] slots = slots();
+        for (int ordinal = 0; ordinal < slots.length; ordinal++) {
+            if (!ignoreOrdinals.contains(ordinal) && slots[ordinal]!=null) {
+                setSlot(ordinal, null);
             }
         }
     }
 
     public InstanceFields cloned(){
         final InstanceFields clone = new InstanceFields(objectDefinition);
-        for(FieldValue value : values.values()){
-            clone.addValue(value.cloned());
+        final FieldValue[] slots = slots();
+        clone.values = new FieldValue[slots.length];
+        for(int ordinal = 0; ordinal < slots.length; ordinal++){
+            if(slots[ordinal]!=null){
+                clone.values[ordinal] = slots[ordinal].cloned();
+            }
         }
         return clone;
     }
@@ -142,8 +274,7 @@ public class InstanceFields {
 
         final ValidationReport validationReport = field.validate(value);
         if (validationReport.isValid()) {
-            addValue(FieldValue.is(field,
-                    field.getActualValueToAdd(value)));
+            addValue(field.getActualFieldValueToAdd(value));
 
         } else {
             throw new IllegalArgumentException(
@@ -206,6 +337,11 @@ public class InstanceFields {
             fieldNames.remove(0); // processed this field
 
             fieldInstance.setFieldValue(fieldNames, value, shouldValidateValue);
+
+            if(rows!=null){
+                // the object was changed in place, the row store has to be given the changed row
+                addValue(objectValue);
+            }
         }
 
     }
@@ -216,7 +352,7 @@ public class InstanceFields {
             if(field.getType()==FieldType.OBJECT){
                 final FieldValue objectValue = FieldValue.is(field,
                         new InstanceFields(field.getObjectDefinition()).
-                                addAutoIncrementIdsToInstance(defaultAuto));
+                                addAutoIncrementIdsToInstance(defaultAuto()));
                 addValue(objectValue);
                 return objectValue;
             }
@@ -298,6 +434,6 @@ public class InstanceFields {
     }
 
     public boolean hasAssignedValue(String fieldName) {
-        return values.containsKey(fieldName.toLowerCase());
+        return getAssignedValue(fieldName)!=null;
     }
 }
@@ -0,0 +1,83 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/*
+    Writes strings as quoted json strings, escaping as it goes rather than
+    creating an escaped copy of the string first. The runs of characters
+    which need no escaping are written as they are.
+ */
+public final class JsonEscaper {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JsonEscaper(){
+    }
+
+    public static String quoted(final String value) {
+        final StringWriter quoted = new StringWriter(value.length() + 2);
+        try {
+            writeQuoted(quoted, value);
+        } catch (IOException e) {
+            // writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return quoted.toString();
+    }
+
+    public static void writeQuoted(final Writer out, final String value) throws IOException {
+        out.write('"');
+
+        int unescapedFrom = 0;
+        final int length = value.length();
+        for(int index=0; index<length; index++){
+            final char character = value.charAt(index);
+            if(character=='"' || character=='\\' || character<0x20){
+                if(index>unescapedFrom){
+                    out.write(value, unescapedFrom, index-unescapedFrom);
+                }
+                writeEscaped(out, character);
+                unescapedFrom = index+1;
+            }
+        }
+        if(length>unescapedFrom){
+            out.write(value, unescapedFrom, length-unescapedFrom);
+        }
+
+        out.write('"');
+    }
+
+    private static void writeEscaped(final Writer out, final char character) throws IOException {
+        out.write('\\');
+        switch (character){
+            case '"':
+            case '\\':
+                out.write(character);
+                break;
+            case '\n':
+                out.write('n');
+                break;
+            case '\r':
+                out.write('r');
+                break;
+            case '\t':
+                out.write('t');
+                break;
+            case '\b':
+                out.write('b');
+                break;
+            case '\f':
+                out.write('f');
+                break;
+            default:
+                out.write('u');
+                out.write('0');
+                out.write('0');
+                out.write(HEX[character >> 4]);
+                out.write(HEX[character & 0xF]);
+        }
+    }
+}
@@ -0,0 +1,481 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.DefinedFields;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+    Keeps the field values of the instances in an append only file, so the databases
+    can hold more data than fits on the heap. A bounded number of rows are cached in
+    memory, the others are read from the file when they are used.
+
+    Each write of a row appends a record: row id, record length, then the row as
+    (field path, value) pairs. The location of the latest record of each row is kept
+    in memory. When most of the file is records which have been replaced or deleted,
+    the current records are copied to a new file which replaces it. The copy is made in
+    the background, reads and writes carry on against the old file, and the lock is only
+    held to swap the files: rows written during the copy are moved across then, along
+    with any records appended to the old file since the copy started.
+
+    The file is working storage, not persistence, it is deleted when the engine is
+    closed and a new engine never reads an old file.
+ */
+public final class LogStructuredStorageEngine implements StorageEngine, AutoCloseable {
+
+    private static final FieldValue[] NO_VALUES = new FieldValue[0];
+    private static final int RECORD_HEADER_LENGTH = Long.BYTES + Integer.BYTES;
+    // a location is the offset of the record in the file and its length, in one long
+    private static final int LENGTH_BITS = 24;
+    private static final long MAX_RECORD_LENGTH = (1L << LENGTH_BITS) - 1;
+
+    private final File folder;
+    private final long compactWhenLargerThan;
+    private final Map<Long, FieldValue[]> cache;
+    // the locations of the rows of each store, held through a reference to the store so that once the
+    // store is garbage collected, e.g. its collection was truncated and dropped, its records are not kept
+    private final Set<StoreLocations> stores = new HashSet<>();
+    private final ReferenceQueue<LogRowStore> collectedStores = new ReferenceQueue<>();
+
+    private File file;
+    private FileChannel channel;
+    private long end;
+    private long liveBytes;
+    private boolean closed;
+
+    private final ExecutorService compactions = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "row-compaction");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // the compaction in progress, if any
+    private Future<?> compaction;
+
+    public LogStructuredStorageEngine(final File folder, final int cachedRows) throws IOException {
+        this(folder, cachedRows, 4 * 1024 * 1024);
+    }
+
+    public LogStructuredStorageEngine(final File folder, final int cachedRows,
+                                      final long compactWhenLargerThan) throws IOException {
+        this.folder = folder;
+        this.compactWhenLargerThan = compactWhenLargerThan;
+        // access ordered, so the least recently used row is removed when the cache is full
+        this.cache = new LinkedHashMap<Long, FieldValue[]>(16, 0.75f, true){
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Long, FieldValue[]> eldest) {
+                return size() > cachedRows;
+            }
+        };
+
+        folder.mkdirs();
+        file = File.createTempFile("rows-", ".log", folder);
+        file.deleteOnExit();
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public synchronized RowStore rowsFor(final EntityDefinition definition) {
+        dropCollectedStores();
+        final LogRowStore store = new LogRowStore(definition);
+        stores.add(new StoreLocations(store));
+        return store;
+    }
+
+    public synchronized long getFileLength() {
+        return end;
+    }
+
+    /**
+     * @return the bytes of the records which are current, the rest of the file is replaced records
+     */
+    public synchronized long getLiveBytes() {
+        dropCollectedStores();
+        return liveBytes;
+    }
+
+    public synchronized int countCachedRows() {
+        return cache.size();
+    }
+
+    /**
+     * Wait for the compactions in the background to complete, if any are running.
+     */
+    public void waitForCompaction() {
+        while(true){
+            final Future<?> running;
+            synchronized (this){
+                running = compaction;
+            }
+            if(running==null || running.isDone() && running==currentCompaction()){
+                return;
+            }
+            try {
+                running.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("ERROR: Row storage compaction failed", e.getCause());
+            }
+        }
+    }
+
+    private synchronized Future<?> currentCompaction() {
+        return compaction;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        compactions.shutdownNow();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            file.delete();
+            cache.clear();
+        }
+    }
+
+    private synchronized FieldValue[] read(final LogRowStore store, final long rowId) {
+        FieldValue[] row = cache.get(rowId);
+        if(row!=null){
+            return row;
+        }
+
+        final Long location = store.locations.get(rowId);
+        if(location==null){
+            return NO_VALUES;
+        }
+
+        row = decode(store, readRecord(location));
+        cache.put(rowId, row);
+        return row;
+    }
+
+    private synchronized void write(final LogRowStore store, final long rowId, final FieldValue[] row) {
+        final byte[] record = encode(store, rowId, row);
+        if(record.length > MAX_RECORD_LENGTH){
+            throw new IllegalArgumentException(String.format(
+                    "ERROR: Cannot store a %s of %d bytes", store.definition.getName(), record.length));
+        }
+
+        final long offset = end;
+        writeFully(channel, ByteBuffer.wrap(record), offset);
+        end = end + record.length;
+
+        dropCollectedStores();
+        final Long replaced = store.locations.put(rowId, locationOf(offset, record.length));
+        if(replaced!=null){
+            liveBytes = liveBytes - lengthAt(replaced);
+        }
+        liveBytes = liveBytes + record.length;
+        cache.put(rowId, row);
+
+        if(needsCompaction() && (compaction==null || compaction.isDone())){
+            compaction = compactions.submit(this::compact);
+        }
+    }
+
+    private synchronized void delete(final LogRowStore store, final long rowId) {
+        final Long removed = store.locations.remove(rowId);
+        if(removed!=null){
+            liveBytes = liveBytes - lengthAt(removed);
+        }
+        cache.remove(rowId);
+    }
+
+    private synchronized void clear(final LogRowStore store) {
+        for(Map.Entry<Long, Long> location : store.locations.entrySet()){
+            liveBytes = liveBytes - lengthAt(location.getValue());
+            cache.remove(location.getKey());
+        }
+        store.locations.clear();
+    }
+
+    /*
+        copy the current record of every row to a new file, the replaced and deleted records
+        are left behind. The records are copied without the lock, from the rows' locations
+        when the copy started, then the files are swapped under the lock.
+     */
+    private void compact() {
+        final List<Map<Long, Long>> copying = new ArrayList<>();
+        final FileChannel copyFrom;
+        final long copiedUpTo;
+        synchronized (this){
+            if(closed){
+                return;
+            }
+            dropCollectedStores();
+            for(StoreLocations store : stores){
+                copying.add(new HashMap<>(store.locations));
+            }
+            copyFrom = channel;
+            copiedUpTo = end;
+        }
+
+        File compacted = null;
+        FileChannel compactedChannel = null;
+        try {
+            compacted = File.createTempFile("rows-", ".log", folder);
+            compacted.deleteOnExit();
+            compactedChannel = FileChannel.open(compacted.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            // old location -> new location, the old channel is only appended to so the records stay readable
+            final Map<Long, Long> moved = new HashMap<>();
+            long position = 0;
+            for(Map<Long, Long> locations : copying){
+                for(Long location : locations.values()){
+                    final ByteBuffer record = readRecord(copyFrom, location);
+                    final int length = record.remaining();
+                    writeFully(compactedChannel, record, position);
+                    moved.put(location, locationOf(position, length));
+                    position = position + length;
+                }
+            }
+
+            swapIn(compacted, compactedChannel, moved, position, copiedUpTo);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(compactedChannel);
+            if(compacted!=null){
+                compacted.delete();
+            }
+            if(e instanceof IOException){
+                throw new UncheckedIOException((IOException) e);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    /*
+        rows still at the location they were copied from move to their copy, the records
+        appended since the copy started are copied after the compacted records
+     */
+    private synchronized void swapIn(final File compacted, final FileChannel compactedChannel,
+                                     final Map<Long, Long> moved, final long compactedEnd,
+                                     final long copiedUpTo) throws IOException {
+        if(closed){
+            throw new IllegalStateException("ERROR: Row storage was closed during compaction");
+        }
+
+        final ByteBuffer appended = ByteBuffer.allocate((int) (end - copiedUpTo));
+        long readFrom = copiedUpTo;
+        while(appended.hasRemaining()){
+            readFrom = readFrom + channel.read(appended, readFrom);
+        }
+        appended.flip();
+        writeFully(compactedChannel, appended, compactedEnd);
+
+        for(StoreLocations store : stores){
+            for(Map.Entry<Long, Long> location : store.locations.entrySet()){
+                final long current = location.getValue();
+                if(offsetAt(current) >= copiedUpTo){
+                    location.setValue(locationOf(compactedEnd + offsetAt(current) - copiedUpTo, lengthAt(current)));
+                }else{
+                    location.setValue(moved.get(current));
+                }
+            }
+        }
+
+        channel.close();
+        file.delete();
+        file = compacted;
+        channel = compactedChannel;
+        end = compactedEnd + (end - copiedUpTo);
+
+        if(needsCompaction()){
+            // enough was written during the copy for another, it runs once this one is done
+            compaction = compactions.submit(this::compact);
+        }
+    }
+
+    private boolean needsCompaction() {
+        return end > compactWhenLargerThan && liveBytes < end/2;
+    }
+
+    private static void closeQuietly(final FileChannel aChannel) {
+        if(aChannel==null){
+            return;
+        }
+        try {
+            aChannel.close();
+        } catch (IOException e) {
+            // already failed, the first error is the one reported
+        }
+    }
+
+    private ByteBuffer readRecord(final long location) {
+        return readRecord(channel, location);
+    }
+
+    private static ByteBuffer readRecord(final FileChannel fromChannel, final long location) {
+        final ByteBuffer record = ByteBuffer.allocate(lengthAt(location));
+        long position = offsetAt(location);
+        try {
+            while(record.hasRemaining()){
+                final int read = fromChannel.read(record, position);
+                if(read<0){
+                    throw new IllegalStateException("ERROR: Row storage file is shorter than expected");
+                }
+                position = position + read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        record.flip();
+        return record;
+    }
+
+    private static void writeFully(final FileChannel toChannel, final ByteBuffer bytes, final long offset) {
+        long position = offset;
+        try {
+            while(bytes.hasRemaining()){
+                position = position + toChannel.write(bytes, position);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(final LogRowStore store, final long rowId, final FieldValue[] row) {
+        final List<String> pathsAndValues = new ArrayList<>();
+        InstanceFields.addPathsAndValues(store.fields, row, "", pathsAndValues);
+
+        final ByteArrayOutputStream record = new ByteArrayOutputStream();
+        try {
+            final DataOutputStream out = new DataOutputStream(record);
+            out.writeLong(rowId);
+            out.writeInt(0); // length, set once known
+            out.writeInt(pathsAndValues.size()/2);
+            for(String pathOrValue : pathsAndValues){
+                final byte[] bytes = pathOrValue.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // writing to memory
+            throw new UncheckedIOException(e);
+        }
+
+        final byte[] bytes = record.toByteArray();
+        ByteBuffer.wrap(bytes).putInt(Long.BYTES, bytes.length);
+        return bytes;
+    }
+
+    private static FieldValue[] decode(final LogRowStore store, final ByteBuffer record) {
+        record.position(RECORD_HEADER_LENGTH);
+        final InstanceFields fields = store.definition.instantiateFields();
+        final int pairs = record.getInt();
+        for(int pair=0; pair<pairs; pair++){
+            final String path = readString(record);
+            fields.putValue(path, readString(record));
+        }
+        return fields.assignedSlots();
+    }
+
+    private static String readString(final ByteBuffer record) {
+        final int length = record.getInt();
+        final String string = new String(record.array(), record.position(), length, StandardCharsets.UTF_8);
+        record.position(record.position() + length);
+        return string;
+    }
+
+    private static long locationOf(final long offset, final int length) {
+        return (offset << LENGTH_BITS) | length;
+    }
+
+    private static long offsetAt(final long location) {
+        return location >>> LENGTH_BITS;
+    }
+
+    private static int lengthAt(final long location) {
+        return (int) (location & MAX_RECORD_LENGTH);
+    }
+
+    /*
+        the records of stores which have been garbage collected are no longer live,
+        called with the lock held
+     */
+    private void dropCollectedStores() {
+        Reference<? extends LogRowStore> collected;
+        while((collected = collectedStores.poll())!=null){
+            final StoreLocations store = (StoreLocations) collected;
+            if(stores.remove(store)){
+                for(Map.Entry<Long, Long> location : store.locations.entrySet()){
+                    liveBytes = liveBytes - lengthAt(location.getValue());
+                    cache.remove(location.getKey());
+                }
+            }
+        }
+    }
+
+    private final class StoreLocations extends WeakReference<LogRowStore> {
+
+        // the same map as the store's, it is kept here once the store has gone
+        private final Map<Long, Long> locations;
+
+        private StoreLocations(final LogRowStore store) {
+            super(store, collectedStores);
+            this.locations = store.locations;
+        }
+    }
+
+    private final class LogRowStore implements RowStore {
+
+        private final EntityDefinition definition;
+        private final DefinedFields fields;
+        // row id -> location of the row's current record
+        private final Map<Long, Long> locations = new HashMap<>();
+
+        private LogRowStore(final EntityDefinition definition) {
+            this.definition = definition;
+            this.fields = definition.instantiateFields().getDefinition();
+        }
+
+        @Override
+        public FieldValue[] read(final long rowId) {
+            return LogStructuredStorageEngine.this.read(this, rowId);
+        }
+
+        @Override
+        public void write(final long rowId, final FieldValue[] row) {
+            LogStructuredStorageEngine.this.write(this, rowId, row);
+        }
+
+        @Override
+        public void delete(final long rowId) {
+            LogStructuredStorageEngine.this.delete(this, rowId);
+        }
+
+        @Override
+        public void clear() {
+            LogStructuredStorageEngine.this.clear(this);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import java.util.Collections;
+import java.util.Map;
+
+/*
+    A change made to the data of a database, recorded in its MutationLog.
+
+    Instances are identified by entity name and internal id, the internal id
+    is only unique within the running process, so the primary key value is
+    included for when the mutation is applied to another database. The values
+    are those after the change, as strings, so the mutation does not change if
+    the instance does.
+ */
+public final class Mutation {
+
+    private final long sequence;
+    private final MutationType type;
+    private final String entityName;
+    private final String internalId;
+    private final String primaryKey;
+    // field name -> value, for a created instance all the values, otherwise those set
+    private final Map<String, String> values;
+    private final String relationshipName;
+    private final String relatedEntityName;
+    private final String relatedInternalId;
+    private final String relatedPrimaryKey;
+
+    Mutation(final long sequence, final MutationType type,
+             final String entityName, final String internalId, final String primaryKey,
+             final Map<String, String> values){
+        this(sequence, type, entityName, internalId, primaryKey, values, null, null, null, null);
+    }
+
+    Mutation(final long sequence, final MutationType type,
+             final String entityName, final String internalId, final String primaryKey,
+             final Map<String, String> values,
+             final String relationshipName,
+             final String relatedEntityName, final String relatedInternalId, final String relatedPrimaryKey){
+        this.sequence = sequence;
+        this.type = type;
+        this.entityName = entityName;
+        this.internalId = internalId;
+        this.primaryKey = primaryKey;
+        this.values = Collections.unmodifiableMap(values);
+        this.relationshipName = relationshipName;
+        this.relatedEntityName = relatedEntityName;
+        this.relatedInternalId = relatedInternalId;
+        this.relatedPrimaryKey = relatedPrimaryKey;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public MutationType getType() {
+        return type;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    /**
+     * @return the internal id of the instance, null when the collection was truncated
+     */
+    public String getInternalId() {
+        return internalId;
+    }
+
+    /**
+     * @return the primary key value of the instance before the change, null if the entity has no primary key
+     */
+    public String getPrimaryKey() {
+        return primaryKey;
+    }
+
+    public Map<String, String> getValues() {
+        return values;
+    }
+
+    /**
+     * @return for a relationship mutation, the name of the vector from the instance to the related instance
+     */
+    public String getRelationshipName() {
+        return relationshipName;
+    }
+
+    public String getRelatedEntityName() {
+        return relatedEntityName;
+    }
+
+    public String getRelatedInternalId() {
+        return relatedInternalId;
+    }
+
+    public String getRelatedPrimaryKey() {
+        return relatedPrimaryKey;
+    }
+
+    public String toString() {
+        return String.format("%d %s %s %s %s%s",
+                sequence, type, entityName, internalId==null ? "" : internalId,
+                values.isEmpty() ? "" : values.toString(),
+                relationshipName==null ? "" :
+                    String.format("%s %s %s", relationshipName, relatedEntityName, relatedInternalId));
+    }
+}
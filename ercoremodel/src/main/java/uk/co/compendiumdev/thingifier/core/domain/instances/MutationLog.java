@@ -0,0 +1,139 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongFunction;
+
+/*
+    The changes made to the data of a database, each given the next sequence
+    number and passed to the subscriptions in order.
+
+    The log does not keep the mutations, nothing is recorded while there are no
+    subscriptions, a subscriber which needs the data from before it subscribed
+    should start from a snapshot taken in the same write transaction.
+ */
+public final class MutationLog {
+
+    private final List<MutationSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    // guarded by this, so mutations are delivered in sequence order
+    private long lastSequence;
+
+    /**
+     * @param bufferSize the number of mutations which can wait for the subscriber
+     *                   before changes to the data wait for the subscriber
+     */
+    public MutationSubscription subscribe(final int bufferSize) {
+        return subscribe(bufferSize, () -> {});
+    }
+
+    /**
+     * @param whenDelivered run after each mutation is buffered, on the thread making the
+     *                      change and within its write transaction, so it must be quick and
+     *                      not wait e.g. signal the subscriber that there is work to do
+     */
+    public MutationSubscription subscribe(final int bufferSize, final Runnable whenDelivered) {
+        final MutationSubscription subscription = new MutationSubscription(this, bufferSize, whenDelivered);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    void unsubscribe(final MutationSubscription subscription) {
+        subscriptions.remove(subscription);
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    boolean isObserved() {
+        return !subscriptions.isEmpty();
+    }
+
+    void instanceCreated(final EntityInstance instance) {
+        if(!isObserved()){
+            return;
+        }
+        final Map<String, String> values = valuesOf(instance, instance.getEntity().getFieldNames());
+        append(sequence -> new Mutation(sequence, MutationType.INSTANCE_CREATED,
+                instance.getEntity().getName(), instance.getInternalId(), instance.getPrimaryKeyValue(), values));
+    }
+
+    void fieldsSet(final EntityInstance instance, final Map<String, FieldValue> priorValues) {
+        if(!isObserved()){
+            return;
+        }
+        final Map<String, String> values = valuesOf(instance, priorValues.keySet());
+        final String primaryKey = primaryKeyBefore(instance, priorValues);
+        append(sequence -> new Mutation(sequence, MutationType.FIELDS_SET,
+                instance.getEntity().getName(), instance.getInternalId(), primaryKey, values));
+    }
+
+    private String primaryKeyBefore(final EntityInstance instance, final Map<String, FieldValue> priorValues) {
+        final EntityDefinition definition = instance.getEntity();
+        if(definition.hasPrimaryKeyField()){
+            final FieldValue prior = priorValues.get(definition.getPrimaryKeyField().getName());
+            if(prior!=null){
+                return prior.asString();
+            }
+        }
+        return instance.getPrimaryKeyValue();
+    }
+
+    void instanceDeleted(final EntityInstance instance) {
+        if(!isObserved()){
+            return;
+        }
+        append(sequence -> new Mutation(sequence, MutationType.INSTANCE_DELETED,
+                instance.getEntity().getName(), instance.getInternalId(), instance.getPrimaryKeyValue(), Map.of()));
+    }
+
+    void collectionTruncated(final String entityName) {
+        if(!isObserved()){
+            return;
+        }
+        append(sequence -> new Mutation(sequence, MutationType.COLLECTION_TRUNCATED,
+                entityName, null, null, Map.of()));
+    }
+
+    void relationshipConnected(final RelationshipVectorInstance relationship) {
+        relationship(MutationType.RELATIONSHIP_CONNECTED, relationship);
+    }
+
+    void relationshipRemoved(final RelationshipVectorInstance relationship) {
+        relationship(MutationType.RELATIONSHIP_REMOVED, relationship);
+    }
+
+    private void relationship(final MutationType type, final RelationshipVectorInstance relationship) {
+        if(!isObserved()){
+            return;
+        }
+        final EntityInstance from = relationship.getFrom();
+        final EntityInstance to = relationship.getTo();
+        append(sequence -> new Mutation(sequence, type,
+                from.getEntity().getName(), from.getInternalId(), from.getPrimaryKeyValue(), Map.of(),
+                relationship.getDefinition().getName(),
+                to.getEntity().getName(), to.getInternalId(), to.getPrimaryKeyValue()));
+    }
+
+    private Map<String, String> valuesOf(final EntityInstance instance, final Collection<String> fieldNames) {
+        final Map<String, String> values = new LinkedHashMap<>();
+        for(String fieldName : fieldNames){
+            final FieldValue value = instance.getFieldValue(fieldName);
+            values.put(fieldName, value==null ? null : value.asString());
+        }
+        return values;
+    }
+
+    private synchronized void append(final LongFunction<Mutation> mutationFor) {
+        final Mutation mutation = mutationFor.apply(++lastSequence);
+        for(MutationSubscription subscription : subscriptions){
+            subscription.deliver(mutation);
+        }
+    }
+}
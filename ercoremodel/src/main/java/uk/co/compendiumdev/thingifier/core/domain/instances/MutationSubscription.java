@@ -0,0 +1,79 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+    The mutations of a database after the subscription was made, in sequence order.
+
+    The buffer is bounded, when it is full the next change to the database waits
+    until the subscriber has taken a mutation, so a slow subscriber slows the
+    changes down rather than mutations being lost or buffered without limit.
+    Changes are made within a write transaction so the subscriber must not
+    read the database on the thread which takes the mutations.
+ */
+public final class MutationSubscription implements AutoCloseable {
+
+    private final MutationLog log;
+    private final BlockingQueue<Mutation> buffer;
+    private final Runnable whenDelivered;
+    private volatile boolean closed;
+
+    MutationSubscription(final MutationLog log, final int bufferSize, final Runnable whenDelivered){
+        this.log = log;
+        this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        this.whenDelivered = whenDelivered;
+    }
+
+    void deliver(final Mutation mutation){
+        try {
+            while(!closed){
+                if(buffer.offer(mutation, 100, TimeUnit.MILLISECONDS)){
+                    whenDelivered.run();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // the change has been made, it is the subscriber which misses the mutation
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the next mutation, waiting until there is one
+     */
+    public Mutation take() throws InterruptedException {
+        return buffer.take();
+    }
+
+    /**
+     * @return the next mutation, or null if there is none within the timeout
+     */
+    public Mutation poll(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return buffer.poll(timeout, unit);
+    }
+
+    /**
+     * Move all the buffered mutations to the collection without waiting.
+     *
+     * @return the number of mutations moved
+     */
+    public int drainTo(final Collection<Mutation> mutations) {
+        return buffer.drainTo(mutations);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Stop receiving mutations, a change waiting for space in the buffer carries on.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        log.unsubscribe(this);
+    }
+}
@@ -0,0 +1,11 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+public enum MutationType {
+    INSTANCE_CREATED,
+    FIELDS_SET,
+    RELATIONSHIP_CONNECTED,
+    RELATIONSHIP_REMOVED,
+    INSTANCE_DELETED,
+    // all the instances of the entity removed at once, see EntityInstanceCollection.truncate
+    COLLECTION_TRUNCATED
+}
@@ -0,0 +1,119 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/*
+    An ordered index from the numeric value of an INTEGER, FLOAT or
+    AUTO_INCREMENT field to the instances with that value.
+
+    Values are held as doubles, which represent all int and float values
+    exactly and in the same order as Integer.compare and Float.compare.
+
+    Instances with a value which can not be parsed as a number are tracked
+    separately, while there are any the index is not complete and should
+    not be used to answer queries.
+ */
+final class OrderedFieldIndex {
+
+    private final Field field;
+    private final ConcurrentSkipListMap<Double, Set<EntityInstance>> instancesByValue = new ConcurrentSkipListMap<>();
+    private final Map<EntityInstance, Double> indexedValues = new ConcurrentHashMap<>();
+    private final Set<EntityInstance> unorderable = ConcurrentHashMap.newKeySet();
+
+    OrderedFieldIndex(final Field field) {
+        this.field = field;
+    }
+
+    Field getField() {
+        return field;
+    }
+
+    private Double keyFor(final EntityInstance instance) {
+        final FieldValue value = instance.getFieldValue(field.getName());
+        if(value==null){
+            throw new NumberFormatException("no value for " + field.getName());
+        }
+
+        if(field.getType()==FieldType.FLOAT){
+            return (double) value.asFloat();
+        }
+        return (double) value.asInteger();
+    }
+
+    void add(final EntityInstance instance) {
+        final Double key;
+        try{
+            key = keyFor(instance);
+        }catch(NumberFormatException e){
+            unorderable.add(instance);
+            return;
+        }
+
+        indexedValues.put(instance, key);
+        instancesByValue.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(instance);
+    }
+
+    void remove(final EntityInstance instance) {
+        unorderable.remove(instance);
+
+        final Double key = indexedValues.remove(instance);
+        if(key==null){
+            return;
+        }
+        instancesByValue.computeIfPresent(key, (k, indexed) -> {
+            indexed.remove(instance);
+            return indexed.isEmpty() ? null : indexed;
+        });
+    }
+
+    void update(final EntityInstance instance) {
+        remove(instance);
+        add(instance);
+    }
+
+    boolean isComplete() {
+        return unorderable.isEmpty();
+    }
+
+    /*
+        null bounds are unbounded, instances are returned in ascending value order
+     */
+    List<EntityInstance> findInRange(final Double lowest, final boolean lowestInclusive,
+                                     final Double highest, final boolean highestInclusive) {
+
+        if(lowest!=null && highest!=null){
+            final int compared = Double.compare(lowest, highest);
+            if(compared>0 || (compared==0 && !(lowestInclusive && highestInclusive))){
+                return new ArrayList<>();
+            }
+        }
+
+        NavigableMap<Double, Set<EntityInstance>> range = instancesByValue;
+        if(lowest!=null){
+            range = range.tailMap(lowest, lowestInclusive);
+        }
+        if(highest!=null){
+            range = range.headMap(highest, highestInclusive);
+        }
+
+        return flatten(range);
+    }
+
+    List<EntityInstance> inOrder(final boolean ascending) {
+        return flatten(ascending ? instancesByValue : instancesByValue.descendingMap());
+    }
+
+    private List<EntityInstance> flatten(final Map<Double, Set<EntityInstance>> range) {
+        List<EntityInstance> ordered = new ArrayList<>();
+        for(Set<EntityInstance> instancesWithValue : range.values()){
+            ordered.addAll(instancesWithValue);
+        }
+        return ordered;
+    }
+}
@@ -0,0 +1,27 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
+
+/*
+    Holds the field values of the instances in one collection, a row is the
+    slots of an instance's InstanceFields, identified by the instance's internal id.
+
+    A row which has been written is never changed by the caller, a change is
+    made by writing a changed copy, so a row read can be kept e.g. in a cache.
+ */
+public interface RowStore {
+
+    /**
+     * @return the row, or an empty row if there is none with the id
+     */
+    FieldValue[] read(long rowId);
+
+    void write(long rowId, FieldValue[] row);
+
+    void delete(long rowId);
+
+    /**
+     * Delete all the rows, e.g. when the collection is truncated.
+     */
+    void clear();
+}
@@ -0,0 +1,24 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+
+/*
+    Where the field values of the instances in a database are kept. The instances,
+    indexes and relationships are always on the heap, the engine decides where the
+    values of the fields are, so the rest of the code does not need to know.
+
+    One engine can be shared by many databases, each collection asks for its own RowStore.
+ */
+public interface StorageEngine {
+
+    /**
+     * The default, the values are kept in the instances on the heap.
+     */
+    StorageEngine HEAP = new HeapStorageEngine();
+
+    /**
+     * @return the store for the rows of a new collection of the entity,
+     *         or null if the instances keep their own values on the heap
+     */
+    RowStore rowsFor(EntityDefinition definition);
+}
@@ -0,0 +1,10 @@
+package uk.co.compendiumdev.thingifier.core.domain.randomdata;
+
+/*
+    Generates the values of an AUTO_GUID field, see GuidGenerators for the
+    available strategies. Called by concurrent requests so must be thread safe.
+ */
+public interface GuidGenerator {
+
+    String nextGuid();
+}
@@ -0,0 +1,58 @@
+package uk.co.compendiumdev.thingifier.core.domain.randomdata;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class GuidGenerators {
+
+    private GuidGenerators(){}
+
+    /*
+        UUID.randomUUID, every call shares one SecureRandom so use this
+        only when the guid has to be unguessable
+     */
+    public static final GuidGenerator SECURE_RANDOM = () -> UUID.randomUUID().toString();
+
+    /*
+        a version 4 (random) UUID from the ThreadLocalRandom of the calling thread,
+        unique but not unguessable
+     */
+    public static final GuidGenerator THREAD_LOCAL_RANDOM = () -> {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return uuid(random.nextLong(), random.nextLong(), 4);
+    };
+
+    /*
+        a version 7 UUID, the first 48 bits are the unix time in milliseconds
+        so guids sort in the order they were created, which keeps the entries
+        of ordered indexes together
+     */
+    public static final GuidGenerator TIME_ORDERED = new TimeOrderedGuidGenerator();
+
+    private static String uuid(final long mostSigBits, final long leastSigBits, final int version){
+        final long versioned = (mostSigBits & ~0xF000L) | ((long) version << 12);
+        // IETF variant
+        final long variant = (leastSigBits & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(versioned, variant).toString();
+    }
+
+    private static final class TimeOrderedGuidGenerator implements GuidGenerator {
+
+        // milliseconds << 12 | sequence in the millisecond, the 12 bits of sequence
+        // keep guids created in the same millisecond in order
+        private final AtomicLong lastTimeAndSequence = new AtomicLong();
+
+        @Override
+        public String nextGuid() {
+            final long now = System.currentTimeMillis() << 12;
+            final long timeAndSequence = lastTimeAndSequence.updateAndGet(
+                                            last -> Math.max(now, last + 1));
+
+            final long millis = timeAndSequence >>> 12;
+            final long sequence = timeAndSequence & 0xFFFL;
+
+            return uuid((millis << 16) | sequence, ThreadLocalRandom.current().nextLong(), 7);
+        }
+    }
+}
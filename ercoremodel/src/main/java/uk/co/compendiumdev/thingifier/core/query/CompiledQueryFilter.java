@@ -0,0 +1,163 @@
+package uk.co.compendiumdev.thingifier.core.query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+
+/*
+    The filter conditions compiled into a predicate for each entity definition
+    so that matching an instance does not need to convert the filter values,
+    create comparison objects, compile regex patterns or look up the fields by name.
+
+    The conditions are chained in order, each condition checks its field then
+    calls the next condition, conditions on fields the entity does not have are skipped.
+
+    As with the original per instance matching, a regex ~= or wildcard *= condition
+    decides the match on its own without checking the conditions after it.
+
+    Filter values which can not be converted to the field type are not reported
+    until an instance is compared, as they would have been before compiling.
+ */
+final class CompiledQueryFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompiledQueryFilter.class);
+
+    private final List<FilterBy> filterByConditions;
+    // compiled on first use for each definition, most filters only see one
+    private final Map<EntityDefinition, Predicate<EntityInstance>> compiled = new ConcurrentHashMap<>();
+
+    CompiledQueryFilter(final List<FilterBy> filterByConditions) {
+        this.filterByConditions = new ArrayList<>(filterByConditions);
+    }
+
+    boolean matches(final EntityInstance instance) {
+        return compiled.computeIfAbsent(instance.getEntity(), this::compileFor).test(instance);
+    }
+
+    private Predicate<EntityInstance> compileFor(final EntityDefinition defn) {
+
+        Predicate<EntityInstance> chain = instance -> true;
+
+        // build from the last condition so that each condition can call the next
+        for(int conditionIndex = filterByConditions.size()-1; conditionIndex>=0; conditionIndex--){
+            final FilterBy condition = filterByConditions.get(conditionIndex);
+            if(defn.hasFieldNameDefined(condition.fieldName)){
+                chain = compileCondition(defn.getField(condition.fieldName),
+                                            defn.getOrdinalOf(condition.fieldName), condition, chain);
+            }
+        }
+
+        return chain;
+    }
+
+    private Predicate<EntityInstance> compileCondition(final Field field, final int fieldOrdinal,
+                                                       final FilterBy condition,
+                                                       final Predicate<EntityInstance> next) {
+
+        switch (condition.filterOperation){
+            case "~=": //regex match
+                return regexCondition(fieldOrdinal, condition.fieldValue);
+            case "*=": //wildcard match so * matches any multiple and ? matches one
+                String wildcard = condition.fieldValue.replace("*", ".*");
+                wildcard = wildcard.replace("?", ".");
+                return regexCondition(fieldOrdinal, wildcard);
+        }
+
+        final ToIntFunction<EntityInstance> comparison = comparisonWith(field, fieldOrdinal, condition);
+
+        switch (condition.filterOperation){
+            case "=":
+                return instance -> comparison.applyAsInt(instance)==0 && next.test(instance);
+            case "<":
+                return instance -> comparison.applyAsInt(instance)<0 && next.test(instance);
+            case ">":
+                return instance -> comparison.applyAsInt(instance)>0 && next.test(instance);
+            case "<=":
+                return instance -> comparison.applyAsInt(instance)<=0 && next.test(instance);
+            case ">=":
+                return instance -> comparison.applyAsInt(instance)>=0 && next.test(instance);
+            case "!=":
+            case "!":
+                return instance -> comparison.applyAsInt(instance)!=0 && next.test(instance);
+            default:
+                logger.warn("Unhandled filterby condition {}{}{}",
+                        condition.fieldName, condition.filterOperation, condition.fieldValue);
+                return next;
+        }
+    }
+
+    private Predicate<EntityInstance> regexCondition(final int fieldOrdinal, final String regex) {
+
+        final Pattern pattern;
+        try{
+            pattern = Pattern.compile(regex);
+        }catch(RuntimeException e){
+            return instance -> { throw e; };
+        }
+
+        return instance -> pattern.matcher(instance.getFieldValue(fieldOrdinal).asString()).matches();
+    }
+
+    /*
+        compare the instance value with the filter value, as ComparableFieldValue
+        does, but with the filter value converted to the field type only once
+     */
+    private ToIntFunction<EntityInstance> comparisonWith(final Field field, final int fieldOrdinal,
+                                                         final FilterBy condition) {
+
+        final String filterValue = condition.fieldValue;
+
+        try{
+            switch (field.getType()){
+                case AUTO_INCREMENT:
+                case INTEGER:
+                    final int intValue = Integer.parseInt(filterValue);
+                    return instance -> Integer.compare(
+                                        instance.getFieldValue(fieldOrdinal).asInteger(), intValue);
+                case FLOAT:
+                    final float floatValue = Float.parseFloat(filterValue);
+                    return instance -> Float.compare(
+                                        instance.getFieldValue(fieldOrdinal).asFloat(), floatValue);
+                case BOOLEAN:
+                    final boolean booleanValue = field.valueFor(filterValue).asBoolean();
+                    return instance -> Boolean.compare(
+                                        instance.getFieldValue(fieldOrdinal).asBoolean(), booleanValue);
+                case STRING:
+                case ENUM:
+                    return instance -> instance.getFieldValue(fieldOrdinal).asString().compareTo(filterValue);
+                default:
+                    // don't know how to compare that field type so the values are the same
+                    return instance -> 0;
+            }
+        }catch(RuntimeException e){
+            return instance -> { failIfNotValid(field, fieldOrdinal, instance); throw e; };
+        }
+    }
+
+    /*
+        the instance value was converted before the filter value,
+        so report an invalid instance value first
+     */
+    private void failIfNotValid(final Field field, final int fieldOrdinal, final EntityInstance instance) {
+        final FieldValue value = instance.getFieldValue(fieldOrdinal);
+        if(field.getType()==FieldType.FLOAT){
+            value.asFloat();
+        }else if(field.getType()==FieldType.BOOLEAN){
+            value.asBoolean();
+        }else{
+            value.asInteger();
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package uk.co.compendiumdev.thingifier.core.query;
 
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
 
 import java.util.*;
@@ -13,6 +15,8 @@ public class EntityInstanceListSorter {
         FieldName,Value
         sort_by,+-FieldName
 
+        all the sort_by fields are compared in a single sort, the first sort_by
+        field is compared first, with any later fields used when values are the same
      */
     public EntityInstanceListSorter(final QueryFilterParams queryParams) {
         instanceFilter = new EntityListSortParamParser(queryParams);
@@ -22,10 +26,191 @@ public class EntityInstanceListSorter {
 
         List<EntityInstance> sorted = new ArrayList<>(foundItems);
 
-        for(SortByFieldName sortBy :instanceFilter.sortBys()){
-            sorted = sortByField(sortBy.fieldName, sortBy.order, sorted);
+        if(sorted.size()<2){
+            return sorted;
         }
 
+        final Comparator<EntityInstance> comparator = comparatorFor(sorted.get(0).getEntity(), false);
+        if(comparator!=null){
+            sorted.sort(comparator);
+        }
+
+        return sorted;
+    }
+
+    /**
+     * Return a page of the sorted items, when there is a limit the items are
+     * kept in a bounded heap rather than sorting them all. The primary key is
+     * compared after the sort_by fields so that pages are in a repeatable order.
+     */
+    public List<EntityInstance> sortPage(final List<EntityInstance> foundItems, final QueryPaging paging) {
+
+        if(foundItems.isEmpty()){
+            return new ArrayList<>();
+        }
+
+        final EntityDefinition entity = foundItems.get(0).getEntity();
+        Comparator<EntityInstance> comparator = comparatorFor(entity, true);
+        if(comparator==null){
+            // nothing to compare so the items stay in the order found
+            comparator = (thing1, thing2) -> 0;
+        }
+
+        List<EntityInstance> candidates = foundItems;
+        if(paging.hasCursor()){
+            candidates = itemsAfter(paging.cursorInstanceFor(entity), foundItems, comparator);
+        }
+
+        final List<EntityInstance> sorted;
+        if(paging.hasLimit()){
+            sorted = topK(candidates, comparator, (long) paging.getOffset() + paging.getLimit());
+        }else{
+            sorted = new ArrayList<>(candidates);
+            sorted.sort(comparator);
+        }
+
+        if(paging.getOffset()>=sorted.size()){
+            return new ArrayList<>();
+        }
+
+        final int end = paging.hasLimit() ?
+                (int) Math.min(sorted.size(), (long) paging.getOffset() + paging.getLimit()) :
+                sorted.size();
+        return new ArrayList<>(sorted.subList(paging.getOffset(), end));
+    }
+
+    /*
+        the fields compared when sorting, the sort_by fields then the primary key
+        if they are being used to page, fields the entity does not have are ignored
+     */
+    List<Field> keyFieldsFor(final EntityDefinition entity, final boolean withPrimaryKey) {
+        List<Field> keyFields = new ArrayList<>();
+        for(SortByFieldName sortBy : instanceFilter.sortBys()){
+            final Field field = entity.getField(sortBy.fieldName);
+            if(field!=null && !keyFields.contains(field)){
+                keyFields.add(field);
+            }
+        }
+        if(withPrimaryKey && entity.hasPrimaryKeyField() && !keyFields.contains(entity.getPrimaryKeyField())){
+            keyFields.add(entity.getPrimaryKeyField());
+        }
+        return keyFields;
+    }
+
+    private Comparator<EntityInstance> comparatorFor(final EntityDefinition entity, final boolean withPrimaryKey) {
+
+        Comparator<EntityInstance> comparator = null;
+
+        for(SortByFieldName sortBy : instanceFilter.sortBys()){
+            Comparator<EntityInstance> byField = byFieldValue(entity, sortBy.fieldName);
+            if(byField==null){
+                // there is no field of that name
+                continue;
+            }
+            if(sortBy.order>=0){
+                // (desc)
+                byField = byField.reversed();
+            }
+            comparator = comparator==null ? byField : comparator.thenComparing(byField);
+        }
+
+        if(withPrimaryKey && entity.hasPrimaryKeyField()){
+            final Comparator<EntityInstance> byKey = byFieldValue(entity, entity.getPrimaryKeyField().getName());
+            comparator = comparator==null ? byKey : comparator.thenComparing(byKey);
+        }
+
+        return comparator;
+    }
+
+    private Comparator<EntityInstance> byFieldValue(final EntityDefinition entity, final String fieldName) {
+
+        final Field fieldDefn = entity.getField(fieldName);
+        if(fieldDefn==null){
+            return null;
+        }
+
+        final int fieldOrdinal = entity.getOrdinalOf(fieldName);
+        final Comparator<FieldValue> compareValues = valueComparatorFor(fieldDefn);
+
+        return (thing1, thing2) -> compareValues.compare(
+                                        valueOf(thing1, entity, fieldOrdinal, fieldName),
+                                        valueOf(thing2, entity, fieldOrdinal, fieldName));
+    }
+
+    private FieldValue valueOf(final EntityInstance thing, final EntityDefinition entity,
+                               final int fieldOrdinal, final String fieldName){
+        // the ordinal is only valid for instances of the same entity
+        if(thing.getEntity()==entity){
+            return thing.getFieldValue(fieldOrdinal);
+        }
+        return thing.getFieldValue(fieldName);
+    }
+
+    /*
+        compares values as ComparableFieldValue does, without creating
+        a ComparableFieldValue for every comparison
+     */
+    private Comparator<FieldValue> valueComparatorFor(final Field fieldDefn) {
+        switch (fieldDefn.getType()){
+            case AUTO_INCREMENT:
+            case INTEGER:
+                return (value1, value2) -> Integer.compare(value1.asInteger(), value2.asInteger());
+            case FLOAT:
+                return (value1, value2) -> Float.compare(value1.asFloat(), value2.asFloat());
+            case BOOLEAN:
+                return (value1, value2) -> Boolean.compare(value1.asBoolean(), value2.asBoolean());
+            case STRING:
+            case ENUM:
+                return (value1, value2) -> value1.asString().compareTo(value2.asString());
+            default:
+                // don't know how to handle that field type
+                // so the instances are by default the same
+                return (value1, value2) -> 0;
+        }
+    }
+
+    private List<EntityInstance> itemsAfter(final EntityInstance cursorInstance,
+                                            final List<EntityInstance> items,
+                                            final Comparator<EntityInstance> comparator) {
+        List<EntityInstance> after = new ArrayList<>();
+        for(EntityInstance item : items){
+            if(comparator.compare(item, cursorInstance)>0){
+                after.add(item);
+            }
+        }
+        return after;
+    }
+
+    /*
+        the first k items in sort order, the heap holds the k lowest items
+        found so far with the highest at the head so it can be replaced
+     */
+    private List<EntityInstance> topK(final List<EntityInstance> items,
+                                      final Comparator<EntityInstance> comparator,
+                                      final long k) {
+
+        if(k>=items.size()){
+            final List<EntityInstance> sorted = new ArrayList<>(items);
+            sorted.sort(comparator);
+            return sorted;
+        }
+
+        if(k==0){
+            return new ArrayList<>();
+        }
+
+        final PriorityQueue<EntityInstance> heap = new PriorityQueue<>((int) k, comparator.reversed());
+        for(EntityInstance item : items){
+            if(heap.size()<k){
+                heap.add(item);
+            }else if(comparator.compare(item, heap.peek())<0){
+                heap.poll();
+                heap.add(item);
+            }
+        }
+
+        final List<EntityInstance> sorted = new ArrayList<>(heap);
+        sorted.sort(comparator);
         return sorted;
     }
 
@@ -42,24 +227,13 @@ public class EntityInstanceListSorter {
         if(sortedList.size()==0)
             return sortedList;
 
-        Field fieldDefn = sortedList.get(0).getEntity().getField(fieldName);
+        final EntityDefinition entity = sortedList.get(0).getEntity();
+        Comparator<EntityInstance> compareByFieldValue = byFieldValue(entity, fieldName);
 
         // there is no field of that name
-        if(fieldDefn==null)
+        if(compareByFieldValue==null)
             return sortedList;
 
-        Comparator<EntityInstance> compareByFieldValue = new Comparator<EntityInstance>() {
-            @Override
-            public int compare(EntityInstance thing1, EntityInstance thing2) {
-
-                final ComparableFieldValue comparableFieldValue1 = new ComparableFieldValue(fieldDefn, thing1.getFieldValue(fieldName));
-                final ComparableFieldValue comparableFieldValue2 = new ComparableFieldValue(fieldDefn, thing2.getFieldValue(fieldName));
-
-                return comparableFieldValue1.compareTo(comparableFieldValue2);
-            }
-        };
-
-
         if(order<0) {
             // (desc)
             Collections.sort(sortedList, compareByFieldValue);
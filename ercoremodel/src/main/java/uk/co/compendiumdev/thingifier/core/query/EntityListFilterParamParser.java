@@ -1,18 +1,15 @@
 package uk.co.compendiumdev.thingifier.core.query;
 
-import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
-import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class EntityListFilterParamParser {
 
     private final List<FilterBy> filterByConditions;
+    private CompiledQueryFilter compiledFilter;
 
     public EntityListFilterParamParser(final QueryFilterParams queryParams) {
         // because  a map is used to set this up we can't handle multiple conditions
@@ -26,87 +23,15 @@ public class EntityListFilterParamParser {
         this.filterByConditions = queryParams;
     }
 
+    /*
+        currently all conditions are treated as an AND clause e.g. ?ID=<10&ID=>5  would be is 6, 7, 8, 9
+        the conditions are compiled on first use so they should not be changed after matching starts
+     */
     public boolean matches(final EntityInstance instance) {
-        for(FilterBy filterByCondition : filterByConditions){
-
-            final EntityDefinition defn = instance.getEntity();
-
-            String fieldName = filterByCondition.fieldName;
-
-            // TODO: handle - ranges, like, or etc.
-            // currently all conditions are treated as an AND clause e.g. ?ID=<10&ID=>5  would be is 6, 7, 8, 9
-            if(defn.hasFieldNameDefined(fieldName)){
-                String value = instance.getFieldValue(fieldName).asString();
-                // get the actual value
-                final ComparableFieldValue actualValue = new ComparableFieldValue(defn.getField(fieldName), instance.getFieldValue(fieldName));
-                // create a comparison value
-                final ComparableFieldValue filterConditionValue = new ComparableFieldValue(
-                                                                            defn.getField(fieldName),
-                                                                            defn.getField(fieldName).valueFor(filterByCondition.fieldValue));
-
-                Pattern pattern = null;
-                Matcher matcher = null;
-
-                switch (filterByCondition.filterOperation){
-                    case "=":
-                        if(!(actualValue.compareTo(filterConditionValue)==0)){
-                            return false;
-                        }
-                        break;
-                    case "<":
-                        if(!(actualValue.compareTo(filterConditionValue)<0)){
-                            return false;
-                        }
-                        break;
-                    case ">":
-                        if(!(actualValue.compareTo(filterConditionValue)>0)){
-                            return false;
-                        }
-                        break;
-                    case "<=":
-                        if(!(actualValue.compareTo(filterConditionValue)<=0)){
-                            return false;
-                        }
-                        break;
-                    case ">=":
-                        if(!(actualValue.compareTo(filterConditionValue)>=0)){
-                            return false;
-                        }
-                        break;
-                    case "!=":
-                    case "!":
-                        if(!(actualValue.compareTo(filterConditionValue)!=0)){
-                            return false;
-                        }
-                        break;
-                    case "~=": //regex match
-                        pattern = Pattern.compile(filterByCondition.fieldValue);
-                        matcher = pattern.matcher(actualValue.getValue().asString());
-                        if(matcher.matches()){
-                            return true;
-                        }else{
-                            return false;
-                        }
-                    case "*=": //wildcard match so * matches any multiple and ? matches one
-                        String actualFilter = filterByCondition.fieldValue;
-                        actualFilter = filterByCondition.fieldValue.replace("*", ".*");
-                        actualFilter = actualFilter.replace("?", ".");
-                        pattern = Pattern.compile(actualFilter);
-                        matcher = pattern.matcher(actualValue.getValue().asString());
-                        if(matcher.matches()){
-                            return true;
-                        }else{
-                            return false;
-                        }
-                    default:
-                        System.out.println(String.format("Unhandled filterby condition %s%s%s",
-                                            fieldName, filterByCondition.filterOperation, value
-                                ));
-                }
-            }
+        if(compiledFilter==null){
+            compiledFilter = new CompiledQueryFilter(filterByConditions);
         }
-
-        return true;
+        return compiledFilter.matches(instance);
     }
 
     public List<FilterBy> filterBys(){
@@ -44,6 +44,40 @@ public class QueryFilterParams {
         return filterBys.get(i);
     }
 
+    public boolean hasParamNamed(String fieldName) {
+        for(FilterBy filterBy : filterBys){
+            if(filterBy.fieldName.equalsIgnoreCase(fieldName)){
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public QueryFilterParams withoutParamNamed(String fieldName) {
+        QueryFilterParams params = new QueryFilterParams();
+
+        for(FilterBy filterBy : filterBys){
+            if(!filterBy.fieldName.equalsIgnoreCase(fieldName)){
+                params.add(filterBy);
+            }
+        }
+
+        return params;
+    }
+
+    public QueryFilterParams withoutPagingParams() {
+        QueryFilterParams params = new QueryFilterParams();
+
+        for(FilterBy filterBy : filterBys){
+            if(!QueryPaging.isPagingParam(filterBy.fieldName)){
+                params.add(filterBy);
+            }
+        }
+
+        return params;
+    }
+
     public boolean hasSortBy() {
         for(FilterBy filterBy : filterBys){
             if(filterBy.fieldName.equals("sortBy") || filterBy.fieldName.equals("sort_by")){
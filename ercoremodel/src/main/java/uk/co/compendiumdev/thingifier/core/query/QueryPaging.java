@@ -0,0 +1,162 @@
+package uk.co.compendiumdev.thingifier.core.query;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+    The limit, offset and cursor query params used to return a page of the results
+    e.g. ?sortby=title&limit=20&offset=40 or ?sortby=title&limit=20&cursor=...
+
+    A cursor is returned with a page when there are more results, it holds the
+    sort field values and primary key of the last instance on the page so the next
+    page starts after that instance even if the instances before it have changed.
+
+    Paging params are not filters, so an entity can not be filtered on a field
+    named limit, offset or cursor.
+ */
+public final class QueryPaging {
+
+    public static final String LIMIT_PARAM = "limit";
+    public static final String OFFSET_PARAM = "offset";
+    public static final String CURSOR_PARAM = "cursor";
+
+    private static final int NO_LIMIT = -1;
+
+    private final int limit;
+    private final int offset;
+    private final Map<String, String> cursorValues;
+
+    private QueryPaging(final int limit, final int offset, final Map<String, String> cursorValues) {
+        this.limit = limit;
+        this.offset = offset;
+        this.cursorValues = cursorValues;
+    }
+
+    public static boolean isPagingParam(final String key) {
+        return key.equalsIgnoreCase(LIMIT_PARAM) ||
+                key.equalsIgnoreCase(OFFSET_PARAM) ||
+                key.equalsIgnoreCase(CURSOR_PARAM);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the limit or offset are not positive numbers, or the cursor is not valid
+     */
+    public static QueryPaging from(final QueryFilterParams queryParams) {
+
+        int limit = NO_LIMIT;
+        int offset = 0;
+        Map<String, String> cursorValues = null;
+
+        for(FilterBy param : queryParams.toList()){
+            if(param.fieldName.equalsIgnoreCase(LIMIT_PARAM)){
+                limit = asPositiveInteger(LIMIT_PARAM, param);
+            }
+            if(param.fieldName.equalsIgnoreCase(OFFSET_PARAM)){
+                offset = asPositiveInteger(OFFSET_PARAM, param);
+            }
+            if(param.fieldName.equalsIgnoreCase(CURSOR_PARAM)){
+                cursorValues = decodeCursor(param.fieldValue);
+            }
+        }
+
+        return new QueryPaging(limit, offset, cursorValues);
+    }
+
+    private static int asPositiveInteger(final String paramName, final FilterBy param) {
+        try{
+            // the value of e.g. limit=20 is parsed as a filter with an = operation
+            final int value = Integer.parseInt(param.fieldValue);
+            if(value>=0 && param.filterOperation.equals("=")){
+                return value;
+            }
+        }catch(NumberFormatException e){
+            // reported below
+        }
+        throw new IllegalArgumentException(String.format(
+                "%s should be a positive integer but was %s%s",
+                paramName, param.filterOperation.equals("=") ? "" : param.filterOperation, param.fieldValue));
+    }
+
+    // used to find out if there are more results after a page
+    QueryPaging withOneMore() {
+        return new QueryPaging(hasLimit() ? limit+1 : limit, offset, cursorValues);
+    }
+
+    public boolean isPaged() {
+        return hasLimit() || offset>0 || hasCursor();
+    }
+
+    public boolean hasLimit() {
+        return limit!=NO_LIMIT;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public boolean hasCursor() {
+        return cursorValues!=null;
+    }
+
+    /*
+        an unmanaged instance with the values from the cursor, which can be
+        compared with the results to find those after the cursor
+     */
+    EntityInstance cursorInstanceFor(final EntityDefinition definition) {
+        final EntityInstance cursorInstance = new EntityInstance(definition);
+        for(Map.Entry<String, String> cursorValue : cursorValues.entrySet()){
+            if(definition.hasFieldNameDefined(cursorValue.getKey())){
+                cursorInstance.overrideValue(cursorValue.getKey(), cursorValue.getValue());
+            }
+        }
+        return cursorInstance;
+    }
+
+    static String cursorFor(final EntityInstance instance, final List<Field> keyFields) {
+        List<String> nameValues = new ArrayList<>();
+        for(Field field : keyFields){
+            nameValues.add(encode(field.getName()) + "=" + encode(instance.getFieldValue(field.getName()).asString()));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                String.join("&", nameValues).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, String> decodeCursor(final String cursor) {
+        final Map<String, String> values = new LinkedHashMap<>();
+        try{
+            final String nameValues = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            for(String nameValue : nameValues.split("&")){
+                final String[] parts = nameValue.split("=", 2);
+                if(parts.length!=2){
+                    throw new IllegalArgumentException(nameValue);
+                }
+                values.put(decode(parts[0]), decode(parts[1]));
+            }
+        }catch(IllegalArgumentException e){
+            throw new IllegalArgumentException("cursor is not valid: " + cursor);
+        }
+        return values;
+    }
+
+    private static String encode(final String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static String decode(final String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,137 @@
+package uk.co.compendiumdev.thingifier.core.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    A QueryPlan describes how a SimpleQuery will find its results.
+
+    Plans are built from the 'shape' of a query i.e. the path template
+    e.g. todos/{id}/tasksof and the filter field names and operations,
+    not the values, so a plan can be reused by every query with the same shape.
+
+    The plan is what the planner intends, the indexes are checked again when
+    the query runs because an index may not be usable for the values given
+    e.g. ?id=abc on an AUTO_INCREMENT field, in which case the query falls back to a SCAN.
+ */
+public final class QueryPlan {
+
+    public enum Access {
+        PRIMARY_KEY_LOOKUP, // THING/{id} found using the primary key or id index
+        INDEX_PROBE,        // instances with an indexed field equal to a filter value
+        RANGE_PROBE,        // instances with a range indexed field within the filter range
+        INDEX_ORDER,        // all instances read in sort order from a range index
+        COLUMN_SCAN,        // all instances filtered and sorted using the columns of the collection
+        SCAN                // all instances of the entity
+    }
+
+    private final String template;
+    private final Access access;
+    private final String accessFieldName;
+    private final boolean traverses;
+    private final boolean sortedByIndex;
+    private final boolean filterDuringTraversal;
+    private final boolean filtered;
+    private final boolean sorted;
+    private final boolean paged;
+    private final boolean limited;
+
+    QueryPlan(final String template, final Access access, final String accessFieldName,
+              final boolean traverses, final boolean sortedByIndex, final boolean filterDuringTraversal,
+              final boolean filtered, final boolean sorted) {
+        this(template, access, accessFieldName, traverses, sortedByIndex, filterDuringTraversal,
+                filtered, sorted, false, false);
+    }
+
+    QueryPlan(final String template, final Access access, final String accessFieldName,
+              final boolean traverses, final boolean sortedByIndex, final boolean filterDuringTraversal,
+              final boolean filtered, final boolean sorted, final boolean paged, final boolean limited) {
+        this.template = template;
+        this.access = access;
+        this.accessFieldName = accessFieldName;
+        this.traverses = traverses;
+        this.sortedByIndex = sortedByIndex;
+        this.filterDuringTraversal = filterDuringTraversal;
+        this.filtered = filtered;
+        this.sorted = sorted;
+        this.paged = paged;
+        this.limited = limited;
+    }
+
+    /*
+        a plan for the same query, returning a page of the results
+     */
+    QueryPlan paged(final boolean isLimited) {
+        return new QueryPlan(template, access, accessFieldName, traverses, sortedByIndex,
+                filterDuringTraversal, filtered, sorted, true, isLimited);
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public Access getAccess() {
+        return access;
+    }
+
+    public String getAccessFieldName() {
+        return accessFieldName;
+    }
+
+    public boolean traversesRelationships() {
+        return traverses;
+    }
+
+    public boolean isSortedByIndex() {
+        return sortedByIndex;
+    }
+
+    public boolean isFilteredDuringTraversal() {
+        return filterDuringTraversal;
+    }
+
+    public boolean isFiltered() {
+        return filtered;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public boolean isPaged() {
+        return paged;
+    }
+
+    public List<String> getStages() {
+        List<String> stages = new ArrayList<>();
+
+        if(accessFieldName==null){
+            stages.add(access.name());
+        }else{
+            stages.add(String.format("%s %s", access.name(), accessFieldName));
+        }
+
+        if(traverses){
+            stages.add(filterDuringTraversal ? "TRAVERSE AND FILTER" : "TRAVERSE");
+        }
+
+        if(filtered && !filterDuringTraversal){
+            stages.add("FILTER");
+        }
+
+        if(paged){
+            // pages are always sorted so they are in a repeatable order
+            stages.add(limited ? "TOP K" : "SORT");
+            stages.add("PAGE");
+        }else if(sorted && !sortedByIndex){
+            stages.add("SORT");
+        }
+
+        return stages;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s : %s", template, String.join(" -> ", getStages()));
+    }
+}
@@ -0,0 +1,275 @@
+package uk.co.compendiumdev.thingifier.core.query;
+
+import uk.co.compendiumdev.thingifier.core.domain.definitions.ERSchema;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static uk.co.compendiumdev.thingifier.core.query.QueryPlan.Access.*;
+
+/*
+    The QueryPlanner converts a query path and filter params into a QueryPlan.
+
+    Plans are cached against the path template and filter shape, the template
+    replaces any term which is not an entity or relationship name with {id}
+    e.g. todos/1/tasksof and todos/27/tasksof both use the plan for todos/{id}/tasksof
+
+    The access path for the root entity is chosen by the lowest estimated cost
+    of finding the candidate instances:
+
+    - PRIMARY_KEY_LOOKUP, a single instance
+    - INDEX_PROBE on a unique index, at most one instance
+    - INDEX_PROBE on a non unique index, the instances with that value
+    - RANGE_PROBE, the instances in the range
+    - INDEX_ORDER, all the instances, but they do not need to be sorted
+    - COLUMN_SCAN, all the instances, but filtered and sorted using columns
+    - SCAN, all the instances
+
+    Plans only depend on the schema, when a field is indexed after plans
+    were cached the Field index version changes and the cache is cleared
+    so that the next query is planned with the new index.
+ */
+public final class QueryPlanner {
+
+    public static final String ID_TERM = "{id}";
+
+    private static final int MAX_CACHED_PLANS = 500;
+
+    private static final int PRIMARY_KEY_LOOKUP_COST = 1;
+    private static final int UNIQUE_INDEX_PROBE_COST = 2;
+    private static final int INDEX_PROBE_COST = 10;
+    private static final int RANGE_PROBE_COST = 50;
+
+    private final ERSchema schema;
+    private final Map<String, QueryPlan> plans = new ConcurrentHashMap<>();
+    private volatile long plannedWithIndexVersion = Field.getIndexVersion();
+
+    public QueryPlanner(final ERSchema schema) {
+        this.schema = schema;
+    }
+
+    public QueryPlan planFor(final String query, final QueryFilterParams queryParams) {
+
+        final String template = templateFor(query);
+        final String planKey = template + "?" + shapeOf(queryParams);
+
+        clearCacheIfIndexesChanged();
+
+        final QueryPlan cached = plans.get(planKey);
+        if(cached!=null){
+            return cached;
+        }
+
+        // a simple bound on the cache, plans are cheap to create
+        if(plans.size()>=MAX_CACHED_PLANS){
+            plans.clear();
+        }
+
+        final QueryPaging paging = QueryPaging.from(queryParams);
+        QueryPlan plan = createPlan(template, queryParams.withoutPagingParams());
+        if(paging.isPaged()){
+            plan = plan.paged(paging.hasLimit());
+        }
+        plans.put(planKey, plan);
+        return plan;
+    }
+
+    public boolean hasCachedPlanFor(final String query, final QueryFilterParams queryParams) {
+        clearCacheIfIndexesChanged();
+        return plans.containsKey(templateFor(query) + "?" + shapeOf(queryParams));
+    }
+
+    public int countCachedPlans() {
+        return plans.size();
+    }
+
+    public void clearCache() {
+        plans.clear();
+    }
+
+    private void clearCacheIfIndexesChanged() {
+        final long indexVersion = Field.getIndexVersion();
+        if(indexVersion!=plannedWithIndexVersion){
+            // read before clearing so a change during the clear is seen next time
+            plannedWithIndexVersion = indexVersion;
+            plans.clear();
+        }
+    }
+
+    public String templateFor(final String query) {
+
+        String path = query.startsWith("/") ? query.substring(1) : query;
+
+        StringBuilder template = new StringBuilder();
+        boolean foundEntity = false;
+
+        for(String term : path.split("/")){
+
+            if(template.length()>0){
+                template.append("/");
+            }
+
+            if((foundEntity && schema.hasRelationshipNamed(term)) ||
+                    schema.hasEntityNamed(term) || schema.hasEntityWithPluralNamed(term)){
+                template.append(term);
+                foundEntity = true;
+            }else{
+                template.append(ID_TERM);
+            }
+        }
+
+        return template.toString();
+    }
+
+    /*
+        the filter field names and operations, and the sort order, but not the filter values
+     */
+    private String shapeOf(final QueryFilterParams queryParams) {
+        StringBuilder shape = new StringBuilder();
+
+        for(FilterBy filterBy : queryParams.toList()){
+            if(shape.length()>0){
+                shape.append("&");
+            }
+            shape.append(filterBy.fieldName.toLowerCase());
+            if(QueryPaging.isPagingParam(filterBy.fieldName)){
+                continue;
+            }
+            if(SortByFieldName.isSortByParam(filterBy.fieldName)){
+                shape.append("=").append(filterBy.fieldValue.toLowerCase());
+            }else{
+                shape.append(filterBy.filterOperation);
+            }
+        }
+
+        return shape.toString();
+    }
+
+    private QueryPlan createPlan(final String template, final QueryFilterParams queryParams) {
+
+        final String[] terms = template.split("/");
+
+        boolean traverses = false;
+        for(int termIndex=1; termIndex<terms.length; termIndex++){
+            if(!terms[termIndex].equals(ID_TERM)){
+                traverses = true;
+            }
+        }
+
+        final boolean filtered = queryParams.size() > queryParams.sortBys().size();
+        final boolean sorted = !queryParams.sortBys().isEmpty();
+        final boolean endsWithId = terms[terms.length-1].equals(ID_TERM);
+        final boolean filterDuringTraversal = traverses && filtered && !endsWithId;
+
+        final EntityDefinition root = schema.getDefinitionWithSingularOrPluralNamed(terms[0]);
+        if(root==null){
+            return new QueryPlan(template, SCAN, null, traverses, false, filterDuringTraversal, filtered, sorted);
+        }
+
+        if(terms.length>1 && terms[1].equals(ID_TERM)){
+            final String keyField = root.hasPrimaryKeyField() ? root.getPrimaryKeyField().getName() : null;
+            return new QueryPlan(template, PRIMARY_KEY_LOOKUP, keyField, traverses, false, filterDuringTraversal, filtered, sorted);
+        }
+
+        if(terms.length>1){
+            return new QueryPlan(template, SCAN, null, traverses, false, filterDuringTraversal, filtered, sorted);
+        }
+
+        if(!canUseIndexesFor(queryParams)){
+            return new QueryPlan(template, scanFor(root), null, false, false, false, filtered, sorted);
+        }
+
+        // the query is for the instances of the root entity, find the cheapest index to use
+        QueryPlan.Access access = SCAN;
+        Field accessField = null;
+        int lowestCost = Integer.MAX_VALUE;
+
+        for(FilterBy filterBy : queryParams.toList()){
+
+            final Field field = root.getField(filterBy.fieldName);
+            if(field==null){
+                continue;
+            }
+
+            if(filterBy.filterOperation.equals("=") &&
+                    (field.isIndexed() || field==root.getPrimaryKeyField())){
+                final int cost = field.isUniquelyIndexed() || field==root.getPrimaryKeyField() ?
+                                    UNIQUE_INDEX_PROBE_COST : INDEX_PROBE_COST;
+                if(cost<lowestCost){
+                    access = INDEX_PROBE;
+                    accessField = field;
+                    lowestCost = cost;
+                }
+            }
+
+            if(isRangeOperation(filterBy.filterOperation) && field.isRangeIndexed() &&
+                    RANGE_PROBE_COST<lowestCost){
+                access = RANGE_PROBE;
+                accessField = field;
+                lowestCost = RANGE_PROBE_COST;
+            }
+        }
+
+        final Field sortField = rangeIndexedSortField(root, queryParams);
+
+        // the range index gives the order, but the columns are faster to filter
+        if(access==SCAN && sortField!=null && !(filtered && root.isStoredAsColumns())){
+            return new QueryPlan(template, INDEX_ORDER, sortField.getName(), false, true, false, filtered, sorted);
+        }
+
+        if(access==SCAN){
+            access = scanFor(root);
+        }
+
+        final boolean sortedByIndex = access==RANGE_PROBE && sortField==accessField;
+
+        return new QueryPlan(template, access, accessField==null ? null : accessField.getName(),
+                                false, sortedByIndex, false, filtered, sorted);
+    }
+
+    /*
+        The regex and wildcard filters match an instance without checking
+        any later filters, so the indexes can only be used without them
+        or the candidates would exclude instances those filters would return
+     */
+    private boolean canUseIndexesFor(final QueryFilterParams queryParams){
+        for(FilterBy filterBy : queryParams.toList()){
+            if(filterBy.filterOperation.equals("~=") || filterBy.filterOperation.equals("*=")){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private QueryPlan.Access scanFor(final EntityDefinition root){
+        return root.isStoredAsColumns() ? COLUMN_SCAN : SCAN;
+    }
+
+    static boolean isRangeOperation(final String filterOperation){
+        return filterOperation.equals("<") || filterOperation.equals("<=") ||
+                filterOperation.equals(">") || filterOperation.equals(">=") ||
+                filterOperation.equals("=");
+    }
+
+    /*
+        the field if the query is sorted on only one field and that field
+        is range indexed, otherwise null and the results are sorted as normal
+     */
+    private Field rangeIndexedSortField(final EntityDefinition root, final QueryFilterParams queryParams){
+
+        final List<SortByFieldName> sortBys = new EntityListSortParamParser(queryParams).sortBys();
+        if(sortBys.size()!=1){
+            return null;
+        }
+
+        final Field field = root.getField(sortBys.get(0).fieldName);
+        if(field==null || !field.isRangeIndexed()){
+            return null;
+        }
+
+        return field;
+    }
+}
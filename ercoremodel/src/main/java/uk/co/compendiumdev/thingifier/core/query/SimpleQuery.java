@@ -7,10 +7,15 @@ import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.F
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.RelationshipVectorDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ColumnFilter;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static uk.co.compendiumdev.thingifier.core.query.SimpleQuery.LastMatchValue.*;
 
@@ -43,10 +48,30 @@ final public class SimpleQuery {
     List<Object> foundItemsHistoryList = new ArrayList<>();
     private EntityDefinition resultContainsDefinition;
 
+    // plans are created by the planner, and cached if the planner is shared between queries
+    private final QueryPlanner planner;
+    private QueryPlan plan;
+    private boolean planWasCached = false;
+    private QueryPlan.Access accessUsed = null;
+    // stage name -> nanoseconds taken, to allow an explain of the query
+    private final Map<String, Long> stageTimings = new LinkedHashMap<>();
+
+    // when the query is for all instances of an entity they are not copied into foundItems unless needed
+    private EntityInstanceCollection allInstancesOf = null;
+    private EntityListFilterParamParser traversalFilter = null;
+    private boolean filteredDuringTraversal = false;
+    private boolean filteredByAccess = false;
+    private String nextCursor = null;
+
     public SimpleQuery(ERSchema aSchema, ERInstanceData aDatabase, String query) {
+        this(aSchema, aDatabase, query, new QueryPlanner(aSchema));
+    }
+
+    public SimpleQuery(ERSchema aSchema, ERInstanceData aDatabase, String query, QueryPlanner aPlanner) {
 
         this.schema = aSchema;
         this.database = aDatabase;
+        this.planner = aPlanner;
 
         if(query.startsWith("/")){
             this.query = query.substring(1);
@@ -57,6 +82,10 @@ final public class SimpleQuery {
 
 
     public SimpleQuery performQuery() {
+        return performQuery(new QueryFilterParams());
+    }
+
+    private void walkQueryPath() {
         // a simple query is a URL based REST query
         // e.g. THING/_GUID_/RELATIONSHIP/THING
         // e.g. THING/_ID_/RELATIONSHIP/THING
@@ -67,7 +96,11 @@ final public class SimpleQuery {
 
         lastMatch = NOTHING;
 
-        for (String term : terms) {
+        for (int termIndex=0; termIndex<terms.length; termIndex++) {
+
+            final String term = terms[termIndex];
+            final boolean isLastTerm = termIndex == terms.length-1;
+            final long stageStart = System.nanoTime();
 
             // if we have a parent thing then we want to check for relationships before we check for things
             // if it matches a relationship then get the instances identified by the relationship
@@ -81,33 +114,33 @@ final public class SimpleQuery {
 
                 foundItemsHistoryList.add(lastRelationshipFound);
 
+                final List<EntityInstance> fromItems = foundItems();
 
-                if (foundItems != null && foundItems.size() > 0) {
-                    resultContainsDefinition = foundItems.get(0).getRelationships().getTypeOfConnectableItems(term);
+                if (fromItems.size() > 0) {
+                    resultContainsDefinition = fromItems.get(0).getRelationships().getTypeOfConnectableItems(term);
                 }
 
                 List<EntityInstance> newitems = new ArrayList<EntityInstance>();
-                if (foundItems != null) {
-                    for (EntityInstance instance : foundItems) {
-                        newitems.addAll(instance.getRelationships().getConnectedItems(term));
-                    }
+                for (EntityInstance instance : fromItems) {
+                    addTraversedItems(newitems, instance.getRelationships().getConnectedItems(term), isLastTerm);
                 }
 
                 // relationships is always a collection
                 isCollection = true;
 
-                foundItems = newitems;
+                setFoundItems(newitems);
                 parentInstance = currentInstance;
                 parentCollection = currentCollection;
                 currentCollection = null;
                 currentInstance = null;
                 lastMatch = CURRENT_RELATIONSHIP;
+                recordStage("traverse", stageStart);
                 continue;
             }
 
             // if matches an entity type
             if (schema.hasEntityNamed(term) || schema.hasEntityWithPluralNamed(term)) {
-                if (currentCollection == null && foundItems.size() == 0) {
+                if (currentCollection == null && foundItems().size() == 0) {
                     // first thing - find it
                     currentCollection = database.getInstanceCollectionForEntityNamed(term);
                     pluralMatch = false;
@@ -127,30 +160,33 @@ final public class SimpleQuery {
                     parentCollection = currentCollection;
                     currentInstance = null;
                     lastMatch = CURRENT_THING;
-                    foundItems = new ArrayList<EntityInstance>(currentCollection.getInstances());
+                    setFoundItems(new ArrayList<>());
+                    allInstancesOf = currentCollection;
+                    recordStage("access", stageStart);
 
                 } else {
                     // related to another type of thing
                     foundItemsHistoryList.add(database.getInstanceCollectionForEntityNamed(term));
 
-                    if (foundItems != null && foundItems.size() > 0) {
-                        resultContainsDefinition = foundItems.get(0).getRelationships().getTypeOfConnectableItems(term);
+                    final List<EntityInstance> fromItems = foundItems();
+
+                    if (fromItems.size() > 0) {
+                        resultContainsDefinition = fromItems.get(0).getRelationships().getTypeOfConnectableItems(term);
                     }
 
                     List<EntityInstance> newitems = new ArrayList<EntityInstance>();
-                    if (foundItems != null) {
-                        for (EntityInstance instance : foundItems) {
-                            List<EntityInstance> matchedInstances = instance.getRelationships().getConnectedItemsOfType(term);
-                            newitems.addAll(matchedInstances);
-                        }
+                    for (EntityInstance instance : fromItems) {
+                        List<EntityInstance> matchedInstances = instance.getRelationships().getConnectedItemsOfType(term);
+                        addTraversedItems(newitems, matchedInstances, isLastTerm);
                     }
 
                     // relationship is a collection
-                    foundItems = newitems;
+                    setFoundItems(newitems);
                     lastMatch = CURRENT_ITEMS;
                     parentCollection = currentCollection;
                     currentCollection = null;
                     currentInstance = null;
+                    recordStage("traverse", stageStart);
                 }
                 continue;
             }
@@ -160,50 +196,37 @@ final public class SimpleQuery {
             // is it a GUID or ID?
             // this should be based on the EntityDefinition Primary Identifier Field
             // TODO: create a PrimaryIdentifierField to allow finding via simple query
-            boolean found = false;
-            for (EntityInstance instance : foundItems) {
-
-                boolean matchBasedOnIdOrGUID = false;
-
-                // found based on ID ?
-                final List<Field> idFields = instance.getEntity().
-                        getFieldsOfType(FieldType.AUTO_INCREMENT);
-                if(!idFields.isEmpty()){
-                    final String idValue = instance.getFieldValue(
-                            idFields.get(0).getName()).asString();
-                    if(idValue.contentEquals(term)){
-                        matchBasedOnIdOrGUID=true;
-                    }
-                }
-
-                if (instance.getPrimaryKeyValue().contentEquals(term)) {
-                    matchBasedOnIdOrGUID = true;
+            final EntityInstance instance;
+            if(lastMatch == CURRENT_THING){
+                // all the instances of an entity, so the indexes can be used
+                instance = findInstanceByIdOrPrimaryKey(currentCollection, term);
+                if(instance!=null){
+                    // only reported when the lookup found the instance
+                    accessUsed = QueryPlan.Access.PRIMARY_KEY_LOOKUP;
                 }
+            }else{
+                instance = findInstanceByIdOrPrimaryKey(foundItems(), term);
+            }
 
-                if(matchBasedOnIdOrGUID){
+            if(instance!=null){
 
-                    foundItemsHistoryList.add(instance);
+                foundItemsHistoryList.add(instance);
 
-                    if (currentCollection != null) {
-                        parentCollection = currentCollection;
-                    }
+                if (currentCollection != null) {
+                    parentCollection = currentCollection;
+                }
 
-                    // if we had a plural term then return this as a collection
-                    isCollection = pluralMatch;
+                // if we had a plural term then return this as a collection
+                isCollection = pluralMatch;
 
-                    currentCollection = null;
+                currentCollection = null;
 
-                    currentInstance = instance;
-                    foundItems = new ArrayList<EntityInstance>();
-                    foundItems.add(instance);
-                    lastMatch = CURRENT_INSTANCE;
-                    found = true;
-                }
-                if (found) {
-                    break;
-                }
-            }
-            if (found) {
+                currentInstance = instance;
+                List<EntityInstance> foundInstance = new ArrayList<EntityInstance>();
+                foundInstance.add(instance);
+                setFoundItems(foundInstance);
+                lastMatch = CURRENT_INSTANCE;
+                recordStage("access", stageStart);
                 // it was a GUID or id
                 continue;
             }
@@ -212,8 +235,79 @@ final public class SimpleQuery {
             // is it a filter query?  e.g. ?title="name"
             lastMatch = NOTHING;
         }
+    }
 
-        return this;
+    private EntityInstance findInstanceByIdOrPrimaryKey(final EntityInstanceCollection collection, final String term){
+
+        // found based on ID ?
+        final List<Field> idFields = collection.definition().getFieldsOfType(FieldType.AUTO_INCREMENT);
+        if(!idFields.isEmpty()){
+            final EntityInstance instance = collection.findInstanceByFieldNameAndValue(idFields.get(0).getName(), term);
+            if(instance!=null){
+                return instance;
+            }
+        }
+
+        return collection.findInstanceByPrimaryKey(term);
+    }
+
+    private EntityInstance findInstanceByIdOrPrimaryKey(final List<EntityInstance> instances, final String term){
+
+        for (EntityInstance instance : instances) {
+
+            // found based on ID ?
+            final List<Field> idFields = instance.getEntity().
+                    getFieldsOfType(FieldType.AUTO_INCREMENT);
+            if(!idFields.isEmpty()){
+                final String idValue = instance.getFieldValue(
+                        idFields.get(0).getName()).asString();
+                if(idValue.contentEquals(term)){
+                    return instance;
+                }
+            }
+
+            if (instance.getPrimaryKeyValue().contentEquals(term)) {
+                return instance;
+            }
+        }
+
+        return null;
+    }
+
+    /*
+        when the last term of the query traverses relationships the filters
+        are applied as the related items are found rather than afterwards
+     */
+    private void addTraversedItems(final List<EntityInstance> items, final Collection<EntityInstance> traversedTo, final boolean isLastTerm){
+
+        if(!isLastTerm || traversalFilter==null){
+            items.addAll(traversedTo);
+            return;
+        }
+
+        filteredDuringTraversal = true;
+        for(EntityInstance instance : traversedTo){
+            if(traversalFilter.matches(instance)){
+                items.add(instance);
+            }
+        }
+    }
+
+    private List<EntityInstance> foundItems(){
+        if(allInstancesOf!=null){
+            foundItems = new ArrayList<>(allInstancesOf.getInstances());
+            allInstancesOf = null;
+        }
+        return foundItems;
+    }
+
+    private void setFoundItems(final List<EntityInstance> items){
+        allInstancesOf = null;
+        foundItems = items;
+    }
+
+    private void recordStage(final String stageName, final long stageStart){
+        stageTimings.merge(stageName, System.nanoTime() - stageStart, Long::sum);
     }
 
     public boolean isResultACollection() {
@@ -222,26 +316,283 @@ final public class SimpleQuery {
 
     // Should not use map from query processing, instead parse to filters using our parser UrlParamParser
 
-    public SimpleQuery performQuery(final QueryFilterParams queryParams) {
+    /**
+     * @throws IllegalArgumentException if the paging params are not valid
+     */
+    public SimpleQuery performQuery(final QueryFilterParams queryAndPagingParams) {
+
+        final QueryPaging paging = QueryPaging.from(queryAndPagingParams);
+        final QueryFilterParams queryParams = queryAndPagingParams.withoutPagingParams();
+
+        long stageStart = System.nanoTime();
+        planWasCached = planner.hasCachedPlanFor(query, queryAndPagingParams);
+        plan = planner.planFor(query, queryAndPagingParams);
+        recordStage("plan", stageStart);
+
+        if(plan.isFilteredDuringTraversal()){
+            traversalFilter = new EntityListFilterParamParser(queryParams);
+        }
+
+        walkQueryPath();
 
-        performQuery();
         //filter the results based on the query
         // todo: should we filter single instances?
         if(!isCollection){
             return this;
         }
 
-        final EntityInstanceListFilter filterer = new EntityInstanceListFilter(queryParams);
+        // when the query is for all instances of an entity, the plan
+        // may use an index to avoid filtering or sorting them all
+        boolean sortedByIndex = false;
+        if(lastMatch == CURRENT_THING){
+            stageStart = System.nanoTime();
+            sortedByIndex = findInstancesUsingPlan(queryParams);
+            recordStage("access", stageStart);
+        }
 
-        foundItems = filterer.filter(foundItems);
+        if(!filteredDuringTraversal && !filteredByAccess){
+            stageStart = System.nanoTime();
+            final EntityInstanceListFilter filterer = new EntityInstanceListFilter(queryParams);
+
+            // filtering retains the order of the found items
+            setFoundItems(filterer.filter(foundItems()));
+            recordStage("filter", stageStart);
+        }
 
-        // support sorting after filtering
         final EntityInstanceListSorter sorter = new EntityInstanceListSorter(queryParams);
-        foundItems = sorter.sort(foundItems);
+
+        if(paging.isPaged()){
+            stageStart = System.nanoTime();
+            // pages are sorted including the primary key, so an index order can not be used
+            setFoundItems(pageOf(sorter, paging));
+            recordStage("page", stageStart);
+        }else if(!sortedByIndex){
+            stageStart = System.nanoTime();
+            // support sorting after filtering
+            setFoundItems(sorter.sort(foundItems()));
+            recordStage("sort", stageStart);
+        }
 
         return this;
     }
 
+    /*
+        one more than the limit is found, to know if there is a next page
+     */
+    private List<EntityInstance> pageOf(final EntityInstanceListSorter sorter, final QueryPaging paging){
+
+        final List<EntityInstance> page = sorter.sortPage(foundItems(), paging.withOneMore());
+
+        if(paging.hasLimit() && page.size()>paging.getLimit()){
+            final List<EntityInstance> limitedPage = new ArrayList<>(page.subList(0, paging.getLimit()));
+            if(!limitedPage.isEmpty()){
+                final EntityInstance last = limitedPage.get(limitedPage.size()-1);
+                nextCursor = QueryPaging.cursorFor(last, sorter.keyFieldsFor(last.getEntity(), true));
+            }
+            return limitedPage;
+        }
+
+        return page;
+    }
+
+    /*
+        use the access path from the plan to find the candidate instances, the
+        indexes are checked again here since they might not be usable with the
+        filter values or data, in which case all the instances are scanned
+
+        return true if the found items are already in the sort order
+     */
+    private boolean findInstancesUsingPlan(final QueryFilterParams queryParams){
+
+        final String fieldName = plan.getAccessFieldName();
+
+        switch (plan.getAccess()){
+            case INDEX_PROBE:
+                final Collection<EntityInstance> indexedCandidates =
+                        findCandidatesUsingIndex(currentCollection, fieldName, queryParams);
+                if(indexedCandidates!=null){
+                    accessUsed = QueryPlan.Access.INDEX_PROBE;
+                    setFoundItems(new ArrayList<>(indexedCandidates));
+                    return false;
+                }
+                break;
+            case RANGE_PROBE:
+                if(currentCollection.canUseRangeIndexFor(fieldName)){
+                    final List<EntityInstance> rangeCandidates = findCandidatesUsingRangeIndex(
+                            currentCollection, fieldName, queryParams, isSortedAscending(queryParams));
+                    if(rangeCandidates!=null){
+                        accessUsed = QueryPlan.Access.RANGE_PROBE;
+                        setFoundItems(rangeCandidates);
+                        return plan.isSortedByIndex();
+                    }
+                }
+                break;
+            case INDEX_ORDER:
+                if(currentCollection.canUseRangeIndexFor(fieldName)){
+                    accessUsed = QueryPlan.Access.INDEX_ORDER;
+                    setFoundItems(currentCollection.getInstancesOrderedBy(fieldName, isSortedAscending(queryParams)));
+                    return true;
+                }
+                break;
+            case COLUMN_SCAN:
+                final List<SortByFieldName> sortBys = new EntityListSortParamParser(queryParams).sortBys();
+                // only a single sort field is sorted using the columns
+                final String sortFieldName = sortBys.size()==1 ? sortBys.get(0).fieldName : null;
+                final List<EntityInstance> columnMatches = currentCollection.findInstancesUsingColumns(
+                        asColumnFilters(queryParams), sortFieldName, isSortedAscending(queryParams));
+                if(columnMatches!=null){
+                    accessUsed = QueryPlan.Access.COLUMN_SCAN;
+                    filteredByAccess = true;
+                    setFoundItems(columnMatches);
+                    return sortBys.size()<=1;
+                }
+                break;
+        }
+
+        accessUsed = QueryPlan.Access.SCAN;
+        return false;
+    }
+
+    /*
+        the wildcard filters are converted to regex filters as when matching instances
+     */
+    private List<ColumnFilter> asColumnFilters(final QueryFilterParams queryParams){
+        List<ColumnFilter> filters = new ArrayList<>();
+        for(FilterBy filterBy : queryParams.toList()){
+            if(filterBy.filterOperation.equals("*=")){
+                final String regex = filterBy.fieldValue.replace("*", ".*").replace("?", ".");
+                filters.add(new ColumnFilter(filterBy.fieldName, ColumnFilter.REGEX, regex));
+            }else{
+                filters.add(new ColumnFilter(filterBy.fieldName, filterBy.filterOperation, filterBy.fieldValue));
+            }
+        }
+        return filters;
+    }
+
+    private boolean isSortedAscending(final QueryFilterParams queryParams){
+        final List<SortByFieldName> sortBys = new EntityListSortParamParser(queryParams).sortBys();
+        return sortBys.isEmpty() || sortBys.get(0).order<0;
+    }
+
+    /*
+        return the instances matching an '=' filter on the indexed field,
+        or null if the filter value can not be used with the index
+     */
+    private Collection<EntityInstance> findCandidatesUsingIndex(final EntityInstanceCollection collection,
+                                                               final String fieldName,
+                                                               final QueryFilterParams queryParams){
+
+        final Field field = collection.definition().getField(fieldName);
+
+        for(FilterBy filterBy : queryParams.toList()){
+            if(!filterBy.filterOperation.equals("=") ||
+                    !field.getName().equalsIgnoreCase(filterBy.fieldName)){
+                continue;
+            }
+
+            final String indexedValue = asIndexedValue(field, filterBy.fieldValue);
+            if(indexedValue!=null){
+                return collection.findInstancesByFieldNameAndValue(field.getName(), indexedValue);
+            }
+        }
+
+        return null;
+    }
+
+    /*
+        combine all the range and equality filters on the field into the tightest
+        range and return the instances in that range in the requested order,
+        or null if any of the filter values are not numbers
+     */
+    private List<EntityInstance> findCandidatesUsingRangeIndex(final EntityInstanceCollection collection,
+                                                              final String fieldName,
+                                                              final QueryFilterParams queryParams,
+                                                              final boolean ascending){
+
+        final Field field = collection.definition().getField(fieldName);
+
+        Double lowest = null;
+        boolean lowestInclusive = true;
+        Double highest = null;
+        boolean highestInclusive = true;
+
+        for(FilterBy filterBy : queryParams.toList()){
+            if(!QueryPlanner.isRangeOperation(filterBy.filterOperation) ||
+                    !field.getName().equalsIgnoreCase(filterBy.fieldName)){
+                continue;
+            }
+
+            final Double value = asRangeIndexedValue(field, filterBy.fieldValue);
+            if(value==null){
+                return null;
+            }
+
+            final String operation = filterBy.filterOperation;
+            if(operation.startsWith(">") || operation.equals("=")){
+                final boolean inclusive = !operation.equals(">");
+                final int compared = lowest==null ? 1 : Double.compare(value, lowest);
+                if(compared>0 || (compared==0 && !inclusive)){
+                    lowest = value;
+                    lowestInclusive = inclusive;
+                }
+            }
+            if(operation.startsWith("<") || operation.equals("=")){
+                final boolean inclusive = !operation.equals("<");
+                final int compared = highest==null ? -1 : Double.compare(value, highest);
+                if(compared<0 || (compared==0 && !inclusive)){
+                    highest = value;
+                    highestInclusive = inclusive;
+                }
+            }
+        }
+
+        final List<EntityInstance> inRange = collection.findInstancesInRange(
+                                    field.getName(), lowest, lowestInclusive, highest, highestInclusive);
+        if(!ascending){
+            Collections.reverse(inRange);
+        }
+        return inRange;
+    }
+
+    private Double asRangeIndexedValue(final Field field, final String filterValue){
+        try{
+            if(field.getType()==FieldType.FLOAT){
+                return (double) Float.parseFloat(filterValue);
+            }
+            return (double) Integer.parseInt(filterValue);
+        }catch(NumberFormatException e){
+            return null;
+        }
+    }
+
+    /*
+        Indexes are keyed on the stored string value, so the filter value
+        has to be in the same form that values are stored in, if it can't be
+        converted then the index is not used and the filter is applied to all instances
+     */
+    private String asIndexedValue(final Field field, final String filterValue){
+        switch (field.getType()){
+            case STRING:
+            case ENUM:
+            case AUTO_GUID:
+                return filterValue;
+            case INTEGER:
+            case AUTO_INCREMENT:
+                try{
+                    return String.valueOf(Integer.parseInt(filterValue));
+                }catch(NumberFormatException e){
+                    return null;
+                }
+            case BOOLEAN:
+                if(filterValue.equalsIgnoreCase("true") || filterValue.equalsIgnoreCase("false")){
+                    return filterValue.toLowerCase();
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
     public List<EntityInstance> getListEntityInstances() {
         List<EntityInstance> returnThis = new ArrayList<EntityInstance>();
 
@@ -249,7 +600,7 @@ final public class SimpleQuery {
             // if not allow filtering then...
             //returnThis.addAll(currentThing.getInstances());
             // if allow filtering then...
-            returnThis.addAll(foundItems);
+            returnThis.addAll(foundItems());
         }
 
         if (lastMatch == CURRENT_INSTANCE) {
@@ -257,7 +608,7 @@ final public class SimpleQuery {
         }
 
         if (lastMatch == CURRENT_ITEMS || lastMatch == CURRENT_RELATIONSHIP) {
-            returnThis.addAll(foundItems);
+            returnThis.addAll(foundItems());
         }
 
         //if(lastMatch==NOTHING){ // then the array is already empty}
@@ -301,4 +652,31 @@ final public class SimpleQuery {
     public EntityDefinition resultContainsDefn() {
         return resultContainsDefinition;
     }
+
+    public QueryPlan getPlan() {
+        return plan;
+    }
+
+    public boolean wasPlanCached() {
+        return planWasCached;
+    }
+
+    /*
+        the access path actually used, which may differ from
+        the plan if an index could not be used for the values
+     */
+    public QueryPlan.Access getAccessUsed() {
+        return accessUsed;
+    }
+
+    /**
+     * @return the cursor param value to get the page after the results, or null if there are no more results
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public Map<String, Long> getStageTimingsInNanos() {
+        return new LinkedHashMap<>(stageTimings);
+    }
 }
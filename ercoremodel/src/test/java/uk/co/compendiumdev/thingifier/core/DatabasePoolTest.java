@@ -0,0 +1,212 @@
+package uk.co.compendiumdev.thingifier.core;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.Cardinality;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+
+public class DatabasePoolTest {
+
+    @TempDir
+    File folder;
+
+    EntityRelModel erModel;
+
+    @BeforeEach
+    public void createModel(){
+        erModel = new EntityRelModel();
+
+        final EntityDefinition todo = erModel.createEntityDefinition("todo", "todos");
+        todo.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        todo.addFields(Field.is("title", FieldType.STRING));
+
+        final EntityDefinition project = erModel.createEntityDefinition("project", "projects");
+        project.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        project.addFields(Field.is("title", FieldType.STRING));
+
+        erModel.createRelationshipDefinition(project, todo, "tasks", Cardinality.ONE_TO_MANY());
+    }
+
+    private void createDatabaseWithTodos(final String name, final int count){
+        erModel.createInstanceDatabaseIfNotExisting(name);
+        final EntityInstanceCollection todos =
+                erModel.getInstanceData(name).getInstanceCollectionForEntityNamed("todo");
+        final EntityInstance project = erModel.getInstanceData(name).
+                getInstanceCollectionForEntityNamed("project").createManagedInstance().
+                setValue("title", name);
+        for(int todo=0; todo<count; todo++){
+            final EntityInstance created = todos.createManagedInstance().setValue("title", name + " " + todo);
+            project.getRelationships().connect("tasks", created);
+        }
+    }
+
+    @Test
+    public void withoutABudgetNothingIsSpilled(){
+
+        createDatabaseWithTodos("one", 50);
+        createDatabaseWithTodos("two", 50);
+        erModel.getDatabasePool().setMinimumIdleMillis(0);
+
+        Assertions.assertEquals(0, erModel.spillIdleDatabases());
+        Assertions.assertEquals(0, erModel.getDatabasePool().countSpilled());
+    }
+
+    @Test
+    public void leastRecentlyUsedDatabasesAreSpilledWhenOverBudget() throws InterruptedException {
+
+        erModel.getDatabasePool().setMinimumIdleMillis(0);
+        createDatabaseWithTodos("oldest", 20);
+        Thread.sleep(5);
+        createDatabaseWithTodos("newest", 20);
+        final long oneDatabase = erModel.getInstanceData("newest").estimatedSizeInBytes();
+
+        erModel.limitDatabaseMemoryTo(oneDatabase + oneDatabase/2, folder);
+        Assertions.assertEquals(1, erModel.spillIdleDatabases());
+
+        Assertions.assertEquals(1, erModel.getDatabasePool().countSpilled());
+        Assertions.assertTrue(erModel.getDatabasePool().estimatedSizeInBytes() <= oneDatabase + oneDatabase/2);
+        // still known, even though not loaded
+        Assertions.assertTrue(erModel.getDatabaseNames().contains("oldest"));
+    }
+
+    @Test
+    public void spilledDatabaseIsLoadedWhenUsed() throws InterruptedException {
+
+        erModel.getDatabasePool().setMinimumIdleMillis(0);
+        createDatabaseWithTodos("spilled", 20);
+        Thread.sleep(5);
+        createDatabaseWithTodos("used", 20);
+        erModel.limitDatabaseMemoryTo(1, folder);
+        erModel.spillIdleDatabases();
+        Assertions.assertEquals(2, erModel.getDatabasePool().countSpilled());
+
+        final ERInstanceData reloaded = erModel.getInstanceData("spilled");
+
+        final EntityInstanceCollection todos = reloaded.getInstanceCollectionForEntityNamed("todo");
+        Assertions.assertEquals(20, todos.countInstances());
+        Assertions.assertEquals("spilled 7", todos.findInstanceByPrimaryKey("8").getFieldValue("title").asString());
+        final EntityInstance project = reloaded.getInstanceCollectionForEntityNamed("project").
+                findInstanceByPrimaryKey("1");
+        Assertions.assertEquals(20, project.getRelationships().getConnectedItems("tasks").size());
+        // ids carry on from where they were
+        Assertions.assertEquals("21", todos.createManagedInstance().getPrimaryKeyValue());
+    }
+
+    @Test
+    public void recentlyUsedDatabasesAreNotSpilled(){
+
+        createDatabaseWithTodos("busy", 20);
+        erModel.limitDatabaseMemoryTo(1, folder);
+
+        Assertions.assertEquals(0, erModel.spillIdleDatabases());
+        Assertions.assertSame(erModel.getInstanceData("busy"), erModel.getInstanceData("busy"));
+    }
+
+    @Test
+    public void defaultDatabaseIsNotSpilled(){
+
+        erModel.getDatabasePool().setMinimumIdleMillis(0);
+        erModel.getInstanceData(EntityRelModel.DEFAULT_DATABASE_NAME).
+                getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "default");
+        erModel.limitDatabaseMemoryTo(1, folder);
+
+        Assertions.assertEquals(0, erModel.spillIdleDatabases());
+    }
+
+    @Test
+    public void deletingASpilledDatabaseRemovesItsFile(){
+
+        erModel.getDatabasePool().setMinimumIdleMillis(0);
+        createDatabaseWithTodos("deleted", 20);
+        erModel.limitDatabaseMemoryTo(1, folder);
+        erModel.spillIdleDatabases();
+        Assertions.assertEquals(1, folder.listFiles().length);
+
+        erModel.deleteInstanceDatabase("deleted");
+
+        Assertions.assertEquals(0, folder.listFiles().length);
+        Assertions.assertFalse(erModel.getDatabaseNames().contains("deleted"));
+        Assertions.assertNull(erModel.getInstanceData("deleted"));
+    }
+
+    @Test
+    public void reloadedDatabaseIsNotSpilledAgainToMakeRoom() throws InterruptedException {
+
+        erModel.getDatabasePool().setMinimumIdleMillis(0);
+        createDatabaseWithTodos("spilled", 20);
+        Thread.sleep(5);
+        createDatabaseWithTodos("other", 20);
+        erModel.limitDatabaseMemoryTo(1, folder);
+        erModel.spillIdleDatabases();
+
+        final ERInstanceData reloaded = erModel.getInstanceData("spilled");
+
+        Assertions.assertFalse(reloaded.isClosed());
+        Assertions.assertSame(reloaded, erModel.getInstanceData("spilled"));
+        reloaded.inWriteTransaction(() ->
+            reloaded.getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "kept"));
+        Assertions.assertEquals(21, erModel.getInstanceData("spilled").
+                getInstanceCollectionForEntityNamed("todo").countInstances());
+    }
+
+    @Test
+    public void changesToASpilledDatabaseAreRejectedRatherThanLost(){
+
+        erModel.getDatabasePool().setMinimumIdleMillis(0);
+        createDatabaseWithTodos("held", 20);
+        final ERInstanceData held = erModel.getInstanceData("held");
+        erModel.limitDatabaseMemoryTo(1, folder);
+        erModel.spillIdleDatabases();
+
+        Assertions.assertTrue(held.isClosed());
+        Assertions.assertThrows(IllegalStateException.class, () -> held.inWriteTransaction(() ->
+                held.getInstanceCollectionForEntityNamed("todo").createManagedInstance()));
+
+        Assertions.assertEquals(20, erModel.getInstanceData("held").
+                getInstanceCollectionForEntityNamed("todo").countInstances());
+    }
+
+    @Test
+    public void databaseInATransactionIsSkippedRatherThanWaitedFor() throws InterruptedException {
+
+        erModel.getDatabasePool().setMinimumIdleMillis(0);
+        createDatabaseWithTodos("busy", 20);
+        final ERInstanceData busy = erModel.getInstanceData("busy");
+        erModel.limitDatabaseMemoryTo(1, folder);
+
+        final CountDownLatch inTransaction = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final Thread request = new Thread(() -> busy.inWriteTransaction(() -> {
+            inTransaction.countDown();
+            try {
+                finish.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            // requests look databases up from within a transaction
+            return erModel.getInstanceData("busy");
+        }));
+        request.start();
+        inTransaction.await();
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> Assertions.assertEquals(0, erModel.spillIdleDatabases()));
+        Assertions.assertFalse(busy.isClosed());
+
+        finish.countDown();
+        request.join(5000);
+        Assertions.assertFalse(request.isAlive());
+        Assertions.assertEquals(1, erModel.spillIdleDatabases());
+    }
+}
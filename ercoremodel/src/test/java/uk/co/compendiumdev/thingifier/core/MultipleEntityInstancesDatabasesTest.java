@@ -2,6 +2,7 @@ package uk.co.compendiumdev.thingifier.core;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.Cardinality;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
@@ -9,6 +10,8 @@ import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class MultipleEntityInstancesDatabasesTest {
 
 
@@ -127,4 +130,124 @@ public class MultipleEntityInstancesDatabasesTest {
         ERInstanceData isDatabase = erm.getInstanceData(EntityRelModel.DEFAULT_DATABASE_NAME);
         Assertions.assertNotNull(isDatabase);
     }
+
+    private EntityRelModel populatedModel(final AtomicInteger populatedCount){
+
+        EntityRelModel erm = new EntityRelModel();
+        EntityDefinition thingDefn = erm.createEntityDefinition("thing", "things");
+        thingDefn.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        thingDefn.addField(Field.is("Title", FieldType.STRING));
+        EntityDefinition groupDefn = erm.createEntityDefinition("group", "groups");
+        groupDefn.addField(Field.is("Title", FieldType.STRING));
+        erm.createRelationshipDefinition(groupDefn, thingDefn, "things", Cardinality.ONE_TO_MANY()).
+                whenReversed(Cardinality.ONE_TO_MANY(), "group");
+
+        erm.setDataGenerator((schema, database) -> {
+            populatedCount.incrementAndGet();
+            final EntityInstance group = database.getInstanceCollectionForEntityNamed("group").
+                    createManagedInstance().setValue("Title", "Group");
+            for(int item=1; item<=3; item++){
+                final EntityInstance thing = database.getInstanceCollectionForEntityNamed("thing").
+                        createManagedInstance().setValue("Title", "Thing " + item);
+                group.getRelationships().connect("things", thing);
+            }
+        });
+
+        return erm;
+    }
+
+    @Test
+    public void populatedDatabasesShareATemplateUntilUsed(){
+
+        final AtomicInteger populatedCount = new AtomicInteger();
+        EntityRelModel erm = populatedModel(populatedCount);
+
+        Assertions.assertTrue(erm.createPopulatedInstanceDatabaseIfNotExisting("session1"));
+        Assertions.assertTrue(erm.createPopulatedInstanceDatabaseIfNotExisting("session2"));
+        Assertions.assertFalse(erm.createPopulatedInstanceDatabaseIfNotExisting("session2"));
+        Assertions.assertEquals(1, populatedCount.get());
+
+        final ERInstanceData session1 = erm.getInstanceData("session1");
+        final ERInstanceData session2 = erm.getInstanceData("session2");
+        Assertions.assertTrue(session1.isSharingTemplate());
+
+        final EntityInstanceCollection things1 = session1.getInstanceCollectionForEntityNamed("thing");
+        Assertions.assertFalse(session1.isSharingTemplate());
+        Assertions.assertTrue(session2.isSharingTemplate());
+
+        things1.findInstanceByPrimaryKey("1").setValue("Title", "Amended");
+        things1.deleteInstance(things1.findInstanceByPrimaryKey("2"));
+        Assertions.assertEquals("4", things1.createManagedInstance().getPrimaryKeyValue());
+
+        // the relationships are copied with the instances, less the deleted instance
+        final EntityInstance group1 = session1.getInstanceCollectionForEntityNamed("group").
+                getInstances().iterator().next();
+        Assertions.assertEquals(2, group1.getRelationships().getConnectedItems("things").size());
+        Assertions.assertTrue(group1.getRelationships().getConnectedItems("things").
+                contains(things1.findInstanceByPrimaryKey("1")));
+
+        // other databases are not changed
+        final EntityInstanceCollection things2 = session2.getInstanceCollectionForEntityNamed("thing");
+        Assertions.assertEquals(3, things2.countInstances());
+        Assertions.assertEquals("Thing 1", things2.findInstanceByPrimaryKey("1").getFieldValue("Title").asString());
+        Assertions.assertEquals(1, things2.findInstanceByPrimaryKey("2").getRelationships().
+                getConnectedItems("group").size());
+        Assertions.assertEquals(1, populatedCount.get());
+    }
+
+    @Test
+    public void readingInAReadTransactionDoesNotCopyTheTemplate(){
+
+        final AtomicInteger populatedCount = new AtomicInteger();
+        EntityRelModel erm = populatedModel(populatedCount);
+        erm.createPopulatedInstanceDatabaseIfNotExisting("reader");
+        final ERInstanceData reader = erm.getInstanceData("reader");
+
+        final EntityInstance thing = reader.inReadTransaction(() -> {
+            final EntityInstanceCollection things = reader.getInstanceCollectionForEntityNamed("thing");
+            Assertions.assertEquals(3, things.countInstances());
+            Assertions.assertEquals(2, reader.getAllInstanceCollections().size());
+            return things.findInstanceByPrimaryKey("2");
+        });
+        Assertions.assertTrue(reader.asJson().contains("Thing 2"));
+        Assertions.assertTrue(reader.isSharingTemplate());
+
+        // a write copies the template, the instance read before is the template's, not changed
+        reader.inWriteTransaction(() -> reader.getInstanceCollectionForEntityNamed("thing").
+                findInstanceByPrimaryKey("2").setValue("Title", "Amended"));
+        Assertions.assertFalse(reader.isSharingTemplate());
+        Assertions.assertEquals("Thing 2", thing.getFieldValue("Title").asString());
+
+        erm.createPopulatedInstanceDatabaseIfNotExisting("other");
+        Assertions.assertEquals("Thing 2", erm.getInstanceData("other").getInstanceCollectionForEntityNamed("thing").
+                findInstanceByPrimaryKey("2").getFieldValue("Title").asString());
+    }
+
+    @Test
+    public void canForkADatabase(){
+
+        final AtomicInteger populatedCount = new AtomicInteger();
+        EntityRelModel erm = populatedModel(populatedCount);
+        erm.createPopulatedInstanceDatabaseIfNotExisting("session1");
+
+        // not used yet, so the fork shares the template
+        Assertions.assertTrue(erm.forkInstanceDatabase("session1", "unused"));
+        Assertions.assertTrue(erm.getInstanceData("unused").isSharingTemplate());
+
+        final EntityInstanceCollection things1 = erm.getInstanceData("session1").getInstanceCollectionForEntityNamed("thing");
+        things1.findInstanceByPrimaryKey("1").setValue("Title", "Amended");
+
+        Assertions.assertTrue(erm.forkInstanceDatabase("session1", "forked"));
+        Assertions.assertFalse(erm.forkInstanceDatabase("session1", "forked"));
+        Assertions.assertFalse(erm.forkInstanceDatabase("nosuchdatabase", "another"));
+
+        final EntityInstanceCollection forked = erm.getInstanceData("forked").getInstanceCollectionForEntityNamed("thing");
+        Assertions.assertEquals("Amended", forked.findInstanceByPrimaryKey("1").getFieldValue("Title").asString());
+        forked.findInstanceByPrimaryKey("1").setValue("Title", "Forked");
+
+        Assertions.assertEquals("Amended", things1.findInstanceByPrimaryKey("1").getFieldValue("Title").asString());
+        Assertions.assertEquals("Thing 1", erm.getInstanceData("unused").
+                getInstanceCollectionForEntityNamed("thing").findInstanceByPrimaryKey("1").getFieldValue("Title").asString());
+        Assertions.assertEquals(1, populatedCount.get());
+    }
 }
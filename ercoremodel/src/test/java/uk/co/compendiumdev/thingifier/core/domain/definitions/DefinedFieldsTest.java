@@ -168,4 +168,25 @@ class DefinedFieldsTest {
 
     }
 
+    @Test
+    void fieldsHaveOrdinalsInTheOrderDefined(){
+
+        final DefinedFields fields = new DefinedFields();
+        fields.addFields(Field.is("Title", FieldType.STRING),
+                         Field.is("done", FieldType.BOOLEAN));
+
+        Assertions.assertEquals(2, fields.countFields());
+        Assertions.assertEquals(0, fields.getOrdinalOf("title"));
+        Assertions.assertEquals(1, fields.getOrdinalOf("DONE"));
+        Assertions.assertEquals(-1, fields.getOrdinalOf("unknown"));
+        Assertions.assertEquals("done", fields.getFieldAt(1).getName());
+
+        // redefining a field keeps its ordinal
+        fields.addField(Field.is("title", FieldType.INTEGER));
+        Assertions.assertEquals(2, fields.countFields());
+        Assertions.assertEquals(0, fields.getOrdinalOf("title"));
+        Assertions.assertEquals(FieldType.INTEGER, fields.getFieldAt(0).getType());
+        Assertions.assertEquals(2, fields.getFieldNames().size());
+    }
+
 }
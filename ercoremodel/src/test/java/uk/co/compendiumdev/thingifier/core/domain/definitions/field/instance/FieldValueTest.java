@@ -55,4 +55,37 @@ class FieldValueTest {
         Assertions.assertThrows(NumberFormatException.class,
                 ()-> {value.asFloat();});
     }
+
+    @Test
+    void numericAndBooleanValuesAreParsedOnCreation(){
+
+        Assertions.assertEquals(12, FieldValue.is(Field.is("anInt", FieldType.INTEGER), "12").asInteger());
+        Assertions.assertEquals(-3, FieldValue.is(Field.is("anId", FieldType.AUTO_INCREMENT), "-3").asInteger());
+        Assertions.assertEquals(1.5F, FieldValue.is(Field.is("aFloat", FieldType.FLOAT), "1.5").asFloat());
+        Assertions.assertTrue(FieldValue.is(Field.is("aBool", FieldType.BOOLEAN), "TRUE").asBoolean());
+        Assertions.assertEquals("TRUE", FieldValue.is(Field.is("aBool", FieldType.BOOLEAN), "TRUE").asString());
+    }
+
+    @Test
+    void invalidTypedValuesAreReportedWhenAccessed(){
+
+        final FieldValue intValue = FieldValue.is(Field.is("anInt", FieldType.INTEGER), "12.5");
+        Assertions.assertEquals("12.5", intValue.asString());
+        Assertions.assertThrows(NumberFormatException.class, intValue::asInteger);
+
+        final FieldValue boolValue = FieldValue.is(Field.is("aBool", FieldType.BOOLEAN), "yes");
+        Assertions.assertThrows(IllegalArgumentException.class, boolValue::asBoolean);
+    }
+
+    @Test
+    void valuesCreatedFromPrimitivesHaveCanonicalStrings(){
+
+        Assertions.assertEquals("7", FieldValue.is(Field.is("anInt", FieldType.INTEGER), 7).asString());
+        Assertions.assertEquals("2.0", FieldValue.is(Field.is("aFloat", FieldType.FLOAT), 2f).asString());
+        Assertions.assertEquals("false", FieldValue.is(Field.is("aBool", FieldType.BOOLEAN), false).asString());
+
+        final FieldValue cloned = FieldValue.is(Field.is("anInt", FieldType.INTEGER), 7).cloned();
+        Assertions.assertEquals(7, cloned.asInteger());
+        Assertions.assertEquals("7", cloned.asString());
+    }
 }
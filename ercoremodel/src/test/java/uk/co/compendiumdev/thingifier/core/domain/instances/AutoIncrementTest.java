@@ -6,6 +6,11 @@ import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class AutoIncrementTest {
 
     @Test
@@ -53,4 +58,50 @@ public class AutoIncrementTest {
         auto.update();
         Assertions.assertEquals(31, auto.getCurrentValue());
     }
+
+    @Test
+    public void canReserveABlockOfIds(){
+        AutoIncrement auto = new AutoIncrement("afield", 1);
+        auto.by(2);
+
+        Assertions.assertEquals(1, auto.reserve(5));
+        Assertions.assertEquals(11, auto.nextValue());
+        Assertions.assertEquals(13, auto.getCurrentValue());
+    }
+
+    @Test
+    public void incrementToNextAboveNeverMovesBack(){
+        AutoIncrement auto = new AutoIncrement("afield", 1);
+
+        auto.incrementToNextAbove(10);
+        Assertions.assertEquals(11, auto.getCurrentValue());
+
+        auto.incrementToNextAbove(5);
+        Assertions.assertEquals(11, auto.getCurrentValue());
+    }
+
+    @Test
+    public void idsAreNotDuplicatedWhenAllocatedInParallel() throws InterruptedException {
+        AutoIncrement auto = new AutoIncrement("afield", 1);
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+
+        List<Thread> threads = new ArrayList<>();
+        for(int thread=0; thread<4; thread++){
+            threads.add(new Thread(() -> {
+                for(int id=0; id<1000; id++){
+                    ids.add(auto.nextValue());
+                    auto.incrementToNextAbove(id);
+                }
+            }));
+        }
+        for(Thread thread : threads){
+            thread.start();
+        }
+        for(Thread thread : threads){
+            thread.join();
+        }
+
+        Assertions.assertEquals(4000, ids.size());
+        Assertions.assertEquals(4001, auto.getCurrentValue());
+    }
 }
@@ -0,0 +1,140 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.Cardinality;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public class BinarySnapshotTest {
+
+    @TempDir
+    File folder;
+
+    EntityRelModel erModel;
+
+    @BeforeEach
+    public void createModel(){
+        erModel = new EntityRelModel();
+
+        final EntityDefinition todo = erModel.createEntityDefinition("todo", "todos");
+        todo.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        todo.addFields(Field.is("title", FieldType.STRING),
+                Field.is("done", FieldType.BOOLEAN),
+                Field.is("guid", FieldType.AUTO_GUID),
+                Field.is("owner", FieldType.OBJECT).withField(Field.is("name", FieldType.STRING)));
+
+        final EntityDefinition project = erModel.createEntityDefinition("project", "projects");
+        project.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        project.addFields(Field.is("title", FieldType.STRING));
+
+        erModel.createRelationshipDefinition(project, todo, "tasks", Cardinality.ONE_TO_MANY()).
+                whenReversed(Cardinality.ONE_TO_MANY(), "task-of");
+    }
+
+    private ERInstanceData database(String name){
+        erModel.createInstanceDatabaseIfNotExisting(name);
+        return erModel.getInstanceData(name);
+    }
+
+    @Test
+    public void snapshotRestoresInstancesRelationshipsAndCounters() throws IOException {
+
+        final ERInstanceData original = database("original");
+        final EntityInstanceCollection todos = original.getInstanceCollectionForEntityNamed("todo");
+        final EntityInstance paint = todos.createManagedInstance().
+                setValue("title", "paint the fence").setValue("done", "true");
+        paint.setValue("owner.name", "bob");
+        final EntityInstance deleted = todos.createManagedInstance().setValue("title", "deleted");
+        final EntityInstance wash = todos.createManagedInstance().setValue("title", "wash the car");
+        original.deleteEntityInstance(deleted);
+
+        final EntityInstance chores = original.getInstanceCollectionForEntityNamed("project").
+                createManagedInstance().setValue("title", "chores");
+        chores.getRelationships().connect("tasks", paint);
+        chores.getRelationships().connect("tasks", wash);
+
+        final File file = new File(folder, "snapshot.bin");
+        BinarySnapshot.write(original, file);
+
+        final ERInstanceData restored = database("restored");
+        BinarySnapshot.load(erModel.getSchema(), restored, file);
+
+        final EntityInstanceCollection restoredTodos = restored.getInstanceCollectionForEntityNamed("todo");
+        Assertions.assertEquals(2, restoredTodos.countInstances());
+
+        final EntityInstance restoredPaint = restoredTodos.findInstanceByPrimaryKey("1");
+        Assertions.assertEquals("paint the fence", restoredPaint.getFieldValue("title").asString());
+        Assertions.assertTrue(restoredPaint.getFieldValue("done").asBoolean());
+        Assertions.assertEquals("bob",
+                restoredPaint.getFieldValue("owner").asObject().getFieldValue("name").asString());
+        Assertions.assertSame(restoredPaint,
+                restored.findEntityInstanceByGUID(paint.getFieldValue("guid").asString()));
+        Assertions.assertNull(restoredTodos.findInstanceByPrimaryKey("2"));
+
+        final EntityInstance restoredChores = restored.getInstanceCollectionForEntityNamed("project").
+                findInstanceByPrimaryKey("1");
+        Assertions.assertEquals(2, restoredChores.getRelationships().getConnectedItems("tasks").size());
+        Assertions.assertEquals(1, restoredPaint.getRelationships().getConnectedItems("task-of").size());
+
+        // ids carry on from where the original was, deleted ids are not reused
+        Assertions.assertEquals("4", restoredTodos.createManagedInstance().getPrimaryKeyValue());
+    }
+
+    @Test
+    public void loadingReplacesTheExistingData() throws IOException {
+
+        final ERInstanceData original = database("original");
+        original.getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "kept");
+        final File file = new File(folder, "snapshot.bin");
+        BinarySnapshot.write(original, file);
+
+        final ERInstanceData existing = database("existing");
+        existing.getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "replaced");
+        existing.getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "replaced");
+
+        BinarySnapshot.load(erModel.getSchema(), existing, file);
+
+        final EntityInstanceCollection todos = existing.getInstanceCollectionForEntityNamed("todo");
+        Assertions.assertEquals(1, todos.countInstances());
+        Assertions.assertEquals("kept", todos.getInstances().iterator().next().getFieldValue("title").asString());
+    }
+
+    @Test
+    public void snapshotOfADifferentSchemaIsNotLoaded(){
+
+        final byte[] snapshot = BinarySnapshot.toBytes(database("original"));
+
+        erModel.getSchema().getEntityDefinitionNamed("project").addFields(Field.is("description", FieldType.STRING));
+
+        Assertions.assertThrows(IllegalStateException.class, () ->
+            BinarySnapshot.load(erModel.getSchema(), database("restored"), ByteBuffer.wrap(snapshot)));
+    }
+
+    @Test
+    public void snapshotCanBeWrittenAfterAHeader() throws IOException {
+
+        final ERInstanceData original = database("original");
+        original.getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "headed");
+        final File file = new File(folder, "snapshot.bin");
+        BinarySnapshot.write((ByteBuffer) ByteBuffer.allocate(Long.BYTES).putLong(42).flip(),
+                BinarySnapshot.toBytes(original), file);
+
+        final ByteBuffer written = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        Assertions.assertEquals(42, written.getLong());
+
+        final ERInstanceData restored = database("restored");
+        BinarySnapshot.load(erModel.getSchema(), restored, written.slice());
+        Assertions.assertEquals("headed", restored.getInstanceCollectionForEntityNamed("todo").
+                findInstanceByPrimaryKey("1").getFieldValue("title").asString());
+    }
+}
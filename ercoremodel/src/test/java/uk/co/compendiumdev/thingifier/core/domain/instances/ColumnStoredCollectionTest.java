@@ -0,0 +1,131 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ColumnStoredCollectionTest {
+
+    EntityDefinition entityDefn;
+    EntityInstanceCollection collection;
+
+    @BeforeEach
+    public void createEntity(){
+
+        entityDefn = new EntityDefinition("Entity", "Entities");
+
+        entityDefn.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        entityDefn.addFields(
+                Field.is("title", FieldType.STRING),
+                Field.is("size", FieldType.INTEGER),
+                Field.is("weight", FieldType.FLOAT),
+                Field.is("done", FieldType.BOOLEAN),
+                Field.is("due", FieldType.DATE));
+        entityDefn.storeFieldsAsColumns();
+
+        collection = new EntityInstanceCollection(entityDefn);
+
+        String[] titles = {"bob", "alf", "eve", "bob", "dan"};
+        for(int item=0; item<titles.length; item++){
+            collection.createManagedInstance().
+                    setValue("title", titles[item]).
+                    setValue("size", String.valueOf(item+1)).
+                    setValue("weight", String.valueOf((item+1)/2.0)).
+                    setValue("done", String.valueOf(item%2==0));
+        }
+    }
+
+    private List<ColumnFilter> filters(String... fieldOperationValues){
+        List<ColumnFilter> filters = new ArrayList<>();
+        for(int index=0; index<fieldOperationValues.length; index+=3){
+            filters.add(new ColumnFilter(fieldOperationValues[index],
+                    fieldOperationValues[index+1], fieldOperationValues[index+2]));
+        }
+        return filters;
+    }
+
+    private List<String> titlesOf(List<EntityInstance> instances){
+        List<String> titles = new ArrayList<>();
+        for(EntityInstance instance : instances){
+            titles.add(instance.getFieldValue("title").asString());
+        }
+        return titles;
+    }
+
+    @Test
+    public void onlyDefinitionsStoredAsColumnsUseColumns(){
+
+        final EntityDefinition notColumns = new EntityDefinition("Other", "Others");
+        notColumns.addFields(Field.is("size", FieldType.INTEGER));
+
+        Assertions.assertTrue(collection.isStoredAsColumns());
+        Assertions.assertFalse(new EntityInstanceCollection(notColumns).isStoredAsColumns());
+        Assertions.assertNull(new EntityInstanceCollection(notColumns).
+                findInstancesUsingColumns(filters(), null, true));
+    }
+
+    @Test
+    public void canFilterAndSortUsingColumns(){
+
+        List<EntityInstance> found = collection.findInstancesUsingColumns(
+                filters("size", ">", "1", "done", "=", "true"), "title", true);
+        Assertions.assertEquals(List.of("dan", "eve"), titlesOf(found));
+
+        found = collection.findInstancesUsingColumns(
+                filters("weight", "<=", "1.5", "title", "!=", "alf"), "size", false);
+        Assertions.assertEquals(List.of("eve", "bob"), titlesOf(found));
+
+        found = collection.findInstancesUsingColumns(filters("title", "=", "bob"), null, true);
+        Assertions.assertEquals(2, found.size());
+    }
+
+    @Test
+    public void regexFilterIgnoresLaterFilters(){
+
+        final List<EntityInstance> found = collection.findInstancesUsingColumns(
+                filters("size", "<", "5", "title", "~=", "^[ab].*", "size", "=", "1"), null, true);
+
+        Assertions.assertEquals(3, found.size());
+    }
+
+    @Test
+    public void columnsAreMaintainedOnAmendAndDelete(){
+
+        final EntityInstance alf = collection.findInstanceByFieldNameAndValue("title", "alf");
+        alf.setValue("title", "zed");
+        collection.deleteInstance(collection.findInstanceByFieldNameAndValue("title", "eve"));
+
+        final List<EntityInstance> found = collection.findInstancesUsingColumns(
+                filters(), "title", false);
+        Assertions.assertEquals(List.of("zed", "dan", "bob", "bob"), titlesOf(found));
+    }
+
+    @Test
+    public void columnsAreNotUsedWhenTheyCanNotAnswerTheQuery(){
+
+        // DATE fields are not held as columns
+        Assertions.assertNull(collection.findInstancesUsingColumns(
+                filters("due", "=", "abc"), null, true));
+
+        // filter value is not an integer
+        Assertions.assertNull(collection.findInstancesUsingColumns(
+                filters("size", "=", "abc"), null, true));
+
+        // filters on fields the entity does not have are ignored
+        Assertions.assertEquals(5, collection.findInstancesUsingColumns(
+                filters("unknown", "=", "abc"), null, true).size());
+
+        // an instance value which is not an integer
+        collection.findInstanceByFieldNameAndValue("title", "alf").overrideValue("size", "big");
+        Assertions.assertNull(collection.findInstancesUsingColumns(
+                filters("size", ">", "1"), null, true));
+        Assertions.assertEquals(2, collection.findInstancesUsingColumns(
+                filters("title", "=", "bob"), null, true).size());
+    }
+}
@@ -0,0 +1,269 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.Cardinality;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.Optionality;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.RelationshipDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.RelationshipVectorDefinition;
+
+public class ERInstanceDataTest {
+
+    ERInstanceData database;
+    EntityDefinition todo;
+    EntityDefinition project;
+
+    @BeforeEach
+    public void createDatabase(){
+
+        todo = new EntityDefinition("todo", "todos");
+        todo.addFields(Field.is("guid", FieldType.AUTO_GUID),
+                        Field.is("title", FieldType.STRING));
+
+        project = new EntityDefinition("project", "projects");
+        project.addFields(Field.is("guid", FieldType.AUTO_GUID),
+                        Field.is("title", FieldType.STRING));
+
+        database = new ERInstanceData();
+        database.createInstanceCollectionFor(todo);
+        database.createInstanceCollectionFor(project);
+    }
+
+    @Test
+    public void canFindInstancesOfAnyEntityByGuid(){
+
+        EntityInstance aTodo = database.getInstanceCollectionForEntityNamed("todo").createManagedInstance();
+        EntityInstance aProject = database.getInstanceCollectionForEntityNamed("project").createManagedInstance();
+
+        Assertions.assertSame(aTodo, database.findEntityInstanceByGUID(aTodo.getFieldValue("guid").asString()));
+        Assertions.assertSame(aProject, database.findEntityInstanceByGUID(aProject.getFieldValue("guid").asString()));
+        Assertions.assertNull(database.findEntityInstanceByGUID("not-a-guid"));
+        Assertions.assertNull(database.findEntityInstanceByGUID(null));
+    }
+
+    @Test
+    public void deletedInstancesCanNotBeFoundByGuid(){
+
+        EntityInstance aTodo = database.getInstanceCollectionForEntityNamed("todo").createManagedInstance();
+        final String guid = aTodo.getFieldValue("guid").asString();
+
+        database.deleteEntityInstance(aTodo);
+
+        Assertions.assertNull(database.findEntityInstanceByGUID(guid));
+    }
+
+    @Test
+    public void clearedInstancesCanNotBeFoundByGuid(){
+
+        EntityInstance aTodo = database.getInstanceCollectionForEntityNamed("todo").createManagedInstance();
+        EntityInstance aProject = database.getInstanceCollectionForEntityNamed("project").createManagedInstance();
+
+        database.clearAllData();
+
+        Assertions.assertNull(database.findEntityInstanceByGUID(aTodo.getFieldValue("guid").asString()));
+        Assertions.assertNull(database.findEntityInstanceByGUID(aProject.getFieldValue("guid").asString()));
+    }
+
+    @Test
+    public void cannotAddAnInstanceWithAGuidAlreadyInTheDatabase(){
+
+        EntityInstance aTodo = database.getInstanceCollectionForEntityNamed("todo").createManagedInstance();
+        final String guid = aTodo.getFieldValue("guid").asString();
+
+        final EntityInstance duplicate = new EntityInstance(project);
+        duplicate.overrideValue("guid", guid);
+
+        Assertions.assertThrows(RuntimeException.class,
+                () -> database.getInstanceCollectionForEntityNamed("project").addInstance(duplicate));
+
+        Assertions.assertSame(aTodo, database.findEntityInstanceByGUID(guid));
+        Assertions.assertEquals(0, database.getInstanceCollectionForEntityNamed("project").countInstances());
+    }
+
+    @Test
+    public void cannotAmendAGuidToOneAlreadyInTheDatabase(){
+
+        EntityInstance aTodo = database.getInstanceCollectionForEntityNamed("todo").createManagedInstance();
+        EntityInstance aProject = database.getInstanceCollectionForEntityNamed("project").createManagedInstance();
+        final String todoGuid = aTodo.getFieldValue("guid").asString();
+        final String projectGuid = aProject.getFieldValue("guid").asString();
+
+        Assertions.assertThrows(RuntimeException.class,
+                () -> aProject.overrideValue("guid", todoGuid));
+
+        Assertions.assertEquals(projectGuid, aProject.getFieldValue("guid").asString());
+        Assertions.assertSame(aTodo, database.findEntityInstanceByGUID(todoGuid));
+        Assertions.assertSame(aProject, database.findEntityInstanceByGUID(projectGuid));
+    }
+
+    @Test
+    public void amendedGuidsAreUpdatedInDirectory(){
+
+        EntityInstance aTodo = database.getInstanceCollectionForEntityNamed("todo").createManagedInstance();
+        final String originalGuid = aTodo.getFieldValue("guid").asString();
+
+        aTodo.overrideValue("guid", "bob");
+
+        Assertions.assertNull(database.findEntityInstanceByGUID(originalGuid));
+        Assertions.assertSame(aTodo, database.findEntityInstanceByGUID("bob"));
+    }
+
+    @Test
+    public void guidsAreScopedToTheDatabase(){
+
+        ERInstanceData otherDatabase = new ERInstanceData();
+        otherDatabase.createInstanceCollectionFor(todo);
+
+        EntityInstance aTodo = database.getInstanceCollectionForEntityNamed("todo").createManagedInstance();
+
+        Assertions.assertNull(otherDatabase.findEntityInstanceByGUID(aTodo.getFieldValue("guid").asString()));
+    }
+
+    @Test
+    public void deletingCascadesThroughCyclicMandatoryRelationships(){
+
+        final RelationshipDefinition tasks = RelationshipDefinition.create(
+                new RelationshipVectorDefinition(project, "tasks", todo, Cardinality.ONE_TO_MANY()));
+        tasks.whenReversed(Cardinality.ONE_TO_ONE(), "task-of");
+        tasks.getFromRelationship().setOptionality(Optionality.MANDATORY_RELATIONSHIP);
+        tasks.getReversedRelationship().setOptionality(Optionality.MANDATORY_RELATIONSHIP);
+
+        final RelationshipDefinition related = RelationshipDefinition.create(
+                new RelationshipVectorDefinition(todo, "related", project, Cardinality.ONE_TO_MANY()));
+        related.whenReversed(Cardinality.ONE_TO_MANY(), "related-todos");
+
+        final EntityInstanceCollection todos = database.getInstanceCollectionForEntityNamed("todo");
+        final EntityInstanceCollection projects = database.getInstanceCollectionForEntityNamed("project");
+
+        EntityInstance aProject = projects.createManagedInstance();
+        EntityInstance otherProject = projects.createManagedInstance();
+        EntityInstance unrelatedTodo = todos.createManagedInstance();
+        unrelatedTodo.getRelationships().connect("related", aProject);
+
+        for(int task=0; task<10; task++){
+            EntityInstance aTodo = todos.createManagedInstance();
+            aProject.getRelationships().connect("tasks", aTodo);
+            aTodo.getRelationships().connect("related", otherProject);
+        }
+
+        database.deleteEntityInstance(aProject);
+
+        Assertions.assertEquals(1, projects.countInstances());
+        Assertions.assertEquals(1, todos.countInstances());
+        Assertions.assertFalse(unrelatedTodo.getRelationships().hasAnyRelationshipInstances());
+        Assertions.assertFalse(otherProject.getRelationships().hasAnyRelationshipInstances());
+        Assertions.assertFalse(aProject.getRelationships().hasAnyRelationshipInstances());
+    }
+
+    @Test
+    public void deletingCascadesThroughLongChainsOfMandatoryRelationships(){
+
+        final RelationshipDefinition parent = RelationshipDefinition.create(
+                new RelationshipVectorDefinition(todo, "parent", project, Cardinality.ONE_TO_ONE()));
+        parent.whenReversed(Cardinality.ONE_TO_MANY(), "children");
+        parent.getFromRelationship().setOptionality(Optionality.MANDATORY_RELATIONSHIP);
+
+        final RelationshipDefinition owner = RelationshipDefinition.create(
+                new RelationshipVectorDefinition(project, "owner", todo, Cardinality.ONE_TO_ONE()));
+        owner.whenReversed(Cardinality.ONE_TO_MANY(), "owns");
+        owner.getFromRelationship().setOptionality(Optionality.MANDATORY_RELATIONSHIP);
+
+        final EntityInstanceCollection todos = database.getInstanceCollectionForEntityNamed("todo");
+        final EntityInstanceCollection projects = database.getInstanceCollectionForEntityNamed("project");
+
+        // project <- todo <- project <- todo ... each needing the one before
+        final EntityInstance first = projects.createManagedInstance();
+        EntityInstance previous = first;
+        for(int link=0; link<20000; link++){
+            EntityInstance aTodo = todos.createManagedInstance();
+            aTodo.getRelationships().connect("parent", previous);
+            EntityInstance aProject = projects.createManagedInstance();
+            aProject.getRelationships().connect("owner", aTodo);
+            previous = aProject;
+        }
+
+        database.deleteEntityInstance(first);
+
+        Assertions.assertEquals(0, projects.countInstances());
+        Assertions.assertEquals(0, todos.countInstances());
+    }
+
+    @Test
+    public void clearingAllDataEmptiesCollectionsAndContinuesIds(){
+
+        final EntityDefinition counted = new EntityDefinition("counted", "counted");
+        counted.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        counted.addFields(Field.is("title", FieldType.STRING).makeIndexed());
+        final EntityInstanceCollection countedCollection = database.createInstanceCollectionFor(counted);
+
+        final EntityInstance first = countedCollection.createManagedInstance().setValue("title", "first");
+        final EntityInstance aTodo = database.getInstanceCollectionForEntityNamed("todo").createManagedInstance();
+        final String guid = aTodo.getFieldValue("guid").asString();
+
+        database.clearAllData();
+
+        Assertions.assertEquals(0, countedCollection.countInstances());
+        Assertions.assertEquals(0, database.getInstanceCollectionForEntityNamed("todo").countInstances());
+        Assertions.assertNull(database.findEntityInstanceByGUID(guid));
+
+        // cleared instances are no longer indexed even if they are amended
+        first.setValue("title", "amended");
+        Assertions.assertTrue(countedCollection.findInstancesByFieldNameAndValue("title", "amended").isEmpty());
+
+        final EntityInstance second = countedCollection.createManagedInstance().setValue("title", "first");
+        Assertions.assertEquals("2", second.getPrimaryKeyValue());
+        Assertions.assertEquals(1, countedCollection.findInstancesByFieldNameAndValue("title", "first").size());
+    }
+
+    @Test
+    public void clearingAnUnusedCopyOfATemplateKeepsTheCounters(){
+
+        final EntityDefinition counted = new EntityDefinition("counted", "counted");
+        counted.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        database.createInstanceCollectionFor(counted).createManagedInstance();
+
+        final ERInstanceData copy = ERInstanceData.copyOnWriteOf(database);
+        copy.clearAllData();
+
+        Assertions.assertFalse(copy.isSharingTemplate());
+        Assertions.assertEquals(1, database.getInstanceCollectionForEntityNamed("counted").countInstances());
+        final EntityInstanceCollection copied = copy.getInstanceCollectionForEntityNamed("counted");
+        Assertions.assertEquals(0, copied.countInstances());
+        Assertions.assertEquals("2", copied.createManagedInstance().getPrimaryKeyValue());
+    }
+
+    @Test
+    public void clearingOneEntityRemovesItsRelationshipsAndMandatoryRelatedThings(){
+
+        final RelationshipDefinition tasks = RelationshipDefinition.create(
+                new RelationshipVectorDefinition(project, "tasks", todo, Cardinality.ONE_TO_MANY()));
+        tasks.whenReversed(Cardinality.ONE_TO_ONE(), "task-of");
+        tasks.getReversedRelationship().setOptionality(Optionality.MANDATORY_RELATIONSHIP);
+
+        final RelationshipDefinition related = RelationshipDefinition.create(
+                new RelationshipVectorDefinition(todo, "related", project, Cardinality.ONE_TO_MANY()));
+        related.whenReversed(Cardinality.ONE_TO_MANY(), "related-todos");
+
+        final EntityInstanceCollection todos = database.getInstanceCollectionForEntityNamed("todo");
+        final EntityInstanceCollection projects = database.getInstanceCollectionForEntityNamed("project");
+
+        final EntityInstance aProject = projects.createManagedInstance();
+        final EntityInstance aTask = todos.createManagedInstance();
+        aProject.getRelationships().connect("tasks", aTask);
+        final EntityInstance otherProject = projects.createManagedInstance();
+        final EntityInstance relatedTodo = todos.createManagedInstance();
+        relatedTodo.getRelationships().connect("related", otherProject);
+
+        database.clearInstanceDataFor("project");
+
+        Assertions.assertEquals(0, projects.countInstances());
+        Assertions.assertEquals(1, todos.countInstances());
+        Assertions.assertNull(database.findEntityInstanceByGUID(aTask.getFieldValue("guid").asString()));
+        Assertions.assertSame(relatedTodo, database.findEntityInstanceByGUID(relatedTodo.getFieldValue("guid").asString()));
+        Assertions.assertFalse(relatedTodo.getRelationships().hasAnyRelationshipInstances());
+    }
+}
@@ -7,6 +7,7 @@ import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
 
+import java.util.List;
 import java.util.UUID;
 
 public class EntityInstanceCollectionTest {
@@ -74,6 +75,27 @@ public class EntityInstanceCollectionTest {
         Assertions.assertEquals(2, instance2.getFieldValue("id").asInteger());
     }
 
+    @Test
+    public void addingInstancesReservesABlockOfIds(){
+        EntityDefinition defn = new EntityDefinition("entity", "entities").
+                addFields(Field.is("id", FieldType.AUTO_INCREMENT),
+                        Field.is("name", FieldType.STRING));
+
+        EntityInstanceCollection col = new EntityInstanceCollection(defn);
+        col.createManagedInstance();
+
+        EntityInstance instance1 = new EntityInstance(defn).setValue("name", "bob");
+        EntityInstance instance2 = new EntityInstance(defn).setValue("name", "connie").overrideValue("id", "10");
+        EntityInstance instance3 = new EntityInstance(defn).setValue("name", "dave");
+
+        col.addInstances(List.of(instance1, instance2, instance3));
+
+        Assertions.assertEquals(2, instance1.getFieldValue("id").asInteger());
+        Assertions.assertEquals(10, instance2.getFieldValue("id").asInteger());
+        Assertions.assertEquals(3, instance3.getFieldValue("id").asInteger());
+        Assertions.assertEquals(11, col.getCounters().get("id").getCurrentValue());
+    }
+
     @Test
     public void canAutoGuidOnAdd(){
         EntityDefinition defn = new EntityDefinition("entity", "entities").
@@ -114,4 +136,86 @@ public class EntityInstanceCollectionTest {
         Assertions.assertNotEquals(instance1.getFieldValue("id").asString(), instance2.getFieldValue("id").asString());
         Assertions.assertEquals(1, instance1.getFieldValue("id").asInteger());
         Assertions.assertEquals(2, instance2.getFieldValue("id").asInteger());    }
+
+    @Test
+    public void canFindInstanceByPrimaryKey(){
+
+        EntityInstanceCollection collection = new EntityInstanceCollection(entityDefn);
+
+        EntityInstance instance1 = new EntityInstance(entityDefn).setValue("pk", "instance1");
+        EntityInstance instance2 = new EntityInstance(entityDefn).setValue("pk", "instance2");
+
+        collection.addInstance(instance1);
+        collection.addInstance(instance2);
+
+        Assertions.assertSame(instance1, collection.findInstanceByPrimaryKey("instance1"));
+        Assertions.assertSame(instance2, collection.findInstanceByPrimaryKey("instance2"));
+        Assertions.assertNull(collection.findInstanceByPrimaryKey("instance3"));
+        Assertions.assertNull(collection.findInstanceByPrimaryKey(null));
+    }
+
+    @Test
+    public void primaryKeyIndexIsMaintainedWhenPrimaryKeyAmended(){
+
+        EntityInstanceCollection collection = new EntityInstanceCollection(entityDefn);
+
+        EntityInstance instance1 = new EntityInstance(entityDefn).setValue("pk", "instance1");
+        collection.addInstance(instance1);
+
+        instance1.setValue("pk", "amended");
+
+        Assertions.assertNull(collection.findInstanceByPrimaryKey("instance1"));
+        Assertions.assertSame(instance1, collection.findInstanceByPrimaryKey("amended"));
+    }
+
+    @Test
+    public void cannotAmendPrimaryKeyToDuplicateValue(){
+
+        EntityInstanceCollection collection = new EntityInstanceCollection(entityDefn);
+
+        EntityInstance instance1 = new EntityInstance(entityDefn).setValue("pk", "instance1");
+        EntityInstance instance2 = new EntityInstance(entityDefn).setValue("pk", "instance2");
+        collection.addInstance(instance1);
+        collection.addInstance(instance2);
+
+        Exception exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            instance2.setValue("pk", "instance1");
+        });
+
+        Assertions.assertTrue(exception.getMessage().contains("another instance with primary key value exists"));
+        Assertions.assertEquals("instance2", instance2.getPrimaryKeyValue());
+        Assertions.assertSame(instance1, collection.findInstanceByPrimaryKey("instance1"));
+        Assertions.assertSame(instance2, collection.findInstanceByPrimaryKey("instance2"));
+    }
+
+    @Test
+    public void deletedInstancesAreRemovedFromPrimaryKeyIndex(){
+
+        EntityInstanceCollection collection = new EntityInstanceCollection(entityDefn);
+
+        EntityInstance instance1 = new EntityInstance(entityDefn).setValue("pk", "instance1");
+        collection.addInstance(instance1);
+
+        collection.deleteInstance(instance1);
+
+        Assertions.assertNull(collection.findInstanceByPrimaryKey("instance1"));
+        Assertions.assertEquals(0, collection.countInstances());
+
+        // can re-use the primary key after deletion
+        EntityInstance instance2 = new EntityInstance(entityDefn).setValue("pk", "instance1");
+        collection.addInstance(instance2);
+        Assertions.assertSame(instance2, collection.findInstanceByPrimaryKey("instance1"));
+    }
+
+    @Test
+    public void cannotDeleteAnInstanceNotInTheCollection(){
+
+        EntityInstanceCollection collection = new EntityInstanceCollection(entityDefn);
+
+        EntityInstance instance1 = new EntityInstance(entityDefn).setValue("pk", "instance1");
+
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> {
+            collection.deleteInstance(instance1);
+        });
+    }
 }
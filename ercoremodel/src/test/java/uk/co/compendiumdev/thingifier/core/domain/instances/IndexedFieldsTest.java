@@ -0,0 +1,152 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+
+import java.util.Collection;
+
+public class IndexedFieldsTest {
+
+    EntityDefinition entityDefn;
+    EntityInstanceCollection collection;
+
+    @BeforeEach
+    public void createEntity(){
+
+        entityDefn = new EntityDefinition("Entity", "Entities");
+
+        entityDefn.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        entityDefn.addFields(
+                Field.is("guid", FieldType.AUTO_GUID),
+                Field.is("title", FieldType.STRING).makeIndexed(),
+                Field.is("code", FieldType.STRING).makeUniquelyIndexed(),
+                Field.is("notes", FieldType.STRING));
+
+        collection = new EntityInstanceCollection(entityDefn);
+    }
+
+    @Test
+    public void idsAndGuidsAreIndexedByDefault(){
+
+        Assertions.assertTrue(Field.is("id", FieldType.AUTO_INCREMENT).isIndexed());
+        Assertions.assertTrue(Field.is("guid", FieldType.AUTO_GUID).isIndexed());
+        Assertions.assertFalse(Field.is("notes", FieldType.STRING).isIndexed());
+
+        Assertions.assertTrue(collection.isIndexedByFieldNamed("guid"));
+        Assertions.assertTrue(collection.isIndexedByFieldNamed("title"));
+        Assertions.assertFalse(collection.isIndexedByFieldNamed("notes"));
+    }
+
+    @Test
+    public void canFindInstancesUsingNonUniqueIndex(){
+
+        EntityInstance instance1 = collection.createManagedInstance().setValue("title", "same");
+        EntityInstance instance2 = collection.createManagedInstance().setValue("title", "same");
+        collection.createManagedInstance().setValue("title", "different");
+
+        final Collection<EntityInstance> found = collection.findInstancesByFieldNameAndValue("title", "same");
+
+        Assertions.assertEquals(2, found.size());
+        Assertions.assertTrue(found.contains(instance1));
+        Assertions.assertTrue(found.contains(instance2));
+        Assertions.assertEquals(0, collection.findInstancesByFieldNameAndValue("title", "none").size());
+    }
+
+    @Test
+    public void canFindByGuidUsingIndex(){
+
+        EntityInstance instance1 = collection.createManagedInstance();
+
+        final String guid = instance1.getFieldValue("guid").asString();
+
+        Assertions.assertSame(instance1, collection.findInstanceByFieldNameAndValue("guid", guid));
+        Assertions.assertSame(instance1, collection.findInstanceByFieldNameAndValue("GUID", guid));
+    }
+
+    @Test
+    public void indexIsMaintainedWhenValueAmended(){
+
+        EntityInstance instance1 = collection.createManagedInstance().setValue("title", "before");
+
+        instance1.setValue("title", "after");
+
+        Assertions.assertNull(collection.findInstanceByFieldNameAndValue("title", "before"));
+        Assertions.assertSame(instance1, collection.findInstanceByFieldNameAndValue("title", "after"));
+    }
+
+    @Test
+    public void indexIsMaintainedWhenFieldsCleared(){
+
+        EntityInstance instance1 = collection.createManagedInstance().setValue("title", "before");
+
+        instance1.clearAllFields();
+
+        Assertions.assertNull(collection.findInstanceByFieldNameAndValue("title", "before"));
+        Assertions.assertSame(instance1, collection.findInstanceByFieldNameAndValue("title", ""));
+    }
+
+    @Test
+    public void indexIsMaintainedWhenInstanceDeleted(){
+
+        EntityInstance instance1 = collection.createManagedInstance().setValue("title", "deleteme");
+
+        collection.deleteInstance(instance1);
+
+        Assertions.assertNull(collection.findInstanceByFieldNameAndValue("title", "deleteme"));
+        Assertions.assertEquals(0, collection.findInstancesByFieldNameAndValue("title", "deleteme").size());
+    }
+
+    @Test
+    public void cannotAddDuplicateValueForUniqueIndex(){
+
+        collection.createManagedInstance().setValue("code", "abc");
+
+        EntityInstance instance2 = new EntityInstance(entityDefn).setValue("code", "abc");
+
+        Exception exception = Assertions.assertThrows(RuntimeException.class, () -> {
+            collection.addInstance(instance2);
+        });
+
+        Assertions.assertTrue(exception.getMessage().contains("another instance with code value exists: abc"),
+                exception.getMessage());
+        Assertions.assertEquals(1, collection.countInstances());
+    }
+
+    @Test
+    public void cannotAmendToDuplicateValueForUniqueIndex(){
+
+        EntityInstance instance1 = collection.createManagedInstance().setValue("code", "abc");
+        EntityInstance instance2 = collection.createManagedInstance().setValue("code", "def");
+
+        Assertions.assertThrows(RuntimeException.class, () -> {
+            instance2.setValue("code", "abc");
+        });
+
+        Assertions.assertEquals("def", instance2.getFieldValue("code").asString());
+        Assertions.assertSame(instance1, collection.findInstanceByFieldNameAndValue("code", "abc"));
+        Assertions.assertSame(instance2, collection.findInstanceByFieldNameAndValue("code", "def"));
+    }
+
+    @Test
+    public void fieldsAddedAfterCollectionCreatedAreIndexed(){
+
+        EntityInstance instance1 = collection.createManagedInstance();
+
+        entityDefn.addField(Field.is("later", FieldType.STRING).makeIndexed().withDefaultValue("default"));
+
+        Assertions.assertSame(instance1, collection.findInstanceByFieldNameAndValue("later", "default"));
+    }
+
+    @Test
+    public void canFindUsingUnindexedField(){
+
+        EntityInstance instance1 = collection.createManagedInstance().setValue("notes", "scanned");
+
+        Assertions.assertSame(instance1, collection.findInstanceByFieldNameAndValue("notes", "scanned"));
+        Assertions.assertEquals(1, collection.findInstancesByFieldNameAndValue("notes", "scanned").size());
+    }
+}
@@ -355,4 +355,38 @@ class InstanceFieldsTest {
         Assertions.assertEquals("false",
                 session.getFieldValue("falsey").asString());
     }
+
+    @Test
+    void canAccessFieldValuesByOrdinal() {
+
+        DefinedFields fieldsDefn = new DefinedFields();
+        fieldsDefn.addField(Field.is("title", FieldType.STRING));
+        fieldsDefn.addField(Field.is("status", FieldType.STRING).withDefaultValue("new"));
+
+        InstanceFields instance = new InstanceFields(fieldsDefn);
+        instance.setValue("Title", "my title");
+
+        Assertions.assertEquals("my title",
+                instance.getFieldValue(fieldsDefn.getOrdinalOf("title")).asString());
+        Assertions.assertEquals("new",
+                instance.getFieldValue(fieldsDefn.getOrdinalOf("status")).asString());
+        Assertions.assertNull(instance.getAssignedValue(fieldsDefn.getOrdinalOf("status")));
+    }
+
+    @Test
+    void canSetFieldsAddedToTheDefinitionAfterInstanceCreated() {
+
+        DefinedFields fieldsDefn = new DefinedFields();
+        fieldsDefn.addField(Field.is("title", FieldType.STRING));
+
+        InstanceFields instance = new InstanceFields(fieldsDefn);
+        instance.setValue("title", "my title");
+
+        fieldsDefn.addField(Field.is("count", FieldType.INTEGER));
+        Assertions.assertEquals("0", instance.getFieldValue("count").asString());
+
+        instance.setValue("count", "3");
+        Assertions.assertEquals(3, instance.getFieldValue("count").asInteger());
+        Assertions.assertEquals("my title", instance.getFieldValue("title").asString());
+    }
 }
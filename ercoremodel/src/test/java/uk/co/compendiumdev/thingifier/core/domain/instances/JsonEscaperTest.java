@@ -0,0 +1,58 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class JsonEscaperTest {
+
+    @Test
+    public void plainStringsAreOnlyQuoted(){
+        Assertions.assertEquals("\"a todo\"", JsonEscaper.quoted("a todo"));
+        Assertions.assertEquals("\"\"", JsonEscaper.quoted(""));
+    }
+
+    @Test
+    public void quotesAndBackslashesAreEscaped(){
+        Assertions.assertEquals("\"say \\\"hello\\\"\"", JsonEscaper.quoted("say \"hello\""));
+        Assertions.assertEquals("\"c:\\\\temp\"", JsonEscaper.quoted("c:\\temp"));
+    }
+
+    @Test
+    public void controlCharactersAreEscaped(){
+        Assertions.assertEquals("\"line\\nnext\\ttab\\r\"", JsonEscaper.quoted("line\nnext\ttab\r"));
+        Assertions.assertEquals("\"\\u0001\\u001f\"", JsonEscaper.quoted("\u0001\u001f"));
+    }
+
+    @Test
+    public void nonAsciiCharactersAreWrittenAsTheyAre(){
+        Assertions.assertEquals("\"caf\u00e9 \u2603\"", JsonEscaper.quoted("caf\u00e9 \u2603"));
+    }
+
+    @Test
+    public void databaseStreamedAsJsonMatchesTheJsonString() throws IOException {
+
+        final EntityDefinition todo = new EntityDefinition("todo", "todos");
+        todo.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        todo.addFields(Field.is("title", FieldType.STRING), Field.is("done", FieldType.BOOLEAN));
+
+        final ERInstanceData database = new ERInstanceData();
+        database.createInstanceCollectionFor(todo);
+        database.getInstanceCollectionForEntityNamed("todo").createManagedInstance().
+                setValue("title", "buy \"caf\u00e9\" supplies\n").setValue("done", "true");
+
+        final ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        database.writeJsonTo(streamed);
+
+        Assertions.assertEquals(
+                "{\"todos\" : [{\"id\": 1, \"title\": \"buy \\\"caf\u00e9\\\" supplies\\n\", \"done\": true}]}",
+                database.asJson());
+        Assertions.assertEquals(database.asJson(), new String(streamed.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
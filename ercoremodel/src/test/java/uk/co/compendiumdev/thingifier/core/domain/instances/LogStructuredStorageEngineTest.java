@@ -0,0 +1,247 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LogStructuredStorageEngineTest {
+
+    @TempDir
+    File folder;
+
+    EntityRelModel erModel;
+    LogStructuredStorageEngine engine;
+
+    @BeforeEach
+    public void createModel() throws IOException {
+        erModel = new EntityRelModel();
+
+        final EntityDefinition todo = erModel.createEntityDefinition("todo", "todos");
+        todo.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        todo.addFields(Field.is("title", FieldType.STRING).makeUniquelyIndexed(),
+                Field.is("done", FieldType.BOOLEAN),
+                Field.is("owner", FieldType.OBJECT).withField(Field.is("name", FieldType.STRING)));
+
+        // only two rows are cached, the others have to be read from the file
+        engine = new LogStructuredStorageEngine(folder, 2, 4096);
+        erModel.setStorageEngine(engine);
+        erModel.createInstanceDatabaseIfNotExisting("disk");
+    }
+
+    @AfterEach
+    public void closeEngine(){
+        engine.close();
+    }
+
+    private EntityInstanceCollection todos(){
+        return erModel.getInstanceData("disk").getInstanceCollectionForEntityNamed("todo");
+    }
+
+    private List<EntityInstance> createTodos(final int count){
+        final List<EntityInstance> created = new ArrayList<>();
+        for(int todo=0; todo<count; todo++){
+            created.add(todos().createManagedInstance().
+                    setValue("title", "todo " + todo).setValue("done", "false"));
+        }
+        return created;
+    }
+
+    @Test
+    public void valuesCanBeReadWhenNotCached(){
+
+        final List<EntityInstance> created = createTodos(20);
+
+        Assertions.assertTrue(engine.countCachedRows() <= 2);
+        for(int todo=0; todo<created.size(); todo++){
+            Assertions.assertEquals("todo " + todo, created.get(todo).getFieldValue("title").asString());
+            Assertions.assertEquals(String.valueOf(todo + 1), created.get(todo).getPrimaryKeyValue());
+        }
+
+        // the indexes still find the instances
+        Assertions.assertSame(created.get(7), todos().findInstanceByPrimaryKey("8"));
+        Assertions.assertSame(created.get(3), todos().findInstanceByFieldNameAndValue("title", "todo 3"));
+    }
+
+    @Test
+    public void amendedValuesAreStored(){
+
+        final List<EntityInstance> created = createTodos(10);
+
+        created.get(2).setValue("done", "true");
+        created.get(2).setValue("owner.name", "bob");
+        // read other rows so the amended row is no longer cached
+        for(EntityInstance instance : created){
+            instance.getFieldValue("title");
+        }
+
+        Assertions.assertEquals("true", created.get(2).getFieldValue("done").asString());
+        Assertions.assertEquals("bob", created.get(2).getFieldValue("owner").asObject().
+                                            getFieldValue("name").asString());
+        Assertions.assertEquals("false", created.get(3).getFieldValue("done").asString());
+    }
+
+    @Test
+    public void uniqueConflictRestoresStoredValue(){
+
+        final List<EntityInstance> created = createTodos(5);
+
+        Assertions.assertThrows(RuntimeException.class,
+                () -> created.get(1).setValue("title", "todo 4"));
+
+        Assertions.assertEquals("todo 1", created.get(1).getFieldValue("title").asString());
+    }
+
+    @Test
+    public void deletedInstanceKeepsItsValues(){
+
+        final List<EntityInstance> created = createTodos(5);
+
+        erModel.getInstanceData("disk").deleteEntityInstance(created.get(0));
+        for(EntityInstance instance : created){
+            instance.getFieldValue("title");
+        }
+
+        Assertions.assertEquals("todo 0", created.get(0).getFieldValue("title").asString());
+        Assertions.assertEquals(4, todos().countInstances());
+    }
+
+    @Test
+    public void clearedDataCanBeRecreated(){
+
+        createTodos(5);
+        erModel.getInstanceData("disk").clearAllData();
+        Assertions.assertEquals(0, todos().countInstances());
+
+        final EntityInstance todo = todos().createManagedInstance().setValue("title", "todo 0");
+        Assertions.assertEquals("todo 0", todo.getFieldValue("title").asString());
+    }
+
+    @Test
+    public void replacedRowsAreCompactedAway(){
+
+        final List<EntityInstance> created = createTodos(3);
+
+        for(int amendment=0; amendment<500; amendment++){
+            created.get(amendment % 3).setValue("done", String.valueOf(amendment % 2 == 0));
+        }
+
+        // far fewer bytes than 500 records, the replaced records have been dropped
+        engine.waitForCompaction();
+        Assertions.assertTrue(engine.getFileLength() < 4096 * 2, "file was " + engine.getFileLength());
+        Assertions.assertEquals("todo 0", created.get(0).getFieldValue("title").asString());
+        Assertions.assertEquals("false", created.get(1).getFieldValue("done").asString());
+        Assertions.assertEquals("true", created.get(0).getFieldValue("done").asString());
+    }
+
+    @Test
+    public void forkedAndDeletedDatabasesUseTheEngine(){
+
+        createTodos(5);
+        erModel.forkInstanceDatabase("disk", "forked");
+        erModel.deleteInstanceDatabase("disk");
+
+        final EntityInstanceCollection forked =
+                erModel.getInstanceData("forked").getInstanceCollectionForEntityNamed("todo");
+        Assertions.assertEquals(5, forked.countInstances());
+        Assertions.assertEquals("todo 4", forked.findInstanceByPrimaryKey("5").getFieldValue("title").asString());
+    }
+
+    @Test
+    public void heapDatabasesAreNotStored(){
+
+        erModel.setStorageEngine(StorageEngine.HEAP);
+        erModel.createInstanceDatabaseIfNotExisting("heap");
+
+        erModel.getInstanceData("heap").getInstanceCollectionForEntityNamed("todo").
+                createManagedInstance().setValue("title", "on the heap");
+
+        Assertions.assertEquals(0, engine.getFileLength());
+    }
+
+    @Test
+    public void rowsWrittenDuringCompactionAreKept() throws InterruptedException {
+
+        final List<EntityInstance> created = createTodos(20);
+
+        // reads and writes carry on while the compactions copy the rows in the background
+        final Thread reader = new Thread(() -> {
+            for(int read=0; read<2000; read++){
+                created.get(read % 20).getFieldValue("title");
+            }
+        });
+        reader.start();
+        for(int amendment=0; amendment<2000; amendment++){
+            created.get(amendment % 20).setValue("owner.name", "owner " + amendment);
+        }
+        reader.join();
+        engine.waitForCompaction();
+
+        for(int todo=0; todo<20; todo++){
+            Assertions.assertEquals("todo " + todo, created.get(todo).getFieldValue("title").asString());
+            Assertions.assertEquals("owner " + (1980 + todo), created.get(todo).getFieldValue("owner").
+                    asObject().getFieldValue("name").asString());
+        }
+        Assertions.assertTrue(engine.getFileLength() < 4096 * 2, "file was " + engine.getFileLength());
+    }
+
+    @Test
+    public void truncatedInstancesCanStillBeRead(){
+
+        final List<EntityInstance> created = createTodos(10);
+
+        erModel.getInstanceData("disk").clearInstanceDataFor("todo");
+        Assertions.assertEquals(0, todos().countInstances());
+
+        // e.g. a response being rendered still has the truncated instances
+        for(int todo=0; todo<created.size(); todo++){
+            Assertions.assertEquals("todo " + todo, created.get(todo).getFieldValue("title").asString());
+        }
+        Assertions.assertEquals("new", todos().createManagedInstance().setValue("title", "new").
+                getFieldValue("title").asString());
+    }
+
+    @Test
+    public void storedInstanceCanMoveToAnotherCollection(){
+
+        final List<EntityInstance> created = createTodos(5);
+        erModel.createInstanceDatabaseIfNotExisting("other");
+        final EntityInstanceCollection other =
+                erModel.getInstanceData("other").getInstanceCollectionForEntityNamed("todo");
+
+        // the values are still kept by the first collection's store when it is added
+        other.addInstance(created.get(2));
+        for(EntityInstance instance : created){
+            instance.getFieldValue("title");
+        }
+
+        Assertions.assertEquals("todo 2", other.findInstanceByPrimaryKey("3").getFieldValue("title").asString());
+        Assertions.assertEquals("false", other.findInstanceByPrimaryKey("3").getFieldValue("done").asString());
+    }
+
+    @Test
+    public void recordsOfUnusedStoresAreNoLongerLive() throws InterruptedException {
+
+        createTodos(50);
+        final long liveWithTodos = engine.getLiveBytes();
+        erModel.getInstanceData("disk").clearAllData();
+
+        // the truncated store is dropped once nothing uses it
+        for(int attempt=0; attempt<50 && engine.getLiveBytes() >= liveWithTodos; attempt++){
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        Assertions.assertEquals(0, engine.getLiveBytes());
+    }
+}
@@ -0,0 +1,153 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.Cardinality;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.RelationshipDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.RelationshipVectorDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class MutationLogTest {
+
+    ERInstanceData database;
+    EntityDefinition todo;
+    EntityDefinition project;
+
+    @BeforeEach
+    public void createDatabase(){
+
+        todo = new EntityDefinition("todo", "todos");
+        todo.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        todo.addFields(Field.is("title", FieldType.STRING));
+
+        project = new EntityDefinition("project", "projects");
+        project.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+
+        RelationshipDefinition.create(
+                new RelationshipVectorDefinition(project, "tasks", todo, Cardinality.ONE_TO_MANY())).
+                whenReversed(Cardinality.ONE_TO_MANY(), "task-of");
+
+        database = new ERInstanceData();
+        database.createInstanceCollectionFor(todo);
+        database.createInstanceCollectionFor(project);
+    }
+
+    @Test
+    public void changesAreLoggedInSequence(){
+
+        final MutationSubscription subscription = database.getMutationLog().subscribe(100);
+
+        final EntityInstance aTodo = database.getInstanceCollectionForEntityNamed("todo").
+                                        createManagedInstance().setValue("title", "my todo");
+        final EntityInstance aProject = database.getInstanceCollectionForEntityNamed("project").
+                                        createManagedInstance();
+        aProject.getRelationships().connect("tasks", aTodo);
+        aProject.getRelationships().removeRelationshipsInvolving(aTodo, "tasks");
+        database.deleteEntityInstance(aTodo);
+        database.clearAllData();
+
+        final List<Mutation> mutations = new ArrayList<>();
+        subscription.drainTo(mutations);
+
+        final List<MutationType> types = new ArrayList<>();
+        for(Mutation mutation : mutations){
+            types.add(mutation.getType());
+        }
+        Assertions.assertEquals(List.of(
+                MutationType.INSTANCE_CREATED,
+                MutationType.FIELDS_SET,
+                MutationType.INSTANCE_CREATED,
+                MutationType.RELATIONSHIP_CONNECTED,
+                MutationType.RELATIONSHIP_REMOVED,
+                MutationType.INSTANCE_DELETED,
+                MutationType.COLLECTION_TRUNCATED,
+                MutationType.COLLECTION_TRUNCATED), types);
+
+        for(int index=1; index<mutations.size(); index++){
+            Assertions.assertEquals(mutations.get(index-1).getSequence()+1, mutations.get(index).getSequence());
+        }
+        Assertions.assertEquals(mutations.get(mutations.size()-1).getSequence(),
+                                database.getMutationLog().getLastSequence());
+
+        final Mutation created = mutations.get(0);
+        Assertions.assertEquals("todo", created.getEntityName());
+        Assertions.assertEquals(aTodo.getInternalId(), created.getInternalId());
+        Assertions.assertEquals("1", created.getValues().get("id"));
+
+        Assertions.assertEquals("my todo", mutations.get(1).getValues().get("title"));
+
+        final Mutation connected = mutations.get(3);
+        Assertions.assertEquals("project", connected.getEntityName());
+        Assertions.assertEquals(aProject.getInternalId(), connected.getInternalId());
+        Assertions.assertEquals("tasks", connected.getRelationshipName());
+        Assertions.assertEquals("todo", connected.getRelatedEntityName());
+        Assertions.assertEquals(aTodo.getInternalId(), connected.getRelatedInternalId());
+    }
+
+    @Test
+    public void changesWaitForASubscriberWithAFullBuffer() throws InterruptedException {
+
+        final MutationSubscription subscription = database.getMutationLog().subscribe(1);
+        final EntityInstanceCollection todos = database.getInstanceCollectionForEntityNamed("todo");
+
+        final Thread changes = new Thread(() -> {
+            for(int created=0; created<3; created++){
+                todos.createManagedInstance();
+            }
+        });
+        changes.start();
+
+        changes.join(200);
+        Assertions.assertTrue(changes.isAlive());
+
+        for(int created=0; created<3; created++){
+            Assertions.assertEquals(MutationType.INSTANCE_CREATED,
+                    subscription.poll(5, TimeUnit.SECONDS).getType());
+        }
+        changes.join(5000);
+        Assertions.assertFalse(changes.isAlive());
+    }
+
+    @Test
+    public void closedSubscriptionsDoNotHoldUpChanges() throws InterruptedException {
+
+        final MutationSubscription subscription = database.getMutationLog().subscribe(1);
+        final EntityInstanceCollection todos = database.getInstanceCollectionForEntityNamed("todo");
+
+        final Thread changes = new Thread(() -> {
+            for(int created=0; created<3; created++){
+                todos.createManagedInstance();
+            }
+        });
+        changes.start();
+
+        changes.join(200);
+        subscription.close();
+        changes.join(5000);
+
+        Assertions.assertFalse(changes.isAlive());
+        Assertions.assertEquals(3, todos.countInstances());
+    }
+
+    @Test
+    public void subscriberIsToldWhenAMutationIsBuffered(){
+
+        final AtomicInteger delivered = new AtomicInteger();
+        final MutationSubscription subscription =
+                database.getMutationLog().subscribe(100, delivered::incrementAndGet);
+
+        database.getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "told");
+
+        final List<Mutation> mutations = new ArrayList<>();
+        Assertions.assertEquals(delivered.get(), subscription.drainTo(mutations));
+        Assertions.assertEquals(2, delivered.get());
+    }
+}
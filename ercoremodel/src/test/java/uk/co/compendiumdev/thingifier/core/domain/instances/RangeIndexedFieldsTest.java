@@ -0,0 +1,112 @@
+package uk.co.compendiumdev.thingifier.core.domain.instances;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+
+import java.util.List;
+
+public class RangeIndexedFieldsTest {
+
+    EntityDefinition entityDefn;
+    EntityInstanceCollection collection;
+
+    @BeforeEach
+    public void createEntity(){
+
+        entityDefn = new EntityDefinition("Entity", "Entities");
+
+        entityDefn.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT).makeRangeIndexed());
+        entityDefn.addFields(
+                Field.is("size", FieldType.INTEGER).makeRangeIndexed(),
+                Field.is("weight", FieldType.FLOAT).makeRangeIndexed(),
+                Field.is("count", FieldType.INTEGER));
+
+        collection = new EntityInstanceCollection(entityDefn);
+    }
+
+    @Test
+    public void onlyNumericFieldsCanBeRangeIndexed(){
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> Field.is("title", FieldType.STRING).makeRangeIndexed());
+
+        Assertions.assertTrue(collection.canUseRangeIndexFor("size"));
+        Assertions.assertTrue(collection.canUseRangeIndexFor("ID"));
+        Assertions.assertFalse(collection.canUseRangeIndexFor("count"));
+        Assertions.assertFalse(collection.canUseRangeIndexFor("unknown"));
+    }
+
+    @Test
+    public void canFindInstancesInRange(){
+
+        for(String size : new String[]{"5", "1", "3", "4", "2"}){
+            collection.createManagedInstance().setValue("size", size);
+        }
+
+        List<EntityInstance> found = collection.findInstancesInRange("size", 2.0, true, 4.0, false);
+        Assertions.assertEquals(2, found.size());
+        Assertions.assertEquals(2, found.get(0).getFieldValue("size").asInteger());
+        Assertions.assertEquals(3, found.get(1).getFieldValue("size").asInteger());
+
+        found = collection.findInstancesInRange("size", null, true, 2.0, true);
+        Assertions.assertEquals(2, found.size());
+
+        found = collection.findInstancesInRange("size", 4.0, false, null, true);
+        Assertions.assertEquals(1, found.size());
+        Assertions.assertEquals(5, found.get(0).getFieldValue("size").asInteger());
+
+        Assertions.assertEquals(0, collection.findInstancesInRange("size", 4.0, true, 2.0, true).size());
+    }
+
+    @Test
+    public void canGetInstancesInFloatOrder(){
+
+        collection.createManagedInstance().setValue("weight", "2.5");
+        collection.createManagedInstance().setValue("weight", "0.5");
+        collection.createManagedInstance().setValue("weight", "10");
+
+        final List<EntityInstance> descending = collection.getInstancesOrderedBy("weight", false);
+
+        Assertions.assertEquals(10f, descending.get(0).getFieldValue("weight").asFloat());
+        Assertions.assertEquals(2.5f, descending.get(1).getFieldValue("weight").asFloat());
+        Assertions.assertEquals(0.5f, descending.get(2).getFieldValue("weight").asFloat());
+    }
+
+    @Test
+    public void rangeIndexIsMaintainedOnAmendAndDelete(){
+
+        EntityInstance instance1 = collection.createManagedInstance().setValue("size", "1");
+        EntityInstance instance2 = collection.createManagedInstance().setValue("size", "2");
+
+        instance1.setValue("size", "10");
+
+        List<EntityInstance> ordered = collection.getInstancesOrderedBy("size", true);
+        Assertions.assertSame(instance2, ordered.get(0));
+        Assertions.assertSame(instance1, ordered.get(1));
+
+        collection.deleteInstance(instance2);
+
+        ordered = collection.getInstancesOrderedBy("size", true);
+        Assertions.assertEquals(1, ordered.size());
+        Assertions.assertSame(instance1, ordered.get(0));
+        Assertions.assertEquals(0, collection.findInstancesInRange("size", null, true, 5.0, true).size());
+    }
+
+    @Test
+    public void idsAreRangeIndexedWhenInstancesAreAdded(){
+
+        collection.createManagedInstance();
+        collection.createManagedInstance();
+        collection.createManagedInstance();
+
+        final List<EntityInstance> found = collection.findInstancesInRange("id", 2.0, true, null, true);
+
+        Assertions.assertEquals(2, found.size());
+        Assertions.assertEquals("2", found.get(0).getPrimaryKeyValue());
+        Assertions.assertEquals("3", found.get(1).getPrimaryKeyValue());
+    }
+}
@@ -273,4 +273,93 @@ class RelationshipsTest {
         final ValidationReport valid = fromInstance.getRelationships().validateRelationships();
         Assertions.assertTrue(valid.isValid());
     }
+
+    @Test
+    void countsAndRemovesRelationshipsPerRelationshipAndInstance(){
+
+        final RelationshipDefinition many = RelationshipDefinition.create(
+                new RelationshipVectorDefinition(
+                        thingfrom.definition(), "fromtomany", thingto.definition(), Cardinality.ONE_TO_MANY()));
+        many.whenReversed(Cardinality.ONE_TO_MANY(), "manytofrom");
+
+        final EntityInstanceRelationships relationships = fromInstance.getRelationships();
+
+        EntityInstance lastTo = null;
+        for(int item=0; item<1000; item++){
+            lastTo = thingto.createManagedInstance();
+            relationships.connect("fromtomany", lastTo);
+        }
+
+        // the maximum of one is for the fromto relationship, not all relationships
+        relationships.connect("fromto", toInstance);
+        Assertions.assertThrows(RuntimeException.class,
+                () -> relationships.connect("fromto", thingto.createManagedInstance()));
+
+        Assertions.assertEquals(1000, relationships.countOf(many));
+        Assertions.assertEquals(1, relationships.countOf(defn));
+        Assertions.assertEquals(1000, relationships.getConnectedItems("fromtomany").size());
+        Assertions.assertEquals(1000, relationships.getConnectedItems("manytofrom").size());
+        Assertions.assertEquals(1001, relationships.getConnectedItemsOfType("TO").size());
+        Assertions.assertEquals(1, lastTo.getRelationships().countOf(many));
+
+        relationships.removeRelationshipsInvolving(lastTo, "fromtomany");
+        Assertions.assertEquals(999, relationships.countOf(many));
+        Assertions.assertFalse(relationships.getConnectedItems("fromtomany").contains(lastTo));
+        Assertions.assertFalse(lastTo.getRelationships().hasAnyRelationshipInstances());
+
+        relationships.removeAllRelationshipsInvolving(toInstance);
+        Assertions.assertEquals(0, relationships.countOf(defn));
+        Assertions.assertTrue(relationships.getConnectedItems("fromto").isEmpty());
+
+        relationships.removeAllRelationships();
+        Assertions.assertEquals(0, relationships.countOf(many));
+        Assertions.assertFalse(relationships.hasAnyRelationshipInstances());
+    }
+
+    @Test
+    void countsAndLimitsEachVectorOfARelationship(){
+
+        defn.whenReversed(Cardinality.ONE_TO_MANY(), "tofrom");
+
+        final EntityInstance otherFrom = thingfrom.createManagedInstance();
+        fromInstance.getRelationships().connect("fromto", toInstance);
+        otherFrom.getRelationships().connect("fromto", toInstance);
+
+        // many froms can relate to a to, but a from relates to one to
+        Assertions.assertEquals(2, toInstance.getRelationships().countOf(defn.getReversedRelationship()));
+        Assertions.assertEquals(0, toInstance.getRelationships().countOf(defn.getFromRelationship()));
+        Assertions.assertEquals(1, fromInstance.getRelationships().countOf(defn.getFromRelationship()));
+        Assertions.assertEquals(0, fromInstance.getRelationships().countOf(defn.getReversedRelationship()));
+        Assertions.assertTrue(toInstance.getRelationships().validateRelationships().isValid());
+
+        Assertions.assertThrows(RuntimeException.class,
+                () -> fromInstance.getRelationships().connect("fromto", thingto.createManagedInstance()));
+
+        fromInstance.getRelationships().removeAllRelationshipsInvolving(toInstance);
+        toInstance.getRelationships().removeAllRelationshipsInvolving(fromInstance);
+        Assertions.assertEquals(1, toInstance.getRelationships().countOf(defn.getReversedRelationship()));
+        Assertions.assertEquals(0, fromInstance.getRelationships().countOf(defn.getFromRelationship()));
+    }
+
+    @Test
+    void countsEachVectorOfARelationshipBetweenTheSameEntity(){
+
+        final RelationshipDefinition parent = RelationshipDefinition.create(
+                new RelationshipVectorDefinition(
+                        thingfrom.definition(), "parent", thingfrom.definition(), Cardinality.ONE_TO_ONE()));
+        parent.whenReversed(Cardinality.ONE_TO_MANY(), "children");
+
+        final EntityInstance child = thingfrom.createManagedInstance();
+        final EntityInstance otherChild = thingfrom.createManagedInstance();
+        child.getRelationships().connect("parent", fromInstance);
+        otherChild.getRelationships().connect("parent", fromInstance);
+
+        Assertions.assertEquals(2, fromInstance.getRelationships().countOf(parent.getReversedRelationship()));
+        Assertions.assertEquals(0, fromInstance.getRelationships().countOf(parent.getFromRelationship()));
+        Assertions.assertEquals(1, child.getRelationships().countOf(parent.getFromRelationship()));
+        Assertions.assertEquals(2, fromInstance.getRelationships().countOf(parent));
+
+        Assertions.assertThrows(RuntimeException.class,
+                () -> child.getRelationships().connect("parent", otherChild));
+    }
 }
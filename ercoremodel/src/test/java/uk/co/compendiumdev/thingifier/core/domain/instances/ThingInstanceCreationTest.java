@@ -7,6 +7,9 @@ import org.junit.jupiter.api.Test;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.randomdata.GuidGenerators;
+
+import java.util.UUID;
 
 public class ThingInstanceCreationTest {
 
@@ -58,6 +61,41 @@ public class ThingInstanceCreationTest {
     }
 
 
+    @Test
+    public void canGenerateTimeOrderedGUIDs(){
+
+        EntityDefinition ordered = new EntityDefinition("ordered", "ordered");
+        ordered.addAsPrimaryKeyField(Field.is("guid", FieldType.AUTO_GUID).
+                                        withGuidGenerator(GuidGenerators.TIME_ORDERED));
+
+        EntityInstanceCollection collection = new EntityInstanceCollection(ordered);
+        EntityInstance first = new EntityInstance(ordered);
+        collection.addInstance(first);
+        EntityInstance second = new EntityInstance(ordered).addAutoGUIDstoInstance();
+        collection.addInstance(second);
+
+        Assertions.assertEquals(7, UUID.fromString(first.getPrimaryKeyValue()).version());
+        Assertions.assertTrue(second.getPrimaryKeyValue().compareTo(first.getPrimaryKeyValue()) > 0);
+    }
+
+    @Test
+    public void canFindAndDeleteByInternalId(){
+
+        EntityInstanceCollection collection = new EntityInstanceCollection(entityTestSession);
+        EntityInstance session = new EntityInstance(entityTestSession);
+        EntityInstance session2 = new EntityInstance(entityTestSession);
+        collection.addInstance(session).addInstance(session2);
+
+        Assertions.assertNotEquals(session.getInternalId(), session2.getInternalId());
+        Assertions.assertSame(session, collection.findInstanceByInternalID(session.getInternalId()));
+        Assertions.assertNull(collection.findInstanceByInternalID("not an id"));
+
+        collection.deleteInstance(session.getInternalId());
+        Assertions.assertNull(collection.findInstanceByInternalID(session.getInternalId()));
+        Assertions.assertThrows(IndexOutOfBoundsException.class,
+                () -> collection.deleteInstance(session.getInternalId()));
+    }
+
     @Test
     public void canCreateAThingWithAGUID(){
 
@@ -0,0 +1,46 @@
+package uk.co.compendiumdev.thingifier.core.domain.randomdata;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+public class GuidGeneratorsTest {
+
+    @Test
+    public void threadLocalRandomGuidsAreVersionFourUUIDs(){
+
+        Set<String> guids = new HashSet<>();
+        for(int x=0; x<1000; x++){
+            final String guid = GuidGenerators.THREAD_LOCAL_RANDOM.nextGuid();
+            final UUID uuid = UUID.fromString(guid);
+            Assertions.assertEquals(4, uuid.version());
+            Assertions.assertEquals(2, uuid.variant());
+            guids.add(guid);
+        }
+
+        Assertions.assertEquals(1000, guids.size());
+    }
+
+    @Test
+    public void timeOrderedGuidsSortInCreationOrder(){
+
+        final long before = System.currentTimeMillis();
+
+        String previous = GuidGenerators.TIME_ORDERED.nextGuid();
+        for(int x=0; x<10000; x++){
+            final String guid = GuidGenerators.TIME_ORDERED.nextGuid();
+            final UUID uuid = UUID.fromString(guid);
+            Assertions.assertEquals(7, uuid.version());
+            Assertions.assertEquals(2, uuid.variant());
+            Assertions.assertTrue(guid.compareTo(previous) > 0, previous + " then " + guid);
+            previous = guid;
+        }
+
+        // the first 48 bits are the creation time in milliseconds
+        final long millis = UUID.fromString(previous).getMostSignificantBits() >>> 16;
+        Assertions.assertTrue(millis >= before);
+    }
+}
@@ -0,0 +1,96 @@
+package uk.co.compendiumdev.thingifier.core.query;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CompiledQueryFilterTest {
+
+    EntityInstanceCollection things;
+    EntityInstanceCollection others;
+
+    @BeforeEach
+    public void setupInstances(){
+        final EntityDefinition thing = new EntityDefinition("thing", "things");
+        thing.addFields(
+                Field.is("title", FieldType.STRING),
+                Field.is("size", FieldType.INTEGER),
+                Field.is("weight", FieldType.FLOAT),
+                Field.is("done", FieldType.BOOLEAN));
+        things = new EntityInstanceCollection(thing);
+
+        final EntityDefinition other = new EntityDefinition("other", "others");
+        other.addFields(Field.is("title", FieldType.STRING));
+        others = new EntityInstanceCollection(other);
+
+        for(int size=1; size<=5; size++){
+            things.createManagedInstance().
+                    setValue("title", "title " + size).
+                    setValue("size", String.valueOf(size)).
+                    setValue("weight", size + ".5").
+                    setValue("done", String.valueOf(size%2==0));
+        }
+        others.createManagedInstance().setValue("title", "title 1");
+    }
+
+    private List<FilterBy> filters(String... namesAndValues){
+        List<FilterBy> filters = new ArrayList<>();
+        for(int index=0; index<namesAndValues.length; index+=2){
+            filters.add(new FilterBy(namesAndValues[index], namesAndValues[index+1]));
+        }
+        return filters;
+    }
+
+    private int countMatches(CompiledQueryFilter filter, EntityInstanceCollection collection){
+        int count=0;
+        for(EntityInstance instance : collection.getInstances()){
+            if(filter.matches(instance)){
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void allTypedConditionsMustMatch(){
+
+        final CompiledQueryFilter filter = new CompiledQueryFilter(
+                filters("size", ">=2", "weight", "<5", "done", "true", "title", "!title 4"));
+
+        Assertions.assertEquals(1, countMatches(filter, things));
+    }
+
+    @Test
+    public void conditionsOnUndefinedFieldsAreIgnored(){
+
+        final CompiledQueryFilter filter = new CompiledQueryFilter(
+                filters("title", "title 1", "size", "1"));
+
+        Assertions.assertEquals(1, countMatches(filter, things));
+        Assertions.assertEquals(1, countMatches(filter, others));
+    }
+
+    @Test
+    public void regexAndWildcardConditionsMatch(){
+
+        Assertions.assertEquals(2, countMatches(new CompiledQueryFilter(filters("title", "~=title [12]")), things));
+        Assertions.assertEquals(5, countMatches(new CompiledQueryFilter(filters("title", "*=tit?e*")), things));
+    }
+
+    @Test
+    public void invalidFilterValueOnlyFailsWhenCompared(){
+
+        final CompiledQueryFilter filter = new CompiledQueryFilter(filters("size", "notanumber"));
+
+        Assertions.assertEquals(1, countMatches(filter, others));
+        Assertions.assertThrows(NumberFormatException.class, () -> countMatches(filter, things));
+    }
+}
@@ -0,0 +1,124 @@
+package uk.co.compendiumdev.thingifier.core.query;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EntityInstanceListSorterTest {
+
+    EntityInstanceCollection thing;
+
+    EntityInstance oneB;
+    EntityInstance twoA;
+    EntityInstance oneA;
+    EntityInstance twoB;
+
+    @BeforeEach
+    public void setupThings(){
+
+        final EntityRelModel erModel = new EntityRelModel();
+        erModel.createEntityDefinition("thing", "things")
+                .addFields(Field.is("int", FieldType.INTEGER),
+                        Field.is("name", FieldType.STRING));
+
+        thing = erModel.getInstanceData().getInstanceCollectionForEntityNamed("thing");
+
+        // every int value is used twice so the second key decides their order
+        oneB = thingWith("1", "b");
+        twoA = thingWith("2", "a");
+        oneA = thingWith("1", "a");
+        twoB = thingWith("2", "b");
+    }
+
+    private EntityInstance thingWith(final String intValue, final String name){
+        final EntityInstance instance = thing.createManagedInstance();
+        instance.setValue("int", intValue);
+        instance.setValue("name", name);
+        return instance;
+    }
+
+    private List<EntityInstance> things(){
+        return new ArrayList<>(thing.getInstances());
+    }
+
+    private EntityInstanceListSorter sorterFor(final String... sortBys){
+        final QueryFilterParams params = new QueryFilterParams();
+        for(String sortBy : sortBys){
+            params.put("sortBy", sortBy);
+        }
+        return new EntityInstanceListSorter(params);
+    }
+
+    private void assertOrder(final List<EntityInstance> sorted, final EntityInstance... expected){
+        Assertions.assertEquals(List.of(expected), sorted);
+    }
+
+    @Test
+    public void firstKeyIsPrimaryWhenBothAscending(){
+
+        final List<EntityInstance> sorted = sorterFor("+int", "+name").
+                                                sort(things());
+
+        assertOrder(sorted, oneA, oneB, twoA, twoB);
+    }
+
+    @Test
+    public void firstKeyIsPrimaryWhenBothDescending(){
+
+        final List<EntityInstance> sorted = sorterFor("-int", "-name").
+                                                sort(things());
+
+        assertOrder(sorted, twoB, twoA, oneB, oneA);
+    }
+
+    @Test
+    public void tiesOnAnAscendingFirstKeyAreSortedDescendingBySecondKey(){
+
+        final List<EntityInstance> sorted = sorterFor("+int", "-name").
+                                                sort(things());
+
+        assertOrder(sorted, oneB, oneA, twoB, twoA);
+    }
+
+    @Test
+    public void tiesOnADescendingFirstKeyAreSortedAscendingBySecondKey(){
+
+        final List<EntityInstance> sorted = sorterFor("-int", "+name").
+                                                sort(things());
+
+        assertOrder(sorted, twoA, twoB, oneA, oneB);
+    }
+
+    @Test
+    public void swappingTheKeysChangesWhichIsPrimary(){
+
+        final List<EntityInstance> sorted = sorterFor("+name", "+int").
+                                                sort(things());
+
+        assertOrder(sorted, oneA, twoA, oneB, twoB);
+    }
+
+    @Test
+    public void pagesUseTheSameKeyPrecedence(){
+
+        final QueryFilterParams pageParams = new QueryFilterParams();
+        pageParams.put(QueryPaging.LIMIT_PARAM, "3");
+        final QueryPaging paging = QueryPaging.from(pageParams);
+
+        final List<EntityInstance> ascending = sorterFor("+int", "-name").
+                                                sortPage(things(), paging);
+        assertOrder(ascending, oneB, oneA, twoB);
+
+        final List<EntityInstance> descending = sorterFor("-int", "+name").
+                                                sortPage(things(), paging);
+        assertOrder(descending, twoA, twoB, oneA);
+    }
+}
@@ -0,0 +1,129 @@
+package uk.co.compendiumdev.thingifier.core.query;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class PagingViaQueryFiltersTest {
+
+    EntityRelModel erModel;
+    EntityInstanceCollection things;
+
+    @BeforeEach
+    public void setupThings(){
+
+        erModel = new EntityRelModel();
+        erModel.createEntityDefinition("thing", "things")
+                .addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        erModel.getSchema().getEntityDefinitionNamed("thing").addFields(
+                        Field.is("group", FieldType.STRING),
+                        Field.is("size", FieldType.INTEGER));
+
+        things = erModel.getInstanceData().getInstanceCollectionForEntityNamed("thing");
+
+        // id 1..6
+        String[][] groupsAndSizes = {{"b","1"}, {"a","3"}, {"b","2"}, {"a","1"}, {"c","5"}, {"a","2"}};
+        for(String[] groupAndSize : groupsAndSizes){
+            things.createManagedInstance().
+                    setValue("group", groupAndSize[0]).
+                    setValue("size", groupAndSize[1]);
+        }
+    }
+
+    private QueryFilterParams params(String... namesAndValues){
+        QueryFilterParams params = new QueryFilterParams();
+        for(int index=0; index<namesAndValues.length; index+=2){
+            params.put(namesAndValues[index], namesAndValues[index+1]);
+        }
+        return params;
+    }
+
+    private SimpleQuery query(QueryFilterParams params){
+        return new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(), "things").performQuery(params);
+    }
+
+    private List<String> idsOf(List<EntityInstance> instances){
+        List<String> ids = new ArrayList<>();
+        for(EntityInstance instance : instances){
+            ids.add(instance.getPrimaryKeyValue());
+        }
+        return ids;
+    }
+
+    @Test
+    public void firstSortFieldIsComparedFirst(){
+
+        final List<EntityInstance> found = query(params("sortby", "group", "sortby", "-size")).
+                                                getListEntityInstances();
+
+        Assertions.assertEquals(List.of("2", "6", "4", "3", "1", "5"), idsOf(found));
+    }
+
+    @Test
+    public void canLimitAndOffsetSortedResults(){
+
+        SimpleQuery results = query(params("sortby", "size", "limit", "2"));
+        Assertions.assertEquals(List.of("1", "4"), idsOf(results.getListEntityInstances()));
+        Assertions.assertNotNull(results.getNextCursor());
+
+        results = query(params("sortby", "size", "limit", "3", "offset", "2"));
+        Assertions.assertEquals(List.of("3", "6", "2"), idsOf(results.getListEntityInstances()));
+
+        results = query(params("sortby", "size", "offset", "4"));
+        Assertions.assertEquals(List.of("2", "5"), idsOf(results.getListEntityInstances()));
+        Assertions.assertNull(results.getNextCursor());
+
+        results = query(params("group", "a", "limit", "10"));
+        Assertions.assertEquals(List.of("2", "4", "6"), idsOf(results.getListEntityInstances()));
+        Assertions.assertNull(results.getNextCursor());
+
+        results = query(params("limit", "0"));
+        Assertions.assertEquals(0, results.getListEntityInstances().size());
+    }
+
+    @Test
+    public void canPageThroughResultsWithACursor(){
+
+        List<String> allIds = new ArrayList<>();
+
+        SimpleQuery results = query(params("sortby", "-group", "limit", "4"));
+        allIds.addAll(idsOf(results.getListEntityInstances()));
+
+        // instances before the cursor do not change the next page
+        things.createManagedInstance().setValue("group", "d");
+
+        results = query(params("sortby", "-group", "limit", "4", "cursor", results.getNextCursor()));
+        allIds.addAll(idsOf(results.getListEntityInstances()));
+        Assertions.assertNull(results.getNextCursor());
+
+        Assertions.assertEquals(List.of("5", "1", "3", "2", "4", "6"), allIds);
+    }
+
+    @Test
+    public void invalidPagingParamsAreReported(){
+
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> query(params("limit", "ten")));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> query(params("offset", "-1")));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> query(params("cursor", "!!notacursor")));
+    }
+
+    @Test
+    public void pagingIsShownInThePlan(){
+
+        final SimpleQuery results = query(params("sortby", "size", "limit", "2"));
+
+        Assertions.assertEquals(List.of("SCAN", "TOP K", "PAGE"), results.getPlan().getStages());
+        Assertions.assertFalse(results.getPlan().isFiltered());
+    }
+}
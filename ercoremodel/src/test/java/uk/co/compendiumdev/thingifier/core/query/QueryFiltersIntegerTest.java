@@ -230,5 +230,56 @@ public class QueryFiltersIntegerTest {
         Assertions.assertEquals(2, instances.get(1).getFieldValue("int").asInteger());
     }
 
+    @Test
+    public void canFilterAndSortUsingARangeIndexedField(){
+
+        erModel.createEntityDefinition("indexed", "indexeds")
+                .addFields(
+                        Field.is("int", FieldType.INTEGER).makeRangeIndexed(),
+                        Field.is("other", FieldType.INTEGER)
+                );
+
+        EntityInstanceCollection indexed = erModel.getInstanceData().getInstanceCollectionForEntityNamed("indexed");
+        for(int value=1; value<=10; value++){
+            indexed.createManagedInstance().
+                    setValue("int", String.valueOf(value)).
+                    setValue("other", String.valueOf(value%2));
+        }
+
+        QueryFilterParams params = new QueryFilterParams();
+        params.put("int", ">=3");
+        params.put("int", "<8");
+        params.put("int", ">4");
+        params.put("other", "0");
+        params.put("sortby", "-int");
+
+        List<EntityInstance> instances = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(), "indexeds").
+                performQuery(params).getListEntityInstances();
+
+        Assertions.assertEquals(1, instances.size());
+        Assertions.assertEquals(6, instances.get(0).getFieldValue("int").asInteger());
 
+        params = new QueryFilterParams();
+        params.put("int", "<=3");
+        params.put("sortby", "-int");
+
+        instances = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(), "indexeds").
+                performQuery(params).getListEntityInstances();
+
+        Assertions.assertEquals(3, instances.size());
+        Assertions.assertEquals(3, instances.get(0).getFieldValue("int").asInteger());
+        Assertions.assertEquals(2, instances.get(1).getFieldValue("int").asInteger());
+        Assertions.assertEquals(1, instances.get(2).getFieldValue("int").asInteger());
+
+        params = new QueryFilterParams();
+        params.put("sortby", "+int");
+
+        instances = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(), "indexeds").
+                performQuery(params).getListEntityInstances();
+
+        Assertions.assertEquals(10, instances.size());
+        for(int position=0; position<10; position++){
+            Assertions.assertEquals(position+1, instances.get(position).getFieldValue("int").asInteger());
+        }
+    }
 }
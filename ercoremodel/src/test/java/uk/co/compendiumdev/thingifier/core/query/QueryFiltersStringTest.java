@@ -194,4 +194,30 @@ public class QueryFiltersStringTest {
         Assertions.assertEquals("two", instances.get(0).getFieldValue("string").asString());
     }
 
+
+    @Test
+    public void canFilterStringEqualsUsingAnIndexedField() {
+
+        erModel.createEntityDefinition("indexed", "indexeds")
+                .addFields( Field.is("string", FieldType.STRING).makeIndexed(),
+                            Field.is("other", FieldType.STRING));
+
+        EntityInstanceCollection indexed = erModel.getInstanceData().getInstanceCollectionForEntityNamed("indexed");
+
+        indexed.createManagedInstance().setValue("string", "one").setValue("other", "a");
+        indexed.createManagedInstance().setValue("string", "one").setValue("other", "b");
+        indexed.createManagedInstance().setValue("string", "two").setValue("other", "a");
+
+        QueryFilterParams params = new QueryFilterParams();
+        params.put("string", "=one");
+        params.put("other", "=a");
+
+        SimpleQuery queryResults = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(), "indexeds").
+                performQuery(params);
+
+        List<EntityInstance> instances = queryResults.getListEntityInstances();
+        Assertions.assertEquals(1, instances.size());
+        Assertions.assertEquals("one", instances.get(0).getFieldValue("string").asString());
+        Assertions.assertEquals("a", instances.get(0).getFieldValue("other").asString());
+    }
 }
@@ -0,0 +1,209 @@
+package uk.co.compendiumdev.thingifier.core.query;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.Cardinality;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.util.List;
+
+public class QueryPlannerTest {
+
+    EntityRelModel erModel;
+    QueryPlanner planner;
+    EntityInstance project;
+
+    @BeforeEach
+    public void setupPlanner(){
+        erModel = new EntityRelModel();
+
+        final EntityDefinition todo = erModel.createEntityDefinition("todo", "todos");
+        todo.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        todo.addFields(
+                Field.is("title", FieldType.STRING).makeIndexed(),
+                Field.is("code", FieldType.STRING).makeUniquelyIndexed(),
+                Field.is("priority", FieldType.INTEGER).makeRangeIndexed());
+
+        final EntityDefinition projectDefn = erModel.createEntityDefinition("project", "projects");
+        projectDefn.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+
+        erModel.createRelationshipDefinition(projectDefn, todo, "tasks", Cardinality.ONE_TO_MANY());
+
+        planner = erModel.getQueryPlanner();
+
+        final EntityInstanceCollection todos = erModel.getInstanceData().getInstanceCollectionForEntityNamed("todo");
+        project = erModel.getInstanceData().getInstanceCollectionForEntityNamed("project").createManagedInstance();
+
+        for(int priority=1; priority<=4; priority++){
+            final EntityInstance task = todos.createManagedInstance().
+                                            setValue("title", "task " + priority).
+                                            setValue("priority", String.valueOf(priority));
+            project.getRelationships().connect("tasks", task);
+        }
+    }
+
+    private QueryFilterParams params(String... namesAndValues){
+        QueryFilterParams params = new QueryFilterParams();
+        for(int index=0; index<namesAndValues.length; index+=2){
+            params.put(namesAndValues[index], namesAndValues[index+1]);
+        }
+        return params;
+    }
+
+    @Test
+    public void templateReplacesIdsButNotEntitiesOrRelationships(){
+
+        Assertions.assertEquals("todos", planner.templateFor("/todos"));
+        Assertions.assertEquals("todos/{id}", planner.templateFor("todos/12"));
+        Assertions.assertEquals("projects/{id}/tasks", planner.templateFor("projects/1/tasks"));
+    }
+
+    @Test
+    public void primaryKeyLookupPlannedForAnIdInThePath(){
+
+        final QueryPlan plan = planner.planFor("projects/1/tasks", params("title", "task 1"));
+
+        Assertions.assertEquals(QueryPlan.Access.PRIMARY_KEY_LOOKUP, plan.getAccess());
+        Assertions.assertTrue(plan.traversesRelationships());
+        Assertions.assertTrue(plan.isFilteredDuringTraversal());
+    }
+
+    @Test
+    public void cheapestIndexIsChosen(){
+
+        QueryPlan plan = planner.planFor("todos", params("priority", ">1", "title", "task 2", "code", "abc"));
+        Assertions.assertEquals(QueryPlan.Access.INDEX_PROBE, plan.getAccess());
+        Assertions.assertEquals("code", plan.getAccessFieldName());
+
+        plan = planner.planFor("todos", params("priority", ">1", "title", "task 2"));
+        Assertions.assertEquals(QueryPlan.Access.INDEX_PROBE, plan.getAccess());
+        Assertions.assertEquals("title", plan.getAccessFieldName());
+
+        plan = planner.planFor("todos", params("priority", ">1", "sortby", "-priority"));
+        Assertions.assertEquals(QueryPlan.Access.RANGE_PROBE, plan.getAccess());
+        Assertions.assertTrue(plan.isSortedByIndex());
+
+        plan = planner.planFor("todos", params("sortby", "priority"));
+        Assertions.assertEquals(QueryPlan.Access.INDEX_ORDER, plan.getAccess());
+
+        plan = planner.planFor("todos", params("title", "~=task.*"));
+        Assertions.assertEquals(QueryPlan.Access.SCAN, plan.getAccess());
+    }
+
+    @Test
+    public void plansAreCachedByShapeNotValues(){
+
+        Assertions.assertFalse(planner.hasCachedPlanFor("todos/1", params("title", "a")));
+
+        final QueryPlan plan = planner.planFor("todos/1", params("title", "a"));
+
+        Assertions.assertTrue(planner.hasCachedPlanFor("todos/2", params("title", "b")));
+        Assertions.assertSame(plan, planner.planFor("todos/3", params("title", "c")));
+        Assertions.assertFalse(planner.hasCachedPlanFor("todos/2", params("title", ">b")));
+
+        erModel.createEntityDefinition("other", "others");
+        Assertions.assertEquals(0, planner.countCachedPlans());
+    }
+
+    @Test
+    public void cachedPlansAreReplacedWhenAFieldIsIndexedAfterTheFirstQuery(){
+
+        final Field status = Field.is("status", FieldType.STRING);
+        final Field effort = Field.is("effort", FieldType.INTEGER);
+        erModel.getSchema().getDefinitionWithSingularOrPluralNamed("todos").addFields(status, effort);
+
+        final EntityInstanceCollection todos = erModel.getInstanceData().getInstanceCollectionForEntityNamed("todo");
+        int effortValue = 4;
+        for(EntityInstance todo : todos.getInstances()){
+            todo.setValue("status", todo.getFieldValue("priority").asInteger()%2==0 ? "done" : "open");
+            todo.setValue("effort", String.valueOf(effortValue--));
+        }
+
+        Assertions.assertEquals(QueryPlan.Access.SCAN,
+                planner.planFor("todos", params("status", "done")).getAccess());
+        Assertions.assertEquals(QueryPlan.Access.SCAN,
+                planner.planFor("todos", params("sortby", "effort")).getAccess());
+
+        status.makeIndexed();
+        effort.makeRangeIndexed();
+
+        Assertions.assertFalse(planner.hasCachedPlanFor("todos", params("status", "open")));
+        final SimpleQuery probe = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(), "todos", planner).
+                                    performQuery(params("status", "done"));
+        Assertions.assertEquals(QueryPlan.Access.INDEX_PROBE, probe.getAccessUsed());
+        Assertions.assertEquals(2, probe.getListEntityInstances().size());
+
+        final SimpleQuery ordered = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(), "todos", planner).
+                                    performQuery(params("sortby", "effort"));
+        Assertions.assertEquals(QueryPlan.Access.INDEX_ORDER, ordered.getAccessUsed());
+        Assertions.assertEquals(1, ordered.getListEntityInstances().get(0).getFieldValue("effort").asInteger());
+    }
+
+    @Test
+    public void queryUsesThePlanAndRecordsTimings(){
+
+        final SimpleQuery query = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(),
+                                "projects/" + project.getPrimaryKeyValue() + "/tasks", planner).
+                                    performQuery(params("priority", ">2", "sortby", "-priority"));
+
+        final List<EntityInstance> found = query.getListEntityInstances();
+
+        Assertions.assertEquals(QueryPlan.Access.PRIMARY_KEY_LOOKUP, query.getAccessUsed());
+        Assertions.assertEquals(2, found.size());
+        Assertions.assertEquals(4, found.get(0).getFieldValue("priority").asInteger());
+        Assertions.assertEquals(3, found.get(1).getFieldValue("priority").asInteger());
+        Assertions.assertTrue(query.getStageTimingsInNanos().containsKey("traverse"));
+        Assertions.assertFalse(query.getStageTimingsInNanos().containsKey("filter"));
+    }
+
+    @Test
+    public void missedPrimaryKeyLookupIsNotReportedAsTheAccessUsed(){
+
+        final SimpleQuery query = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(),
+                                "todos/9999", planner).performQuery(params());
+
+        Assertions.assertEquals(0, query.getListEntityInstances().size());
+        Assertions.assertNotEquals(QueryPlan.Access.PRIMARY_KEY_LOOKUP, query.getAccessUsed());
+    }
+
+    @Test
+    public void regexFiltersScanAllInstances(){
+
+        final SimpleQuery query = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(), "todos", planner).
+                                    performQuery(params("title", "~=task [12]", "priority", "4"));
+
+        // the regex match returns without checking the priority filter
+        Assertions.assertEquals(QueryPlan.Access.SCAN, query.getAccessUsed());
+        Assertions.assertEquals(2, query.getListEntityInstances().size());
+    }
+
+    @Test
+    public void definitionsStoredAsColumnsAreFilteredUsingTheColumns(){
+
+        erModel.getSchema().getEntityDefinitionNamed("todo").storeFieldsAsColumns();
+        planner.clearCache();
+
+        Assertions.assertEquals(QueryPlan.Access.COLUMN_SCAN,
+                planner.planFor("todos", params("title", "~=task [123]")).getAccess());
+        Assertions.assertEquals(QueryPlan.Access.INDEX_PROBE,
+                planner.planFor("todos", params("title", "task 2")).getAccess());
+        Assertions.assertEquals(QueryPlan.Access.INDEX_ORDER,
+                planner.planFor("todos", params("sortby", "priority")).getAccess());
+
+        final SimpleQuery query = new SimpleQuery(erModel.getSchema(), erModel.getInstanceData(), "todos", planner).
+                performQuery(params("priority", "!=2", "title", "*=*task*", "sortby", "-title"));
+
+        final List<EntityInstance> found = query.getListEntityInstances();
+        Assertions.assertEquals(QueryPlan.Access.COLUMN_SCAN, query.getAccessUsed());
+        Assertions.assertEquals(3, found.size());
+        Assertions.assertEquals("task 4", found.get(0).getFieldValue("title").asString());
+        Assertions.assertFalse(query.getStageTimingsInNanos().containsKey("filter"));
+        Assertions.assertFalse(query.getStageTimingsInNanos().containsKey("sort"));
+    }
+}
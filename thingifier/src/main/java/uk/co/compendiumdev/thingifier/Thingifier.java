@@ -244,16 +244,12 @@ final public class Thingifier {
     // TODO: this is used in too many places, suggesting something went wrong with coding
     // decision: when we create a challenger we always create and populate a database, no need to do it any other time - check that this is enforced and cut down on this usage
     public void ensureCreatedAndPopulatedInstanceDatabaseNamed(String databaseName) {
-        if(getERmodel().createInstanceDatabaseIfNotExisting(databaseName)){
-            // if we created it then populate it
-            if(getDefaultDataPopulator()!=null){
-                // Use any default data populator to populate the new database
-                getDefaultDataPopulator().
-                        populate(
-                                getERmodel().getSchema(),
-                                getERmodel().getInstanceData(databaseName)
-                        );
-            }
+        if(getDefaultDataPopulator()!=null){
+            // the default data populator is also the model's populator, the model populates
+            // a template once and new databases share it until they are used
+            getERmodel().createPopulatedInstanceDatabaseIfNotExisting(databaseName);
+        }else{
+            getERmodel().createInstanceDatabaseIfNotExisting(databaseName);
         }
     }
 
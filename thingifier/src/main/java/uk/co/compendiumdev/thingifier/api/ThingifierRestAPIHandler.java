@@ -5,19 +5,28 @@ import uk.co.compendiumdev.thingifier.api.http.bodyparser.BodyParser;
 import uk.co.compendiumdev.thingifier.api.http.headers.HttpHeadersBlock;
 import uk.co.compendiumdev.thingifier.api.response.ApiResponse;
 import uk.co.compendiumdev.thingifier.api.restapihandlers.*;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
 import uk.co.compendiumdev.thingifier.core.query.FilterBy;
 import uk.co.compendiumdev.thingifier.core.query.QueryFilterParams;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
+/*
+    Each request is handled as a transaction on the database it is for, requests
+    which change the data are made one at a time so that creating, validating and
+    relating an instance is not seen or interleaved with other requests.
+ */
 public class ThingifierRestAPIHandler {
+    private final Thingifier thingifier;
     private final RestApiDeleteHandler delete;
     private final RestApiPostHandler post;
     private final RestApiPutHandler put;
     private final RestApiGetHandler get;
 
     public ThingifierRestAPIHandler(final Thingifier aThingifier) {
+        this.thingifier = aThingifier;
         this.get = new RestApiGetHandler(aThingifier);
         this.delete = new RestApiDeleteHandler(aThingifier);
         this.post = new RestApiPostHandler(aThingifier);
@@ -36,25 +45,51 @@ public class ThingifierRestAPIHandler {
 
 
     public ApiResponse get(final String url, final QueryFilterParams queryParams, HttpHeadersBlock headers) {
-        return get.handle(url, queryParams, headers);
+        return reading(headers, () -> get.handle(url, queryParams, headers));
+    }
+
+    public ApiResponse explain(final String url, final QueryFilterParams queryParams, HttpHeadersBlock headers) {
+        return reading(headers, () -> get.explain(url, queryParams, headers));
     }
 
     public ApiResponse head(final String url, final QueryFilterParams queryParams, HttpHeadersBlock headers) {
-        final ApiResponse response = get.handle(url, queryParams, headers);
+        final ApiResponse response = reading(headers, () -> get.handle(url, queryParams, headers));
         response.clearBody();
         return response;
     }
 
     public ApiResponse delete(final String url, HttpHeadersBlock headers) {
-        return delete.handle(url, headers);
+        return writing(headers, () -> delete.handle(url, headers));
     }
 
     public ApiResponse post(final String url, final BodyParser args, HttpHeadersBlock headers) {
-        return post.handle(url, args, headers);
+        return writing(headers, () -> post.handle(url, args, headers));
     }
 
     public ApiResponse put(final String url, final BodyParser args, HttpHeadersBlock headers) {
-        return put.handle(url, args, headers);
+        return writing(headers, () -> put.handle(url, args, headers));
+    }
+
+    private ApiResponse reading(final HttpHeadersBlock headers, final Supplier<ApiResponse> request) {
+        final ERInstanceData database = databaseFor(headers);
+        if(database==null){
+            // the handler reports the error
+            return request.get();
+        }
+        return database.inReadTransaction(request);
+    }
+
+    private ApiResponse writing(final HttpHeadersBlock headers, final Supplier<ApiResponse> request) {
+        final ERInstanceData database = databaseFor(headers);
+        if(database==null){
+            return request.get();
+        }
+        return database.inWriteTransaction(request);
+    }
+
+    private ERInstanceData databaseFor(final HttpHeadersBlock headers) {
+        return thingifier.getERmodel().getInstanceData(
+                    SessionHeaderParser.getDatabaseNameFromHeaderValue(headers));
     }
 
 
@@ -1,29 +1,53 @@
 package uk.co.compendiumdev.thingifier.api.ermodelconversion;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import uk.co.compendiumdev.thingifier.core.domain.datapopulator.DataPopulator;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.DefinedFields;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.ERSchema;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
 import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
 import uk.co.compendiumdev.thingifier.core.reporting.ValidationReport;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.List;
 import java.util.UUID;
 
+/*
+    Populates a database from json, an object of entity plurals each mapped on to an array of instances.
+
+    The json is read one instance at a time with a JsonReader, the document is never held
+    in memory as a tree. The instances are validated as they are read and added to an empty
+    staging copy of the database in batches, the uniqueness checks are made when each batch
+    is added. Only once all the data is valid is the database cleared and the staged
+    instances handed over, so invalid data leaves the existing data as it was.
+
+    The trade-off is memory: the reader can not be read twice, so the instances are held
+    in the staging copy rather than inserted as they are read, and at the hand over the
+    populated instances and the existing data are both on the heap, within the one write
+    transaction. The memory used is proportional to the payload, not to one instance.
+ */
 public class JsonPopulator implements DataPopulator {
 
-    private final String jsonData;
+    private static final int BATCH_SIZE = 100;
+
+    private final Reader jsonData;
     private ERSchema schema;
     private ERInstanceData database;
+    private ERInstanceData staging;
 
     public JsonPopulator(String jsonDatabaseContents) {
+        this(new StringReader(jsonDatabaseContents));
+    }
+
+    public JsonPopulator(Reader jsonDatabaseContents) {
         this.jsonData = jsonDatabaseContents;
     }
 
@@ -33,74 +57,142 @@ public class JsonPopulator implements DataPopulator {
         this.schema = schema;
         this.database = database;
 
-        JsonElement data = JsonParser.parseString(jsonData);
+        // the data is replaced as one change, no one sees it part populated
+        database.inWriteTransaction(() -> {
+            try {
+                populateFrom(new JsonReader(jsonData));
+            } catch (IOException e) {
+                throw new RuntimeException(String.format("ERROR: Could not read data %s", e.getMessage()), e);
+            }
+            return null;
+        });
+    }
+
+    private void populateFrom(final JsonReader json) throws IOException {
 
         // expecting an object of entities with instances where each object property is an entity mapped on to an array
-        if(!data.isJsonObject()){
+        if(json.peek()!=JsonToken.BEGIN_OBJECT){
             throw new RuntimeException("ERROR: Data is not an object of instantiated entities");
         }
 
-        JsonObject entities = data.getAsJsonObject();
-        entities.entrySet().forEach(property -> {
-            populateEntityInstances(property);
-        });
+        staging = database.emptyCopy();
+
+        json.beginObject();
+        while(json.hasNext()){
+            populateEntityInstances(json.nextName(), json);
+        }
+        json.endObject();
 
+        replaceDataWithStaged();
     }
 
-    private void populateEntityInstances(Map.Entry<String, JsonElement> entity) {
+    private void replaceDataWithStaged() {
+        database.clearAllData();
+        for(EntityInstanceCollection staged : staging.getAllInstanceCollections()){
+            if(staged.countInstances()>0){
+                database.getInstanceCollectionForEntityNamed(staged.definition().getName()).
+                        addInstances(staged.getInstances());
+            }
+        }
+    }
+
+    private void populateEntityInstances(final String entityPluralName, final JsonReader json) throws IOException {
         // entity is an object with a name and an array
-        if(!schema.hasEntityWithPluralNamed(entity.getKey())){
-            throw new RuntimeException(String.format("ERROR: Unknown entity found: %s", entity.getKey()));
+        if(!schema.hasEntityWithPluralNamed(entityPluralName)){
+            throw new RuntimeException(String.format("ERROR: Unknown entity found: %s", entityPluralName));
         }
 
-        if(!entity.getValue().isJsonArray()){
-            throw new RuntimeException(String.format("ERROR: Expected array of instances as %s value", entity.getKey()));
+        if(json.peek()!=JsonToken.BEGIN_ARRAY){
+            throw new RuntimeException(String.format("ERROR: Expected array of instances as %s value", entityPluralName));
         }
 
-        database.clearAllData();
+        final EntityDefinition entityDefn = schema.getEntityDefinitionWithPluralNamed(entityPluralName);
+        final EntityInstanceCollection instances = staging.getInstanceCollectionForEntityNamed(entityDefn.getName());
 
-        JsonArray instances = entity.getValue().getAsJsonArray();
-        instances.forEach(instance -> {populateAsInstanceOf(entity.getKey(), instance);});
+        final List<EntityInstance> batch = new ArrayList<>();
+        json.beginArray();
+        while(json.hasNext()){
+            batch.add(readInstanceOf(entityDefn, json));
+            if(batch.size()>=BATCH_SIZE){
+                instances.addInstances(batch);
+                batch.clear();
+            }
+        }
+        json.endArray();
 
+        if(!batch.isEmpty()){
+            instances.addInstances(batch);
+        }
     }
 
-    private void populateAsInstanceOf(String entityPluralName, JsonElement instance) {
+    private EntityInstance readInstanceOf(final EntityDefinition entityDefn, final JsonReader json) throws IOException {
 
-        if(!instance.isJsonObject()){
-            throw new RuntimeException(String.format("ERROR: Expected array of %s to contain objects", entityPluralName));
+        if(json.peek()!=JsonToken.BEGIN_OBJECT){
+            throw new RuntimeException(String.format("ERROR: Expected array of %s to contain objects", entityDefn.getPlural()));
         }
 
-        EntityDefinition entityDefn = schema.getEntityDefinitionWithPluralNamed(entityPluralName);
-
-        JsonObject obj = instance.getAsJsonObject();
-        obj.keySet().forEach(propertyName -> {
+        final EntityInstance entityInstance = new EntityInstance(entityDefn);
+        json.beginObject();
+        while(json.hasNext()){
+            final String propertyName = json.nextName();
             if(!entityDefn.hasFieldNameDefined(propertyName)){
                 throw new RuntimeException(String.format("ERROR: Unknown property %s for %s", propertyName, entityDefn.getName()));
             }
-        });
-
-        EntityInstance entityInstance = new EntityInstance(entityDefn);
-        obj.entrySet().forEach(value -> {
-            Field fieldDefn = entityDefn.getField(value.getKey());
-            switch (fieldDefn.getType()){
-                case AUTO_GUID:
-                    entityInstance.overrideValue(fieldDefn.getName(), UUID.fromString(value.getValue().getAsString()).toString());
-                    break;
-                case AUTO_INCREMENT:
-                    entityInstance.overrideValue(fieldDefn.getName(), String.valueOf(value.getValue().getAsInt()));
-                    break;
-                default:
-                    entityInstance.setValue(value.getKey(), value.getValue().getAsString());
-            }
-        });
+            readFieldValue(entityInstance, entityDefn.getField(propertyName), propertyName, json);
+        }
+        json.endObject();
 
         ValidationReport validation = entityInstance.validateFieldValues(new ArrayList<>(), true);
         if(!validation.isValid()){
             throw new RuntimeException(String.format("ERROR: Invalid %s entity instance because %s", entityDefn.getName(), validation.getCombinedErrorMessages()));
         }
 
-        // instance is valid, so add it
-        EntityInstanceCollection instances = database.getInstanceCollectionForEntityNamed(entityDefn.getName());
-        instances.addInstance(entityInstance);
+        return entityInstance;
+    }
+
+    /*
+        the path is the field name, or e.g. object.fieldOnObject for the fields of an OBJECT field
+     */
+    private void readFieldValue(final EntityInstance entityInstance, final Field fieldDefn,
+                                final String path, final JsonReader json) throws IOException {
+
+        if(fieldDefn.getType()==FieldType.OBJECT && json.peek()==JsonToken.BEGIN_OBJECT){
+            final DefinedFields objectFields = fieldDefn.getObjectDefinition();
+            json.beginObject();
+            while(json.hasNext()){
+                final String propertyName = json.nextName();
+                if(!objectFields.hasFieldNameDefined(propertyName)){
+                    throw new RuntimeException(String.format("ERROR: Unknown property %s for %s", propertyName, path));
+                }
+                readFieldValue(entityInstance, objectFields.getField(propertyName), path + "." + propertyName, json);
+            }
+            json.endObject();
+            return;
+        }
+
+        final String value = readScalar(path, json);
+        switch (fieldDefn.getType()){
+            case AUTO_GUID:
+                entityInstance.overrideValue(path, UUID.fromString(value).toString());
+                break;
+            case AUTO_INCREMENT:
+                entityInstance.overrideValue(path, String.valueOf(Integer.parseInt(value)));
+                break;
+            default:
+                entityInstance.setValue(path, value);
+        }
+    }
+
+    private String readScalar(final String path, final JsonReader json) throws IOException {
+        switch (json.peek()){
+            case STRING:
+            case NUMBER:
+                // numbers are read as written, the field converts them to its type
+                return json.nextString();
+            case BOOLEAN:
+                return String.valueOf(json.nextBoolean());
+            default:
+                throw new RuntimeException(String.format("ERROR: Expected a value for %s but found %s", path, json.peek()));
+        }
     }
 }
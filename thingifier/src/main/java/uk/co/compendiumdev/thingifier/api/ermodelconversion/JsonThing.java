@@ -9,6 +9,7 @@ import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.F
 import uk.co.compendiumdev.thingifier.core.domain.definitions.field.instance.FieldValue;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.relationship.RelationshipVectorDefinition;
 import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.DefinedFields;
 import uk.co.compendiumdev.thingifier.core.domain.instances.InstanceFields;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
 
@@ -64,30 +65,35 @@ public class JsonThing {
             return jsonobj;
         }
 
-        for (String fieldName : fields.getDefinition().getFieldNames()) {
-            Field theField = fields.getDefinition().getField(fieldName);
+        final DefinedFields definition = fields.getDefinition();
+
+        for (int ordinal = 0; ordinal < definition.countFields(); ordinal++) {
+            Field theField = definition.getFieldAt(ordinal);
+            String fieldName = theField.getName();
 
             String fieldValue = "";
 
             try {
-                fieldValue = fields.getFieldValue(theField.getName()).asString();
+                final FieldValue value = fields.getFieldValue(ordinal);
+                fieldValue = value.asString();
 
                 if(apiConfig.willRenderFieldsAsDefinedTypes()) {
+                    // numbers are read from the stored primitive values rather than parsed
                     switch (theField.getType()) {
                         case BOOLEAN:
                             jsonobj.addProperty(fieldName, Boolean.valueOf(fieldValue));
                             break;
                         case INTEGER:
-                            jsonobj.addProperty(fieldName, Integer.valueOf(fieldValue));
+                            jsonobj.addProperty(fieldName, value.asInteger());
                             break;
                         case FLOAT:
-                            jsonobj.addProperty(fieldName, Float.valueOf(fieldValue));
+                            jsonobj.addProperty(fieldName, value.asFloat());
                             break;
                         case AUTO_INCREMENT:
-                            jsonobj.addProperty(fieldName, Integer.valueOf(fieldValue));
+                            jsonobj.addProperty(fieldName, value.asInteger());
                             break;
                         case OBJECT:
-                            final FieldValue objectFieldValue = fields.getFieldValue(fieldName);
+                            final FieldValue objectFieldValue = value;
                             if(objectFieldValue!=null) {
                                 jsonobj.add(fieldName, asJsonObject(
                                         objectFieldValue.asObject()));
@@ -99,7 +105,7 @@ public class JsonThing {
                 }else {
                     // output as string
                     if(theField.getType()==FieldType.OBJECT){
-                        final FieldValue objectFieldValue = fields.getFieldValue(fieldName);
+                        final FieldValue objectFieldValue = value;
                         if(objectFieldValue!=null) {
                             jsonobj.add(fieldName, asJsonObject(
                                     objectFieldValue.asObject()));
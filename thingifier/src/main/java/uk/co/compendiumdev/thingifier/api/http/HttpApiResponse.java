@@ -21,6 +21,8 @@ final public class HttpApiResponse {
 
     private String type;
     private boolean asJson;
+    // the body rendered when the response was created, so it matches the data at that time
+    private String renderedBody;
 
     public HttpApiResponse(final HttpHeadersBlock requestHeaders,
                            final ApiResponse anApiResponse,
@@ -72,6 +74,16 @@ final public class HttpApiResponse {
 
     }
 
+    /**
+     * Render the body now, rather than when it is first used, this is done while
+     * the data can not be changed by other requests.
+     */
+    public HttpApiResponse renderBody() {
+        renderedBody = null;
+        renderedBody = getBody();
+        return this;
+    }
+
     // TODO: handle text/plain, text/html
     public String getBody() {
 
@@ -80,6 +92,9 @@ final public class HttpApiResponse {
         if(apiResponse.hasABodyOverride()){
             return apiResponse.getBody();
         }
+        if(renderedBody!=null){
+            return renderedBody;
+        }
         if (asJson) {
             returnBody = new ApiResponseAsJson(apiResponse, jsonThing).getJson();
         } else {
@@ -3,9 +3,12 @@ package uk.co.compendiumdev.thingifier.api.http;
 import uk.co.compendiumdev.thingifier.Thingifier;
 import uk.co.compendiumdev.thingifier.api.http.bodyparser.BodyParser;
 import uk.co.compendiumdev.thingifier.api.response.ApiResponse;
+import uk.co.compendiumdev.thingifier.api.restapihandlers.SessionHeaderParser;
 import uk.co.compendiumdev.thingifier.application.httpapimessagehooks.HttpApiRequestHook;
 import uk.co.compendiumdev.thingifier.application.httpapimessagehooks.HttpApiResponseHook;
 import uk.co.compendiumdev.thingifier.api.ermodelconversion.JsonThing;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+import uk.co.compendiumdev.thingifier.core.query.QueryFilterParams;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -15,6 +18,7 @@ final public class ThingifierHttpApi {
     // TODO: each 'session' could have its own thingifier to support multiple users
     // TODO: would need the ability to create and delete sessions
     public static final String HTTP_SESSION_HEADER_NAME = "X-THING-HTTP-SESSION-GUID";
+    public static final String EXPLAIN_QUERY_PARAM = "explain";
 
     private final Thingifier thingifier;
     private final JsonThing jsonThing;
@@ -75,8 +79,8 @@ final public class ThingifierHttpApi {
         if(httpResponse==null) {
             apiResponse = routeAndProcessRequest(request, verb);
 
-            httpResponse = new HttpApiResponse(request.getHeaders(), apiResponse,
-                    jsonThing, thingifier.apiConfig());
+            httpResponse = renderedWhileReading(request, new HttpApiResponse(request.getHeaders(), apiResponse,
+                    jsonThing, thingifier.apiConfig()));
         }
 
         // run any post processing response hooks
@@ -178,14 +182,34 @@ final public class ThingifierHttpApi {
         createDatabaseBasedOnSessionHeaderUIfNecessary(request.getHeader(HTTP_SESSION_HEADER_NAME));
 
         if(httpResponse==null) {
-            ApiResponse apiResponse = thingifier.api().get(query, request.getFilterableQueryParams(), request.getHeaders());
-            httpResponse = new HttpApiResponse(request.getHeaders(), apiResponse,
-                    jsonThing, thingifier.apiConfig());
+            final QueryFilterParams queryParams = request.getFilterableQueryParams();
+            ApiResponse apiResponse;
+            // ?explain returns the query plan and stage timings instead of the results
+            if(queryParams.hasParamNamed(EXPLAIN_QUERY_PARAM)){
+                apiResponse = thingifier.api().explain(query,
+                                    queryParams.withoutParamNamed(EXPLAIN_QUERY_PARAM), request.getHeaders());
+            }else{
+                apiResponse = thingifier.api().get(query, queryParams, request.getHeaders());
+            }
+            httpResponse = renderedWhileReading(request, new HttpApiResponse(request.getHeaders(), apiResponse,
+                    jsonThing, thingifier.apiConfig()));
         }
 
         return runTheHttpApiResponseHooksOn(request, httpResponse);
     }
 
+    /*
+        the instances in the response are rendered while no other request can change them
+     */
+    private HttpApiResponse renderedWhileReading(final HttpApiRequest request, final HttpApiResponse httpResponse) {
+        final ERInstanceData database = thingifier.getERmodel().getInstanceData(
+                SessionHeaderParser.getDatabaseNameFromHeaderValue(request.getHeaders()));
+        if(database==null){
+            return httpResponse;
+        }
+        return database.inReadTransaction(httpResponse::renderBody);
+    }
+
     private HttpApiResponse runTheHttpApiResponseHooksOn(final HttpApiRequest request, final HttpApiResponse response) {
         for(HttpApiResponseHook hook : apiResponseHooks){
             HttpApiResponse returnImmediately = hook.run(request, response, thingifier.apiConfig());
@@ -13,6 +13,8 @@ public final class ApiResponse {
 
     // TODO: instance GUID or instance-id should actually be the primary key
     public static final String PRIMARY_KEY_HEADER = "X-Thing-Instance-Primary-Key";
+    // the cursor param value to get the next page of a collection
+    public static final String NEXT_CURSOR_HEADER = "X-Thing-Next-Cursor";
 
     private final int statusCode;
     private boolean hasBody;
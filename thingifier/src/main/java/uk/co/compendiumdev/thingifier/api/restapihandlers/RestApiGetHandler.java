@@ -1,17 +1,26 @@
 package uk.co.compendiumdev.thingifier.api.restapihandlers;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import uk.co.compendiumdev.thingifier.Thingifier;
 import uk.co.compendiumdev.thingifier.api.http.headers.HttpHeadersBlock;
 import uk.co.compendiumdev.thingifier.api.response.ApiResponse;
 import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
 import uk.co.compendiumdev.thingifier.core.query.FilterBy;
 import uk.co.compendiumdev.thingifier.core.query.QueryFilterParams;
+import uk.co.compendiumdev.thingifier.core.query.QueryPaging;
+import uk.co.compendiumdev.thingifier.core.query.QueryPlan;
 import uk.co.compendiumdev.thingifier.core.query.SimpleQuery;
 
 import java.util.List;
 import java.util.Map;
 
 public class RestApiGetHandler {
+    // Gson is thread safe, one is shared by all the explain requests
+    private static final Gson PRETTY_JSON = new GsonBuilder().setPrettyPrinting().create();
+
     private final Thingifier thingifier;
 
     public RestApiGetHandler(final Thingifier aThingifier) {
@@ -33,13 +42,17 @@ public class RestApiGetHandler {
         SimpleQuery queryResults;
 
         if(thingifier.apiConfig().forParams().willAllowFilteringThroughUrlParams()){
-           queryResults = new SimpleQuery(thingifier.getERmodel().getSchema(), thingifier.getERmodel().getInstanceData(instanceDatabaseName), url).performQuery(
-                   queryParams);
+            // pages are requested with the limit, offset and cursor params
+            try{
+                QueryPaging.from(queryParams);
+            }catch(IllegalArgumentException e){
+                return ApiResponse.error(400, e.getMessage());
+            }
+           queryResults = createQuery(url, instanceDatabaseName).performQuery(queryParams);
         }else{
-            queryResults = new SimpleQuery(thingifier.getERmodel().getSchema(), thingifier.getERmodel().getInstanceData(instanceDatabaseName), url).performQuery();
+            queryResults = createQuery(url, instanceDatabaseName).performQuery();
         }
 
-        // TODO: we should support pagination through query params
         // TODO: api config should also support defining sorting for specific end points
         List<EntityInstance> queryItems = queryResults.getListEntityInstances();
 
@@ -54,18 +67,76 @@ public class RestApiGetHandler {
         if (queryResults.lastMatchWasInstance()) {
             if (queryResults.isResultACollection()) {
                 // if we asked for /projects then we should always return a collection
-                return ApiResponse.success().
+                return withNextCursor(ApiResponse.success().
                         returnInstanceCollection(
-                                queryResults.getListEntityInstances());
+                                queryResults.getListEntityInstances()), queryResults);
             } else {
                 return ApiResponse.success().returnSingleInstance(queryResults.getLastInstance());
             }
         } else {
 
-            return ApiResponse.success().
+            return withNextCursor(ApiResponse.success().
                     returnInstanceCollection(queryItems).
-                    resultContainsType(queryResults.resultContainsDefn());
+                    resultContainsType(queryResults.resultContainsDefn()), queryResults);
+        }
+    }
+
+    private ApiResponse withNextCursor(final ApiResponse response, final SimpleQuery queryResults) {
+        if(queryResults.getNextCursor()!=null){
+            response.setHeader(ApiResponse.NEXT_CURSOR_HEADER, queryResults.getNextCursor());
         }
+        return response;
     }
 
+    /*
+        Used by the admin query interface to show how a query was performed,
+        rather than the results, returns the plan and the time taken in each stage
+     */
+    public ApiResponse explain(final String url, final QueryFilterParams queryParams, final HttpHeadersBlock requestHeaders) {
+
+        String instanceDatabaseName = SessionHeaderParser.getDatabaseNameFromHeaderValue(requestHeaders);
+
+        final SimpleQuery queryResults;
+        try{
+            queryResults = createQuery(url, instanceDatabaseName).performQuery(queryParams);
+        }catch(IllegalArgumentException e){
+            return ApiResponse.error(400, e.getMessage());
+        }
+        final QueryPlan plan = queryResults.getPlan();
+
+        JsonObject explanation = new JsonObject();
+        explanation.addProperty("query", url);
+        explanation.addProperty("template", plan.getTemplate());
+        explanation.addProperty("cached", queryResults.wasPlanCached());
+        explanation.addProperty("plan", plan.toString());
+
+        JsonArray stages = new JsonArray();
+        for(String stage : plan.getStages()){
+            stages.add(stage);
+        }
+        explanation.add("stages", stages);
+
+        if(queryResults.getAccessUsed()!=null){
+            explanation.addProperty("accessUsed", queryResults.getAccessUsed().name());
+        }
+
+        JsonObject timings = new JsonObject();
+        for(Map.Entry<String, Long> timing : queryResults.getStageTimingsInNanos().entrySet()){
+            timings.addProperty(timing.getKey(), timing.getValue()/1000);
+        }
+        explanation.add("timingsInMicros", timings);
+
+        explanation.addProperty("resultCount", queryResults.getListEntityInstances().size());
+
+        final ApiResponse response = ApiResponse.success();
+        response.setBody(PRETTY_JSON.toJson(explanation));
+        return response;
+    }
+
+    private SimpleQuery createQuery(final String url, final String instanceDatabaseName) {
+        return new SimpleQuery(thingifier.getERmodel().getSchema(),
+                                thingifier.getERmodel().getInstanceData(instanceDatabaseName),
+                                url,
+                                thingifier.getERmodel().getQueryPlanner());
+    }
 }
@@ -0,0 +1,123 @@
+package uk.co.compendiumdev.thingifier.api.ermodelconversion;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.core.EntityRelModel;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.ERInstanceData;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.io.StringReader;
+
+public class JsonPopulatorTest {
+
+    EntityRelModel erModel;
+    ERInstanceData database;
+
+    @BeforeEach
+    public void createModel(){
+        erModel = new EntityRelModel();
+
+        final EntityDefinition todo = erModel.createEntityDefinition("todo", "todos");
+        todo.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        todo.addFields(Field.is("title", FieldType.STRING),
+                Field.is("done", FieldType.BOOLEAN),
+                Field.is("owner", FieldType.OBJECT).withField(Field.is("name", FieldType.STRING)));
+
+        final EntityDefinition project = erModel.createEntityDefinition("project", "projects");
+        project.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        project.addFields(Field.is("title", FieldType.STRING));
+
+        database = erModel.getInstanceData();
+    }
+
+    private void populate(String json){
+        new JsonPopulator(new StringReader(json)).populate(erModel.getSchema(), database);
+    }
+
+    @Test
+    public void everyEntityInTheDataIsPopulated(){
+
+        database.getInstanceCollectionForEntityNamed("todo").createManagedInstance().setValue("title", "replaced");
+
+        populate("{\"todos\" : [{\"id\": 3, \"title\": \"first\", \"done\": true}, {\"id\": 5, \"title\": \"second\"}]," +
+                 " \"projects\" : [{\"id\": 1, \"title\": \"project\"}]}");
+
+        final EntityInstanceCollection todos = database.getInstanceCollectionForEntityNamed("todo");
+        Assertions.assertEquals(2, todos.countInstances());
+        Assertions.assertTrue(todos.findInstanceByPrimaryKey("3").getFieldValue("done").asBoolean());
+        Assertions.assertEquals("second", todos.findInstanceByPrimaryKey("5").getFieldValue("title").asString());
+        Assertions.assertEquals(1, database.getInstanceCollectionForEntityNamed("project").countInstances());
+
+        // ids carry on above the populated ids
+        Assertions.assertEquals("6", todos.createManagedInstance().getPrimaryKeyValue());
+    }
+
+    @Test
+    public void dataWrittenAsJsonCanBePopulatedBack(){
+
+        final EntityInstanceCollection todos = database.getInstanceCollectionForEntityNamed("todo");
+        for(int todo=1; todo<=250; todo++){
+            todos.createManagedInstance().setValue("title", "todo \"" + todo + "\"\n\\");
+        }
+
+        final String json = database.asJson();
+        populate(json);
+
+        Assertions.assertEquals(250, todos.countInstances());
+        Assertions.assertEquals("todo \"250\"\n\\", todos.findInstanceByPrimaryKey("250").getFieldValue("title").asString());
+        Assertions.assertEquals(json, database.asJson());
+    }
+
+    @Test
+    public void objectFieldsArePopulatedFromNestedObjects(){
+
+        populate("{\"todos\" : [{\"id\": 1, \"owner\": {\"name\": \"bob\"}}]}");
+
+        final EntityInstance todo = database.getInstanceCollectionForEntityNamed("todo").findInstanceByPrimaryKey("1");
+        Assertions.assertEquals("bob", todo.getFieldValue("owner").asObject().getFieldValue("name").asString());
+    }
+
+    @Test
+    public void unknownEntitiesAndPropertiesAreRejected(){
+
+        final RuntimeException unknownEntity = Assertions.assertThrows(RuntimeException.class,
+                () -> populate("{\"bobs\" : []}"));
+        Assertions.assertEquals("ERROR: Unknown entity found: bobs", unknownEntity.getMessage());
+
+        final RuntimeException unknownProperty = Assertions.assertThrows(RuntimeException.class,
+                () -> populate("{\"todos\" : [{\"id\": 1, \"colour\": \"red\"}]}"));
+        Assertions.assertEquals("ERROR: Unknown property colour for todo", unknownProperty.getMessage());
+
+        Assertions.assertThrows(RuntimeException.class, () -> populate("[]"));
+        Assertions.assertThrows(RuntimeException.class, () -> populate("{\"todos\" : [{\"id\": 1, "));
+    }
+
+    @Test
+    public void duplicateIdsAreRejectedWhenTheBatchIsAdded(){
+
+        Assertions.assertThrows(RuntimeException.class,
+                () -> populate("{\"todos\" : [{\"id\": 1, \"title\": \"a\"}, {\"id\": 1, \"title\": \"b\"}]}"));
+    }
+
+    @Test
+    public void rejectedDataLeavesTheExistingDataInPlace(){
+
+        final EntityInstanceCollection todos = database.getInstanceCollectionForEntityNamed("todo");
+        todos.createManagedInstance().setValue("title", "existing");
+
+        Assertions.assertThrows(RuntimeException.class,
+                () -> populate("{\"todos\" : [{\"id\": 7, \"title\": \"valid\"}], \"unknowns\" : []}"));
+        Assertions.assertThrows(RuntimeException.class,
+                () -> populate("{\"todos\" : [{\"id\": 1, \"title\": \"a\"}, {\"id\": 1, \"title\": \"b\"}]}"));
+
+        Assertions.assertEquals(1, todos.countInstances());
+        Assertions.assertEquals("existing", todos.findInstanceByPrimaryKey("1").getFieldValue("title").asString());
+        Assertions.assertNull(todos.findInstanceByPrimaryKey("7"));
+        Assertions.assertEquals("2", todos.createManagedInstance().getPrimaryKeyValue());
+    }
+}
@@ -0,0 +1,75 @@
+package uk.co.compendiumdev.thingifier.api.http.requests;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.Thingifier;
+import uk.co.compendiumdev.thingifier.api.http.HttpApiRequest;
+import uk.co.compendiumdev.thingifier.api.http.HttpApiResponse;
+import uk.co.compendiumdev.thingifier.api.http.ThingifierHttpApi;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstance;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class ThingifierHttpApiConcurrencyTest {
+
+    @Test
+    public void parallelRequestsOnTheDefaultDatabaseDoNotLoseUpdates() throws Exception {
+
+        Thingifier thingifier = new Thingifier();
+        thingifier.apiConfig().setApiToEnforceAcceptHeaderForResponses(false);
+        EntityDefinition defn = thingifier.getERmodel().createEntityDefinition("thing", "things");
+        defn.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        defn.addField(Field.is("title", FieldType.STRING));
+
+        final ThingifierHttpApi api = new ThingifierHttpApi(thingifier, null, null);
+
+        final int clients = 8;
+        final int requestsPerClient = 50;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(clients);
+        List<Future<Integer>> createdCounts = new ArrayList<>();
+        for(int client=0; client<clients; client++){
+            final int clientId = client;
+            createdCounts.add(executor.submit(() -> {
+                int created = 0;
+                for(int request=0; request<requestsPerClient; request++){
+                    final HttpApiResponse response = api.post(new HttpApiRequest("/things").
+                            setBody("{\"title\":\"client " + clientId + "\"}"));
+                    if(response.getStatusCode()==201){
+                        created++;
+                    }
+                    Assertions.assertEquals(200, api.get(new HttpApiRequest("/things")).getStatusCode());
+                }
+                return created;
+            }));
+        }
+
+        int created = 0;
+        for(Future<Integer> createdCount : createdCounts){
+            created = created + createdCount.get();
+        }
+        executor.shutdown();
+
+        final EntityInstanceCollection things = thingifier.getERmodel().getInstanceData().
+                getInstanceCollectionForEntityNamed("thing");
+
+        Set<String> ids = new HashSet<>();
+        for(EntityInstance thing : things.getInstances()){
+            ids.add(thing.getPrimaryKeyValue());
+        }
+
+        Assertions.assertEquals(clients*requestsPerClient, created);
+        Assertions.assertEquals(clients*requestsPerClient, things.countInstances());
+        Assertions.assertEquals(clients*requestsPerClient, ids.size());
+    }
+}
@@ -0,0 +1,69 @@
+package uk.co.compendiumdev.thingifier.api.http.requests;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.Thingifier;
+import uk.co.compendiumdev.thingifier.api.http.HttpApiRequest;
+import uk.co.compendiumdev.thingifier.api.http.HttpApiResponse;
+import uk.co.compendiumdev.thingifier.api.http.ThingifierHttpApi;
+import uk.co.compendiumdev.thingifier.api.response.ApiResponse;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+public class ThingifierHttpApiPagingTest {
+
+    ThingifierHttpApi api;
+
+    @BeforeEach
+    public void createThingifier(){
+
+        Thingifier thingifier = new Thingifier();
+        thingifier.apiConfig().setApiToEnforceAcceptHeaderForResponses(false);
+        EntityDefinition defn = thingifier.getERmodel().createEntityDefinition("thing", "things");
+        defn.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        defn.addField(Field.is("title", FieldType.STRING));
+
+        final EntityInstanceCollection things = thingifier.getERmodel().getInstanceData().getInstanceCollectionForEntityNamed("thing");
+        things.createManagedInstance().setValue("title", "cherry");
+        things.createManagedInstance().setValue("title", "apple");
+        things.createManagedInstance().setValue("title", "banana");
+
+        api = new ThingifierHttpApi(thingifier, null, null);
+    }
+
+    @Test
+    public void canGetPagesOfACollection(){
+
+        HttpApiResponse response = api.get(
+                new HttpApiRequest("/things").setFilterableQueryParams("sortby=title&limit=2"));
+
+        Assertions.assertEquals(200, response.getStatusCode());
+        Assertions.assertTrue(response.getBody().contains("apple"));
+        Assertions.assertTrue(response.getBody().contains("banana"));
+        Assertions.assertFalse(response.getBody().contains("cherry"));
+
+        final String cursor = response.getHeaders().get(ApiResponse.NEXT_CURSOR_HEADER);
+        Assertions.assertFalse(cursor.isEmpty());
+
+        response = api.get(
+                new HttpApiRequest("/things").setFilterableQueryParams("sortby=title&limit=2&cursor=" + cursor));
+
+        Assertions.assertEquals(200, response.getStatusCode());
+        Assertions.assertTrue(response.getBody().contains("cherry"));
+        Assertions.assertFalse(response.getBody().contains("apple"));
+        Assertions.assertEquals("", response.getHeaders().get(ApiResponse.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    public void invalidPagingParamsAreABadRequest(){
+
+        final HttpApiResponse response = api.get(
+                new HttpApiRequest("/things").setFilterableQueryParams("limit=lots"));
+
+        Assertions.assertEquals(400, response.getStatusCode());
+        Assertions.assertTrue(response.getBody().contains("limit should be a positive integer"));
+    }
+}
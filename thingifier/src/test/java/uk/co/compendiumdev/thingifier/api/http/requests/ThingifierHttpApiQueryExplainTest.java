@@ -0,0 +1,84 @@
+package uk.co.compendiumdev.thingifier.api.http.requests;
+
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.co.compendiumdev.thingifier.Thingifier;
+import uk.co.compendiumdev.thingifier.api.http.HttpApiRequest;
+import uk.co.compendiumdev.thingifier.api.http.HttpApiResponse;
+import uk.co.compendiumdev.thingifier.api.http.ThingifierHttpApi;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.EntityDefinition;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.Field;
+import uk.co.compendiumdev.thingifier.core.domain.definitions.field.definition.FieldType;
+import uk.co.compendiumdev.thingifier.core.domain.instances.EntityInstanceCollection;
+
+import java.util.Map;
+
+public class ThingifierHttpApiQueryExplainTest {
+
+    Thingifier thingifier;
+    ThingifierHttpApi api;
+
+    @BeforeEach
+    public void createThingifier(){
+
+        thingifier = new Thingifier();
+        thingifier.apiConfig().setApiToEnforceAcceptHeaderForResponses(false);
+        EntityDefinition defn = thingifier.getERmodel().createEntityDefinition("thing", "things");
+        defn.addAsPrimaryKeyField(Field.is("id", FieldType.AUTO_INCREMENT));
+        defn.addField(Field.is("title", FieldType.STRING));
+
+        final EntityInstanceCollection things = thingifier.getERmodel().getInstanceData().getInstanceCollectionForEntityNamed("thing");
+        things.createManagedInstance().setValue("title", "first");
+        things.createManagedInstance().setValue("title", "second");
+
+        api = new ThingifierHttpApi(thingifier, null, null);
+    }
+
+    @Test
+    public void canExplainAQueryUsingThePrimaryKey(){
+
+        final HttpApiResponse response = api.query(
+                new HttpApiRequest("/admin/query/things/2").setFilterableQueryParams("explain"),
+                "things/2");
+
+        Assertions.assertEquals(200, response.getStatusCode());
+
+        final Map explanation = new Gson().fromJson(response.getBody(), Map.class);
+
+        Assertions.assertEquals("things/{id}", explanation.get("template"));
+        Assertions.assertEquals("PRIMARY_KEY_LOOKUP", explanation.get("accessUsed"));
+        Assertions.assertEquals(1.0, explanation.get("resultCount"));
+        Assertions.assertEquals(false, explanation.get("cached"));
+        Assertions.assertTrue(((Map)explanation.get("timingsInMicros")).containsKey("plan"));
+    }
+
+    @Test
+    public void explainReportsWhenThePlanWasCached(){
+
+        api.query(new HttpApiRequest("/admin/query/things").setFilterableQueryParams("explain&id=1"), "things");
+
+        final HttpApiResponse response = api.query(
+                new HttpApiRequest("/admin/query/things").setFilterableQueryParams("explain&id=2"),
+                "things");
+
+        final Map explanation = new Gson().fromJson(response.getBody(), Map.class);
+
+        Assertions.assertEquals(true, explanation.get("cached"));
+        Assertions.assertEquals("INDEX_PROBE", explanation.get("accessUsed"));
+        Assertions.assertEquals(1.0, explanation.get("resultCount"));
+    }
+
+    @Test
+    public void queryWithoutExplainReturnsTheResults(){
+
+        final HttpApiResponse response = api.query(
+                new HttpApiRequest("/admin/query/things").setFilterableQueryParams("title=second"),
+                "things");
+
+        Assertions.assertEquals(200, response.getStatusCode());
+        Assertions.assertTrue(response.getBody().contains("second"));
+        Assertions.assertFalse(response.getBody().contains("template"));
+    }
+}